@@ -48,7 +48,8 @@ CREATE TABLE IF NOT EXISTS `med_plan` (
     `updated_at` DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
     `deleted_at` DATETIME DEFAULT NULL COMMENT '软删除时间',
     PRIMARY KEY (`id`),
-    KEY `idx_user_id` (`user_id`),
+    KEY `idx_user_deleted_dates` (`user_id`, `deleted_at`, `start_date`, `end_date`),
+    KEY `idx_user_updated` (`user_id`, `updated_at`),
     KEY `idx_dates` (`start_date`, `end_date`),
     KEY `idx_deleted_at` (`deleted_at`),
     CONSTRAINT `fk_med_plan_user` FOREIGN KEY (`user_id`) REFERENCES `user` (`id`) ON DELETE CASCADE
@@ -80,6 +81,7 @@ CREATE TABLE IF NOT EXISTS `plan_repeat_days` (
 -- 5. 用药记录表（点位记录，同一个plan+date+time只能有一条记录）
 CREATE TABLE IF NOT EXISTS `med_record` (
     `id` BIGINT UNSIGNED NOT NULL AUTO_INCREMENT COMMENT '记录ID',
+    `user_id` BIGINT UNSIGNED DEFAULT NULL COMMENT '用户ID（冗余自med_plan，按用户查询无需关联计划表）',
     `plan_id` BIGINT UNSIGNED NOT NULL COMMENT '计划ID',
     `date` DATE NOT NULL COMMENT '日期',
     `time` TIME NOT NULL COMMENT '时间点（HH:mm格式）',
@@ -92,7 +94,9 @@ CREATE TABLE IF NOT EXISTS `med_record` (
     UNIQUE KEY `uk_plan_date_time` (`plan_id`, `date`, `time`),
     KEY `idx_date` (`date`),
     KEY `idx_status` (`status`),
-    KEY `idx_plan_id` (`plan_id`),
+    KEY `idx_plan_status_date` (`plan_id`, `status`, `date`),
+    KEY `idx_user_date_time_id` (`user_id`, `date` DESC, `time`, `id`),
+    KEY `idx_user_status_date_time_id` (`user_id`, `status`, `date` DESC, `time`, `id`),
     CONSTRAINT `fk_med_record_plan` FOREIGN KEY (`plan_id`) REFERENCES `med_plan` (`id`) ON DELETE CASCADE
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='用药记录表（点位记录）';
 
@@ -149,27 +153,40 @@ CREATE TABLE IF NOT EXISTS `health_diary` (
     CONSTRAINT `fk_health_diary_user` FOREIGN KEY (`user_id`) REFERENCES `user` (`id`) ON DELETE CASCADE
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='健康日记表';
 
--- 9. AI对话会话表
+-- 9. AI对话会话表（对应 DIFY 会话，本地保存对话记录）
 CREATE TABLE IF NOT EXISTS `ai_session` (
     `id` BIGINT UNSIGNED NOT NULL AUTO_INCREMENT COMMENT '会话ID',
     `user_id` BIGINT UNSIGNED NOT NULL COMMENT '用户ID',
+    `conversation_id` VARCHAR(64) DEFAULT NULL COMMENT 'DIFY会话ID',
+    `title` VARCHAR(100) DEFAULT NULL COMMENT '会话标题',
+    `full_history` TINYINT(1) NOT NULL DEFAULT 0 COMMENT '本地是否保存了完整对话记录：1-是（可直接从本地读取历史），0-否（需从DIFY读取）',
+    `pending_turns` INT NOT NULL DEFAULT 0 COMMENT '已提交但尚未写入本地的对话轮数（大于0时历史消息从DIFY读取）',
+    `pending_since` DATETIME DEFAULT NULL COMMENT '未落库轮数最后一次登记或扣减的时间（归零时为空，长时间未变化视为已丢失）',
     `created_at` DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
     `updated_at` DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+    `deleted_at` DATETIME DEFAULT NULL COMMENT '软删除时间',
     PRIMARY KEY (`id`),
-    KEY `idx_user_id` (`user_id`),
+    UNIQUE KEY `uk_user_conversation` (`user_id`, `conversation_id`),
+    KEY `idx_pending_since` (`pending_since`),
     CONSTRAINT `fk_ai_session_user` FOREIGN KEY (`user_id`) REFERENCES `user` (`id`) ON DELETE CASCADE
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='AI对话会话表';
 
--- 10. AI对话消息表
+-- 10. AI对话消息表（每轮对话一条user消息和一条assistant消息，通过dify_message_id关联）
 CREATE TABLE IF NOT EXISTS `ai_message` (
     `id` BIGINT UNSIGNED NOT NULL AUTO_INCREMENT COMMENT '消息ID',
     `session_id` BIGINT UNSIGNED NOT NULL COMMENT '会话ID',
+    `dify_message_id` VARCHAR(64) DEFAULT NULL COMMENT 'DIFY消息ID（同一轮的提问和回答相同）',
     `role` ENUM('user', 'assistant') NOT NULL COMMENT '角色：user-用户，assistant-助手',
-    `content` TEXT NOT NULL COMMENT '消息内容',
+    `content` MEDIUMTEXT NOT NULL COMMENT '消息内容',
     `input_type` ENUM('text', 'voice') NOT NULL DEFAULT 'text' COMMENT '输入类型：text-文本，voice-语音',
+    `safety_hint` VARCHAR(500) DEFAULT NULL COMMENT '安全提示（AI回复时可能包含）',
+    `inputs` JSON DEFAULT NULL COMMENT '提问时传入的变量（JSON对象，仅user消息）',
+    `message_files` JSON DEFAULT NULL COMMENT '回答关联的文件（JSON数组，仅assistant消息）',
+    `retriever_resources` JSON DEFAULT NULL COMMENT '回答引用的知识库片段（JSON数组，仅assistant消息）',
     `created_at` DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
     PRIMARY KEY (`id`),
-    KEY `idx_session_id` (`session_id`),
+    UNIQUE KEY `uk_session_message_role` (`session_id`, `dify_message_id`, `role`),
+    KEY `idx_session_role_id` (`session_id`, `role`, `id`),
     KEY `idx_created_at` (`created_at`),
     CONSTRAINT `fk_ai_message_session` FOREIGN KEY (`session_id`) REFERENCES `ai_session` (`id`) ON DELETE CASCADE
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='AI对话消息表';
@@ -223,6 +240,41 @@ CREATE TABLE IF NOT EXISTS `family_binding` (
     CONSTRAINT `fk_family_binding_family` FOREIGN KEY (`family_id`) REFERENCES `user` (`id`) ON DELETE CASCADE
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='家属绑定表';
 
+-- 14. 点位预生成进度表（夜间批量生成次日点位的断点）
+CREATE TABLE IF NOT EXISTS `med_materialize_checkpoint` (
+    `target_date` DATE NOT NULL COMMENT '生成的点位日期',
+    `last_user_id` BIGINT UNSIGNED NOT NULL DEFAULT 0 COMMENT '已处理完成的最大用户ID（断点续跑位置）',
+    `rows_generated` INT UNSIGNED NOT NULL DEFAULT 0 COMMENT '已生成的点位行数',
+    `status` ENUM('running', 'done') NOT NULL DEFAULT 'running' COMMENT '状态：running-进行中，done-已完成',
+    `started_at` DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '首次开始时间',
+    `finished_at` DATETIME DEFAULT NULL COMMENT '完成时间',
+    `updated_at` DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+    PRIMARY KEY (`target_date`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='点位预生成进度表';
+
+-- 15. 服药依从性日汇总表（按计划、日期汇总点位状态，点位生成或状态变更时按分组重新汇总）
+CREATE TABLE IF NOT EXISTS `med_adherence_daily` (
+    `user_id` BIGINT UNSIGNED NOT NULL COMMENT '用户ID',
+    `plan_id` BIGINT UNSIGNED NOT NULL COMMENT '计划ID',
+    `date` DATE NOT NULL COMMENT '日期',
+    `taken_count` INT UNSIGNED NOT NULL DEFAULT 0 COMMENT '已服用点位数',
+    `missed_count` INT UNSIGNED NOT NULL DEFAULT 0 COMMENT '未服点位数',
+    `todo_count` INT UNSIGNED NOT NULL DEFAULT 0 COMMENT '待打卡点位数',
+    `updated_at` DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+    PRIMARY KEY (`plan_id`, `date`),
+    KEY `idx_user_date` (`user_id`, `date`),
+    CONSTRAINT `fk_med_adherence_plan` FOREIGN KEY (`plan_id`) REFERENCES `med_plan` (`id`) ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='服药依从性日汇总表';
+
+-- 16. 任务租约表（多节点部署时保证定时任务同一时间只在一个节点执行）
+CREATE TABLE IF NOT EXISTS `job_lease` (
+    `job_name` VARCHAR(100) NOT NULL COMMENT '任务名称',
+    `owner` VARCHAR(150) NOT NULL COMMENT '当前持有者（节点标识）',
+    `lease_until` DATETIME NOT NULL COMMENT '租约到期时间',
+    `updated_at` DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+    PRIMARY KEY (`job_name`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='任务租约表';
+
 -- ============================================
 -- 索引优化说明
 -- ============================================
@@ -231,4 +283,12 @@ CREATE TABLE IF NOT EXISTS `family_binding` (
 -- 3. 使用软删除（deleted_at）的表支持数据恢复
 -- 4. JSON字段用于存储灵活的数组和对象数据
 -- 5. 全文索引（FULLTEXT）用于药品和文章的搜索功能
+-- 6. med_plan的idx_user_deleted_dates覆盖"按用户查未删除计划"及夜间任务按用户分批扫描；idx_user_updated用于判断计划是否有变动
+-- 7. med_record冗余user_id，按用户查当天/列表时走idx_user_date_time_id（按日期）或idx_user_status_date_time_id（按状态）单表范围扫描，
+--    两个索引的列顺序和方向与记录列表的排序（date DESC, time ASC, id ASC）一致（降序索引需要MySQL 8.0），
+--    列表和游标分页按索引顺序读取、不需要filesort，游标页从游标日期定位后只读取一页；
+--    计划名称、剂量由应用内计划缓存填充；按计划重建点位走uk_plan_date_time或idx_plan_status_date
+--    原idx_plan_id是uk_plan_date_time的前缀，已移除；已有数据库执行 upgrade.sql 升级
+-- 8. ai_message按会话分页读取历史走idx_session_role_id（按ID倒序的键集分页），
+--    uk_session_message_role保证同一轮对话重复写入时只保留一份；原idx_session_id是其前缀，已移除
 -- ============================================
\ No newline at end of file
@@ -30,11 +30,13 @@ public class JwtUtil {
      * 生成JWT Token
      *
      * @param userId 用户ID
+     * @param username 用户名（写入claim，AI接口据此识别DIFY用户，无需查库）
      * @return Token字符串
      */
-    public String generateToken(Long userId) {
+    public String generateToken(Long userId, String username) {
         Map<String, Object> claims = new HashMap<>();
         claims.put("userId", userId);
+        claims.put("username", username);
         return createToken(claims);
     }
 
@@ -55,6 +57,17 @@ public class JwtUtil {
                 .compact();
     }
 
+    /**
+     * 解析并验证Token（只做一次签名校验）
+     *
+     * @param token JWT Token
+     * @return Claims，Token无效或已过期时返回null
+     */
+    public Claims parseToken(String token) {
+        Claims claims = getClaimsFromToken(token);
+        return claims != null && !isTokenExpired(claims) ? claims : null;
+    }
+
     /**
      * 从Token中获取用户ID
      *
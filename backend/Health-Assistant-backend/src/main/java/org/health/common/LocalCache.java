@@ -0,0 +1,265 @@
+package org.health.common;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * 进程内本地缓存
+ * 容量上限按访问顺序（LRU）淘汰，写入超过TTL后过期；统计命中、未命中、淘汰次数
+ * 注意：各节点缓存相互独立，多节点部署时依赖TTL兜底一致性
+ *
+ * @param <K> 键类型
+ * @param <V> 值类型
+ */
+public class LocalCache<K, V> {
+
+    private final int maxSize;
+    private final long ttlMillis;
+    private final LinkedHashMap<K, CacheEntry<V>> store;
+
+    // 每次失效递增（受 store 锁保护）；加载期间该键被失效过时，结果不再写入缓存，避免把旧数据写回
+    private long generation;
+    // 正在加载的键 -> 进行中的加载数
+    private final Map<K, Integer> loading = new HashMap<>();
+    // 正在加载的键 -> 最近一次失效时的代数（只记录正在加载的键，加载全部结束后移除）
+    private final Map<K, Long> invalidatedAt = new HashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * 缓存条目
+     */
+    private static class CacheEntry<V> {
+        final V value;
+        final long expireTime;
+
+        CacheEntry(V value, long expireTime) {
+            this.value = value;
+            this.expireTime = expireTime;
+        }
+
+        boolean isExpired(long now) {
+            return now > expireTime;
+        }
+    }
+
+    /**
+     * @param maxSize 最大条目数
+     * @param ttlMillis 写入后过期时间（毫秒）
+     */
+    public LocalCache(int maxSize, long ttlMillis) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.store = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> eldest) {
+                if (size() > LocalCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * 读取缓存
+     *
+     * @param key 键
+     * @return 值，不存在或已过期时返回null
+     */
+    public V getIfPresent(K key) {
+        long now = System.currentTimeMillis();
+        synchronized (store) {
+            CacheEntry<V> entry = store.get(key);
+            if (entry != null && entry.isExpired(now)) {
+                store.remove(key);
+                evictions.increment();
+                entry = null;
+            }
+            if (entry == null) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return entry.value;
+        }
+    }
+
+    /**
+     * 是否存在未过期的条目（不计入命中/未命中，用于判断是否需要预取等内部检查）
+     *
+     * @param key 键
+     * @return 存在且未过期时返回true
+     */
+    public boolean containsKey(K key) {
+        long now = System.currentTimeMillis();
+        synchronized (store) {
+            CacheEntry<V> entry = store.get(key);
+            if (entry != null && entry.isExpired(now)) {
+                store.remove(key);
+                evictions.increment();
+                return false;
+            }
+            return entry != null;
+        }
+    }
+
+    /**
+     * 读取缓存，未命中时通过loader加载并写入
+     *
+     * @param key 键
+     * @param loader 加载函数（返回null时不缓存）
+     * @return 值
+     */
+    public V get(K key, Function<K, V> loader) {
+        V value = getIfPresent(key);
+        if (value != null) {
+            return value;
+        }
+        return load(key, loader);
+    }
+
+    /**
+     * 重新加载并写入（用于后台刷新），加载期间该键被失效过时不写入
+     *
+     * @param key 键
+     * @param loader 加载函数（返回null时不缓存）
+     * @return 加载的值
+     */
+    public V reload(K key, Function<K, V> loader) {
+        return load(key, loader);
+    }
+
+    private V load(K key, Function<K, V> loader) {
+        long loadGeneration;
+        synchronized (store) {
+            loadGeneration = generation;
+            loading.merge(key, 1, Integer::sum);
+        }
+        V loaded = null;
+        try {
+            loaded = loader.apply(key);
+        } finally {
+            synchronized (store) {
+                Long invalidated = invalidatedAt.get(key);
+                if (loaded != null && (invalidated == null || invalidated <= loadGeneration)) {
+                    store.put(key, new CacheEntry<>(loaded, System.currentTimeMillis() + ttlMillis));
+                }
+                if (loading.merge(key, -1, Integer::sum) == 0) {
+                    loading.remove(key);
+                    invalidatedAt.remove(key);
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * 写入缓存
+     */
+    public void put(K key, V value) {
+        synchronized (store) {
+            store.put(key, new CacheEntry<>(value, System.currentTimeMillis() + ttlMillis));
+        }
+    }
+
+    /**
+     * 使指定键失效
+     */
+    public void invalidate(K key) {
+        synchronized (store) {
+            generation++;
+            store.remove(key);
+            if (loading.containsKey(key)) {
+                invalidatedAt.put(key, generation);
+            }
+        }
+    }
+
+    /**
+     * 使满足条件的键失效
+     */
+    public void invalidateIf(Predicate<K> predicate) {
+        synchronized (store) {
+            generation++;
+            Iterator<K> iterator = store.keySet().iterator();
+            while (iterator.hasNext()) {
+                if (predicate.test(iterator.next())) {
+                    iterator.remove();
+                }
+            }
+            for (K key : loading.keySet()) {
+                if (predicate.test(key)) {
+                    invalidatedAt.put(key, generation);
+                }
+            }
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void invalidateAll() {
+        synchronized (store) {
+            generation++;
+            store.clear();
+            for (K key : loading.keySet()) {
+                invalidatedAt.put(key, generation);
+            }
+        }
+    }
+
+    /**
+     * 当前条目数
+     */
+    public int size() {
+        synchronized (store) {
+            return store.size();
+        }
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * 注册命中/未命中/淘汰次数和条目数指标
+     *
+     * @param registry 指标注册表
+     * @param name 指标名前缀，如 med.plan.cache
+     */
+    public void bindTo(MeterRegistry registry, String name) {
+        FunctionCounter.builder(name + ".hits", this, LocalCache::hitCount)
+                .description("缓存命中次数")
+                .register(registry);
+        FunctionCounter.builder(name + ".misses", this, LocalCache::missCount)
+                .description("缓存未命中次数")
+                .register(registry);
+        FunctionCounter.builder(name + ".evictions", this, LocalCache::evictionCount)
+                .description("缓存淘汰次数（容量或过期）")
+                .register(registry);
+        Gauge.builder(name + ".size", this, LocalCache::size)
+                .description("缓存条目数")
+                .register(registry);
+    }
+}
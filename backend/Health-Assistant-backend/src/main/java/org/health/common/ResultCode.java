@@ -38,7 +38,12 @@ public enum ResultCode {
     /**
      * 服务器错误
      */
-    INTERNAL_SERVER_ERROR(500, "服务器错误");
+    INTERNAL_SERVER_ERROR(500, "服务器错误"),
+
+    /**
+     * 依赖服务暂不可用（如 DIFY 熔断中）
+     */
+    SERVICE_UNAVAILABLE(503, "服务暂不可用");
 
     private final Integer code;
     private final String msg;
@@ -6,6 +6,7 @@ package org.health.common;
  */
 public class UserContext {
     private static final ThreadLocal<Long> USER_ID = new ThreadLocal<>();
+    private static final ThreadLocal<String> USERNAME = new ThreadLocal<>();
 
     /**
      * 设置当前用户ID
@@ -25,11 +26,30 @@ public class UserContext {
         return USER_ID.get();
     }
 
+    /**
+     * 设置当前用户名（来自Token的claim，旧Token为null）
+     *
+     * @param username 用户名
+     */
+    public static void setUsername(String username) {
+        USERNAME.set(username);
+    }
+
+    /**
+     * 获取当前用户名
+     *
+     * @return 用户名，Token中没有时返回null
+     */
+    public static String getUsername() {
+        return USERNAME.get();
+    }
+
     /**
      * 清除当前用户信息
      */
     public static void clear() {
         USER_ID.remove();
+        USERNAME.remove();
     }
 }
 
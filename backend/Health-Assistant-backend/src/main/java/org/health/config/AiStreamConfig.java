@@ -0,0 +1,53 @@
+package org.health.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AI流式转发配置
+ * DIFY 流式回答可能持续数分钟，转发循环在虚拟线程上阻塞读取上游响应，
+ * 不占用 Tomcat 请求线程，避免大量并发对话耗尽线程池拖垮其他接口
+ */
+@Configuration
+public class AiStreamConfig implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(AiStreamConfig.class);
+
+    @Value("${dify.stream.shutdown-timeout-ms:10000}")
+    private long shutdownTimeoutMs;
+
+    private ExecutorService aiStreamExecutor;
+
+    /**
+     * AI流式转发执行器（每个对话一个虚拟线程）
+     */
+    @Bean(destroyMethod = "")
+    public ExecutorService aiStreamExecutor() {
+        aiStreamExecutor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("ai-stream-", 0).factory());
+        return aiStreamExecutor;
+    }
+
+    /**
+     * 应用关闭时停止接收新对话，最多等待 shutdown-timeout-ms 让进行中的转发结束，超时后中断剩余转发
+     * （ExecutorService.close() 会无限期等待所有任务结束）
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        if (aiStreamExecutor == null) {
+            return;
+        }
+        aiStreamExecutor.shutdown();
+        if (!aiStreamExecutor.awaitTermination(shutdownTimeoutMs, TimeUnit.MILLISECONDS)) {
+            logger.warn("AI流式转发未在{}ms内结束，中断剩余转发", shutdownTimeoutMs);
+            aiStreamExecutor.shutdownNow();
+        }
+    }
+}
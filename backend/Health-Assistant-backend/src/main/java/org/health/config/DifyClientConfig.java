@@ -0,0 +1,38 @@
+package org.health.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+
+/**
+ * DIFY HTTP客户端配置
+ * 所有 DIFY 调用共用一个 HttpClient：连接复用（keep-alive）、上游支持时协商 HTTP/2，
+ * 避免每次请求都重新建立 TCP 连接和 TLS 握手
+ */
+@Configuration
+public class DifyClientConfig {
+
+    @Value("${dify.http.connect-timeout-ms:5000}")
+    private long connectTimeoutMs;
+
+    @Value("${dify.http.http2-enabled:true}")
+    private boolean http2Enabled;
+
+    /**
+     * DIFY 共享HTTP客户端
+     * 空闲连接池大小和保活时间是 JVM 级别的 jdk.httpclient.* 系统属性，需要在启动参数中指定（见 README）；
+     * 同时进行的请求数由 DifyClientService 按 dify.http.max-connections 限制。
+     * 不跟随重定向：DIFY API 不应返回 3xx，跟随重定向会把携带 API Key 的请求发往其他地址
+     */
+    @Bean
+    public HttpClient difyHttpClient() {
+        return HttpClient.newBuilder()
+                .version(http2Enabled ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+    }
+}
@@ -0,0 +1,14 @@
+package org.health.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * 定时任务配置类
+ * 启用 @Scheduled 注解的定时任务（如夜间点位预生成）
+ * 调度线程数由 spring.task.scheduling.pool.size 配置（默认只有1个线程，耗时的任务会推迟其他任务）
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
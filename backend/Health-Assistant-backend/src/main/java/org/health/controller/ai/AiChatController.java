@@ -6,20 +6,28 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import org.health.common.ResultCode;
 import org.health.common.UserContext;
-import org.health.mapper.UserMapper;
-import org.health.entity.User;
+import org.health.exception.BusinessException;
+import org.health.service.ai.AiStream;
+import org.health.service.ai.AiStreamLimiter;
+import org.health.service.ai.AiStreamRegistry;
+import org.health.service.ai.AiStreamRejectedException;
+import org.health.service.ai.AiTranscriptService;
+import org.health.service.ai.ChatTurn;
 import org.health.service.ai.DifyClientService;
+import org.health.service.ai.DifyReadCache;
 import org.health.service.ai.EmitterAlreadyCompletedException;
+import org.health.service.auth.UserIdentityCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import jakarta.validation.Valid;
-import jakarta.validation.constraints.NotBlank;
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * AI聊天控制器 - 完全按照 DIFY API 规范
@@ -33,80 +41,193 @@ public class AiChatController {
     private DifyClientService difyClientService;
 
     @Autowired
-    private UserMapper userMapper;
+    private UserIdentityCache userIdentityCache;
+
+    @Autowired
+    private ExecutorService aiStreamExecutor;
+
+    @Autowired
+    private AiStreamLimiter aiStreamLimiter;
+
+    @Autowired
+    private AiTranscriptService aiTranscriptService;
+
+    @Autowired
+    private DifyReadCache difyReadCache;
+
+    @Autowired
+    private AiStreamRegistry aiStreamRegistry;
 
     /**
      * 发送消息（流式响应）
      * POST /api/v1/ai/chat-messages
      * 完全按照 DIFY API 规范：https://docs.dify.ai/api-reference/chat-messages
      */
-    @Operation(summary = "发送消息", description = "向 DIFY 应用发送用户消息，返回流式响应")
+    @Operation(summary = "发送消息", description = "向 DIFY 应用发送用户消息，返回流式响应；"
+            + "每个事件的 SSE id 为 \"streamId:序号\"，断线后带 Last-Event-ID 请求头重试时续传原对话，不重新发送消息")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "流式响应 (text/event-stream)"),
             @ApiResponse(responseCode = "400", description = "参数错误")
     })
     @PostMapping(value = "/chat-messages", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
     public SseEmitter chatMessages(
-            @Parameter(description = "聊天请求参数，完全符合 DIFY API 规范", required = true) @Valid @RequestBody ChatMessageRequest request) {
+            @Parameter(description = "聊天请求参数，完全符合 DIFY API 规范；带 Last-Event-ID 续传时可省略") @RequestBody(required = false) ChatMessageRequest request,
+            @Parameter(description = "断线重连时收到的最后一个事件ID", required = false) @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
 
         // 创建 SSE 发射器，设置超时时间为 5 分钟
         SseEmitter emitter = new SseEmitter(300000L);
 
+        // 断线重连：续传原对话，不再向 DIFY 发送消息
+        if (lastEventId != null && !lastEventId.isEmpty()) {
+            return resume(lastEventId, emitter);
+        }
+
+        // 请求体只在发起新对话时校验：续传时客户端重发的请求体可能为空或不完整
+        if (request == null || request.getQuery() == null || request.getQuery().trim().isEmpty()) {
+            throw new BusinessException(ResultCode.BAD_REQUEST, "query 不能为空");
+        }
+
+        // 确定使用的用户名：优先使用请求体中的username，否则从token中获取
+        // （UserContext 基于 ThreadLocal，必须在请求线程上解析）
+        Long userId = UserContext.getUserId();
+        String username;
+        boolean ownIdentity;
         try {
-            // 确定使用的用户名：优先使用请求体中的username，否则从token中获取
-            String username;
+            // 从token中获取用户信息（用户名优先取自Token，旧Token从缓存查询）
+            String currentUsername = userIdentityCache.getCurrentUsername();
             if (request.getUsername() != null && !request.getUsername().isEmpty()) {
                 username = request.getUsername();
             } else {
-                // 从token中获取用户信息
-                Long userId = UserContext.getUserId();
-                User user = userMapper.selectById(userId);
-                if (user == null || user.getUsername() == null) {
+                username = currentUsername;
+                if (username == null) {
                     throw new RuntimeException("用户不存在或用户名无效");
                 }
-                username = user.getUsername();
             }
+            // 本地对话记录按 Token 中的用户ID保存，回退到 DIFY 读取历史时使用 Token 中的用户名；
+            // 请求体指定了其他用户名时该会话在 DIFY 中属于那个用户名，不保存到本地，两条路径看到的会话保持一致
+            ownIdentity = username.equals(currentUsername);
+        } catch (Exception e) {
+            sendError(emitter, e);
+            return emitter;
+        }
+
+        // 转发在虚拟线程上执行，请求线程立即返回 emitter
+        // 事件经由流式对话缓冲后发送，客户端断开时上游继续转发，重连后可续传
+        AiStream stream = aiStreamRegistry.open(userId, emitter);
+        try {
+            aiStreamExecutor.execute(() -> relay(request, userId, username, ownIdentity, stream));
+        } catch (RejectedExecutionException e) {
+            // 应用正在关闭
+            stream.fail(500, "internal_error", "服务正在关闭，请稍后重试");
+        }
+
+        return emitter;
+    }
+
+    /**
+     * 续传流式响应
+     * GET /api/v1/ai/chat-messages/resume
+     * 补发 Last-Event-ID 之后的事件，对话未结束时继续接收后续事件
+     */
+    @Operation(summary = "续传流式响应", description = "断线后补发缺失的事件并继续接收原对话的后续事件，不重新请求 DIFY；"
+            + "对话结束超过保留时间或缺失的事件过多时返回 410 错误事件，可通过会话历史消息接口获取完整回答")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "流式响应 (text/event-stream)")
+    })
+    @GetMapping(value = "/chat-messages/resume", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter resumeChatMessages(
+            @Parameter(description = "收到的最后一个事件ID（streamId:序号）", required = false) @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+            @Parameter(description = "同 Last-Event-ID 请求头，用于无法设置请求头的客户端", required = false) @RequestParam(required = false) String last_event_id) {
+
+        SseEmitter emitter = new SseEmitter(300000L);
+        return resume(lastEventId != null && !lastEventId.isEmpty() ? lastEventId : last_event_id, emitter);
+    }
 
+    /**
+     * 接入已有的流式对话，无法续传时返回 410 错误事件
+     */
+    private SseEmitter resume(String lastEventId, SseEmitter emitter) {
+        if (!aiStreamRegistry.resume(UserContext.getUserId(), lastEventId, emitter)) {
+            sendError(emitter, 410, "stream_expired",
+                    new RuntimeException("对话已结束或无法续传，请刷新历史消息"));
+        }
+        return emitter;
+    }
+
+    /**
+     * 转发 DIFY 流式响应到客户端
+     * 先获取并发许可（本节点繁忙时短暂排队），被拒绝时返回 429 错误事件
+     *
+     * @param ownIdentity DIFY 用户标识是否为当前登录用户的用户名（是才保存本地对话记录）
+     */
+    private void relay(ChatMessageRequest request, Long userId, String username, boolean ownIdentity,
+                       AiStream stream) {
+        try {
+            aiStreamLimiter.acquire(userId);
+        } catch (AiStreamRejectedException e) {
+            stream.fail(429, e.getCode(), e.getMessage());
+            return;
+        }
+
+        try {
             // 调用 DIFY API 发送流式消息
             // user 参数使用 username，其他参数直接透传
-            difyClientService.streamChat(
+            ChatTurn turn = difyClientService.streamChat(
                     request.getQuery(),
                     request.getConversationId(),
                     username,
                     request.getInputs(),
                     request.getAutoGenerateName(),
-                    emitter);
+                    stream);
 
-            // 正常完成流式响应
-            try {
-                emitter.complete();
-            } catch (IllegalStateException e) {
-                // emitter 可能已经被完成，忽略
+            // 提问和完整回答异步写入本地对话记录，会话有新消息后失效读缓存
+            if (ownIdentity) {
+                aiTranscriptService.submit(userId, turn);
+            }
+            if (turn.isCompleted() && turn.getConversationId() != null) {
+                difyReadCache.invalidateConversation(username, turn.getConversationId());
             }
 
+            // 正常完成流式响应
+            stream.complete();
+
         } catch (EmitterAlreadyCompletedException e) {
-            // emitter 已经在服务层完成，不需要再次处理
+            // 流式对话已经在服务层结束，不需要再次处理
         } catch (Exception e) {
-            // 只有在 emitter 未被完成时才处理
+            // 只有在流式对话未结束时才处理
+            stream.fail(500, "internal_error", e.getMessage() != null ? e.getMessage() : "系统错误");
+        } finally {
+            aiStreamLimiter.release(userId);
+        }
+    }
+
+    /**
+     * 发送错误事件并完成 emitter
+     */
+    private void sendError(SseEmitter emitter, Exception e) {
+        sendError(emitter, 500, "internal_error", e);
+    }
+
+    /**
+     * 发送指定状态码的错误事件并完成 emitter
+     */
+    private void sendError(SseEmitter emitter, int status, String code, Exception e) {
+        try {
+            com.fasterxml.jackson.databind.ObjectMapper objectMapper = new com.fasterxml.jackson.databind.ObjectMapper();
+            Map<String, Object> errorData = Map.of(
+                    "event", "error",
+                    "status", status,
+                    "code", code,
+                    "message", e.getMessage() != null ? e.getMessage() : "系统错误");
+            emitter.send(SseEmitter.event().data(objectMapper.writeValueAsString(errorData)));
+            emitter.completeWithError(e);
+        } catch (IOException | IllegalStateException ex) {
             try {
-                com.fasterxml.jackson.databind.ObjectMapper objectMapper = new com.fasterxml.jackson.databind.ObjectMapper();
-                Map<String, Object> errorData = Map.of(
-                        "event", "error",
-                        "status", 500,
-                        "code", "internal_error",
-                        "message", e.getMessage() != null ? e.getMessage() : "系统错误");
-                emitter.send(SseEmitter.event().data(objectMapper.writeValueAsString(errorData)));
                 emitter.completeWithError(e);
-            } catch (IOException | IllegalStateException ex) {
-                try {
-                    emitter.completeWithError(e);
-                } catch (Exception ignored) {
-                    // 忽略所有错误
-                }
+            } catch (Exception ignored) {
+                // 忽略所有错误
             }
         }
-
-        return emitter;
     }
 
     /**
@@ -114,8 +235,8 @@ public class AiChatController {
      */
     @Schema(description = "聊天请求参数，完全符合 DIFY API 规范")
     public static class ChatMessageRequest {
+        // 发起新对话时必填，由 chatMessages 校验（续传不需要请求体）
         @Schema(description = "用户输入/提问内容", example = "你好", required = true)
-        @NotBlank(message = "query 不能为空")
         private String query;
 
         @Schema(description = "响应模式：streaming 或 blocking", example = "streaming", allowableValues = { "streaming",
@@ -0,0 +1,46 @@
+package org.health.controller.med;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.health.common.Result;
+import org.health.service.med.MedAdherenceService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * 服药依从性控制器
+ */
+@Tag(name = "服药依从性", description = "服药依从性统计接口")
+@RestController
+@RequestMapping("/med/adherence")
+public class MedAdherenceController {
+
+    @Autowired
+    private MedAdherenceService medAdherenceService;
+
+    /**
+     * 获取依从性曲线
+     * GET /api/v1/med/adherence
+     */
+    @Operation(summary = "获取依从性曲线", description = "返回截止今天最近7/30/90天每天的已服用、未服、待打卡点位数及依从率（已服用/全部点位）")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "查询成功",
+                    content = @Content(schema = @Schema(implementation = MedAdherenceService.AdherenceVO.class))),
+            @ApiResponse(responseCode = "400", description = "参数错误"),
+            @ApiResponse(responseCode = "404", description = "计划不存在")
+    })
+    @GetMapping
+    public Result<MedAdherenceService.AdherenceVO> getAdherence(
+            @Parameter(description = "统计天数：7|30|90", example = "7")
+            @RequestParam(required = false) Integer days,
+            @Parameter(description = "计划ID（可选，不传时统计全部计划）")
+            @RequestParam(required = false) Long planId) {
+        MedAdherenceService.AdherenceVO result = medAdherenceService.getAdherence(days, planId);
+        return Result.success(result);
+    }
+}
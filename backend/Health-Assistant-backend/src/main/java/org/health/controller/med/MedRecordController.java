@@ -16,8 +16,10 @@ import org.springframework.web.bind.annotation.*;
 
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.List;
 
 /**
  * 用药记录控制器
@@ -34,7 +36,9 @@ public class MedRecordController {
      * 查询记录
      * GET /api/v1/med/records
      */
-    @Operation(summary = "查询记录", description = "支持按ID、计划、状态、日期区间过滤。如果提供了id参数，优先使用id查询")
+    @Operation(summary = "查询记录", description = "支持按ID、计划、状态、日期区间过滤。如果提供了id参数，优先使用id查询。" +
+            "传入cursor参数（首页传空字符串）时使用游标分页：按返回的nextCursor翻页，hasMore表示是否还有下一页，" +
+            "total仅在withTotal=true时返回；不传cursor时保持页码分页")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "查询成功",
                     content = @Content(schema = @Schema(implementation = MedRecordService.RecordListVO.class)))
@@ -54,7 +58,16 @@ public class MedRecordController {
             @Parameter(description = "页码", example = "1")
             @RequestParam(required = false) Integer page,
             @Parameter(description = "每页大小", example = "20")
-            @RequestParam(required = false) Integer size) {
+            @RequestParam(required = false) Integer size,
+            @Parameter(description = "游标（上一页返回的nextCursor，首页传空字符串）")
+            @RequestParam(required = false) String cursor,
+            @Parameter(description = "游标分页时是否统计总数", example = "false")
+            @RequestParam(required = false) Boolean withTotal) {
+        if (cursor != null) {
+            MedRecordService.RecordListVO result = medRecordService.getRecordListByCursor(id, planId, status, startDate, endDate,
+                    cursor, size, withTotal);
+            return Result.success(result);
+        }
         MedRecordService.RecordListVO result = medRecordService.getRecordList(id, planId, status, startDate, endDate, page, size);
         return Result.success(result);
     }
@@ -86,6 +99,25 @@ public class MedRecordController {
         }
     }
 
+    /**
+     * 批量标记
+     * POST /api/v1/med/records/mark-batch
+     */
+    @Operation(summary = "批量标记", description = "一次标记多条记录（最多50条），一次查询校验归属、一条语句更新；" +
+            "返回每条记录的处理结果（code=200成功，400状态非法，404记录不存在）；recordId 为空时整个请求返回400")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "处理完成",
+                    content = @Content(schema = @Schema(implementation = MedRecordService.MarkBatchResultVO.class))),
+            @ApiResponse(responseCode = "400", description = "参数错误")
+    })
+    @PostMapping("/mark-batch")
+    public Result<MedRecordService.MarkBatchResultVO> markRecords(
+            @Parameter(description = "批量标记请求参数", required = true)
+            @Valid @RequestBody MarkBatchRequest request) {
+        MedRecordService.MarkBatchResultVO result = medRecordService.markRecords(request.getItems());
+        return Result.success(result);
+    }
+
     /**
      * 补记/更正
      * POST /api/v1/med/records/:recordId/adjust
@@ -130,6 +162,20 @@ public class MedRecordController {
         public void setStatus(String status) { this.status = status; }
     }
 
+    /**
+     * 批量标记请求
+     */
+    @Schema(description = "批量标记请求参数")
+    public static class MarkBatchRequest {
+        @Schema(description = "标记项列表（recordId + status，status 取值 todo|taken|missed）", required = true)
+        @NotEmpty(message = "标记列表不能为空")
+        @Valid
+        private List<MedRecordService.MarkItem> items;
+
+        public List<MedRecordService.MarkItem> getItems() { return items; }
+        public void setItems(List<MedRecordService.MarkItem> items) { this.items = items; }
+    }
+
     /**
      * 补记请求
      */
@@ -0,0 +1,30 @@
+package org.health.entity;
+
+import lombok.Data;
+import java.time.LocalDateTime;
+
+/**
+ * 任务租约实体类（多节点部署时保证定时任务同一时间只在一个节点执行）
+ */
+@Data
+public class JobLease {
+    /**
+     * 任务名称
+     */
+    private String jobName;
+
+    /**
+     * 当前持有者（节点标识）
+     */
+    private String owner;
+
+    /**
+     * 租约到期时间
+     */
+    private LocalDateTime leaseUntil;
+
+    /**
+     * 更新时间
+     */
+    private LocalDateTime updatedAt;
+}
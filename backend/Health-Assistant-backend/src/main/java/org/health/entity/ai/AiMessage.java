@@ -18,6 +18,11 @@ public class AiMessage {
      */
     private Long sessionId;
 
+    /**
+     * DIFY消息ID（同一轮的提问和回答相同）
+     */
+    private String difyMessageId;
+
     /**
      * 角色：user-用户，assistant-AI助手
      */
@@ -38,6 +43,21 @@ public class AiMessage {
      */
     private String safetyHint;
 
+    /**
+     * 提问时传入的变量（JSON对象，仅user消息）
+     */
+    private String inputs;
+
+    /**
+     * 回答关联的文件（JSON数组，仅assistant消息）
+     */
+    private String messageFiles;
+
+    /**
+     * 回答引用的知识库片段（JSON数组，仅assistant消息）
+     */
+    private String retrieverResources;
+
     /**
      * 创建时间
      */
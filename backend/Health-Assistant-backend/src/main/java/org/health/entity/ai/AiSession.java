@@ -18,11 +18,31 @@ public class AiSession {
      */
     private Long userId;
 
+    /**
+     * DIFY会话ID
+     */
+    private String conversationId;
+
     /**
      * 会话标题
      */
     private String title;
 
+    /**
+     * 本地是否保存了完整对话记录（是则历史消息直接从本地读取）
+     */
+    private Boolean fullHistory;
+
+    /**
+     * 已提交但尚未写入本地的对话轮数（大于0时历史消息从DIFY读取）
+     */
+    private Integer pendingTurns;
+
+    /**
+     * 未落库轮数最后一次登记或扣减的时间（归零时为空）
+     */
+    private LocalDateTime pendingSince;
+
     /**
      * 创建时间
      */
@@ -0,0 +1,46 @@
+package org.health.entity.med;
+
+import lombok.Data;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * 服药依从性日汇总实体类（按计划、日期汇总点位状态）
+ */
+@Data
+public class MedAdherenceDaily {
+    /**
+     * 用户ID
+     */
+    private Long userId;
+
+    /**
+     * 计划ID
+     */
+    private Long planId;
+
+    /**
+     * 日期
+     */
+    private LocalDate date;
+
+    /**
+     * 已服用点位数
+     */
+    private Integer takenCount;
+
+    /**
+     * 未服点位数
+     */
+    private Integer missedCount;
+
+    /**
+     * 待打卡点位数
+     */
+    private Integer todoCount;
+
+    /**
+     * 更新时间
+     */
+    private LocalDateTime updatedAt;
+}
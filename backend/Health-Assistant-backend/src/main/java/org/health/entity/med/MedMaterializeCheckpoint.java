@@ -0,0 +1,46 @@
+package org.health.entity.med;
+
+import lombok.Data;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * 点位预生成进度实体类
+ */
+@Data
+public class MedMaterializeCheckpoint {
+    /**
+     * 生成的点位日期
+     */
+    private LocalDate targetDate;
+
+    /**
+     * 已处理完成的最大用户ID（断点续跑位置）
+     */
+    private Long lastUserId;
+
+    /**
+     * 已生成的点位行数
+     */
+    private Integer rowsGenerated;
+
+    /**
+     * 状态：running-进行中，done-已完成
+     */
+    private String status;
+
+    /**
+     * 首次开始时间
+     */
+    private LocalDateTime startedAt;
+
+    /**
+     * 完成时间
+     */
+    private LocalDateTime finishedAt;
+
+    /**
+     * 更新时间
+     */
+    private LocalDateTime updatedAt;
+}
@@ -3,6 +3,7 @@ package org.health.entity.med;
 import lombok.Data;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.List;
 
 /**
  * 用药计划实体类
@@ -63,5 +64,15 @@ public class MedPlan {
      * 软删除时间
      */
     private LocalDateTime deletedAt;
+
+    /**
+     * 时间点列表（关联查询时填充）
+     */
+    private List<PlanTimes> times;
+
+    /**
+     * 重复天数列表（关联查询时填充，仅weekly类型）
+     */
+    private List<PlanRepeatDays> repeatDays;
 }
 
@@ -15,18 +15,23 @@ public class MedRecord {
      */
     private Long id;
 
+    /**
+     * 用户ID（冗余自med_plan，按用户查询时无需关联计划表）
+     */
+    private Long userId;
+
     /**
      * 计划ID
      */
     private Long planId;
 
     /**
-     * 计划名称（冗余字段，便于查询）
+     * 计划名称（非表字段，查询时由计划缓存填充）
      */
     private String planName;
 
     /**
-     * 剂量（冗余字段，便于查询）
+     * 剂量（非表字段，查询时由计划缓存填充）
      */
     private String dosage;
 
@@ -1,5 +1,6 @@
 package org.health.interceptor;
 
+import io.jsonwebtoken.Claims;
 import org.health.common.JwtUtil;
 import org.health.common.ResultCode;
 import org.health.common.UserContext;
@@ -13,7 +14,7 @@ import java.io.IOException;
 
 /**
  * JWT认证拦截器
- * 验证Bearer Token，并将用户ID存入UserContext
+ * 验证Bearer Token，并将用户ID、用户名存入UserContext
  */
 @Component
 public class AuthInterceptor implements HandlerInterceptor {
@@ -35,21 +36,17 @@ public class AuthInterceptor implements HandlerInterceptor {
             return false;
         }
 
-        // 提取Token
+        // 提取并验证Token
         String token = authHeader.substring(7);
-        if (!jwtUtil.validateToken(token)) {
+        Claims claims = jwtUtil.parseToken(token);
+        if (claims == null || claims.get("userId") == null) {
             writeErrorResponse(response, ResultCode.UNAUTHORIZED);
             return false;
         }
 
-        // 获取用户ID并存入上下文
-        Long userId = jwtUtil.getUserIdFromToken(token);
-        if (userId == null) {
-            writeErrorResponse(response, ResultCode.UNAUTHORIZED);
-            return false;
-        }
-
-        UserContext.setUserId(userId);
+        // 获取用户ID、用户名并存入上下文（旧Token没有用户名claim，按需从缓存查询）
+        UserContext.setUserId(Long.valueOf(claims.get("userId").toString()));
+        UserContext.setUsername(claims.get("username", String.class));
         return true;
     }
 
@@ -0,0 +1,43 @@
+package org.health.mapper;
+
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.health.entity.JobLease;
+
+/**
+ * 任务租约Mapper接口
+ */
+@Mapper
+public interface JobLeaseMapper {
+
+    /**
+     * 根据任务名称查询租约
+     *
+     * @param jobName 任务名称
+     * @return 租约信息
+     */
+    JobLease selectByJobName(@Param("jobName") String jobName);
+
+    /**
+     * 尝试获取或续期租约
+     * 租约不存在、已过期或本来就由owner持有时，写入owner并把到期时间延长到 NOW() + leaseSeconds；
+     * 否则保持不变。调用后需查询确认持有者
+     *
+     * @param jobName 任务名称
+     * @param owner 节点标识
+     * @param leaseSeconds 租约时长（秒）
+     * @return 影响行数
+     */
+    int tryAcquire(@Param("jobName") String jobName,
+                   @Param("owner") String owner,
+                   @Param("leaseSeconds") Integer leaseSeconds);
+
+    /**
+     * 释放租约（仅持有者可释放）
+     *
+     * @param jobName 任务名称
+     * @param owner 节点标识
+     * @return 影响行数
+     */
+    int release(@Param("jobName") String jobName, @Param("owner") String owner);
+}
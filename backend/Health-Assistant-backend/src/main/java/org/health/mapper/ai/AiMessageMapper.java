@@ -4,6 +4,7 @@ import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import org.health.entity.ai.AiMessage;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -36,5 +37,43 @@ public interface AiMessageMapper {
      * @return 消息列表
      */
     List<AiMessage> selectRecentBySessionId(@Param("sessionId") Long sessionId, @Param("limit") Integer limit);
-}
 
+    /**
+     * 批量插入消息（同一会话、同一DIFY消息、同一角色已存在时忽略）
+     *
+     * @param messages 消息列表
+     * @return 影响行数
+     */
+    int batchInsertIgnore(@Param("list") List<AiMessage> messages);
+
+    /**
+     * 查询某轮提问消息的ID（用于历史分页游标）
+     *
+     * @param sessionId 会话ID
+     * @param difyMessageId DIFY消息ID
+     * @return 消息ID，不存在时返回null
+     */
+    Long selectQueryId(@Param("sessionId") Long sessionId, @Param("difyMessageId") String difyMessageId);
+
+    /**
+     * 按ID倒序查询会话中的提问消息（键集分页）
+     *
+     * @param sessionId 会话ID
+     * @param beforeId 只返回ID小于该值的消息（可选，不传时从最新开始）
+     * @param limit 限制数量
+     * @return 提问消息列表（按ID倒序）
+     */
+    List<AiMessage> selectQueriesBefore(@Param("sessionId") Long sessionId,
+                                        @Param("beforeId") Long beforeId,
+                                        @Param("limit") Integer limit);
+
+    /**
+     * 查询会话中指定DIFY消息的回答
+     *
+     * @param sessionId 会话ID
+     * @param difyMessageIds DIFY消息ID列表
+     * @return 回答消息列表
+     */
+    List<AiMessage> selectAnswers(@Param("sessionId") Long sessionId,
+                                  @Param("difyMessageIds") Collection<String> difyMessageIds);
+}
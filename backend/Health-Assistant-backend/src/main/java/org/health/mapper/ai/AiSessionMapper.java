@@ -4,7 +4,9 @@ import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import org.health.entity.ai.AiSession;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * AI会话Mapper接口
@@ -51,5 +53,54 @@ public interface AiSessionMapper {
      * @return 影响行数
      */
     int deleteById(@Param("id") Long id);
-}
 
+    /**
+     * 根据DIFY会话ID查询用户的会话
+     *
+     * @param userId 用户ID
+     * @param conversationId DIFY会话ID
+     * @return 会话信息
+     */
+    AiSession selectByConversationId(@Param("userId") Long userId, @Param("conversationId") String conversationId);
+
+    /**
+     * 根据DIFY会话ID批量查询会话（包含已删除的，用于写入对话记录时获取会话ID）
+     *
+     * @param conversationIds DIFY会话ID列表
+     * @return 会话列表
+     */
+    List<AiSession> selectByConversationIds(@Param("conversationIds") Collection<String> conversationIds);
+
+    /**
+     * 登记一轮已提交、尚未写入本地的对话：会话不存在时插入，已存在时未落库轮数加一
+     *
+     * @param session 会话信息（userId、conversationId、title、fullHistory）
+     * @return 影响行数
+     */
+    int upsertPending(AiSession session);
+
+    /**
+     * 扣减会话的未落库轮数（对话已写入或已丢弃后调用）
+     *
+     * @param counts DIFY会话ID -> 扣减的轮数
+     * @return 影响行数
+     */
+    int releasePending(@Param("counts") Map<String, Integer> counts);
+
+    /**
+     * 清理过期的未落库登记：超过指定时间没有登记或扣减的会话视为这些对话已丢失（节点在写入前宕机），
+     * 标记为不完整并清零，之后历史消息从DIFY读取
+     *
+     * @param ttlSeconds 未落库轮数保持不变的最长时间（秒）
+     * @return 影响行数
+     */
+    int clearStalePending(@Param("ttlSeconds") long ttlSeconds);
+
+    /**
+     * 标记会话的本地对话记录不完整（写入失败或丢弃后调用，之后历史消息从DIFY读取）
+     *
+     * @param conversationIds DIFY会话ID列表
+     * @return 影响行数
+     */
+    int clearFullHistory(@Param("conversationIds") Collection<String> conversationIds);
+}
@@ -0,0 +1,82 @@
+package org.health.mapper.med;
+
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.health.entity.med.MedAdherenceDaily;
+import org.health.entity.med.MedRecord;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 服药依从性日汇总Mapper接口
+ */
+@Mapper
+public interface MedAdherenceDailyMapper {
+
+    /**
+     * 按计划、日期区间从点位记录重新汇总（写入或覆盖）
+     *
+     * @param planId 计划ID
+     * @param startDate 开始日期（包含）
+     * @param endDate 结束日期（包含，为空时不限）
+     * @return 影响行数
+     */
+    int upsertByPlanRange(@Param("planId") Long planId,
+                          @Param("startDate") LocalDate startDate,
+                          @Param("endDate") LocalDate endDate);
+
+    /**
+     * 重新汇总某条记录所在的 (plan, date) 分组（写入或覆盖）
+     *
+     * @param recordId 记录ID
+     * @return 影响行数
+     */
+    int upsertByRecordId(@Param("recordId") Long recordId);
+
+    /**
+     * 按一批 (plan, date) 分组从点位记录重新汇总（写入或覆盖）
+     *
+     * @param keys 分组列表（只使用planId、date）
+     * @return 影响行数
+     */
+    int upsertByPlanDates(@Param("keys") Collection<MedRecord> keys);
+
+    /**
+     * 删除计划在日期区间内已没有点位记录的汇总
+     *
+     * @param planId 计划ID
+     * @param startDate 开始日期（包含）
+     * @param endDate 结束日期（包含，为空时不限）
+     * @return 影响行数
+     */
+    int deleteOrphansByPlanRange(@Param("planId") Long planId,
+                                 @Param("startDate") LocalDate startDate,
+                                 @Param("endDate") LocalDate endDate);
+
+    /**
+     * 按一批用户、日期从点位记录重新汇总（写入或覆盖）
+     *
+     * @param userIds 用户ID列表
+     * @param date 日期
+     * @return 影响行数
+     */
+    int upsertByUsersDate(@Param("userIds") Collection<Long> userIds, @Param("date") LocalDate date);
+
+    /**
+     * 按日期汇总用户的点位状态（多个计划合并为一天一行）
+     *
+     * @param userId 用户ID
+     * @param planIds 用户未删除的计划ID（不能为空）
+     * @param planId 计划ID（可选，只统计该计划）
+     * @param startDate 开始日期（包含）
+     * @param endDate 结束日期（包含）
+     * @return 每天一行的汇总，planId为空
+     */
+    List<MedAdherenceDaily> sumByUserDate(@Param("userId") Long userId,
+                                          @Param("planIds") Collection<Long> planIds,
+                                          @Param("planId") Long planId,
+                                          @Param("startDate") LocalDate startDate,
+                                          @Param("endDate") LocalDate endDate);
+}
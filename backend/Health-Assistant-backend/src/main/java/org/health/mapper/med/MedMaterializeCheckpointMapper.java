@@ -0,0 +1,50 @@
+package org.health.mapper.med;
+
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.health.entity.med.MedMaterializeCheckpoint;
+
+import java.time.LocalDate;
+
+/**
+ * 点位预生成进度Mapper接口
+ */
+@Mapper
+public interface MedMaterializeCheckpointMapper {
+
+    /**
+     * 根据日期查询进度
+     *
+     * @param targetDate 点位日期
+     * @return 进度信息
+     */
+    MedMaterializeCheckpoint selectByDate(@Param("targetDate") LocalDate targetDate);
+
+    /**
+     * 创建进度（已存在则忽略）
+     *
+     * @param targetDate 点位日期
+     * @return 影响行数
+     */
+    int insertIgnore(@Param("targetDate") LocalDate targetDate);
+
+    /**
+     * 推进断点
+     *
+     * @param targetDate 点位日期
+     * @param lastUserId 已处理完成的最大用户ID
+     * @param rows 本批生成的行数
+     * @return 影响行数
+     */
+    int advance(@Param("targetDate") LocalDate targetDate,
+                @Param("lastUserId") Long lastUserId,
+                @Param("rows") Integer rows);
+
+    /**
+     * 标记完成
+     *
+     * @param targetDate 点位日期
+     * @return 影响行数
+     */
+    int markDone(@Param("targetDate") LocalDate targetDate);
+}
@@ -4,6 +4,8 @@ import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import org.health.entity.med.MedPlan;
 
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.List;
 
 /**
@@ -32,6 +34,64 @@ public interface MedPlanMapper {
                                   @Param("status") String status,
                                   @Param("keyword") String keyword);
 
+    /**
+     * 查询用户未删除的计划ID（只读 idx_user_deleted_dates 索引）
+     *
+     * @param userId 用户ID
+     * @return 计划ID列表
+     */
+    List<Long> selectIdsByUserId(@Param("userId") Long userId);
+
+    /**
+     * 根据ID查询计划，一次性带出时间点和重复天数
+     *
+     * @param id 计划ID
+     * @return 计划信息（times、repeatDays已填充）
+     */
+    MedPlan selectWithSchedulesById(@Param("id") Long id);
+
+    /**
+     * 根据用户ID查询计划列表，一次性带出时间点和重复天数
+     *
+     * @param userId 用户ID
+     * @param status 状态过滤（active-进行中，expired-已过期）
+     * @param keyword 关键词搜索
+     * @return 计划列表（times、repeatDays已填充）
+     */
+    List<MedPlan> selectWithSchedulesByUserId(@Param("userId") Long userId,
+                                              @Param("status") String status,
+                                              @Param("keyword") String keyword);
+
+    /**
+     * 查询一批用户在指定日期有效的计划，一次性带出时间点和重复天数
+     *
+     * @param userIds 用户ID列表
+     * @param date 日期
+     * @return 计划列表（times、repeatDays已填充）
+     */
+    List<MedPlan> selectSchedulesByUserIds(@Param("userIds") List<Long> userIds, @Param("date") LocalDate date);
+
+    /**
+     * 按用户ID升序分批查询在指定日期有有效计划的用户
+     *
+     * @param afterUserId 起始用户ID（不包含）
+     * @param date 日期
+     * @param limit 限制数量
+     * @return 用户ID列表
+     */
+    List<Long> selectActiveUserIds(@Param("afterUserId") Long afterUserId,
+                                   @Param("date") LocalDate date,
+                                   @Param("limit") Integer limit);
+
+    /**
+     * 统计用户在指定时间之后新建、修改或删除过的计划数
+     *
+     * @param userId 用户ID
+     * @param since 起始时间
+     * @return 计划数
+     */
+    int countChangedSince(@Param("userId") Long userId, @Param("since") LocalDateTime since);
+
     /**
      * 插入计划
      *
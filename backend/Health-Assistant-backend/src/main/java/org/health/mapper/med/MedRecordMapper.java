@@ -5,6 +5,8 @@ import org.apache.ibatis.annotations.Param;
 import org.health.entity.med.MedRecord;
 
 import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -34,18 +36,37 @@ public interface MedRecordMapper {
                                     @Param("time") String time);
 
     /**
-     * 根据日期查询记录列表
+     * 查询计划在日期区间内已存在的点位（只返回date、time）
+     *
+     * @param planId 计划ID
+     * @param startDate 开始日期（包含）
+     * @param endDate 结束日期（包含）
+     * @return 记录列表
+     */
+    List<MedRecord> selectSlotKeysByPlanRange(@Param("planId") Long planId,
+                                              @Param("startDate") LocalDate startDate,
+                                              @Param("endDate") LocalDate endDate);
+
+    /**
+     * 根据日期查询记录列表（不关联计划表，planName、dosage需由调用方填充）
      *
      * @param userId 用户ID
+     * @param planIds 用户未删除的计划ID（不能为空）
+     * @param includeNullUserId 是否包含尚未回填 user_id 的记录
      * @param date 日期
      * @return 记录列表
      */
-    List<MedRecord> selectByDate(@Param("userId") Long userId, @Param("date") LocalDate date);
+    List<MedRecord> selectByDate(@Param("userId") Long userId,
+                                 @Param("planIds") Collection<Long> planIds,
+                                 @Param("includeNullUserId") boolean includeNullUserId,
+                                 @Param("date") LocalDate date);
 
     /**
      * 查询记录列表（支持多条件过滤）
      *
      * @param userId 用户ID
+     * @param planIds 用户未删除的计划ID（不能为空）
+     * @param includeNullUserId 是否包含尚未回填 user_id 的记录
      * @param id 记录ID（可选，如果提供则优先使用）
      * @param planId 计划ID（可选）
      * @param status 状态（可选）
@@ -56,6 +77,8 @@ public interface MedRecordMapper {
      * @return 记录列表
      */
     List<MedRecord> selectList(@Param("userId") Long userId,
+                                @Param("planIds") Collection<Long> planIds,
+                                @Param("includeNullUserId") boolean includeNullUserId,
                                 @Param("id") Long id,
                                 @Param("planId") Long planId,
                                 @Param("status") String status,
@@ -64,10 +87,43 @@ public interface MedRecordMapper {
                                 @Param("offset") Integer offset,
                                 @Param("limit") Integer limit);
 
+    /**
+     * 游标分页查询记录列表
+     * 排序为 date DESC, time ASC, id ASC，返回游标 (cursorDate, cursorTime, cursorId) 之后的记录
+     *
+     * @param userId 用户ID
+     * @param planIds 用户未删除的计划ID（不能为空）
+     * @param includeNullUserId 是否包含尚未回填 user_id 的记录
+     * @param id 记录ID（可选，如果提供则优先使用）
+     * @param planId 计划ID（可选）
+     * @param status 状态（可选）
+     * @param startDate 开始日期（可选）
+     * @param endDate 结束日期（可选）
+     * @param cursorDate 游标日期（为空时从第一条开始）
+     * @param cursorTime 游标时间
+     * @param cursorId 游标记录ID
+     * @param limit 限制数量
+     * @return 记录列表
+     */
+    List<MedRecord> selectListAfter(@Param("userId") Long userId,
+                                    @Param("planIds") Collection<Long> planIds,
+                                    @Param("includeNullUserId") boolean includeNullUserId,
+                                    @Param("id") Long id,
+                                    @Param("planId") Long planId,
+                                    @Param("status") String status,
+                                    @Param("startDate") LocalDate startDate,
+                                    @Param("endDate") LocalDate endDate,
+                                    @Param("cursorDate") LocalDate cursorDate,
+                                    @Param("cursorTime") LocalTime cursorTime,
+                                    @Param("cursorId") Long cursorId,
+                                    @Param("limit") Integer limit);
+
     /**
      * 统计记录总数
      *
      * @param userId 用户ID
+     * @param planIds 用户未删除的计划ID（不能为空）
+     * @param includeNullUserId 是否包含尚未回填 user_id 的记录
      * @param id 记录ID（可选，如果提供则优先使用）
      * @param planId 计划ID（可选）
      * @param status 状态（可选）
@@ -76,6 +132,8 @@ public interface MedRecordMapper {
      * @return 总数
      */
     int countList(@Param("userId") Long userId,
+                   @Param("planIds") Collection<Long> planIds,
+                   @Param("includeNullUserId") boolean includeNullUserId,
                    @Param("id") Long id,
                    @Param("planId") Long planId,
                    @Param("status") String status,
@@ -98,6 +156,58 @@ public interface MedRecordMapper {
      */
     int batchInsert(@Param("list") List<MedRecord> records);
 
+    /**
+     * 批量插入记录，已存在的 plan + date + time 点位会被跳过
+     *
+     * @param records 记录列表
+     * @return 影响行数
+     */
+    int batchInsertIgnore(@Param("list") List<MedRecord> records);
+
+    /**
+     * 批量插入记录，已存在的 plan + date + time 点位跳过且不更新（尚未回填的 user_id 由回填任务补写）
+     *
+     * @param records 记录列表
+     * @return 新插入的行数
+     */
+    int batchInsertSkipExisting(@Param("list") List<MedRecord> records);
+
+    /**
+     * 按主键顺序查询待打卡记录（只返回id、planId、date、time）
+     *
+     * @param afterId 起始ID（不包含）
+     * @param maxDate 最大日期（包含）
+     * @param limit 限制数量
+     * @return 记录列表
+     */
+    List<MedRecord> selectTodoAfterId(@Param("afterId") Long afterId,
+                                      @Param("maxDate") LocalDate maxDate,
+                                      @Param("limit") Integer limit);
+
+    /**
+     * 将仍为待打卡的记录批量标记为未服
+     *
+     * @param ids 记录ID列表
+     * @return 影响行数
+     */
+    int markMissedByIds(@Param("ids") Collection<Long> ids);
+
+    /**
+     * 查询尚未回填user_id的最大记录ID
+     *
+     * @return 记录ID，全部已回填时返回null
+     */
+    Long selectMaxIdWithoutUserId();
+
+    /**
+     * 按ID区间从计划表回填user_id
+     *
+     * @param fromId 开始ID（包含）
+     * @param toId 结束ID（包含）
+     * @return 影响行数
+     */
+    int backfillUserIdByRange(@Param("fromId") Long fromId, @Param("toId") Long toId);
+
     /**
      * 更新记录状态
      *
@@ -107,6 +217,34 @@ public interface MedRecordMapper {
      */
     int updateStatus(@Param("id") Long id, @Param("status") String status);
 
+    /**
+     * 更新记录状态（在同一条语句中校验记录存在且属于用户）
+     *
+     * @param id 记录ID
+     * @param userId 用户ID
+     * @param status 状态
+     * @return 影响行数，0表示记录不存在或不属于该用户
+     */
+    int updateStatusOwned(@Param("id") Long id, @Param("userId") Long userId, @Param("status") String status);
+
+    /**
+     * 查询一批记录中属于用户（未删除计划）的记录（只返回id、planId、date）
+     *
+     * @param userId 用户ID
+     * @param ids 记录ID列表
+     * @return 属于用户的记录
+     */
+    List<MedRecord> selectOwnedByIds(@Param("userId") Long userId, @Param("ids") Collection<Long> ids);
+
+    /**
+     * 批量更新记录状态（一条语句，在同一条语句中校验记录存在且属于用户）
+     *
+     * @param records 记录列表（只使用id、status）
+     * @param userId 用户ID
+     * @return 影响行数（属于该用户并被更新的记录数）
+     */
+    int batchUpdateStatusOwned(@Param("list") List<MedRecord> records, @Param("userId") Long userId);
+
     /**
      * 更新记录（补记/更正）
      *
@@ -115,6 +253,15 @@ public interface MedRecordMapper {
      */
     int update(MedRecord record);
 
+    /**
+     * 更新记录（补记/更正，在同一条语句中校验记录存在且属于用户）
+     *
+     * @param record 记录信息
+     * @param userId 用户ID
+     * @return 影响行数，0表示记录不存在或不属于该用户
+     */
+    int updateOwned(@Param("record") MedRecord record, @Param("userId") Long userId);
+
     /**
      * 根据计划ID和日期范围删除记录
      *
@@ -0,0 +1,69 @@
+package org.health.service;
+
+import org.health.entity.JobLease;
+import org.health.mapper.JobLeaseMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.net.InetAddress;
+import java.util.UUID;
+
+/**
+ * 任务租约服务
+ * 基于 job_lease 表的租约，多节点同时触发同一个定时任务时只有持有租约的节点执行；
+ * 持有者宕机后租约到期，其他节点可以接管
+ */
+@Service
+public class JobLeaseService {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobLeaseService.class);
+
+    /**
+     * 当前节点标识（主机名 + 进程内随机ID，同一主机多实例也能区分）
+     */
+    private final String owner = resolveHostName() + ":" + UUID.randomUUID().toString().substring(0, 8);
+
+    @Autowired
+    private JobLeaseMapper jobLeaseMapper;
+
+    /**
+     * 获取或续期租约
+     *
+     * @param jobName 任务名称
+     * @param leaseSeconds 租约时长（秒），应大于任务两次续期之间的最长耗时
+     * @return 当前节点是否持有租约
+     */
+    public boolean tryAcquire(String jobName, int leaseSeconds) {
+        jobLeaseMapper.tryAcquire(jobName, owner, leaseSeconds);
+        JobLease lease = jobLeaseMapper.selectByJobName(jobName);
+        return lease != null && owner.equals(lease.getOwner());
+    }
+
+    /**
+     * 释放租约，其他节点下次触发时可以立即获取
+     *
+     * @param jobName 任务名称
+     */
+    public void release(String jobName) {
+        try {
+            jobLeaseMapper.release(jobName, owner);
+        } catch (Exception e) {
+            // 释放失败时等待租约自然到期
+            logger.warn("释放任务租约失败: job={}", jobName, e);
+        }
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    private static String resolveHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return "unknown";
+        }
+    }
+}
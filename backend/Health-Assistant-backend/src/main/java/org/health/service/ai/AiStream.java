@@ -0,0 +1,283 @@
+package org.health.service.ai;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 一次进行中的流式对话
+ * DIFY 事件先写入环形缓冲区再转发给当前连接，每个事件的 SSE id 为 "streamId:序号"；
+ * 客户端断开不影响上游转发，带 Last-Event-ID 重连后补发缺失的事件再继续接收后续事件。
+ * 缓冲区和当前连接由 lock 保护，只在锁内写入缓冲区、替换连接；发送会阻塞在网络写入上，在锁外进行，
+ * 慢客户端不会阻塞续传接入和其他连接。每个连接记录自己已发送的序号，由连接自己的发送锁保证同一时刻只有
+ * 一个线程按序号顺序从缓冲区取事件发送，补发与后续事件不乱序、不重复。
+ * 转发运行在虚拟线程上，使用 ReentrantLock 而不是 synchronized，阻塞时虚拟线程可以让出载体线程
+ */
+public class AiStream {
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  private final String id;
+  private final Long userId;
+  private final String[] ring;
+  private final long createdAt = System.currentTimeMillis();
+  private final ReentrantLock lock = new ReentrantLock();
+
+  // 下一个事件的序号（从1开始），ring[seq % ring.length] 保存最近 ring.length 个事件
+  private long nextSeq = 1;
+  private Subscriber subscriber;
+  private boolean finished;
+  private Throwable failure;
+  private long finishedAt;
+
+  /**
+   * @param id 流ID
+   * @param userId 所属用户ID
+   * @param capacity 缓冲的事件数
+   */
+  AiStream(String id, Long userId, int capacity) {
+    this.id = id;
+    this.userId = userId;
+    this.ring = new String[capacity];
+  }
+
+  /**
+   * 缓冲并转发一个事件（原始 JSON 字符串）
+   * 发送失败说明客户端已断开，只解除连接，不中断上游
+   */
+  public void publish(String data) {
+    Subscriber current;
+    lock.lock();
+    try {
+      if (finished) {
+        return;
+      }
+      long seq = nextSeq++;
+      ring[(int) (seq % ring.length)] = data;
+      current = subscriber;
+    } finally {
+      lock.unlock();
+    }
+    if (current != null) {
+      drain(current);
+    }
+  }
+
+  /**
+   * 发送错误事件并以错误结束
+   */
+  public void fail(int status, String code, String message) {
+    Map<String, Object> errorData = new HashMap<>();
+    errorData.put("event", "error");
+    errorData.put("status", status);
+    errorData.put("code", code);
+    errorData.put("message", message);
+    try {
+      publish(OBJECT_MAPPER.writeValueAsString(errorData));
+    } catch (Exception ignored) {
+      // 序列化 Map 不会失败
+    }
+    finish(new RuntimeException(message));
+  }
+
+  /**
+   * 正常结束，完成当前连接
+   */
+  public void complete() {
+    finish(null);
+  }
+
+  private void finish(Throwable cause) {
+    Subscriber current;
+    lock.lock();
+    try {
+      if (finished) {
+        return;
+      }
+      finished = true;
+      failure = cause;
+      finishedAt = System.currentTimeMillis();
+      current = subscriber;
+    } finally {
+      lock.unlock();
+    }
+    // 发完尚未发送的事件后完成连接
+    if (current != null) {
+      drain(current);
+    }
+  }
+
+  /**
+   * 接入一个连接：补发 lastSeq 之后的事件，未结束时继续接收后续事件（替换之前的连接）
+   *
+   * @param emitter 新连接
+   * @param lastSeq 客户端已收到的最后一个事件序号（新对话为0）
+   * @return 缺失的事件已超出缓冲区、无法补发时返回 false
+   */
+  public boolean attach(SseEmitter emitter, long lastSeq) {
+    Subscriber previous;
+    Subscriber attached = new Subscriber(emitter, lastSeq);
+    lock.lock();
+    try {
+      long firstBuffered = Math.max(1, nextSeq - ring.length);
+      if (lastSeq + 1 < firstBuffered || lastSeq >= nextSeq) {
+        return false;
+      }
+      previous = subscriber;
+      if (previous != null && previous.emitter == emitter) {
+        return true;
+      }
+      if (previous != null) {
+        previous.closed = true;
+      }
+      subscriber = attached;
+    } finally {
+      lock.unlock();
+    }
+    if (previous != null) {
+      close(previous.emitter, null);
+    }
+    drain(attached);
+    return true;
+  }
+
+  /**
+   * 连接结束（完成、超时、出错）时解除，之后的事件只写入缓冲区
+   */
+  public void detach(SseEmitter emitter) {
+    lock.lock();
+    try {
+      if (subscriber != null && subscriber.emitter == emitter) {
+        subscriber.closed = true;
+        subscriber = null;
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * 把连接尚未收到的事件按序号依次发出；对话已结束且事件已发完时完成连接
+   * 持有连接的发送锁：同时调用的线程排队，轮到时从该连接已发送的序号继续，每个事件只发送一次
+   */
+  private void drain(Subscriber target) {
+    target.sendLock.lock();
+    try {
+      while (true) {
+        long seq;
+        String data = null;
+        boolean close = false;
+        Throwable cause = null;
+        lock.lock();
+        try {
+          if (target.closed) {
+            return;
+          }
+          seq = target.sentSeq + 1;
+          if (seq < nextSeq && seq >= nextSeq - ring.length) {
+            data = ring[(int) (seq % ring.length)];
+          } else if (seq < nextSeq || finished) {
+            // 已结束并发完，或连接落后太多、缺失的事件已被覆盖（客户端重连时返回 410）
+            close = true;
+            cause = seq < nextSeq ? null : failure;
+            unsubscribe(target);
+          } else {
+            return;
+          }
+        } finally {
+          lock.unlock();
+        }
+        if (close) {
+          close(target.emitter, cause);
+          return;
+        }
+        if (!send(target.emitter, seq, data)) {
+          lock.lock();
+          try {
+            unsubscribe(target);
+          } finally {
+            lock.unlock();
+          }
+          return;
+        }
+        target.sentSeq = seq;
+      }
+    } finally {
+      target.sendLock.unlock();
+    }
+  }
+
+  /**
+   * 标记连接不再接收事件（调用方持有 lock）
+   */
+  private void unsubscribe(Subscriber target) {
+    target.closed = true;
+    if (subscriber == target) {
+      subscriber = null;
+    }
+  }
+
+  private boolean send(SseEmitter emitter, long seq, String data) {
+    try {
+      emitter.send(SseEmitter.event().id(id + ":" + seq).data(data));
+      return true;
+    } catch (Exception e) {
+      return false;
+    }
+  }
+
+  private static void close(SseEmitter emitter, Throwable cause) {
+    try {
+      if (cause != null) {
+        emitter.completeWithError(cause);
+      } else {
+        emitter.complete();
+      }
+    } catch (Exception ignored) {
+      // emitter 可能已经被完成，忽略
+    }
+  }
+
+  public String getId() { return id; }
+  public Long getUserId() { return userId; }
+  public long getCreatedAt() { return createdAt; }
+
+  public boolean isFinished() {
+    lock.lock();
+    try {
+      return finished;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public long getFinishedAt() {
+    lock.lock();
+    try {
+      return finishedAt;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * 一个接入的连接及其发送进度
+   */
+  private static class Subscriber {
+    private final SseEmitter emitter;
+    // 同一时刻只有一个线程向该连接发送
+    private final ReentrantLock sendLock = new ReentrantLock();
+    // 已发送的最后一个事件序号（由 sendLock 保护）
+    private long sentSeq;
+    // 已被替换、解除或发送失败（由 AiStream.lock 保护）
+    private boolean closed;
+
+    Subscriber(SseEmitter emitter, long lastSeq) {
+      this.emitter = emitter;
+      this.sentSeq = lastSeq;
+    }
+  }
+}
@@ -0,0 +1,123 @@
+package org.health.service.ai;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * AI流式对话并发限制器
+ * 在调用 DIFY 之前限制本节点同时进行的流式对话数（超出时短暂排队，超过等待时间或队列已满则拒绝）
+ * 和单个用户同时打开的流式对话数（超出直接拒绝），避免 AI 流量占满上游连接影响其他接口
+ */
+@Service
+public class AiStreamLimiter {
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Value("${dify.stream.max-concurrent:200}")
+  private int maxConcurrent;
+
+  @Value("${dify.stream.max-per-user:2}")
+  private int maxPerUser;
+
+  @Value("${dify.stream.max-queue:100}")
+  private int maxQueue;
+
+  @Value("${dify.stream.queue-timeout-ms:2000}")
+  private long queueTimeoutMs;
+
+  private Semaphore permits;
+
+  // 用户ID -> 进行中（含排队）的对话数，归零时移除
+  private final ConcurrentHashMap<Long, AtomicInteger> userStreams = new ConcurrentHashMap<>();
+
+  private final AtomicInteger queued = new AtomicInteger();
+
+  private Counter userRejectedCounter;
+  private Counter nodeRejectedCounter;
+
+  @PostConstruct
+  public void init() {
+    permits = new Semaphore(maxConcurrent, true);
+    Gauge.builder("ai.stream.active", this, l -> l.maxConcurrent - l.permits.availablePermits())
+        .description("进行中的AI流式对话数")
+        .register(meterRegistry);
+    Gauge.builder("ai.stream.queued", queued, AtomicInteger::get)
+        .description("排队等待的AI流式对话数")
+        .register(meterRegistry);
+    userRejectedCounter = Counter.builder("ai.stream.rejected")
+        .tag("reason", "user_limit")
+        .description("被拒绝的AI流式对话数")
+        .register(meterRegistry);
+    nodeRejectedCounter = Counter.builder("ai.stream.rejected")
+        .tag("reason", "node_busy")
+        .description("被拒绝的AI流式对话数")
+        .register(meterRegistry);
+  }
+
+  /**
+   * 获取一个流式对话许可（可能短暂阻塞排队，应在转发线程上调用）
+   * 获取成功后必须调用 {@link #release(Long)} 释放
+   *
+   * @param userId 用户ID
+   * @throws AiStreamRejectedException 超出单用户并发、本节点排队已满或排队超时时抛出
+   */
+  public void acquire(Long userId) {
+    int[] current = new int[1];
+    userStreams.compute(userId, (k, v) -> {
+      AtomicInteger count = v != null ? v : new AtomicInteger();
+      current[0] = count.incrementAndGet();
+      return count;
+    });
+    if (current[0] > maxPerUser) {
+      decrementUser(userId);
+      userRejectedCounter.increment();
+      throw new AiStreamRejectedException("user_limit", "同时进行的对话过多，请等待当前回答结束后再试");
+    }
+
+    boolean acquired = permits.tryAcquire();
+    if (!acquired) {
+      if (queued.incrementAndGet() > maxQueue) {
+        queued.decrementAndGet();
+      } else {
+        try {
+          acquired = permits.tryAcquire(queueTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } finally {
+          queued.decrementAndGet();
+        }
+      }
+    }
+    if (!acquired) {
+      decrementUser(userId);
+      nodeRejectedCounter.increment();
+      throw new AiStreamRejectedException("node_busy", "AI服务繁忙，请稍后重试");
+    }
+  }
+
+  /**
+   * 释放流式对话许可
+   *
+   * @param userId 用户ID
+   */
+  public void release(Long userId) {
+    permits.release();
+    decrementUser(userId);
+  }
+
+  private void decrementUser(Long userId) {
+    // 在 compute 内递减，保证计数归零移除与并发递增互斥
+    userStreams.computeIfPresent(userId, (k, v) -> v.decrementAndGet() <= 0 ? null : v);
+  }
+}
@@ -0,0 +1,135 @@
+package org.health.service.ai;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import jakarta.annotation.PostConstruct;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * AI流式对话续传
+ * 保存本节点进行中的流式对话（每个对话的事件缓冲区大小固定），对话结束后再保留 resume-seconds，
+ * 客户端断线后带 Last-Event-ID（"streamId:序号"）在窗口内重连时补发缺失的事件，不重新请求 DIFY；
+ * 超过 max-age-seconds 仍未结束的对话（转发线程异常退出等）以错误结束并移除，避免一直占用内存
+ */
+@Service
+public class AiStreamRegistry {
+
+  private static final Logger logger = LoggerFactory.getLogger(AiStreamRegistry.class);
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Value("${dify.stream.resume-buffer:1024}")
+  private int bufferSize;
+
+  @Value("${dify.stream.resume-seconds:60}")
+  private long resumeSeconds;
+
+  @Value("${dify.stream.max-age-seconds:600}")
+  private long maxAgeSeconds;
+
+  // 流ID -> 流式对话（进行中的对话数受 AiStreamLimiter 限制，已结束和超过最长时间的对话定时清理）
+  private final Map<String, AiStream> streams = new ConcurrentHashMap<>();
+
+  private Counter resumedCounter;
+  private Counter expiredCounter;
+
+  @PostConstruct
+  public void init() {
+    Gauge.builder("ai.stream.buffered", streams, Map::size)
+        .description("可续传的AI流式对话数（含已结束、仍在保留窗口内的对话）")
+        .register(meterRegistry);
+    resumedCounter = Counter.builder("ai.stream.resumed")
+        .description("断线重连后续传成功的次数")
+        .register(meterRegistry);
+    expiredCounter = Counter.builder("ai.stream.resume.expired")
+        .description("断线重连时对话已过期或缺失事件超出缓冲区的次数")
+        .register(meterRegistry);
+  }
+
+  /**
+   * 创建流式对话并接入第一个连接
+   *
+   * @param userId 用户ID
+   * @param emitter 客户端连接
+   */
+  public AiStream open(Long userId, SseEmitter emitter) {
+    AiStream stream = new AiStream(UUID.randomUUID().toString(), userId, bufferSize);
+    streams.put(stream.getId(), stream);
+    watch(stream, emitter);
+    stream.attach(emitter, 0);
+    return stream;
+  }
+
+  /**
+   * 续传：补发 Last-Event-ID 之后的事件，对话未结束时继续接收后续事件
+   *
+   * @param userId 用户ID（只能续传自己的对话）
+   * @param lastEventId 客户端收到的最后一个事件ID（"streamId:序号"）
+   * @param emitter 新连接
+   * @return 对话不存在、已过期或缺失事件超出缓冲区时返回 false
+   */
+  public boolean resume(Long userId, String lastEventId, SseEmitter emitter) {
+    int sep = lastEventId != null ? lastEventId.lastIndexOf(':') : -1;
+    AiStream stream = sep > 0 ? streams.get(lastEventId.substring(0, sep)) : null;
+    long lastSeq;
+    try {
+      lastSeq = sep > 0 ? Long.parseLong(lastEventId.substring(sep + 1)) : -1;
+    } catch (NumberFormatException e) {
+      lastSeq = -1;
+    }
+    if (stream == null || lastSeq < 0 || !stream.getUserId().equals(userId)) {
+      expiredCounter.increment();
+      return false;
+    }
+
+    watch(stream, emitter);
+    if (!stream.attach(emitter, lastSeq)) {
+      expiredCounter.increment();
+      return false;
+    }
+    resumedCounter.increment();
+    return true;
+  }
+
+  /**
+   * 定时任务：清理超出保留窗口的已结束对话，超过最长时间仍未结束的对话以错误结束后清理
+   */
+  @Scheduled(fixedDelayString = "${dify.stream.resume-sweep-millis:10000}")
+  public void evictExpired() {
+    long now = System.currentTimeMillis();
+    long finishedDeadline = now - resumeSeconds * 1000L;
+    long activeDeadline = now - maxAgeSeconds * 1000L;
+    streams.values().removeIf(s -> {
+      if (s.isFinished()) {
+        return s.getFinishedAt() < finishedDeadline;
+      }
+      if (s.getCreatedAt() < activeDeadline) {
+        logger.warn("AI流式对话超过{}秒未结束，强制结束: streamId={}", maxAgeSeconds, s.getId());
+        s.fail(504, "stream_timeout", "对话超时，请稍后重试");
+        return true;
+      }
+      return false;
+    });
+  }
+
+  /**
+   * 连接结束时从对话上解除，之后的事件只写入缓冲区
+   */
+  private void watch(AiStream stream, SseEmitter emitter) {
+    emitter.onCompletion(() -> stream.detach(emitter));
+    emitter.onTimeout(() -> stream.detach(emitter));
+    emitter.onError(e -> stream.detach(emitter));
+  }
+}
@@ -0,0 +1,19 @@
+package org.health.service.ai;
+
+/**
+ * AI流式对话被限流拒绝的异常
+ * code 区分拒绝原因：user_limit（单用户并发超限）、node_busy（本节点并发已满且排队超时或队列已满）
+ */
+public class AiStreamRejectedException extends RuntimeException {
+
+  private final String code;
+
+  public AiStreamRejectedException(String code, String message) {
+    super(message);
+    this.code = code;
+  }
+
+  public String getCode() {
+    return code;
+  }
+}
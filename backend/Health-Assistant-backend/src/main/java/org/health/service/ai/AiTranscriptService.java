@@ -0,0 +1,372 @@
+package org.health.service.ai;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.health.entity.ai.AiMessage;
+import org.health.entity.ai.AiSession;
+import org.health.mapper.ai.AiMessageMapper;
+import org.health.mapper.ai.AiSessionMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * AI对话记录服务
+ * 流式对话收到 message_end 后先在 ai_session 上登记一轮未落库的对话（pending_turns 加一，单行写入），
+ * 再把提问、完整回答、变量、文件和引用片段放入内存队列，由定时任务批量写入 ai_message 后扣减；
+ * 历史消息优先从本地按键集分页读取，本地记录不完整（会话早于本功能、写入失败或被丢弃、
+ * 任一节点还有未落库的对话）时返回null，由调用方回退到 DIFY 接口
+ */
+@Service
+public class AiTranscriptService {
+
+  private static final Logger logger = LoggerFactory.getLogger(AiTranscriptService.class);
+
+  private static final int TITLE_MAX_LENGTH = 100;
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  /**
+   * 文件、引用片段与 DIFY 响应相同的 snake_case 字段
+   */
+  private static final ObjectMapper RESPONSE_MAPPER = new ObjectMapper()
+      .setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE)
+      .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+  private static final ObjectReader INPUTS_READER =
+      OBJECT_MAPPER.readerFor(new TypeReference<Map<String, Object>>() { });
+  private static final ObjectReader MESSAGE_FILES_READER =
+      RESPONSE_MAPPER.readerFor(new TypeReference<List<DifyModels.MessageFile>>() { });
+  private static final ObjectReader RETRIEVER_RESOURCES_READER =
+      RESPONSE_MAPPER.readerFor(new TypeReference<List<DifyModels.RetrieverResource>>() { });
+
+  @Autowired
+  private AiSessionMapper aiSessionMapper;
+
+  @Autowired
+  private AiMessageMapper aiMessageMapper;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Value("${dify.transcript.enabled:true}")
+  private boolean enabled;
+
+  @Value("${dify.transcript.queue-capacity:10000}")
+  private int queueCapacity;
+
+  @Value("${dify.transcript.batch-size:200}")
+  private int batchSize;
+
+  /**
+   * 未落库登记的最长保留时间：超过该时间没有登记或扣减的会话视为对话已丢失
+   */
+  @Value("${dify.transcript.pending-ttl-seconds:600}")
+  private long pendingTtlSeconds;
+
+  private BlockingQueue<PendingTurn> queue;
+
+  // 会话ID -> 已写入或已丢弃、还未从 pending_turns 扣减的对话数（扣减失败时保留，下次重试）
+  private final ConcurrentHashMap<String, Integer> released = new ConcurrentHashMap<>();
+
+  // 本地记录不完整、待标记 full_history=0 的会话ID
+  private final Set<String> partialConversations = ConcurrentHashMap.newKeySet();
+
+  private Counter writtenCounter;
+  private Counter droppedCounter;
+
+  @PostConstruct
+  public void init() {
+    queue = new ArrayBlockingQueue<>(queueCapacity);
+    Gauge.builder("ai.transcript.queued", this, s -> s.queue.size())
+        .description("等待写入的AI对话轮数")
+        .register(meterRegistry);
+    writtenCounter = Counter.builder("ai.transcript.written")
+        .description("已写入的AI对话轮数")
+        .register(meterRegistry);
+    droppedCounter = Counter.builder("ai.transcript.dropped")
+        .description("因队列已满或写入失败丢弃的AI对话轮数")
+        .register(meterRegistry);
+  }
+
+  /**
+   * 提交一轮已完成的对话：在会话上登记未落库的对话后入队
+   * 登记写入数据库，所有节点读取历史时都能看到这一轮还未落库，不会返回缺少这一轮的本地记录
+   *
+   * @param userId 用户ID
+   * @param turn 对话结果（未完成或缺少会话ID、消息ID时忽略）
+   */
+  public void submit(Long userId, ChatTurn turn) {
+    if (!enabled || turn == null || !turn.isCompleted()
+        || turn.getConversationId() == null || turn.getMessageId() == null) {
+      return;
+    }
+    String conversationId = turn.getConversationId();
+    AiSession session = new AiSession();
+    session.setUserId(userId);
+    session.setConversationId(conversationId);
+    String query = turn.getQuery();
+    session.setTitle(query.length() > TITLE_MAX_LENGTH ? query.substring(0, TITLE_MAX_LENGTH) : query);
+    // 只有从第一轮开始记录的会话才有完整历史
+    session.setFullHistory(turn.isNewConversation());
+    try {
+      aiSessionMapper.upsertPending(session);
+    } catch (Exception e) {
+      partialConversations.add(conversationId);
+      droppedCounter.increment();
+      logger.error("登记AI对话记录失败，丢弃本轮记录: conversationId={}", conversationId, e);
+      return;
+    }
+    if (!queue.offer(new PendingTurn(userId, turn))) {
+      partialConversations.add(conversationId);
+      released.merge(conversationId, 1, Integer::sum);
+      droppedCounter.increment();
+      logger.warn("AI对话记录队列已满，丢弃本轮记录: conversationId={}", conversationId);
+    }
+  }
+
+  /**
+   * 定时任务：批量写入队列中的对话记录
+   */
+  @Scheduled(fixedDelayString = "${dify.transcript.flush-millis:1000}")
+  public void flush() {
+    markPartial();
+    releasePending();
+    List<PendingTurn> batch = new ArrayList<>(batchSize);
+    while (queue.drainTo(batch, batchSize) > 0) {
+      try {
+        write(batch);
+        writtenCounter.increment(batch.size());
+      } catch (Exception e) {
+        // 丢弃本批，相关会话改为从 DIFY 读取历史
+        logger.error("写入AI对话记录失败: {}轮", batch.size(), e);
+        droppedCounter.increment(batch.size());
+        batch.forEach(p -> partialConversations.add(p.turn.getConversationId()));
+      } finally {
+        batch.forEach(p -> released.merge(p.turn.getConversationId(), 1, Integer::sum));
+        batch.clear();
+      }
+    }
+    // 先标记不完整再扣减，扣减到0时丢弃过对话的会话已不会从本地读取
+    markPartial();
+    releasePending();
+  }
+
+  /**
+   * 定时任务：清理过期的未落库登记
+   * 节点在登记后、写入前宕机时 pending_turns 不会再被扣减，该会话的历史会一直从 DIFY 读取；
+   * 超过 pending-ttl-seconds 未变化的登记标记为不完整并清零（各节点执行同一条条件更新，结果相同）
+   */
+  @Scheduled(fixedDelayString = "${dify.transcript.pending-sweep-millis:60000}")
+  public void sweepStalePending() {
+    try {
+      int swept = aiSessionMapper.clearStalePending(pendingTtlSeconds);
+      if (swept > 0) {
+        logger.warn("清理过期的AI会话未落库登记: {}个会话，改为从DIFY读取历史", swept);
+      }
+    } catch (Exception e) {
+      logger.error("清理过期的AI会话未落库登记失败", e);
+    }
+  }
+
+  @PreDestroy
+  public void destroy() {
+    // 应用关闭前写入剩余记录
+    flush();
+  }
+
+  /**
+   * 从本地读取会话历史消息（与 DIFY /v1/messages 响应相同的模型，页内按时间正序）
+   * 用户反馈（feedback）只能通过 DIFY 反馈接口提交，本服务不提供该接口，用户的消息在 DIFY 中也没有反馈，本地返回null
+   *
+   * @param userId 用户ID
+   * @param conversationId DIFY会话ID
+   * @param firstId 当前页第一条消息的ID，用于加载更早的历史记录（可选）
+   * @param limit 每页数量（1-100，默认20）
+   * @return 消息列表响应；本地记录不完整时返回null
+   */
+  public DifyModels.MessageListResponse getMessages(Long userId, String conversationId, String firstId, Integer limit) {
+    if (!enabled) {
+      return null;
+    }
+    AiSession session = aiSessionMapper.selectByConversationId(userId, conversationId);
+    if (session == null || !Boolean.TRUE.equals(session.getFullHistory())
+        || (session.getPendingTurns() != null && session.getPendingTurns() > 0)) {
+      return null;
+    }
+
+    Long beforeId = null;
+    if (firstId != null && !firstId.isEmpty()) {
+      beforeId = aiMessageMapper.selectQueryId(session.getId(), firstId);
+      if (beforeId == null) {
+        return null;
+      }
+    }
+
+    int actualLimit = limit != null && limit > 0 ? Math.min(limit, 100) : 20;
+    List<AiMessage> queries = aiMessageMapper.selectQueriesBefore(session.getId(), beforeId, actualLimit + 1);
+    boolean hasMore = queries.size() > actualLimit;
+    if (hasMore) {
+      queries = queries.subList(0, actualLimit);
+    }
+
+    Map<String, AiMessage> answers = new HashMap<>();
+    if (!queries.isEmpty()) {
+      List<String> messageIds = new ArrayList<>(queries.size());
+      queries.forEach(q -> messageIds.add(q.getDifyMessageId()));
+      aiMessageMapper.selectAnswers(session.getId(), messageIds)
+          .forEach(a -> answers.put(a.getDifyMessageId(), a));
+    }
+
+    // 查询按ID倒序，返回时按时间正序（与 DIFY 一致）
+    List<DifyModels.MessageItem> data = new ArrayList<>(queries.size());
+    for (int i = queries.size() - 1; i >= 0; i--) {
+      AiMessage query = queries.get(i);
+      AiMessage answer = answers.get(query.getDifyMessageId());
+      DifyModels.MessageItem item = new DifyModels.MessageItem();
+      item.setId(query.getDifyMessageId());
+      item.setConversationId(conversationId);
+      item.setQuery(query.getContent());
+      item.setAnswer(answer != null ? answer.getContent() : "");
+      item.setCreatedAt(query.getCreatedAt().atZone(ZoneId.systemDefault()).toEpochSecond());
+      try {
+        item.setInputs(query.getInputs() != null
+            ? INPUTS_READER.readValue(query.getInputs()) : Collections.emptyMap());
+        item.setMessageFiles(answer != null && answer.getMessageFiles() != null
+            ? MESSAGE_FILES_READER.readValue(answer.getMessageFiles()) : Collections.emptyList());
+        item.setRetrieverResources(answer != null && answer.getRetrieverResources() != null
+            ? RETRIEVER_RESOURCES_READER.readValue(answer.getRetrieverResources()) : Collections.emptyList());
+      } catch (IOException e) {
+        logger.error("解析本地AI对话记录失败，改为从DIFY读取: conversationId={}", conversationId, e);
+        return null;
+      }
+      data.add(item);
+    }
+
+    DifyModels.MessageListResponse result = new DifyModels.MessageListResponse();
+    result.setLimit(actualLimit);
+    result.setHasMore(hasMore);
+    result.setData(data);
+    return result;
+  }
+
+  /**
+   * 写入一批对话（会话已在提交时登记）：批量写入提问和回答
+   */
+  private void write(List<PendingTurn> batch) throws IOException {
+    Set<String> conversationIds = new LinkedHashSet<>();
+    batch.forEach(p -> conversationIds.add(p.turn.getConversationId()));
+
+    Map<String, Long> sessionIds = new HashMap<>();
+    for (AiSession session : aiSessionMapper.selectByConversationIds(conversationIds)) {
+      sessionIds.put(session.getUserId() + "|" + session.getConversationId(), session.getId());
+    }
+
+    List<AiMessage> messages = new ArrayList<>(batch.size() * 2);
+    for (PendingTurn p : batch) {
+      Long sessionId = sessionIds.get(p.userId + "|" + p.turn.getConversationId());
+      if (sessionId == null) {
+        continue;
+      }
+      // 提问在前，保证同一轮中提问的ID小于回答
+      AiMessage query = message(sessionId, p.turn, "user", p.turn.getQuery());
+      Map<String, Object> inputs = p.turn.getInputs();
+      if (inputs != null && !inputs.isEmpty()) {
+        query.setInputs(OBJECT_MAPPER.writeValueAsString(inputs));
+      }
+      messages.add(query);
+      AiMessage answer = message(sessionId, p.turn, "assistant", p.turn.getAnswer());
+      if (!p.turn.getMessageFiles().isEmpty()) {
+        answer.setMessageFiles("[" + String.join(",", p.turn.getMessageFiles()) + "]");
+      }
+      answer.setRetrieverResources(p.turn.getRetrieverResources());
+      messages.add(answer);
+    }
+    if (!messages.isEmpty()) {
+      aiMessageMapper.batchInsertIgnore(messages);
+    }
+  }
+
+  private AiMessage message(Long sessionId, ChatTurn turn, String role, String content) {
+    AiMessage message = new AiMessage();
+    message.setSessionId(sessionId);
+    message.setDifyMessageId(turn.getMessageId());
+    message.setRole(role);
+    message.setContent(content);
+    message.setInputType("text");
+    message.setCreatedAt(turn.getCompletedAt());
+    return message;
+  }
+
+  /**
+   * 把记录不完整的会话标记为 full_history=0（失败时保留，下次重试）
+   */
+  private void markPartial() {
+    if (partialConversations.isEmpty()) {
+      return;
+    }
+    List<String> conversationIds = new ArrayList<>(partialConversations);
+    try {
+      aiSessionMapper.clearFullHistory(conversationIds);
+      conversationIds.forEach(partialConversations::remove);
+    } catch (Exception e) {
+      logger.error("标记AI会话记录不完整失败: {}", conversationIds, e);
+    }
+  }
+
+  /**
+   * 从 pending_turns 扣减已写入或已丢弃的对话数（还未标记为不完整的会话留到下次，失败时保留，下次重试）
+   */
+  private void releasePending() {
+    if (released.isEmpty()) {
+      return;
+    }
+    Map<String, Integer> counts = new HashMap<>(released);
+    counts.keySet().removeAll(partialConversations);
+    if (counts.isEmpty()) {
+      return;
+    }
+    try {
+      aiSessionMapper.releasePending(counts);
+      counts.forEach((id, n) -> released.computeIfPresent(id, (k, v) -> v <= n ? null : v - n));
+    } catch (Exception e) {
+      logger.error("扣减AI会话未落库轮数失败: {}", counts.keySet(), e);
+    }
+  }
+
+  /**
+   * 待写入的一轮对话
+   */
+  private static class PendingTurn {
+    private final Long userId;
+    private final ChatTurn turn;
+
+    PendingTurn(Long userId, ChatTurn turn) {
+      this.userId = userId;
+      this.turn = turn;
+    }
+  }
+}
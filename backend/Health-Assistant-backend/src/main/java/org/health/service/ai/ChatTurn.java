@@ -0,0 +1,93 @@
+package org.health.service.ai;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一轮流式对话的结果
+ * 转发过程中累积回答内容、附件和引用片段，收到 message_end 后标记完成，用于本地保存对话记录
+ */
+public class ChatTurn {
+
+  private final String query;
+  private final Map<String, Object> inputs;
+  private final boolean newConversation;
+  private final StringBuilder answer = new StringBuilder();
+  // message_file 事件中的文件（JSON对象）和 message_end 中的引用片段（JSON数组）
+  private final List<String> messageFiles = new ArrayList<>();
+  private String retrieverResources;
+  private String conversationId;
+  private String messageId;
+  private boolean completed;
+  private LocalDateTime completedAt;
+
+  /**
+   * @param query 用户提问
+   * @param conversationId 请求中的会话ID（为空表示新会话）
+   * @param inputs 请求中的变量（可选）
+   */
+  public ChatTurn(String query, String conversationId, Map<String, Object> inputs) {
+    this.query = query;
+    this.inputs = inputs;
+    this.conversationId = conversationId;
+    this.newConversation = conversationId == null || conversationId.isEmpty();
+  }
+
+  /**
+   * 追加回答片段（message / agent_message 事件）
+   */
+  void appendAnswer(String chunk) {
+    answer.append(chunk);
+  }
+
+  /**
+   * 替换整个回答（message_replace 事件，如内容审查替换）
+   */
+  void replaceAnswer(String text) {
+    answer.setLength(0);
+    answer.append(text);
+  }
+
+  /**
+   * 记录回答关联的文件（message_file 事件）
+   */
+  void addMessageFile(String file) {
+    messageFiles.add(file);
+  }
+
+  /**
+   * 记录回答引用的知识库片段（message_end 事件的 metadata.retriever_resources）
+   */
+  void setRetrieverResources(String retrieverResources) {
+    this.retrieverResources = retrieverResources;
+  }
+
+  void setConversationId(String conversationId) {
+    this.conversationId = conversationId;
+  }
+
+  void setMessageId(String messageId) {
+    this.messageId = messageId;
+  }
+
+  /**
+   * 标记完成（收到 message_end 事件）
+   */
+  void complete() {
+    this.completed = true;
+    this.completedAt = LocalDateTime.now();
+  }
+
+  public String getQuery() { return query; }
+  public Map<String, Object> getInputs() { return inputs; }
+  public List<String> getMessageFiles() { return messageFiles; }
+  public String getRetrieverResources() { return retrieverResources; }
+  public boolean isNewConversation() { return newConversation; }
+  public String getAnswer() { return answer.toString(); }
+  public String getConversationId() { return conversationId; }
+  public String getMessageId() { return messageId; }
+  public boolean isCompleted() { return completed; }
+  public LocalDateTime getCompletedAt() { return completedAt; }
+}
@@ -0,0 +1,123 @@
+package org.health.service.ai;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpTimeoutException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 带空闲超时和总超时的响应体输入流
+ * HttpRequest.timeout 只约束等待响应头，上游在响应体中途停止发送时读取会一直阻塞；
+ * 超过空闲时间没有读到数据、或超过总时长时由定时任务关闭底层流，阻塞中的读取随即以 HttpTimeoutException 结束
+ */
+class DeadlineInputStream extends FilterInputStream {
+
+  private final ScheduledExecutorService scheduler;
+  private final long idleNanos;
+  private final long deadlineNanos;
+
+  // 最近一次读到数据的时间，每次读取都会刷新（检查任务按它重新计算下一次检查时间）
+  private volatile long lastReadNanos;
+  private volatile boolean timedOut;
+  private volatile boolean closed;
+
+  /**
+   * @param in 响应体
+   * @param scheduler 执行超时检查的调度器
+   * @param idleMillis 两次读到数据之间的最长间隔
+   * @param totalMillis 读取整个响应体的最长时间
+   */
+  DeadlineInputStream(InputStream in, ScheduledExecutorService scheduler, long idleMillis, long totalMillis) {
+    super(in);
+    this.scheduler = scheduler;
+    this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+    this.lastReadNanos = System.nanoTime();
+    this.deadlineNanos = lastReadNanos + TimeUnit.MILLISECONDS.toNanos(totalMillis);
+    schedule(Math.min(idleNanos, deadlineNanos - lastReadNanos));
+  }
+
+  @Override
+  public int read() throws IOException {
+    try {
+      int b = super.read();
+      return afterRead(b);
+    } catch (IOException e) {
+      throw translate(e);
+    }
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    try {
+      int n = super.read(b, off, len);
+      return afterRead(n);
+    } catch (IOException e) {
+      throw translate(e);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    super.close();
+  }
+
+  /**
+   * 是否因超时被关闭
+   */
+  boolean isTimedOut() {
+    return timedOut;
+  }
+
+  private int afterRead(int result) throws IOException {
+    // 关闭后底层流可能返回 EOF 而不是抛异常，超时时不能当作正常结束
+    if (timedOut) {
+      throw timeoutException(null);
+    }
+    lastReadNanos = System.nanoTime();
+    return result;
+  }
+
+  private IOException translate(IOException e) {
+    return timedOut && !(e instanceof HttpTimeoutException) ? timeoutException(e) : e;
+  }
+
+  private HttpTimeoutException timeoutException(IOException cause) {
+    HttpTimeoutException e = new HttpTimeoutException("读取DIFY响应超时");
+    if (cause != null) {
+      e.initCause(cause);
+    }
+    return e;
+  }
+
+  private void schedule(long delayNanos) {
+    try {
+      scheduler.schedule(this::check, Math.max(delayNanos, 0), TimeUnit.NANOSECONDS);
+    } catch (Exception e) {
+      // 调度器已关闭（应用关闭中），不再检查
+    }
+  }
+
+  /**
+   * 超时检查：已超时则关闭底层流，否则按最近一次读取时间安排下一次检查
+   */
+  private void check() {
+    if (closed) {
+      return;
+    }
+    long now = System.nanoTime();
+    long idleAt = lastReadNanos + idleNanos;
+    if (now - idleAt >= 0 || now - deadlineNanos >= 0) {
+      timedOut = true;
+      try {
+        in.close();
+      } catch (IOException ignored) {
+        // 关闭失败时读取方仍会在下一次读取时收到超时
+      }
+      return;
+    }
+    schedule(Math.min(idleAt, deadlineNanos) - now);
+  }
+}
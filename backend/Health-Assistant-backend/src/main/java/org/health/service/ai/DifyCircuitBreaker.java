@@ -0,0 +1,118 @@
+package org.health.service.ai;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * DIFY 熔断器
+ * 连续失败（连接失败、超时、5xx）达到阈值后熔断，熔断期间直接拒绝请求，不再等待上游超时；
+ * 熔断时间过后进入半开状态，只放行一个探测请求：成功则恢复，失败则重新熔断
+ */
+@Service
+public class DifyCircuitBreaker {
+
+  private static final Logger logger = LoggerFactory.getLogger(DifyCircuitBreaker.class);
+
+  /**
+   * 熔断器状态
+   */
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Value("${dify.circuit.failure-threshold:5}")
+  private int failureThreshold;
+
+  @Value("${dify.circuit.open-millis:30000}")
+  private long openMillis;
+
+  private State state = State.CLOSED;
+  private int consecutiveFailures;
+  private long openedAt;
+  private long probeStartedAt;
+
+  private Counter rejectedCounter;
+
+  @PostConstruct
+  public void init() {
+    Gauge.builder("dify.circuit.state", this, b -> b.getState().ordinal())
+        .description("DIFY熔断器状态（0关闭，1熔断，2半开）")
+        .register(meterRegistry);
+    rejectedCounter = Counter.builder("dify.circuit.rejected")
+        .description("熔断期间被拒绝的DIFY请求数")
+        .register(meterRegistry);
+  }
+
+  /**
+   * 请求前调用，判断是否放行
+   * 放行后必须以 {@link #onSuccess()} 或 {@link #onFailure()} 报告结果；
+   * 半开状态的探测请求未报告结果时，超过熔断时间后允许下一个探测
+   *
+   * @return 是否放行
+   */
+  public synchronized boolean tryAcquire() {
+    long now = System.currentTimeMillis();
+    switch (state) {
+      case OPEN:
+        if (now - openedAt < openMillis) {
+          rejectedCounter.increment();
+          return false;
+        }
+        state = State.HALF_OPEN;
+        probeStartedAt = now;
+        logger.info("DIFY熔断器进入半开状态，放行探测请求");
+        return true;
+      case HALF_OPEN:
+        if (now - probeStartedAt < openMillis) {
+          rejectedCounter.increment();
+          return false;
+        }
+        probeStartedAt = now;
+        return true;
+      default:
+        return true;
+    }
+  }
+
+  /**
+   * 报告请求成功（包括4xx等上游正常处理的响应）
+   */
+  public synchronized void onSuccess() {
+    consecutiveFailures = 0;
+    if (state != State.CLOSED) {
+      state = State.CLOSED;
+      logger.info("DIFY熔断器已恢复");
+    }
+  }
+
+  /**
+   * 报告请求失败（连接失败、超时、5xx）
+   */
+  public synchronized void onFailure() {
+    consecutiveFailures++;
+    if (state == State.HALF_OPEN
+        || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+      state = State.OPEN;
+      openedAt = System.currentTimeMillis();
+      logger.warn("DIFY熔断器打开: 连续失败{}次, {}ms内拒绝请求", consecutiveFailures, openMillis);
+    }
+  }
+
+  /**
+   * 当前状态
+   */
+  public synchronized State getState() {
+    return state;
+  }
+}
@@ -1,22 +1,42 @@
 package org.health.service.ai;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.net.URI;
 import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 /**
  * DIFY API 客户端服务
@@ -26,20 +46,107 @@ public class DifyClientService {
 
   private static final Logger logger = LoggerFactory.getLogger(DifyClientService.class);
 
+  private static final int MAX_ERROR_BODY_BYTES = 2048;
+
+  // message_file 事件中与 /v1/messages 的 message_files 元素相同的字段
+  private static final String[] MESSAGE_FILE_FIELDS = {"id", "type", "url", "belongs_to"};
+
   @Value("${DIFY_BASE_URL}")
   private String baseUrl;
 
   @Value("${DIFY_API_KEY}")
   private String apiKey;
 
+  /**
+   * 等待响应头的超时时间；GET 响应体的读取同样不超过该时间（流式响应体由 stream-* 超时约束）
+   */
+  @Value("${dify.http.read-timeout-ms:30000}")
+  private long readTimeoutMs;
+
+  /**
+   * 流式响应两次收到数据之间的最长间隔（上游每隔几秒发送 ping 事件，超过该时间视为上游卡住）
+   */
+  @Value("${dify.http.stream-idle-timeout-ms:60000}")
+  private long streamIdleTimeoutMs;
+
+  /**
+   * 流式响应的最长总时长
+   */
+  @Value("${dify.http.stream-timeout-ms:300000}")
+  private long streamTimeoutMs;
+
+  /**
+   * GET 请求的最大重试次数
+   */
+  @Value("${dify.retry.max-retries:2}")
+  private int maxRetries;
+
+  @Value("${dify.retry.base-backoff-ms:200}")
+  private long retryBaseBackoffMs;
+
+  @Value("${dify.retry.max-backoff-ms:2000}")
+  private long retryMaxBackoffMs;
+
+  /**
+   * 重试预算：每个请求积累的重试额度（0.2 表示重试量最多约为请求量的 20%）
+   */
+  @Value("${dify.retry.budget-ratio:0.2}")
+  private double retryBudgetRatio;
+
+  /**
+   * 同时发往 DIFY 的请求上限（HTTP/1.1 下即连接数上限；流式对话在读完响应体之前一直占用）
+   */
+  @Value("${dify.http.max-connections:256}")
+  private int maxConnections;
+
+  /**
+   * 连接数已满时等待空闲名额的最长时间，超时直接失败，不再访问上游
+   */
+  @Value("${dify.http.acquire-timeout-ms:2000}")
+  private long acquireTimeoutMs;
+
+  @Autowired
+  private HttpClient difyHttpClient;
+
+  @Autowired
+  private DifyCircuitBreaker circuitBreaker;
+
+  private RetryBudget retryBudget;
+
+  // 发往 DIFY 的请求名额（JDK HttpClient 不限制连接数，由此约束）
+  private Semaphore connectionPermits;
+
+  // 响应体读取超时检查（到期时关闭响应流，解除阻塞中的读取）
+  private ScheduledExecutorService deadlineScheduler;
+
   private final ObjectMapper objectMapper;
 
+  private final JsonFactory jsonFactory;
+
+  /**
+   * 响应模型读取器：上游字段为 snake_case，忽略模型中没有的字段
+   * 与读成字符串再解析为 Map 的方式相比，一页 100 条消息的分配约为五分之一（见 DifyModelReadBenchmarkTest）
+   */
+  private final ObjectReader conversationListReader;
+  private final ObjectReader messageListReader;
+
   public DifyClientService() {
     this.objectMapper = new ObjectMapper();
+    this.jsonFactory = objectMapper.getFactory();
+    ObjectMapper responseMapper = new ObjectMapper()
+        .setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE)
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    this.conversationListReader = responseMapper.readerFor(DifyModels.ConversationListResponse.class);
+    this.messageListReader = responseMapper.readerFor(DifyModels.MessageListResponse.class);
   }
 
   @PostConstruct
   public void init() {
+    retryBudget = new RetryBudget(retryBudgetRatio, 10);
+    connectionPermits = new Semaphore(maxConnections, true);
+    deadlineScheduler = Executors.newSingleThreadScheduledExecutor(
+        Thread.ofPlatform().name("dify-body-deadline").daemon().factory());
+
     // 验证配置是否正确加载
     if (baseUrl == null || baseUrl.isEmpty()) {
       logger.error("DIFY_BASE_URL 未配置！");
@@ -58,6 +165,11 @@ public class DifyClientService {
     }
   }
 
+  @PreDestroy
+  public void destroy() {
+    deadlineScheduler.shutdownNow();
+  }
+
   /**
    * 发送流式聊天消息 - 完全按照 DIFY API 规范
    *
@@ -66,16 +178,16 @@ public class DifyClientService {
    * @param user             用户标识（必填）
    * @param inputs           App定义的变量值（可选）
    * @param autoGenerateName 是否自动生成会话标题（可选）
-   * @param emitter          流式响应发射器
-   * @return conversationId 会话ID
+   * @param stream           流式对话（事件写入缓冲区并转发给当前连接，客户端断开不中断上游）
+   * @return 本轮对话结果（会话ID、消息ID、完整回答；收到 message_end 时标记完成）
    */
-  public String streamChat(
+  public ChatTurn streamChat(
       String query,
       String conversationId,
       String user,
       Map<String, Object> inputs,
       Boolean autoGenerateName,
-      SseEmitter emitter) {
+      AiStream stream) {
     try {
       String url = baseUrl + "/v1/chat-messages";
 
@@ -103,62 +215,84 @@ public class DifyClientService {
         throw new RuntimeException("DIFY_API_KEY 未配置，请检查环境变量或配置文件");
       }
 
-      // 创建 HTTP 连接
-      URL apiUrl = new java.net.URI(url).toURL();
-      HttpURLConnection connection = (HttpURLConnection) apiUrl.openConnection();
-      connection.setRequestMethod("POST");
-      // 使用 DIFY_API_KEY，而不是用户登录的 token
-      connection.setRequestProperty("Authorization", "Bearer " + apiKey);
-      connection.setRequestProperty("Content-Type", "application/json");
-      connection.setRequestProperty("Accept", "text/event-stream");
-      connection.setDoOutput(true);
-      connection.setDoInput(true);
+      // 发送请求体（使用 DIFY_API_KEY，而不是用户登录的 token）
+      String jsonBody = objectMapper.writeValueAsString(requestBody);
+      HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+          .timeout(Duration.ofMillis(readTimeoutMs))
+          .header("Authorization", "Bearer " + apiKey)
+          .header("Content-Type", "application/json")
+          .header("Accept", "text/event-stream")
+          .POST(HttpRequest.BodyPublishers.ofString(jsonBody, StandardCharsets.UTF_8))
+          .build();
 
       logger.debug("向 DIFY 发送请求: URL={}, Authorization=Bearer {}...", url,
           apiKey.length() > 10 ? apiKey.substring(0, 10) + "..." : "***");
 
-      // 发送请求体
-      String jsonBody = objectMapper.writeValueAsString(requestBody);
-      connection.getOutputStream().write(jsonBody.getBytes(StandardCharsets.UTF_8));
-
-      // 检查响应状态
-      int responseCode = connection.getResponseCode();
-      if (responseCode != HttpURLConnection.HTTP_OK) {
-        BufferedReader errorReader = new BufferedReader(
-            new InputStreamReader(connection.getErrorStream(), StandardCharsets.UTF_8));
-        StringBuilder errorResponse = new StringBuilder();
-        String line;
-        while ((line = errorReader.readLine()) != null) {
-          errorResponse.append(line);
-        }
-        errorReader.close();
-        connection.disconnect();
-
-        // 发送错误消息并完成 emitter
-        String errorMessage = "DIFY API 调用失败: " + responseCode + " - " + errorResponse.toString();
-        Map<String, Object> errorData = new HashMap<>();
-        errorData.put("event", "error");
-        errorData.put("status", responseCode);
-        errorData.put("code", "api_error");
-        errorData.put("message", errorMessage);
-
-        try {
-          emitter.send(SseEmitter.event().data(objectMapper.writeValueAsString(errorData)));
-          emitter.completeWithError(new RuntimeException(errorMessage));
-        } catch (Exception ex) {
-          try {
-            emitter.completeWithError(new RuntimeException(errorMessage));
-          } catch (Exception ignored) {
-          }
-        }
+      // 连接数已满时直接返回错误，不再向上游发起新连接
+      if (!acquireConnection()) {
+        String errorMessage = "DIFY 连接数已满，请稍后重试";
+        stream.fail(503, "service_unavailable", errorMessage);
         throw new EmitterAlreadyCompletedException(errorMessage);
       }
+      try {
+        return sendStream(request, query, conversationId, inputs, stream);
+      } finally {
+        connectionPermits.release();
+      }
 
-      // 读取流式响应并透传所有事件
-      BufferedReader reader = new BufferedReader(
-          new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+    } catch (EmitterAlreadyCompletedException e) {
+      throw e;
+    } catch (Exception e) {
+      // 发送错误消息并结束流式对话
+      stream.fail(500, "internal_error", e.getMessage());
+      throw new EmitterAlreadyCompletedException("流式聊天请求失败: " + e.getMessage(), e);
+    }
+  }
 
-      String currentConversationId = conversationId;
+  /**
+   * 发送流式请求并转发响应事件（调用方已占用一个连接名额，读完或关闭响应流后归还）
+   */
+  private ChatTurn sendStream(
+      HttpRequest request,
+      String query,
+      String conversationId,
+      Map<String, Object> inputs,
+      AiStream stream) throws IOException, InterruptedException {
+    // 熔断期间直接返回错误，不等待上游超时
+    if (!circuitBreaker.tryAcquire()) {
+      String errorMessage = "DIFY 服务暂不可用，请稍后重试";
+      stream.fail(503, "service_unavailable", errorMessage);
+      throw new EmitterAlreadyCompletedException(errorMessage);
+    }
+
+    // 流式请求不重试（非幂等），只向熔断器报告建立连接的结果
+    HttpResponse<InputStream> response;
+    try {
+      response = difyHttpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+    } catch (IOException e) {
+      circuitBreaker.onFailure();
+      throw e;
+    }
+
+    // 检查响应状态
+    int responseCode = response.statusCode();
+    reportStatus(responseCode);
+    if (responseCode != 200) {
+      String errorResponse = readErrorBody(response.body());
+
+      // 发送错误消息并结束流式对话
+      String errorMessage = "DIFY API 调用失败: " + responseCode + " - " + errorResponse;
+      stream.fail(responseCode, "api_error", errorMessage);
+      throw new EmitterAlreadyCompletedException(errorMessage);
+    }
+
+    // 读取流式响应并透传所有事件（关闭响应流后连接归还连接池）
+    // 上游长时间不发送数据或超过总时长时关闭响应流，避免转发线程一直阻塞、占用并发许可
+    // 按行解码为字符串：转发和续传缓冲区都使用字符串，改为按字节扫描仍要解码，只省下约两成分配（见 DifyEventScanBenchmarkTest）
+    ChatTurn turn = new ChatTurn(query, conversationId, inputs);
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new DeadlineInputStream(response.body(), deadlineScheduler, streamIdleTimeoutMs, streamTimeoutMs),
+        StandardCharsets.UTF_8))) {
       String line;
 
       while ((line = reader.readLine()) != null) {
@@ -169,29 +303,49 @@ public class DifyClientService {
           }
 
           try {
-            JsonNode eventNode = objectMapper.readTree(jsonData);
-            String event = eventNode.has("event") ? eventNode.get("event").asText() : "";
+            // 只扫描顶层的 event / conversation_id 等字段，不构建 JsonNode 树
+            EventHead head = scanEventHead(jsonData);
+            String event = head.event != null ? head.event : "";
 
             // 更新 conversation_id
-            if (eventNode.has("conversation_id")) {
-              currentConversationId = eventNode.get("conversation_id").asText();
+            if (head.conversationId != null) {
+              turn.setConversationId(head.conversationId);
+            }
+            if (head.messageId != null) {
+              turn.setMessageId(head.messageId);
+            }
+
+            // 累积回答内容，用于本地保存对话记录
+            if (head.answer != null) {
+              if ("message".equals(event) || "agent_message".equals(event)) {
+                turn.appendAnswer(head.answer);
+              } else if ("message_replace".equals(event)) {
+                turn.replaceAnswer(head.answer);
+              }
             }
 
-            // 透传所有事件类型给客户端
+            // 透传所有事件类型给客户端（原样转发原始字符串）
             // 包括：message, message_file, message_end, tts_message, tts_message_end,
             // message_replace, error, ping, workflow_started, node_started,
             // node_finished, workflow_finished 等
-            emitter.send(SseEmitter.event().data(jsonData));
+            stream.publish(jsonData);
+
+            // 文件和引用片段只出现在个别事件中，单独解析整个事件后保存到对话记录
+            if ("message_file".equals(event)) {
+              turn.addMessageFile(readMessageFile(jsonData));
+            }
 
             // message_end 事件后结束
             if ("message_end".equals(event)) {
+              turn.complete();
+              turn.setRetrieverResources(readRetrieverResources(jsonData));
               break;
             }
 
             // error 事件后抛出异常
             if ("error".equals(event)) {
-              String errorMsg = eventNode.has("message")
-                  ? eventNode.get("message").asText()
+              String errorMsg = head.message != null
+                  ? head.message
                   : "未知错误";
               throw new RuntimeException("DIFY API 错误: " + errorMsg);
             }
@@ -205,33 +359,117 @@ public class DifyClientService {
           }
         }
       }
+    } catch (IOException e) {
+      // 响应体读取超时或连接中断，计为上游失败
+      circuitBreaker.onFailure();
+      if (e instanceof HttpTimeoutException) {
+        String errorMessage = "DIFY 响应超时，请稍后重试";
+        stream.fail(504, "upstream_timeout", errorMessage);
+        throw new EmitterAlreadyCompletedException(errorMessage, e);
+      }
+      throw e;
+    }
 
-      reader.close();
-      connection.disconnect();
+    return turn;
+  }
 
-      return currentConversationId != null ? currentConversationId : conversationId;
+  /**
+   * 用流式解析器扫描事件的顶层字段：event、conversation_id，回答类事件额外读取 message_id、answer，
+   * error 事件额外读取 message；其他字段（如 metadata）直接跳过，拿到所需字段后提前结束，不分配 JsonNode 树
+   *
+   * @param json data 行的 JSON 内容
+   * @return 事件头部字段
+   * @throws IOException JSON 格式错误时抛出
+   */
+  EventHead scanEventHead(String json) throws IOException {
+    EventHead head = new EventHead();
+    try (JsonParser parser = jsonFactory.createParser(json)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new IOException("事件不是JSON对象");
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.currentName();
+        JsonToken value = parser.nextToken();
+        if ("event".equals(field) && value == JsonToken.VALUE_STRING) {
+          head.event = parser.getText();
+        } else if ("conversation_id".equals(field) && value.isScalarValue()) {
+          head.conversationId = parser.getValueAsString();
+        } else if ("message_id".equals(field) && value == JsonToken.VALUE_STRING) {
+          head.messageId = parser.getText();
+        } else if ("answer".equals(field) && value == JsonToken.VALUE_STRING) {
+          head.answer = parser.getText();
+        } else if ("message".equals(field) && value == JsonToken.VALUE_STRING) {
+          head.message = parser.getText();
+        } else {
+          parser.skipChildren();
+        }
+        if (head.isComplete()) {
+          break;
+        }
+      }
+    }
+    return head;
+  }
 
-    } catch (EmitterAlreadyCompletedException e) {
-      throw e;
-    } catch (Exception e) {
-      // 发送错误消息并完成 emitter
-      Map<String, Object> errorData = new HashMap<>();
-      errorData.put("event", "error");
-      errorData.put("status", 500);
-      errorData.put("code", "internal_error");
-      errorData.put("message", e.getMessage());
+  /**
+   * 读取 message_file 事件中的文件信息（JSON对象字符串）
+   */
+  private String readMessageFile(String json) throws IOException {
+    JsonNode node = objectMapper.readTree(json);
+    ObjectNode file = objectMapper.createObjectNode();
+    for (String field : MESSAGE_FILE_FIELDS) {
+      if (node.hasNonNull(field)) {
+        file.set(field, node.get(field));
+      }
+    }
+    return objectMapper.writeValueAsString(file);
+  }
 
-      try {
-        emitter.send(SseEmitter.event()
-            .data(objectMapper.writeValueAsString(errorData)));
-        emitter.completeWithError(e);
-      } catch (Exception ex) {
-        try {
-          emitter.completeWithError(e);
-        } catch (Exception ignored) {
-        }
+  /**
+   * 读取 message_end 事件中引用的知识库片段（JSON数组字符串，没有引用时返回null）
+   */
+  private String readRetrieverResources(String json) throws IOException {
+    JsonNode resources = objectMapper.readTree(json).path("metadata").path("retriever_resources");
+    return resources.isArray() && !resources.isEmpty() ? objectMapper.writeValueAsString(resources) : null;
+  }
+
+  /**
+   * 流式事件的顶层字段
+   */
+  static class EventHead {
+    private String event;
+    private String conversationId;
+    private String message;
+    private String messageId;
+    private String answer;
+
+    String getEvent() {
+      return event;
+    }
+
+    String getConversationId() {
+      return conversationId;
+    }
+
+    /**
+     * 当前事件类型需要的字段是否都已读到
+     */
+    boolean isComplete() {
+      if (event == null || conversationId == null) {
+        return false;
+      }
+      switch (event) {
+        case "error":
+          return message != null;
+        case "message":
+        case "agent_message":
+        case "message_replace":
+          return messageId != null && answer != null;
+        case "message_end":
+          return messageId != null;
+        default:
+          return true;
       }
-      throw new EmitterAlreadyCompletedException("流式聊天请求失败: " + e.getMessage(), e);
     }
   }
 
@@ -245,7 +483,7 @@ public class DifyClientService {
    * @return 会话列表响应，包含 limit、has_more、data 字段
    * @throws RuntimeException 当 API 调用失败时抛出
    */
-  public Map<String, Object> getConversations(
+  public DifyModels.ConversationListResponse getConversations(
       String user,
       String lastId,
       Integer limit,
@@ -280,53 +518,8 @@ public class DifyClientService {
         throw new RuntimeException("DIFY_API_KEY 未配置，请检查环境变量或配置文件");
       }
 
-      // 创建 HTTP 连接
-      URL apiUrl = new java.net.URI(url).toURL();
-      HttpURLConnection connection = (HttpURLConnection) apiUrl.openConnection();
-      connection.setRequestMethod("GET");
-      connection.setRequestProperty("Authorization", "Bearer " + apiKey);
-      connection.setRequestProperty("Accept", "application/json");
-      connection.setDoInput(true);
-
-      logger.debug("向 DIFY 发送请求: URL={}, Authorization=Bearer {}...", url,
-          apiKey.length() > 10 ? apiKey.substring(0, 10) + "..." : "***");
-
-      // 检查响应状态
-      int responseCode = connection.getResponseCode();
-      if (responseCode != HttpURLConnection.HTTP_OK) {
-        BufferedReader errorReader = new BufferedReader(
-            new InputStreamReader(connection.getErrorStream(), StandardCharsets.UTF_8));
-        StringBuilder errorResponse = new StringBuilder();
-        String line;
-        while ((line = errorReader.readLine()) != null) {
-          errorResponse.append(line);
-        }
-        errorReader.close();
-        connection.disconnect();
-
-        String errorMessage = "DIFY API 调用失败: " + responseCode + " - " + errorResponse.toString();
-        logger.error(errorMessage);
-        throw new RuntimeException(errorMessage);
-      }
-
-      // 读取响应
-      BufferedReader reader = new BufferedReader(
-          new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
-      StringBuilder response = new StringBuilder();
-      String line;
-      while ((line = reader.readLine()) != null) {
-        response.append(line);
-      }
-      reader.close();
-      connection.disconnect();
-
-      // 解析 JSON 响应
-      String jsonResponse = response.toString();
-      Map<String, Object> result = objectMapper.readValue(jsonResponse,
-          objectMapper.getTypeFactory().constructMapType(Map.class, String.class, Object.class));
-
-      logger.debug("DIFY API 响应: {}", jsonResponse);
-      return result;
+      // 发送请求（共享 HttpClient，复用连接），响应流直接反序列化为响应模型
+      return sendGet(url, conversationListReader);
 
     } catch (RuntimeException e) {
       throw e;
@@ -347,7 +540,7 @@ public class DifyClientService {
    * @return 消息列表响应，包含 limit、has_more、data 字段
    * @throws RuntimeException 当 API 调用失败时抛出
    */
-  public Map<String, Object> getMessages(
+  public DifyModels.MessageListResponse getMessages(
       String conversationId,
       String user,
       String firstId,
@@ -377,60 +570,170 @@ public class DifyClientService {
         throw new RuntimeException("DIFY_API_KEY 未配置，请检查环境变量或配置文件");
       }
 
-      // 创建 HTTP 连接
-      URL apiUrl = new java.net.URI(url).toURL();
-      HttpURLConnection connection = (HttpURLConnection) apiUrl.openConnection();
-      connection.setRequestMethod("GET");
-      connection.setRequestProperty("Authorization", "Bearer " + apiKey);
-      connection.setRequestProperty("Accept", "application/json");
-      connection.setDoInput(true);
+      // 发送请求（共享 HttpClient，复用连接），响应流直接反序列化为响应模型
+      return sendGet(url, messageListReader);
 
-      logger.debug("向 DIFY 发送请求: URL={}, Authorization=Bearer {}...", url,
-          apiKey.length() > 10 ? apiKey.substring(0, 10) + "..." : "***");
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      String errorMessage = "获取会话历史消息失败: " + e.getMessage();
+      logger.error(errorMessage, e);
+      throw new RuntimeException(errorMessage, e);
+    }
+  }
 
-      // 检查响应状态
-      int responseCode = connection.getResponseCode();
-      if (responseCode != HttpURLConnection.HTTP_OK) {
-        BufferedReader errorReader = new BufferedReader(
-            new InputStreamReader(connection.getErrorStream(), StandardCharsets.UTF_8));
-        StringBuilder errorResponse = new StringBuilder();
-        String line;
-        while ((line = errorReader.readLine()) != null) {
-          errorResponse.append(line);
-        }
-        errorReader.close();
-        connection.disconnect();
+  /**
+   * 发送 GET 请求并返回响应体
+   * GET 是幂等的：连接失败、超时、502/503/504 时按指数退避（全抖动）重试，
+   * 重试次数受重试预算约束，上游整体故障时不会因重试放大流量；熔断期间、连接数已满时直接失败
+   *
+   * @param url 请求地址（含查询参数）
+   * @param reader 响应模型的读取器（直接从响应流反序列化，不生成中间字符串）
+   * @return 响应模型
+   * @throws RuntimeException 响应状态不是 200 时抛出
+   */
+  private <T> T sendGet(String url, ObjectReader reader) throws Exception {
+    HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+        .timeout(Duration.ofMillis(readTimeoutMs))
+        .header("Authorization", "Bearer " + apiKey)
+        .header("Accept", "application/json")
+        .GET()
+        .build();
+
+    logger.debug("向 DIFY 发送请求: URL={}, Authorization=Bearer {}...", url,
+        apiKey.length() > 10 ? apiKey.substring(0, 10) + "..." : "***");
+
+    retryBudget.onRequest();
+    for (int attempt = 0; ; attempt++) {
+      // 连接数已满时直接失败，不再向上游发起新连接（先占名额再检查熔断，避免半开探测被占住）
+      if (!acquireConnection()) {
+        throw new DifyUnavailableException("DIFY 连接数已满，请稍后重试");
+      }
+      if (!circuitBreaker.tryAcquire()) {
+        connectionPermits.release();
+        throw new DifyUnavailableException("DIFY 服务暂不可用，请稍后重试");
+      }
+
+      String failure;
+      try {
+        // 读完响应体后立即归还连接名额，退避等待期间不占用
+        try {
+          HttpResponse<InputStream> response = difyHttpClient.send(request,
+              HttpResponse.BodyHandlers.ofInputStream());
+          int status = response.statusCode();
+          if (status == 200) {
+            // 响应体读取同样受超时约束；读取中断、超时按上游失败重试，内容无法解析时直接失败
+            T body = readBody(response.body(), reader);
+            circuitBreaker.onSuccess();
+            return body;
+          }
+          reportStatus(status);
 
-        String errorMessage = "DIFY API 调用失败: " + responseCode + " - " + errorResponse.toString();
-        logger.error(errorMessage);
-        throw new RuntimeException(errorMessage);
+          // 检查响应状态（错误响应体只读取前若干字节）
+          failure = "DIFY API 调用失败: " + status + " - " + readErrorBody(response.body());
+          if (status != 502 && status != 503 && status != 504) {
+            logger.error(failure);
+            throw new RuntimeException(failure);
+          }
+        } finally {
+          connectionPermits.release();
+        }
+      } catch (IOException e) {
+        // 连接失败、连接被重置、超时（HttpTimeoutException）
+        circuitBreaker.onFailure();
+        if (attempt >= maxRetries || !retryBudget.tryRetry()) {
+          throw e;
+        }
+        logger.warn("DIFY API 请求失败: {}，第{}次重试", e.getMessage(), attempt + 1);
+        backoff(attempt);
+        continue;
       }
 
-      // 读取响应
-      BufferedReader reader = new BufferedReader(
-          new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
-      StringBuilder response = new StringBuilder();
-      String line;
-      while ((line = reader.readLine()) != null) {
-        response.append(line);
+      if (attempt >= maxRetries || !retryBudget.tryRetry()) {
+        logger.error(failure);
+        throw new RuntimeException(failure);
       }
-      reader.close();
-      connection.disconnect();
+      logger.warn("{}，第{}次重试", failure, attempt + 1);
+      backoff(attempt);
+    }
+  }
 
-      // 解析 JSON 响应
-      String jsonResponse = response.toString();
-      Map<String, Object> result = objectMapper.readValue(jsonResponse,
-          objectMapper.getTypeFactory().constructMapType(Map.class, String.class, Object.class));
+  /**
+   * 读取 200 响应体并反序列化（空闲、总时长均不超过 read-timeout-ms）
+   * 响应内容无法解析说明上游可用但响应不符合预期：向熔断器报告成功，抛出运行时异常不再重试
+   */
+  private <T> T readBody(InputStream body, ObjectReader reader) throws IOException {
+    try (InputStream in = new DeadlineInputStream(body, deadlineScheduler, readTimeoutMs, readTimeoutMs)) {
+      return reader.readValue(in);
+    } catch (JsonProcessingException e) {
+      circuitBreaker.onSuccess();
+      String failure = "DIFY 响应解析失败: " + e.getOriginalMessage();
+      logger.error(failure);
+      throw new RuntimeException(failure, e);
+    }
+  }
 
-      logger.debug("DIFY API 响应: {}", jsonResponse);
-      return result;
+  /**
+   * 占用一个发往 DIFY 的请求名额，最多等待 acquire-timeout-ms
+   *
+   * @return 是否拿到名额（拿到后由调用方在读完响应体后归还）
+   */
+  private boolean acquireConnection() throws InterruptedException {
+    return connectionPermits.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS);
+  }
 
-    } catch (RuntimeException e) {
-      throw e;
-    } catch (Exception e) {
-      String errorMessage = "获取会话历史消息失败: " + e.getMessage();
-      logger.error(errorMessage, e);
-      throw new RuntimeException(errorMessage, e);
+  /**
+   * 向熔断器报告响应状态：5xx 视为上游故障，其余视为上游正常
+   */
+  private void reportStatus(int status) {
+    if (status >= 500) {
+      circuitBreaker.onFailure();
+    } else {
+      circuitBreaker.onSuccess();
+    }
+  }
+
+  /**
+   * 重试前等待：在 [0, min(上限, 基数*2^attempt)] 内随机（全抖动），避免多个请求同时重试
+   */
+  private void backoff(int attempt) throws InterruptedException {
+    long ceiling = Math.min(retryMaxBackoffMs, retryBaseBackoffMs << Math.min(attempt, 16));
+    Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+  }
+
+  /**
+   * 读取错误响应的前 MAX_ERROR_BODY_BYTES 字节（错误页可能很大，只用于日志和提示）
+   */
+  private String readErrorBody(InputStream body) throws IOException {
+    try (InputStream in = body) {
+      return new String(in.readNBytes(MAX_ERROR_BODY_BYTES), StandardCharsets.UTF_8);
+    }
+  }
+
+  /**
+   * 重试预算（令牌桶）：每个请求存入 ratio 个令牌，每次重试消耗 1 个，令牌上限为 maxTokens
+   */
+  private static class RetryBudget {
+    private final double ratio;
+    private final double maxTokens;
+    private double tokens;
+
+    RetryBudget(double ratio, double maxTokens) {
+      this.ratio = ratio;
+      this.maxTokens = maxTokens;
+      this.tokens = maxTokens;
+    }
+
+    synchronized void onRequest() {
+      tokens = Math.min(maxTokens, tokens + ratio);
+    }
+
+    synchronized boolean tryRetry() {
+      if (tokens < 1) {
+        return false;
+      }
+      tokens -= 1;
+      return true;
     }
   }
 }
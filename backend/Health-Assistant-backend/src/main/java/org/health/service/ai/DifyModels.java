@@ -0,0 +1,444 @@
+package org.health.service.ai;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * DIFY 响应模型
+ * 会话列表、历史消息接口的响应直接从上游响应流反序列化为这些类型（读取时使用 snake_case 字段名），
+ * 对外输出时沿用 camelCase 字段名，与原接口格式一致；本地对话记录也转换为同样的类型返回
+ */
+public final class DifyModels {
+
+  private DifyModels() {
+  }
+
+  /**
+   * 会话列表响应 - 完全按照 DIFY API 规范
+   */
+  @Schema(description = "会话列表响应，完全符合 DIFY API 规范")
+  public static class ConversationListResponse {
+    @Schema(description = "实际返回的条数（可能受系统限制）", example = "20")
+    private Integer limit;
+
+    @Schema(description = "是否还有更多数据可供分页", example = "false")
+    private Boolean hasMore;
+
+    @Schema(description = "会话列表")
+    private List<ConversationItem> data;
+
+    public Integer getLimit() {
+      return limit;
+    }
+
+    public void setLimit(Integer limit) {
+      this.limit = limit;
+    }
+
+    public Boolean getHasMore() {
+      return hasMore;
+    }
+
+    public void setHasMore(Boolean hasMore) {
+      this.hasMore = hasMore;
+    }
+
+    public List<ConversationItem> getData() {
+      return data;
+    }
+
+    public void setData(List<ConversationItem> data) {
+      this.data = data;
+    }
+  }
+
+  /**
+   * 会话项 - 完全按照 DIFY API 规范
+   */
+  @Schema(description = "会话项，完全符合 DIFY API 规范")
+  public static class ConversationItem {
+    @Schema(description = "会话唯一 ID", example = "10799fb8-64f7-4296-bbf7-b42bfbe0ae54")
+    private String id;
+
+    @Schema(description = "会话名称（通常由大语言模型自动生成）", example = "New chat")
+    private String name;
+
+    @Schema(description = "用户在该会话中传入的初始变量（键值对）")
+    private Map<String, Object> inputs;
+
+    @Schema(description = "会话状态", example = "normal")
+    private String status;
+
+    @Schema(description = "开场白（部分应用配置下存在）", example = "")
+    private String introduction;
+
+    @Schema(description = "会话创建时间（Unix 秒时间戳）", example = "1679667915")
+    private Long createdAt;
+
+    @Schema(description = "会话最后更新时间（Unix 秒时间戳）", example = "1679667915")
+    private Long updatedAt;
+
+    public String getId() {
+      return id;
+    }
+
+    public void setId(String id) {
+      this.id = id;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public void setName(String name) {
+      this.name = name;
+    }
+
+    public Map<String, Object> getInputs() {
+      return inputs;
+    }
+
+    public void setInputs(Map<String, Object> inputs) {
+      this.inputs = inputs;
+    }
+
+    public String getStatus() {
+      return status;
+    }
+
+    public void setStatus(String status) {
+      this.status = status;
+    }
+
+    public String getIntroduction() {
+      return introduction;
+    }
+
+    public void setIntroduction(String introduction) {
+      this.introduction = introduction;
+    }
+
+    public Long getCreatedAt() {
+      return createdAt;
+    }
+
+    public void setCreatedAt(Long createdAt) {
+      this.createdAt = createdAt;
+    }
+
+    public Long getUpdatedAt() {
+      return updatedAt;
+    }
+
+    public void setUpdatedAt(Long updatedAt) {
+      this.updatedAt = updatedAt;
+    }
+  }
+
+  /**
+   * 消息列表响应 - 完全按照 DIFY API 规范
+   */
+  @Schema(description = "消息列表响应，完全符合 DIFY API 规范")
+  public static class MessageListResponse {
+    @Schema(description = "实际返回的消息条数（可能受系统限制）", example = "20")
+    private Integer limit;
+
+    @Schema(description = "是否还有更早的消息可供加载", example = "false")
+    private Boolean hasMore;
+
+    @Schema(description = "消息列表（按时间倒序排列，最新在前）")
+    private List<MessageItem> data;
+
+    public Integer getLimit() {
+      return limit;
+    }
+
+    public void setLimit(Integer limit) {
+      this.limit = limit;
+    }
+
+    public Boolean getHasMore() {
+      return hasMore;
+    }
+
+    public void setHasMore(Boolean hasMore) {
+      this.hasMore = hasMore;
+    }
+
+    public List<MessageItem> getData() {
+      return data;
+    }
+
+    public void setData(List<MessageItem> data) {
+      this.data = data;
+    }
+  }
+
+  /**
+   * 消息项 - 完全按照 DIFY API 规范
+   */
+  @Schema(description = "消息项，完全符合 DIFY API 规范")
+  public static class MessageItem {
+    @Schema(description = "消息唯一 ID", example = "a076a87f-31e5-48dc-b452-0061adbbc922")
+    private String id;
+
+    @Schema(description = "所属会话 ID", example = "cd78daf6-f9e4-4463-9ff2-54257230a0ce")
+    private String conversationId;
+
+    @Schema(description = "用户在该轮对话中传入的变量（键值对）")
+    private Map<String, Object> inputs;
+
+    @Schema(description = "用户输入/提问内容", example = "iphone 13 pro")
+    private String query;
+
+    @Schema(description = "助手回复内容", example = "The iPhone 13 Pro...")
+    private String answer;
+
+    @Schema(description = "本轮消息关联的文件列表")
+    private List<MessageFile> messageFiles;
+
+    @Schema(description = "用户反馈信息")
+    private Feedback feedback;
+
+    @Schema(description = "引用的知识库片段（如有）")
+    private List<RetrieverResource> retrieverResources;
+
+    @Schema(description = "消息创建时间（Unix 秒时间戳）", example = "1705569239")
+    private Long createdAt;
+
+    public String getId() {
+      return id;
+    }
+
+    public void setId(String id) {
+      this.id = id;
+    }
+
+    public String getConversationId() {
+      return conversationId;
+    }
+
+    public void setConversationId(String conversationId) {
+      this.conversationId = conversationId;
+    }
+
+    public Map<String, Object> getInputs() {
+      return inputs;
+    }
+
+    public void setInputs(Map<String, Object> inputs) {
+      this.inputs = inputs;
+    }
+
+    public String getQuery() {
+      return query;
+    }
+
+    public void setQuery(String query) {
+      this.query = query;
+    }
+
+    public String getAnswer() {
+      return answer;
+    }
+
+    public void setAnswer(String answer) {
+      this.answer = answer;
+    }
+
+    public List<MessageFile> getMessageFiles() {
+      return messageFiles;
+    }
+
+    public void setMessageFiles(List<MessageFile> messageFiles) {
+      this.messageFiles = messageFiles;
+    }
+
+    public Feedback getFeedback() {
+      return feedback;
+    }
+
+    public void setFeedback(Feedback feedback) {
+      this.feedback = feedback;
+    }
+
+    public List<RetrieverResource> getRetrieverResources() {
+      return retrieverResources;
+    }
+
+    public void setRetrieverResources(List<RetrieverResource> retrieverResources) {
+      this.retrieverResources = retrieverResources;
+    }
+
+    public Long getCreatedAt() {
+      return createdAt;
+    }
+
+    public void setCreatedAt(Long createdAt) {
+      this.createdAt = createdAt;
+    }
+  }
+
+  /**
+   * 消息文件 - 完全按照 DIFY API 规范
+   */
+  @Schema(description = "消息文件，完全符合 DIFY API 规范")
+  public static class MessageFile {
+    @Schema(description = "文件唯一 ID", example = "file-123")
+    private String id;
+
+    @Schema(description = "文件类型（目前主要为 image）", example = "image")
+    private String type;
+
+    @Schema(description = "文件预览地址", example = "https://...")
+    private String url;
+
+    @Schema(description = "文件归属方：user 或 assistant", example = "user")
+    private String belongsTo;
+
+    public String getId() {
+      return id;
+    }
+
+    public void setId(String id) {
+      this.id = id;
+    }
+
+    public String getType() {
+      return type;
+    }
+
+    public void setType(String type) {
+      this.type = type;
+    }
+
+    public String getUrl() {
+      return url;
+    }
+
+    public void setUrl(String url) {
+      this.url = url;
+    }
+
+    public String getBelongsTo() {
+      return belongsTo;
+    }
+
+    public void setBelongsTo(String belongsTo) {
+      this.belongsTo = belongsTo;
+    }
+  }
+
+  /**
+   * 用户反馈 - 完全按照 DIFY API 规范
+   */
+  @Schema(description = "用户反馈，完全符合 DIFY API 规范")
+  public static class Feedback {
+    @Schema(description = "用户反馈：like 表示点赞，dislike 表示点踩", example = "like", allowableValues = { "like", "dislike" })
+    private String rating;
+
+    public String getRating() {
+      return rating;
+    }
+
+    public void setRating(String rating) {
+      this.rating = rating;
+    }
+  }
+
+  /**
+   * 检索资源 - 完全按照 DIFY API 规范
+   */
+  @Schema(description = "检索资源，完全符合 DIFY API 规范")
+  public static class RetrieverResource {
+    @Schema(description = "引用顺序", example = "1")
+    private Integer position;
+
+    @Schema(description = "数据集 ID", example = "101b4c97-fc2e-463c-90b1-5261a4cdcafb")
+    private String datasetId;
+
+    @Schema(description = "数据集名称", example = "iPhone")
+    private String datasetName;
+
+    @Schema(description = "文档 ID", example = "8dd1ad74-0b5f-4175-b735-7d98bbbb4e00")
+    private String documentId;
+
+    @Schema(description = "文档名称", example = "iPhone List")
+    private String documentName;
+
+    @Schema(description = "片段 ID", example = "ed599c7f-2766-4294-9d1d-e5235a61270a")
+    private String segmentId;
+
+    @Schema(description = "相似度得分", example = "0.98457545")
+    private Double score;
+
+    @Schema(description = "原始文本内容", example = "\"Model\",\"Release Date\",...\"iOS 15\"")
+    private String content;
+
+    public Integer getPosition() {
+      return position;
+    }
+
+    public void setPosition(Integer position) {
+      this.position = position;
+    }
+
+    public String getDatasetId() {
+      return datasetId;
+    }
+
+    public void setDatasetId(String datasetId) {
+      this.datasetId = datasetId;
+    }
+
+    public String getDatasetName() {
+      return datasetName;
+    }
+
+    public void setDatasetName(String datasetName) {
+      this.datasetName = datasetName;
+    }
+
+    public String getDocumentId() {
+      return documentId;
+    }
+
+    public void setDocumentId(String documentId) {
+      this.documentId = documentId;
+    }
+
+    public String getDocumentName() {
+      return documentName;
+    }
+
+    public void setDocumentName(String documentName) {
+      this.documentName = documentName;
+    }
+
+    public String getSegmentId() {
+      return segmentId;
+    }
+
+    public void setSegmentId(String segmentId) {
+      this.segmentId = segmentId;
+    }
+
+    public Double getScore() {
+      return score;
+    }
+
+    public void setScore(Double score) {
+      this.score = score;
+    }
+
+    public String getContent() {
+      return content;
+    }
+
+    public void setContent(String content) {
+      this.content = content;
+    }
+  }
+}
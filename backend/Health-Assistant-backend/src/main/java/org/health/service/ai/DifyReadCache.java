@@ -0,0 +1,304 @@
+package org.health.service.ai;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.health.common.LocalCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
+
+/**
+ * DIFY 读接口缓存
+ * 按用户缓存会话列表和历史消息分页的响应，用户在会话列表和聊天页之间来回切换时不再重复请求上游：
+ * 写入后 fresh-seconds 内直接返回；之后到 stale-seconds 内先返回旧值、后台刷新（stale-while-revalidate）；
+ * 会话收到 message_end 后失效该用户的会话列表和该会话的消息分页；
+ * 开启 prefetch-enabled 时，返回还有更早消息的分页后在后台预取上一页，用户向上滚动时直接从预取缓冲区返回
+ */
+@Service
+public class DifyReadCache {
+
+  private static final Logger logger = LoggerFactory.getLogger(DifyReadCache.class);
+
+  @Autowired
+  private DifyClientService difyClientService;
+
+  @Autowired
+  private ExecutorService aiStreamExecutor;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Value("${dify.read-cache.enabled:true}")
+  private boolean enabled;
+
+  @Value("${dify.read-cache.max-size:5000}")
+  private int maxSize;
+
+  @Value("${dify.read-cache.fresh-seconds:15}")
+  private long freshSeconds;
+
+  @Value("${dify.read-cache.stale-seconds:120}")
+  private long staleSeconds;
+
+  @Value("${dify.read-cache.prefetch-enabled:false}")
+  private boolean prefetchEnabled;
+
+  @Value("${dify.read-cache.prefetch-max-size:500}")
+  private int prefetchMaxSize;
+
+  @Value("${dify.read-cache.prefetch-seconds:60}")
+  private long prefetchSeconds;
+
+  private LocalCache<CacheKey, CachedResponse> cache;
+
+  // 预取的上一页消息，与读缓存分开限制大小，避免预取挤掉常用条目；取出即删除
+  private LocalCache<CacheKey, CachedResponse> prefetched;
+
+  // 正在预取的键，同一页同时只预取一次
+  private final Set<CacheKey> prefetching = ConcurrentHashMap.newKeySet();
+
+  // 正在后台刷新的键，同一个键同时只刷新一次
+  private final Set<CacheKey> refreshing = ConcurrentHashMap.newKeySet();
+
+  private Counter staleCounter;
+  private Counter savedCounter;
+  private Counter prefetchUsedCounter;
+
+  @PostConstruct
+  public void init() {
+    // 条目保留到 stale 窗口结束，是否新鲜由写入时间判断
+    cache = new LocalCache<>(maxSize, Math.max(staleSeconds, freshSeconds) * 1000L);
+    cache.bindTo(meterRegistry, "dify.read.cache");
+    staleCounter = Counter.builder("dify.read.cache.stale")
+        .description("返回旧值并后台刷新的次数")
+        .register(meterRegistry);
+    savedCounter = Counter.builder("dify.read.cache.saved")
+        .baseUnit("milliseconds")
+        .description("缓存命中节省的上游请求耗时（按该条目上次加载耗时累计）")
+        .register(meterRegistry);
+    prefetched = new LocalCache<>(prefetchMaxSize, prefetchSeconds * 1000L);
+    prefetched.bindTo(meterRegistry, "dify.read.prefetch");
+    prefetchUsedCounter = Counter.builder("dify.read.prefetch.used")
+        .description("直接从预取缓冲区返回的消息分页数")
+        .register(meterRegistry);
+  }
+
+  /**
+   * 获取会话列表（参数同 {@link DifyClientService#getConversations}）
+   */
+  public DifyModels.ConversationListResponse getConversations(String user, String lastId, Integer limit,
+                                                              String sortBy) {
+    CacheKey key = new CacheKey("conversations", user, null, lastId, limit, sortBy);
+    return get(key, () -> difyClientService.getConversations(user, lastId, limit, sortBy));
+  }
+
+  /**
+   * 获取会话历史消息（参数同 {@link DifyClientService#getMessages}）
+   */
+  public DifyModels.MessageListResponse getMessages(String conversationId, String user, String firstId,
+                                                    Integer limit) {
+    CacheKey key = new CacheKey("messages", user, conversationId, firstId, limit, null);
+    DifyModels.MessageListResponse response = takePrefetched(key);
+    if (response == null) {
+      response = get(key, () -> difyClientService.getMessages(conversationId, user, firstId, limit));
+    }
+    prefetchOlder(conversationId, user, limit, response);
+    return response;
+  }
+
+  /**
+   * 会话有新消息后失效该用户的会话列表（排序、更新时间变化）和该会话的消息分页
+   *
+   * @param user 用户标识
+   * @param conversationId 会话ID
+   */
+  public void invalidateConversation(String user, String conversationId) {
+    if (!enabled) {
+      return;
+    }
+    cache.invalidateIf(key -> key.user.equals(user)
+        && ("conversations".equals(key.type) || conversationId.equals(key.conversationId)));
+    if (prefetchEnabled) {
+      prefetched.invalidateIf(key -> key.user.equals(user) && conversationId.equals(key.conversationId));
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> T get(CacheKey key, Supplier<T> loader) {
+    if (!enabled) {
+      return loader.get();
+    }
+
+    CachedResponse cached = cache.getIfPresent(key);
+    if (cached != null) {
+      savedCounter.increment(cached.loadMillis);
+      if (System.currentTimeMillis() - cached.loadedAt > freshSeconds * 1000L) {
+        staleCounter.increment();
+        refreshAsync(key, loader);
+      }
+      return (T) cached.body;
+    }
+
+    // 未命中（getIfPresent 已计数）时同步加载
+    return (T) cache.reload(key, k -> load(loader)).body;
+  }
+
+  /**
+   * 后台刷新旧值（失败时保留旧值，直到 stale 窗口结束）
+   */
+  private void refreshAsync(CacheKey key, Supplier<?> loader) {
+    if (!refreshing.add(key)) {
+      return;
+    }
+    try {
+      aiStreamExecutor.execute(() -> {
+        try {
+          cache.reload(key, k -> load(loader));
+        } catch (Exception e) {
+          logger.warn("后台刷新DIFY缓存失败: key={}, {}", key, e.getMessage());
+        } finally {
+          refreshing.remove(key);
+        }
+      });
+    } catch (Exception e) {
+      // 执行器已关闭
+      refreshing.remove(key);
+    }
+  }
+
+  /**
+   * 取出预取的分页（只使用一次），开启读缓存时同时放入读缓存
+   */
+  private DifyModels.MessageListResponse takePrefetched(CacheKey key) {
+    if (!prefetchEnabled) {
+      return null;
+    }
+    CachedResponse cached = prefetched.getIfPresent(key);
+    if (cached == null) {
+      return null;
+    }
+    prefetched.invalidate(key);
+    if (enabled) {
+      cache.put(key, cached);
+    }
+    prefetchUsedCounter.increment();
+    savedCounter.increment(cached.loadMillis);
+    return (DifyModels.MessageListResponse) cached.body;
+  }
+
+  /**
+   * 还有更早的消息时，在后台预取上一页（游标为本页第一条消息，条数与本页请求一致）
+   * 上一页已在读缓存或预取缓冲区中、或正在预取时跳过；预取失败只记录日志，用户滚动时按正常流程请求
+   */
+  private void prefetchOlder(String conversationId, String user, Integer limit,
+                             DifyModels.MessageListResponse response) {
+    if (!prefetchEnabled || response == null || !Boolean.TRUE.equals(response.getHasMore())
+        || response.getData() == null || response.getData().isEmpty()) {
+      return;
+    }
+    // 消息按时间正序返回，第一条即本页最早的消息
+    String nextFirstId = response.getData().get(0).getId();
+    if (nextFirstId == null) {
+      return;
+    }
+    CacheKey key = new CacheKey("messages", user, conversationId, nextFirstId, limit, null);
+    // 只检查是否存在，不计入读缓存的命中/未命中
+    if ((enabled && cache.containsKey(key)) || prefetched.containsKey(key) || !prefetching.add(key)) {
+      return;
+    }
+    try {
+      aiStreamExecutor.execute(() -> {
+        try {
+          // 预取期间会话被失效时不写入
+          prefetched.reload(key,
+              k -> load(() -> difyClientService.getMessages(conversationId, user, nextFirstId, limit)));
+        } catch (Exception e) {
+          logger.debug("预取DIFY历史消息失败: key={}, {}", key, e.getMessage());
+        } finally {
+          prefetching.remove(key);
+        }
+      });
+    } catch (Exception e) {
+      // 执行器已关闭
+      prefetching.remove(key);
+    }
+  }
+
+  private CachedResponse load(Supplier<?> loader) {
+    long begin = System.currentTimeMillis();
+    Object body = loader.get();
+    long now = System.currentTimeMillis();
+    return new CachedResponse(body, now, now - begin);
+  }
+
+  /**
+   * 缓存键：接口类型 + 用户 + 请求参数
+   */
+  private static final class CacheKey {
+    private final String type;
+    private final String user;
+    private final String conversationId;
+    private final String cursor;
+    private final Integer limit;
+    private final String sortBy;
+
+    CacheKey(String type, String user, String conversationId, String cursor, Integer limit, String sortBy) {
+      this.type = type;
+      this.user = user;
+      this.conversationId = conversationId;
+      this.cursor = cursor;
+      this.limit = limit;
+      this.sortBy = sortBy;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof CacheKey)) {
+        return false;
+      }
+      CacheKey other = (CacheKey) o;
+      return type.equals(other.type) && user.equals(other.user)
+          && Objects.equals(conversationId, other.conversationId)
+          && Objects.equals(cursor, other.cursor)
+          && Objects.equals(limit, other.limit)
+          && Objects.equals(sortBy, other.sortBy);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(type, user, conversationId, cursor, limit, sortBy);
+    }
+
+    @Override
+    public String toString() {
+      return type + "(" + user + ", " + conversationId + ", " + cursor + ", " + limit + ", " + sortBy + ")";
+    }
+  }
+
+  /**
+   * 缓存的响应
+   */
+  private static class CachedResponse {
+    private final Object body;
+    private final long loadedAt;
+    private final long loadMillis;
+
+    CachedResponse(Object body, long loadedAt, long loadMillis) {
+      this.body = body;
+      this.loadedAt = loadedAt;
+      this.loadMillis = loadMillis;
+    }
+  }
+}
@@ -0,0 +1,10 @@
+package org.health.service.ai;
+
+/**
+ * DIFY 暂不可用的异常（熔断期间拒绝请求时抛出）
+ */
+public class DifyUnavailableException extends RuntimeException {
+  public DifyUnavailableException(String message) {
+    super(message);
+  }
+}
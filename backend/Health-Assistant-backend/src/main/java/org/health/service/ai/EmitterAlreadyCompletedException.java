@@ -1,7 +1,7 @@
 package org.health.service.ai;
 
 /**
- * 标记 SseEmitter 已经被完成的异常
+ * 标记 SseEmitter（流式对话）已经被完成的异常
  * 用于避免在 Controller 层重复完成 emitter
  */
 public class EmitterAlreadyCompletedException extends RuntimeException {
@@ -51,7 +51,7 @@ public class AuthService {
         }
 
         // 生成Token
-        String token = jwtUtil.generateToken(user.getId());
+        String token = jwtUtil.generateToken(user.getId(), user.getUsername());
 
         // 输出Token到终端
         System.out.println("登录成功，Token: " + token);
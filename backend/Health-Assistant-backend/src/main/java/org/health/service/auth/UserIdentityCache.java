@@ -0,0 +1,68 @@
+package org.health.service.auth;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.health.common.LocalCache;
+import org.health.common.UserContext;
+import org.health.entity.User;
+import org.health.mapper.UserMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * 用户身份缓存
+ * AI接口需要用户名作为 DIFY 用户标识：优先使用Token中的用户名claim，
+ * 升级前签发的Token没有该claim时按userId查询并缓存（用户名注册后不可修改，只按TTL过期）
+ */
+@Service
+public class UserIdentityCache {
+
+    @Autowired
+    private UserMapper userMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${auth.identity-cache.max-size:10000}")
+    private int maxSize;
+
+    @Value("${auth.identity-cache.ttl-seconds:600}")
+    private long ttlSeconds;
+
+    private LocalCache<Long, String> cache;
+
+    @PostConstruct
+    public void init() {
+        cache = new LocalCache<>(maxSize, ttlSeconds * 1000L);
+        cache.bindTo(meterRegistry, "auth.identity.cache");
+    }
+
+    /**
+     * 获取当前登录用户的用户名
+     *
+     * @return 用户名，用户不存在时返回null
+     */
+    public String getCurrentUsername() {
+        String username = UserContext.getUsername();
+        if (username != null && !username.isEmpty()) {
+            return username;
+        }
+        Long userId = UserContext.getUserId();
+        return userId != null ? getUsername(userId) : null;
+    }
+
+    /**
+     * 根据用户ID获取用户名（未命中时查询数据库）
+     *
+     * @param userId 用户ID
+     * @return 用户名，用户不存在时返回null
+     */
+    public String getUsername(Long userId) {
+        return cache.get(userId, id -> {
+            User user = userMapper.selectById(id);
+            return user != null ? user.getUsername() : null;
+        });
+    }
+}
@@ -0,0 +1,266 @@
+package org.health.service.med;
+
+import org.health.common.ResultCode;
+import org.health.common.UserContext;
+import org.health.entity.med.MedAdherenceDaily;
+import org.health.entity.med.MedRecord;
+import org.health.exception.BusinessException;
+import org.health.mapper.med.MedAdherenceDailyMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PostConstruct;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 服药依从性服务
+ * 按计划、日期维护点位状态的日汇总（med_adherence_daily），点位生成、状态变更、计划重建时
+ * 只重新汇总受影响的 (plan, date) 分组；查询依从性曲线时按天读取汇总，代价与天数成正比而不是与记录数成正比
+ */
+@Service
+public class MedAdherenceService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MedAdherenceService.class);
+
+    @Autowired
+    private MedAdherenceDailyMapper medAdherenceDailyMapper;
+
+    @Autowired
+    private MedPlanCache medPlanCache;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    // 提交后重新汇总使用独立事务
+    private TransactionTemplate requiresNew;
+
+    @PostConstruct
+    public void init() {
+        requiresNew = new TransactionTemplate(transactionManager);
+        requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * 重新汇总某条记录所在 (plan, date) 分组的点位状态（单条标记、补记后调用）
+     * 在事务中调用时于提交后执行，见 {@link #afterCommit}
+     *
+     * @param recordId 记录ID
+     */
+    public void refreshByRecordId(Long recordId) {
+        afterCommit(() -> medAdherenceDailyMapper.upsertByRecordId(recordId));
+    }
+
+    /**
+     * 重新汇总一批 (plan, date) 分组的点位状态（批量变更状态、漏服扫描后调用）
+     * 在事务中调用时于提交后执行，见 {@link #afterCommit}
+     *
+     * @param records 变更过的记录（只使用planId、date，可重复）
+     */
+    public void refreshPlanDates(Collection<MedRecord> records) {
+        Map<String, MedRecord> keys = new LinkedHashMap<>();
+        for (MedRecord record : records) {
+            keys.putIfAbsent(record.getPlanId() + "|" + record.getDate(), record);
+        }
+        if (!keys.isEmpty()) {
+            List<MedRecord> keyList = new ArrayList<>(keys.values());
+            afterCommit(() -> medAdherenceDailyMapper.upsertByPlanDates(keyList));
+        }
+    }
+
+    /**
+     * 在当前事务提交后用独立事务执行汇总（没有事务时直接执行）
+     * 汇总语句 INSERT ... SELECT 会对分组内所有点位加共享锁，如果在已锁定自身点位的标记事务中执行，
+     * 同一计划同一天的两次并发标记（单条、批量、漏服扫描）会互相等待对方的点位锁而死锁；
+     * 提交后执行时只等待仍在进行的标记事务，每次标记提交后都会重新汇总，最后一次汇总读到的是最终状态。
+     * 汇总失败只记录日志，不会回滚已提交的点位、计划变更
+     */
+    private void afterCommit(Runnable refresh) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            refresh.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                try {
+                    requiresNew.executeWithoutResult(status -> refresh.run());
+                } catch (Exception e) {
+                    // 点位状态已提交，汇总在该分组下次变更时修正
+                    logger.error("重新汇总依从性失败", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * 重新汇总计划从指定日期开始的点位状态（计划重建点位、删除计划后调用）
+     * 在事务中调用时于提交后执行，见 {@link #afterCommit}
+     *
+     * @param planId 计划ID
+     * @param startDate 开始日期（包含）
+     */
+    public void refreshPlanFrom(Long planId, LocalDate startDate) {
+        afterCommit(() -> {
+            medAdherenceDailyMapper.deleteOrphansByPlanRange(planId, startDate, null);
+            medAdherenceDailyMapper.upsertByPlanRange(planId, startDate, null);
+        });
+    }
+
+    /**
+     * 重新汇总一批用户某一天的点位状态（生成点位后调用）
+     * 在事务中调用时于提交后执行，见 {@link #afterCommit}
+     *
+     * @param userIds 用户ID列表
+     * @param date 日期
+     */
+    public void refreshUsersDate(Collection<Long> userIds, LocalDate date) {
+        if (userIds.isEmpty()) {
+            return;
+        }
+        List<Long> userIdList = new ArrayList<>(userIds);
+        afterCommit(() -> medAdherenceDailyMapper.upsertByUsersDate(userIdList, date));
+    }
+
+    /**
+     * 获取依从性曲线（截止今天）
+     *
+     * @param days 统计天数（7|30|90）
+     * @param planId 计划ID（可选，不传时统计全部计划）
+     * @return 依从性曲线
+     */
+    public AdherenceVO getAdherence(Integer days, Long planId) {
+        if (days == null) {
+            days = 7;
+        }
+        if (days != 7 && days != 30 && days != 90) {
+            throw new BusinessException(ResultCode.BAD_REQUEST, "统计天数必须是7、30或90");
+        }
+
+        Long userId = UserContext.getUserId();
+        MedPlanCache.UserPlans userPlans = medPlanCache.getCurrentUserPlans(userId);
+        if (planId != null && userPlans.getPlan(planId) == null) {
+            throw new BusinessException(ResultCode.NOT_FOUND);
+        }
+
+        LocalDate endDate = LocalDate.now();
+        LocalDate startDate = endDate.minusDays(days - 1);
+        List<MedAdherenceDaily> rows = userPlans.getPlanIds().isEmpty()
+                ? Collections.emptyList()
+                : medAdherenceDailyMapper.sumByUserDate(userId, userPlans.getPlanIds(), planId, startDate, endDate);
+        Map<LocalDate, MedAdherenceDaily> byDate = rows.stream()
+                .collect(Collectors.toMap(MedAdherenceDaily::getDate, Function.identity()));
+
+        // 没有点位的日期补0，保证曲线每天一个点
+        List<DailyVO> list = new ArrayList<>(days);
+        int taken = 0;
+        int missed = 0;
+        int todo = 0;
+        for (LocalDate date = startDate; !date.isAfter(endDate); date = date.plusDays(1)) {
+            MedAdherenceDaily row = byDate.get(date);
+            DailyVO daily = new DailyVO();
+            daily.setDate(date);
+            daily.setTaken(row != null ? row.getTakenCount() : 0);
+            daily.setMissed(row != null ? row.getMissedCount() : 0);
+            daily.setTodo(row != null ? row.getTodoCount() : 0);
+            daily.setRate(rate(daily.getTaken(), daily.getMissed(), daily.getTodo()));
+            list.add(daily);
+            taken += daily.getTaken();
+            missed += daily.getMissed();
+            todo += daily.getTodo();
+        }
+
+        AdherenceVO vo = new AdherenceVO();
+        vo.setDays(days);
+        vo.setPlanId(planId);
+        vo.setStartDate(startDate);
+        vo.setEndDate(endDate);
+        vo.setTaken(taken);
+        vo.setMissed(missed);
+        vo.setTodo(todo);
+        vo.setRate(rate(taken, missed, todo));
+        vo.setList(list);
+        return vo;
+    }
+
+    /**
+     * 依从率 = 已服用 / 全部点位，保留4位小数；没有点位时返回null
+     */
+    private Double rate(int taken, int missed, int todo) {
+        int total = taken + missed + todo;
+        if (total == 0) {
+            return null;
+        }
+        return Math.round(taken * 10000.0 / total) / 10000.0;
+    }
+
+    /**
+     * 依从性曲线视图对象
+     */
+    public static class AdherenceVO {
+        private Integer days;
+        private Long planId;
+        private LocalDate startDate;
+        private LocalDate endDate;
+        private Integer taken;
+        private Integer missed;
+        private Integer todo;
+        private Double rate;
+        private List<DailyVO> list;
+
+        public Integer getDays() { return days; }
+        public void setDays(Integer days) { this.days = days; }
+        public Long getPlanId() { return planId; }
+        public void setPlanId(Long planId) { this.planId = planId; }
+        public LocalDate getStartDate() { return startDate; }
+        public void setStartDate(LocalDate startDate) { this.startDate = startDate; }
+        public LocalDate getEndDate() { return endDate; }
+        public void setEndDate(LocalDate endDate) { this.endDate = endDate; }
+        public Integer getTaken() { return taken; }
+        public void setTaken(Integer taken) { this.taken = taken; }
+        public Integer getMissed() { return missed; }
+        public void setMissed(Integer missed) { this.missed = missed; }
+        public Integer getTodo() { return todo; }
+        public void setTodo(Integer todo) { this.todo = todo; }
+        public Double getRate() { return rate; }
+        public void setRate(Double rate) { this.rate = rate; }
+        public List<DailyVO> getList() { return list; }
+        public void setList(List<DailyVO> list) { this.list = list; }
+    }
+
+    /**
+     * 每日依从性视图对象
+     */
+    public static class DailyVO {
+        private LocalDate date;
+        private Integer taken;
+        private Integer missed;
+        private Integer todo;
+        private Double rate;
+
+        public LocalDate getDate() { return date; }
+        public void setDate(LocalDate date) { this.date = date; }
+        public Integer getTaken() { return taken; }
+        public void setTaken(Integer taken) { this.taken = taken; }
+        public Integer getMissed() { return missed; }
+        public void setMissed(Integer missed) { this.missed = missed; }
+        public Integer getTodo() { return todo; }
+        public void setTodo(Integer todo) { this.todo = todo; }
+        public Double getRate() { return rate; }
+        public void setRate(Double rate) { this.rate = rate; }
+    }
+}
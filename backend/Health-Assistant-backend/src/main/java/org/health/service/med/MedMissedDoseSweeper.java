@@ -0,0 +1,159 @@
+package org.health.service.med;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.health.entity.med.MedRecord;
+import org.health.mapper.med.MedRecordMapper;
+import org.health.service.JobLeaseService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PostConstruct;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 漏服扫描任务
+ * 定时把超过宽限时间仍为 todo 的点位标记为 missed：按主键顺序分批扫描 todo 记录，
+ * 每批在一个短事务内完成条件更新（仍为 todo 才更新）和依从性汇总刷新，不持有长事务；
+ * 每次运行的批数有上限，未扫完时下次从断点继续。多节点部署时通过 job_lease 租约保证同一时间只有一个节点执行
+ */
+@Service
+public class MedMissedDoseSweeper {
+
+    private static final Logger logger = LoggerFactory.getLogger(MedMissedDoseSweeper.class);
+
+    private static final String JOB_NAME = "med-missed-dose-sweeper";
+
+    @Autowired
+    private MedRecordMapper medRecordMapper;
+
+    @Autowired
+    private MedAdherenceService medAdherenceService;
+
+    @Autowired
+    private JobLeaseService jobLeaseService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${med.sweeper.enabled:true}")
+    private boolean enabled;
+
+    @Value("${med.sweeper.grace-minutes:120}")
+    private int graceMinutes;
+
+    @Value("${med.sweeper.batch-size:500}")
+    private int batchSize;
+
+    @Value("${med.sweeper.max-batches:200}")
+    private int maxBatches;
+
+    @Value("${med.sweeper.lease-seconds:120}")
+    private int leaseSeconds;
+
+    // 扫描断点（本节点内存中，未扫完时下次从这里继续；换节点执行时从头扫描）
+    private volatile long cursor;
+
+    private TransactionTemplate transactionTemplate;
+    private Counter scannedCounter;
+    private Counter updatedCounter;
+    private Timer runTimer;
+
+    @PostConstruct
+    public void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        scannedCounter = Counter.builder("med.sweeper.scanned")
+                .description("漏服扫描读取的todo记录数")
+                .register(meterRegistry);
+        updatedCounter = Counter.builder("med.sweeper.updated")
+                .description("漏服扫描标记为missed的记录数")
+                .register(meterRegistry);
+        runTimer = Timer.builder("med.sweeper.duration")
+                .description("每次漏服扫描的耗时")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 定时任务：标记超时未打卡的点位
+     */
+    @Scheduled(fixedDelayString = "${med.sweeper.interval-millis:300000}")
+    public void sweep() {
+        if (!enabled || !jobLeaseService.tryAcquire(JOB_NAME, leaseSeconds)) {
+            return;
+        }
+        long begin = System.nanoTime();
+        try {
+            sweepOnce();
+        } catch (Exception e) {
+            // 已完成的批次已提交，下次从断点继续
+            logger.error("漏服扫描失败: cursor={}", cursor, e);
+        } finally {
+            runTimer.record(System.nanoTime() - begin, TimeUnit.NANOSECONDS);
+            jobLeaseService.release(JOB_NAME);
+        }
+    }
+
+    private void sweepOnce() {
+        LocalDateTime cutoff = LocalDateTime.now().minusMinutes(graceMinutes);
+        LocalDate cutoffDate = cutoff.toLocalDate();
+        LocalTime cutoffTime = cutoff.toLocalTime();
+
+        int scanned = 0;
+        int updated = 0;
+        for (int i = 0; i < maxBatches; i++) {
+            // 每批之前续期租约，续期失败说明已被其他节点接管
+            if (i > 0 && !jobLeaseService.tryAcquire(JOB_NAME, leaseSeconds)) {
+                logger.warn("漏服扫描租约已失效，停止本次扫描: cursor={}", cursor);
+                break;
+            }
+
+            List<MedRecord> batch = medRecordMapper.selectTodoAfterId(cursor, cutoffDate, batchSize);
+            scanned += batch.size();
+
+            List<MedRecord> overdue = new ArrayList<>();
+            for (MedRecord record : batch) {
+                if (record.getDate().isBefore(cutoffDate) || !record.getTime().isAfter(cutoffTime)) {
+                    overdue.add(record);
+                }
+            }
+            if (!overdue.isEmpty()) {
+                List<Long> ids = new ArrayList<>(overdue.size());
+                overdue.forEach(record -> ids.add(record.getId()));
+                Integer rows = transactionTemplate.execute(status -> {
+                    int count = medRecordMapper.markMissedByIds(ids);
+                    medAdherenceService.refreshPlanDates(overdue);
+                    return count;
+                });
+                updated += rows != null ? rows : 0;
+            }
+
+            if (batch.size() < batchSize) {
+                // 已扫到末尾，下次从头开始
+                cursor = 0;
+                break;
+            }
+            cursor = batch.get(batch.size() - 1).getId();
+        }
+
+        scannedCounter.increment(scanned);
+        updatedCounter.increment(updated);
+        if (updated > 0) {
+            logger.info("漏服扫描完成: scanned={}, updated={}, cutoff={}", scanned, updated, cutoff);
+        }
+    }
+}
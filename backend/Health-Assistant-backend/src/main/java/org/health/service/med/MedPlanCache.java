@@ -0,0 +1,196 @@
+package org.health.service.med;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.health.common.LocalCache;
+import org.health.entity.med.MedPlan;
+import org.health.entity.med.MedRecord;
+import org.health.mapper.med.MedPlanMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import jakarta.annotation.PostConstruct;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * 用户计划缓存
+ * 按userId缓存用户全部未删除的计划（含时间点、重复天数）及编译后的排期，
+ * 计划的新建、修改、删除、提醒开关变更时由 MedPlanService 显式失效。
+ * 失效只发生在处理变更的节点上，其他节点的条目最长在 ttl-seconds 后过期；
+ * 按计划ID限定记录范围的读取使用 getCurrentUserPlans，先核对数据库中的计划ID，不受这段过期时间影响
+ */
+@Service
+public class MedPlanCache {
+
+    @Autowired
+    private MedPlanMapper medPlanMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${med.plan-cache.max-size:10000}")
+    private int maxSize;
+
+    @Value("${med.plan-cache.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    private LocalCache<Long, UserPlans> cache;
+
+    @PostConstruct
+    public void init() {
+        cache = new LocalCache<>(maxSize, ttlSeconds * 1000L);
+        cache.bindTo(meterRegistry, "med.plan.cache");
+    }
+
+    /**
+     * 获取用户的计划（未命中时从数据库一次查询加载）
+     *
+     * @param userId 用户ID
+     * @return 用户计划
+     */
+    public UserPlans getUserPlans(Long userId) {
+        return cache.get(userId, id -> new UserPlans(medPlanMapper.selectWithSchedulesByUserId(id, null, null)));
+    }
+
+    /**
+     * 获取用户的计划，并核对数据库中未删除的计划ID（一次覆盖索引查询）
+     * 其他节点新建或删除了计划、本节点的缓存还未过期时，丢弃缓存重新加载，
+     * 保证按计划ID限定的记录查询不会漏掉新计划的记录、也不会返回已删除计划的记录
+     *
+     * @param userId 用户ID
+     * @return 与数据库计划ID一致的用户计划
+     */
+    public UserPlans getCurrentUserPlans(Long userId) {
+        UserPlans userPlans = getUserPlans(userId);
+        List<Long> planIds = medPlanMapper.selectIdsByUserId(userId);
+        if (planIds.size() != userPlans.getPlanIds().size() || !userPlans.getPlanIds().containsAll(planIds)) {
+            cache.invalidate(userId);
+            userPlans = getUserPlans(userId);
+        }
+        return userPlans;
+    }
+
+    /**
+     * 使用户的计划缓存失效
+     * 在事务中调用时，提交后会再失效一次，避免提交前被其他请求用旧数据重新加载
+     *
+     * @param userId 用户ID
+     */
+    public void invalidate(Long userId) {
+        cache.invalidate(userId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    cache.invalidate(userId);
+                }
+            });
+        }
+    }
+
+    /**
+     * 用户计划（只读，调用方不要修改其中的计划对象）
+     * 同时记录基于这份计划得出的点位生成状态，计划变动时随缓存条目一起失效
+     */
+    public static class UserPlans {
+        private final List<MedPlan> plans;
+        private final Map<Long, MedPlan> planById;
+        private final Map<Long, PlanSchedule> scheduleById;
+
+        // 预生成开始时间 -> 之后计划是否有变动
+        private final Map<LocalDateTime, Boolean> changedSince = new ConcurrentHashMap<>();
+
+        // 已按这份计划生成过点位的日期
+        private final Set<LocalDate> ensuredDates = ConcurrentHashMap.newKeySet();
+
+        UserPlans(List<MedPlan> plans) {
+            Map<Long, MedPlan> planById = new LinkedHashMap<>();
+            Map<Long, PlanSchedule> scheduleById = new LinkedHashMap<>();
+            for (MedPlan plan : plans) {
+                planById.put(plan.getId(), plan);
+                scheduleById.put(plan.getId(), PlanSchedule.compile(plan));
+            }
+            this.plans = Collections.unmodifiableList(plans);
+            this.planById = Collections.unmodifiableMap(planById);
+            this.scheduleById = Collections.unmodifiableMap(scheduleById);
+        }
+
+        /**
+         * 全部计划（按创建时间倒序）
+         */
+        public List<MedPlan> getPlans() {
+            return plans;
+        }
+
+        /**
+         * 根据ID获取计划，不存在或不属于该用户时返回null
+         */
+        public MedPlan getPlan(Long planId) {
+            return planById.get(planId);
+        }
+
+        /**
+         * 全部计划ID
+         */
+        public Set<Long> getPlanIds() {
+            return planById.keySet();
+        }
+
+        /**
+         * 用计划名称、剂量填充记录（计划已不在缓存中时保持为空）
+         */
+        public void fillPlanInfo(MedRecord record) {
+            MedPlan plan = planById.get(record.getPlanId());
+            if (plan != null) {
+                record.setPlanName(plan.getName());
+                record.setDosage(plan.getDosage());
+            }
+        }
+
+        /**
+         * 全部计划的排期
+         */
+        public Iterable<PlanSchedule> getSchedules() {
+            return scheduleById.values();
+        }
+
+        /**
+         * 计划在指定时间之后是否有变动（首次查询数据库，结果保留到缓存条目失效）
+         *
+         * @param since 起始时间
+         * @param loader 查询数据库
+         */
+        public boolean isChangedSince(LocalDateTime since, Function<LocalDateTime, Boolean> loader) {
+            Boolean changed = changedSince.get(since);
+            if (changed == null) {
+                changed = loader.apply(since);
+                changedSince.put(since, changed);
+            }
+            return changed;
+        }
+
+        /**
+         * 是否已按这份计划生成过指定日期的点位
+         */
+        public boolean isEnsured(LocalDate date) {
+            return ensuredDates.contains(date);
+        }
+
+        /**
+         * 标记已按这份计划生成过指定日期的点位
+         */
+        public void markEnsured(LocalDate date) {
+            ensuredDates.add(date);
+        }
+    }
+}
@@ -11,16 +11,15 @@ import org.health.mapper.med.MedRecordMapper;
 import org.health.mapper.med.PlanRepeatDaysMapper;
 import org.health.mapper.med.PlanTimesMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -29,6 +28,11 @@ import java.util.stream.Collectors;
 @Service
 public class MedPlanService {
 
+    /**
+     * 重新生成点位时每条批量插入语句的最大行数
+     */
+    private static final int REGENERATE_BATCH_SIZE = 500;
+
     @Autowired
     private MedPlanMapper medPlanMapper;
 
@@ -41,6 +45,18 @@ public class MedPlanService {
     @Autowired
     private MedRecordMapper medRecordMapper;
 
+    @Autowired
+    private MedPlanCache medPlanCache;
+
+    @Autowired
+    private MedAdherenceService medAdherenceService;
+
+    /**
+     * 点位提前生成的天数（滚动窗口）
+     */
+    @Value("${med.record.horizon-days:14}")
+    private int horizonDays;
+
     /**
      * 创建用药计划
      *
@@ -92,6 +108,7 @@ public class MedPlanService {
             planRepeatDaysMapper.batchInsert(daysList);
         }
 
+        medPlanCache.invalidate(userId);
         return plan.getId();
     }
 
@@ -104,36 +121,16 @@ public class MedPlanService {
      */
     public List<MedPlanVO> getPlanList(String status, String keyword) {
         Long userId = UserContext.getUserId();
-        List<MedPlan> plans = medPlanMapper.selectByUserId(userId, status, keyword);
-
-        return plans.stream().map(plan -> {
-            MedPlanVO vo = new MedPlanVO();
-            vo.setId(plan.getId());
-            vo.setName(plan.getName());
-            vo.setDosage(plan.getDosage());
-            vo.setStartDate(plan.getStartDate());
-            vo.setEndDate(plan.getEndDate());
-            vo.setRepeatType(plan.getRepeatType());
-            vo.setRemindEnabled(plan.getRemindEnabled());
-            vo.setCreatedAt(plan.getCreatedAt());
-            vo.setUpdatedAt(plan.getUpdatedAt());
-
-            // 查询时间点
-            List<PlanTimes> times = planTimesMapper.selectByPlanId(plan.getId());
-            vo.setTimes(times.stream()
-                    .map(t -> t.getTime().toString())
-                    .collect(Collectors.toList()));
-
-            // 如果是weekly类型，查询重复天数
-            if ("weekly".equals(plan.getRepeatType())) {
-                List<PlanRepeatDays> days = planRepeatDaysMapper.selectByPlanId(plan.getId());
-                vo.setRepeatDays(days.stream()
-                        .map(PlanRepeatDays::getDayOfWeek)
-                        .collect(Collectors.toList()));
-            }
-
-            return vo;
-        }).collect(Collectors.toList());
+        // 从用户计划缓存中过滤（与 selectWithSchedulesByUserId 的过滤条件一致）
+        LocalDate today = LocalDate.now();
+        String lowerKeyword = keyword != null && !keyword.isEmpty() ? keyword.toLowerCase() : null;
+
+        return medPlanCache.getUserPlans(userId).getPlans().stream()
+                .filter(plan -> !"active".equals(status) || !plan.getEndDate().isBefore(today))
+                .filter(plan -> !"expired".equals(status) || plan.getEndDate().isBefore(today))
+                .filter(plan -> lowerKeyword == null || plan.getName().toLowerCase().contains(lowerKeyword))
+                .map(this::convertToVO)
+                .collect(Collectors.toList());
     }
 
     /**
@@ -144,37 +141,13 @@ public class MedPlanService {
      */
     public MedPlanVO getPlanDetail(Long id) {
         Long userId = UserContext.getUserId();
-        MedPlan plan = medPlanMapper.selectById(id);
-        if (plan == null || !plan.getUserId().equals(userId)) {
+        // 缓存中只有当前用户未删除的计划
+        MedPlan plan = medPlanCache.getUserPlans(userId).getPlan(id);
+        if (plan == null) {
             throw new RuntimeException(ResultCode.NOT_FOUND.getMsg());
         }
 
-        MedPlanVO vo = new MedPlanVO();
-        vo.setId(plan.getId());
-        vo.setName(plan.getName());
-        vo.setDosage(plan.getDosage());
-        vo.setStartDate(plan.getStartDate());
-        vo.setEndDate(plan.getEndDate());
-        vo.setRepeatType(plan.getRepeatType());
-        vo.setRemindEnabled(plan.getRemindEnabled());
-        vo.setCreatedAt(plan.getCreatedAt());
-        vo.setUpdatedAt(plan.getUpdatedAt());
-
-        // 查询时间点
-        List<PlanTimes> times = planTimesMapper.selectByPlanId(plan.getId());
-        vo.setTimes(times.stream()
-                .map(t -> t.getTime().toString())
-                .collect(Collectors.toList()));
-
-        // 如果是weekly类型，查询重复天数
-        if ("weekly".equals(plan.getRepeatType())) {
-            List<PlanRepeatDays> days = planRepeatDaysMapper.selectByPlanId(plan.getId());
-            vo.setRepeatDays(days.stream()
-                    .map(PlanRepeatDays::getDayOfWeek)
-                    .collect(Collectors.toList()));
-        }
-
-        return vo;
+        return convertToVO(plan);
     }
 
     /**
@@ -204,6 +177,7 @@ public class MedPlanService {
             plan.setRemindEnabled(request.getRemindEnabled());
         }
         medPlanMapper.update(plan);
+        medPlanCache.invalidate(userId);
 
         // 删除旧的时间点和重复天数
         planTimesMapper.deleteByPlanId(id);
@@ -238,8 +212,11 @@ public class MedPlanService {
         // 重建 today+1 之后的点位记录
         LocalDate tomorrow = LocalDate.now().plusDays(1);
         medRecordMapper.deleteByPlanIdAndDate(id, tomorrow);
-        // 重新生成点位记录（从明天开始到结束日期）
-        regenerateRecordsFromDate(id, tomorrow, plan.getEndDate());
+        // 重新生成点位记录（从明天开始，最多到滚动窗口末端，更远的日期由夜间任务或访问时补齐）
+        LocalDate horizonEnd = LocalDate.now().plusDays(horizonDays);
+        LocalDate regenerateEnd = plan.getEndDate().isBefore(horizonEnd) ? plan.getEndDate() : horizonEnd;
+        regenerateRecordsFromDate(id, tomorrow, regenerateEnd);
+        medAdherenceService.refreshPlanFrom(id, tomorrow);
     }
 
     /**
@@ -258,9 +235,11 @@ public class MedPlanService {
         // 级联删除未来的todo记录（只删除状态为todo且日期大于今天的记录）
         LocalDate today = LocalDate.now();
         medRecordMapper.deleteFutureTodoRecordsByPlanId(id, today);
+        medAdherenceService.refreshPlanFrom(id, today.plusDays(1));
 
         // 软删除计划
         medPlanMapper.deleteById(id);
+        medPlanCache.invalidate(userId);
     }
 
     /**
@@ -277,81 +256,92 @@ public class MedPlanService {
         }
 
         medPlanMapper.updateRemindEnabled(id, remindEnabled);
+        medPlanCache.invalidate(userId);
     }
 
     /**
      * 从指定日期开始重新生成点位记录
+     * 一次查询取出区间内已存在的 (date, time) 点位放入位图，按编译后的排期计算缺失点位，
+     * 再按固定批量大小分批插入
      */
     private void regenerateRecordsFromDate(Long planId, LocalDate startDate, LocalDate endDate) {
-        MedPlan plan = medPlanMapper.selectById(planId);
-        if (plan == null) {
+        if (startDate.isAfter(endDate)) {
             return;
         }
 
-        // 获取计划的时间点
-        List<PlanTimes> times = planTimesMapper.selectByPlanId(planId);
-        if (times.isEmpty()) {
+        MedPlan plan = medPlanMapper.selectWithSchedulesById(planId);
+        if (plan == null) {
+            return;
+        }
+        PlanSchedule schedule = PlanSchedule.compile(plan);
+        int slotsPerDay = schedule.timeCount();
+        if (slotsPerDay == 0) {
             return;
         }
 
-        // 获取重复天数（如果是weekly类型）
-        List<PlanRepeatDays> repeatDays = null;
-        if ("weekly".equals(plan.getRepeatType())) {
-            repeatDays = planRepeatDaysMapper.selectByPlanId(planId);
-            if (repeatDays == null || repeatDays.isEmpty()) {
-                return;
+        // 已存在点位位图：下标 = 距startDate的天数 * 每天时间点数 + 时间点下标
+        long startEpochDay = startDate.toEpochDay();
+        BitSet existing = new BitSet();
+        for (MedRecord record : medRecordMapper.selectSlotKeysByPlanRange(planId, startDate, endDate)) {
+            int timeIndex = schedule.indexOfTime(record.getTime());
+            if (timeIndex >= 0) {
+                existing.set((int) ((record.getDate().toEpochDay() - startEpochDay) * slotsPerDay + timeIndex));
             }
         }
 
-        // 生成点位记录
-        List<MedRecord> recordsToInsert = new ArrayList<>();
-        Set<String> existingKeys = new HashSet<>();
-
-        LocalDate currentDate = startDate;
-        while (!currentDate.isAfter(endDate)) {
-            // 判断该日期是否需要生成记录
-            boolean shouldGenerate = false;
-            if ("daily".equals(plan.getRepeatType())) {
-                shouldGenerate = true;
-            } else if ("weekly".equals(plan.getRepeatType()) && repeatDays != null) {
-                DayOfWeek dayOfWeek = currentDate.getDayOfWeek();
-                int dayValue = dayOfWeek.getValue() % 7; // 转换为0-6格式（0=周日）
-                for (PlanRepeatDays repeatDay : repeatDays) {
-                    if (repeatDay.getDayOfWeek() == dayValue) {
-                        shouldGenerate = true;
-                        break;
-                    }
-                }
+        // 生成缺失的点位记录，按批量大小分批插入
+        List<MedRecord> batch = new ArrayList<>(REGENERATE_BATCH_SIZE);
+        schedule.slotsBetween(startDate, endDate, (epochDay, timeIndex) -> {
+            if (existing.get((int) ((epochDay - startEpochDay) * slotsPerDay + timeIndex))) {
+                return;
             }
-
-            if (shouldGenerate) {
-                // 为每个时间点生成记录
-                for (PlanTimes planTime : times) {
-                    String key = planId + "_" + currentDate + "_" + planTime.getTime();
-                    if (!existingKeys.contains(key)) {
-                        // 检查是否已存在记录
-                        MedRecord existing = medRecordMapper.selectByPlanDateTime(
-                                planId, currentDate, planTime.getTime().toString());
-                        if (existing == null) {
-                            MedRecord record = new MedRecord();
-                            record.setPlanId(planId);
-                            record.setDate(currentDate);
-                            record.setTime(planTime.getTime());
-                            record.setStatus("todo");
-                            recordsToInsert.add(record);
-                            existingKeys.add(key);
-                        }
-                    }
-                }
+            MedRecord record = new MedRecord();
+            record.setUserId(plan.getUserId());
+            record.setPlanId(planId);
+            record.setDate(LocalDate.ofEpochDay(epochDay));
+            record.setTime(schedule.timeAt(timeIndex));
+            record.setStatus("todo");
+            batch.add(record);
+            if (batch.size() == REGENERATE_BATCH_SIZE) {
+                medRecordMapper.batchInsertIgnore(batch);
+                batch.clear();
             }
-
-            currentDate = currentDate.plusDays(1);
+        });
+        if (!batch.isEmpty()) {
+            medRecordMapper.batchInsertIgnore(batch);
         }
+    }
 
-        // 批量插入记录
-        if (!recordsToInsert.isEmpty()) {
-            medRecordMapper.batchInsert(recordsToInsert);
+    /**
+     * 转换为视图对象（plan需已填充times、repeatDays）
+     */
+    private MedPlanVO convertToVO(MedPlan plan) {
+        MedPlanVO vo = new MedPlanVO();
+        vo.setId(plan.getId());
+        vo.setName(plan.getName());
+        vo.setDosage(plan.getDosage());
+        vo.setStartDate(plan.getStartDate());
+        vo.setEndDate(plan.getEndDate());
+        vo.setRepeatType(plan.getRepeatType());
+        vo.setRemindEnabled(plan.getRemindEnabled());
+        vo.setCreatedAt(plan.getCreatedAt());
+        vo.setUpdatedAt(plan.getUpdatedAt());
+
+        // 时间点
+        List<PlanTimes> times = plan.getTimes() != null ? plan.getTimes() : new ArrayList<>();
+        vo.setTimes(times.stream()
+                .map(t -> t.getTime().toString())
+                .collect(Collectors.toList()));
+
+        // 如果是weekly类型，填充重复天数
+        if ("weekly".equals(plan.getRepeatType())) {
+            List<PlanRepeatDays> days = plan.getRepeatDays() != null ? plan.getRepeatDays() : new ArrayList<>();
+            vo.setRepeatDays(days.stream()
+                    .map(PlanRepeatDays::getDayOfWeek)
+                    .collect(Collectors.toList()));
         }
+
+        return vo;
     }
 
     /**
@@ -0,0 +1,215 @@
+package org.health.service.med;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.health.entity.med.MedMaterializeCheckpoint;
+import org.health.entity.med.MedPlan;
+import org.health.common.LocalCache;
+import org.health.entity.med.MedRecord;
+import org.health.mapper.med.MedMaterializeCheckpointMapper;
+import org.health.mapper.med.MedPlanMapper;
+import org.health.mapper.med.MedRecordMapper;
+import org.health.service.JobLeaseService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * 点位预生成服务
+ * 每天夜间按用户ID分批为所有有效计划生成滚动窗口内（明天 ~ 今天+horizon-days）的 med_record 点位，
+ * 窗口内已完成的日期直接跳过，因此日常只需生成新进入窗口的一天；
+ * 每批完成后写入断点，进程崩溃重启后从断点继续。
+ * 多节点部署时通过 job_lease 租约保证同一时间只有一个节点执行，每批之前续期，续期失败时停止
+ */
+@Service
+public class MedRecordMaterializer {
+
+    private static final Logger logger = LoggerFactory.getLogger(MedRecordMaterializer.class);
+
+    private static final String JOB_NAME = "med-record-materializer";
+
+    @Autowired
+    private MedPlanMapper medPlanMapper;
+
+    @Autowired
+    private MedRecordMapper medRecordMapper;
+
+    @Autowired
+    private MedMaterializeCheckpointMapper checkpointMapper;
+
+    @Autowired
+    private MedAdherenceService medAdherenceService;
+
+    @Autowired
+    private MedPlanCache medPlanCache;
+
+    @Autowired
+    private JobLeaseService jobLeaseService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${med.record.horizon-days:14}")
+    private int horizonDays;
+
+    @Value("${med.materializer.enabled:true}")
+    private boolean enabled;
+
+    @Value("${med.materializer.chunk-size:200}")
+    private int chunkSize;
+
+    @Value("${med.materializer.batch-size:1000}")
+    private int batchSize;
+
+    @Value("${med.materializer.lease-seconds:300}")
+    private int leaseSeconds;
+
+    @Value("${med.materializer.pending-check-seconds:60}")
+    private long pendingCheckSeconds;
+
+    // 已完成预生成的日期 -> 本轮首次开始时间（之后变动过计划的用户需要在热路径上补生成）
+    private final Map<LocalDate, LocalDateTime> materializedDates = new ConcurrentHashMap<>();
+
+    // 最近查询过、尚未完成预生成的日期，pending-check-seconds 内不再查询断点表
+    private LocalCache<LocalDate, Boolean> pendingDates;
+
+    private Counter rowsCounter;
+
+    // 最近一次运行的生成速率（行/秒）
+    private volatile double lastRowsPerSecond;
+
+    @PostConstruct
+    public void init() {
+        pendingDates = new LocalCache<>(1000, pendingCheckSeconds * 1000L);
+        rowsCounter = Counter.builder("med.materializer.rows")
+                .description("预生成写入的点位行数")
+                .register(meterRegistry);
+        Gauge.builder("med.materializer.rows.per.second", this, m -> m.lastRowsPerSecond)
+                .description("最近一次预生成的速率（行/秒）")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 定时任务：预生成滚动窗口内的点位
+     */
+    @Scheduled(cron = "${med.materializer.cron:0 30 1 * * ?}")
+    public void materializeHorizon() {
+        if (!enabled || !jobLeaseService.tryAcquire(JOB_NAME, leaseSeconds)) {
+            return;
+        }
+        LocalDate today = LocalDate.now();
+        // 清理已过去日期的完成标记
+        materializedDates.keySet().removeIf(d -> d.isBefore(today));
+        LocalDate horizonEnd = today.plusDays(Math.max(horizonDays, 1));
+        LocalDate date = today.plusDays(1);
+        try {
+            while (!date.isAfter(horizonEnd) && materialize(date)) {
+                date = date.plusDays(1);
+            }
+        } catch (Exception e) {
+            // 断点已落库，下次运行会从断点继续
+            logger.error("点位预生成失败: date={}", date, e);
+        } finally {
+            jobLeaseService.release(JOB_NAME);
+        }
+    }
+
+    /**
+     * 为所有用户预生成指定日期的点位（支持断点续跑，调用方需持有租约）
+     *
+     * @param date 点位日期
+     * @return 是否已完成（租约失效时返回 false，断点保留）
+     */
+    public boolean materialize(LocalDate date) {
+        checkpointMapper.insertIgnore(date);
+        MedMaterializeCheckpoint checkpoint = checkpointMapper.selectByDate(date);
+        if ("done".equals(checkpoint.getStatus())) {
+            materializedDates.put(date, checkpoint.getStartedAt());
+            return true;
+        }
+
+        long begin = System.nanoTime();
+        long lastUserId = checkpoint.getLastUserId();
+        if (lastUserId > 0) {
+            logger.info("点位预生成从断点继续: date={}, lastUserId={}", date, lastUserId);
+        }
+
+        int totalRows = 0;
+        while (true) {
+            // 每批之前续期租约，续期失败说明已被其他节点接管（可能是本节点停顿超过了租约时长）
+            if (!jobLeaseService.tryAcquire(JOB_NAME, leaseSeconds)) {
+                logger.warn("点位预生成租约已失效，停止本次运行: date={}, lastUserId={}", date, lastUserId);
+                return false;
+            }
+            List<Long> userIds = medPlanMapper.selectActiveUserIds(lastUserId, date, chunkSize);
+            if (userIds.isEmpty()) {
+                break;
+            }
+
+            List<MedPlan> plans = medPlanMapper.selectSchedulesByUserIds(userIds, date);
+            List<PlanSchedule> schedules = plans.stream().map(PlanSchedule::compile).collect(Collectors.toList());
+            List<MedRecord> records = MedTodayService.buildRecords(schedules, date);
+            // INSERT IGNORE 的影响行数即新插入的行数，已存在的点位不计入速率
+            int rows = 0;
+            for (int from = 0; from < records.size(); from += batchSize) {
+                int to = Math.min(from + batchSize, records.size());
+                rows += medRecordMapper.batchInsertSkipExisting(records.subList(from, to));
+            }
+            medAdherenceService.refreshUsersDate(userIds, date);
+
+            lastUserId = userIds.get(userIds.size() - 1);
+            checkpointMapper.advance(date, lastUserId, rows);
+            rowsCounter.increment(rows);
+            totalRows += rows;
+        }
+
+        checkpointMapper.markDone(date);
+        materializedDates.put(date, checkpoint.getStartedAt());
+        pendingDates.invalidate(date);
+
+        double seconds = Math.max((System.nanoTime() - begin) / 1_000_000_000.0, 0.001);
+        lastRowsPerSecond = totalRows / seconds;
+        logger.info("点位预生成完成: date={}, rows={}, 耗时={}s, 速率={}行/秒",
+                date, totalRows, String.format("%.2f", seconds), String.format("%.1f", lastRowsPerSecond));
+        return true;
+    }
+
+    /**
+     * 判断用户在指定日期的点位是否已由夜间任务生成
+     * 预生成开始之后计划有变动（新建、修改）的用户视为未生成；
+     * 变动检查结果保存在用户计划缓存中，计划再次变动时随缓存一起失效
+     *
+     * @param userId 用户ID
+     * @param date 点位日期
+     * @return 是否已生成
+     */
+    public boolean isMaterialized(Long userId, LocalDate date) {
+        LocalDateTime startedAt = materializedDates.get(date);
+        if (startedAt == null) {
+            if (pendingDates.containsKey(date)) {
+                return false;
+            }
+            MedMaterializeCheckpoint checkpoint = checkpointMapper.selectByDate(date);
+            if (checkpoint == null || !"done".equals(checkpoint.getStatus())) {
+                pendingDates.put(date, Boolean.TRUE);
+                return false;
+            }
+            startedAt = checkpoint.getStartedAt();
+            materializedDates.put(date, startedAt);
+        }
+        return !medPlanCache.getUserPlans(userId)
+                .isChangedSince(startedAt, since -> medPlanMapper.countChangedSince(userId, since) > 0);
+    }
+}
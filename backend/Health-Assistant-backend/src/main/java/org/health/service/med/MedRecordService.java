@@ -3,14 +3,24 @@ package org.health.service.med;
 import org.health.common.ResultCode;
 import org.health.common.UserContext;
 import org.health.entity.med.MedRecord;
+import org.health.exception.BusinessException;
 import org.health.mapper.med.MedRecordMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import jakarta.validation.constraints.NotNull;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
@@ -19,11 +29,25 @@ import java.util.stream.Collectors;
 @Service
 public class MedRecordService {
 
+    /**
+     * 批量标记单次最多处理的记录数
+     */
+    private static final int MARK_BATCH_MAX_SIZE = 50;
+
     @Autowired
     private MedRecordMapper medRecordMapper;
 
+    @Autowired
+    private MedPlanCache medPlanCache;
+
+    @Autowired
+    private MedAdherenceService medAdherenceService;
+
+    @Autowired
+    private MedRecordUserIdBackfill medRecordUserIdBackfill;
+
     /**
-     * 查询记录列表
+     * 查询记录列表（页码分页）
      *
      * @param id 记录ID（可选，如果提供则优先使用）
      * @param planId 计划ID（可选）
@@ -48,9 +72,18 @@ public class MedRecordService {
 
         int offset = (page - 1) * size;
 
-        // 查询列表
-        List<MedRecord> records = medRecordMapper.selectList(userId, id, planId, status, startDate, endDate, offset, size);
-        int total = medRecordMapper.countList(userId, id, planId, status, startDate, endDate);
+        // 查询列表（按user_id单表查询，计划名称、剂量由计划缓存填充）
+        MedPlanCache.UserPlans userPlans = medPlanCache.getCurrentUserPlans(userId);
+        boolean includeNullUserId = !medRecordUserIdBackfill.isFinished();
+        List<MedRecord> records = Collections.emptyList();
+        int total = 0;
+        if (!userPlans.getPlanIds().isEmpty()) {
+            records = medRecordMapper.selectList(userId, userPlans.getPlanIds(), includeNullUserId,
+                    id, planId, status, startDate, endDate, offset, size);
+            total = medRecordMapper.countList(userId, userPlans.getPlanIds(), includeNullUserId,
+                    id, planId, status, startDate, endDate);
+        }
+        records.forEach(userPlans::fillPlanInfo);
 
         RecordListVO vo = new RecordListVO();
         vo.setList(records.stream().map(this::convertToVO).collect(Collectors.toList()));
@@ -61,6 +94,93 @@ public class MedRecordService {
         return vo;
     }
 
+    /**
+     * 查询记录列表（游标分页）
+     * 按 date DESC, time ASC, id ASC 排序，从游标位置之后读取 size + 1 条判断是否还有下一页；
+     * 排序与 idx_user_date_time_id（按状态过滤时为 idx_user_status_date_time_id）的列方向一致，
+     * 查询从游标日期在索引上定位后按索引顺序读取，不需要filesort。回填完成前（包含 user_id 为空的行）
+     * 以及按计划ID过滤时走其他索引，需要对匹配的记录排序；总数只在 withTotal 为 true 时统计
+     *
+     * @param id 记录ID（可选，如果提供则优先使用）
+     * @param planId 计划ID（可选）
+     * @param status 状态（可选）
+     * @param startDate 开始日期（可选）
+     * @param endDate 结束日期（可选）
+     * @param cursor 上一页返回的 nextCursor（为空时从第一条开始）
+     * @param size 每页大小
+     * @param withTotal 是否统计总数
+     * @return 记录列表
+     */
+    public RecordListVO getRecordListByCursor(Long id, Long planId, String status, LocalDate startDate, LocalDate endDate,
+                                              String cursor, Integer size, Boolean withTotal) {
+        Long userId = UserContext.getUserId();
+
+        if (size == null || size < 1) {
+            size = 20;
+        }
+
+        // 游标为空时从第一条开始
+        MedRecord after = cursor != null && !cursor.isEmpty() ? decodeCursor(cursor) : new MedRecord();
+
+        // 多取一条用于判断是否还有下一页
+        MedPlanCache.UserPlans userPlans = medPlanCache.getCurrentUserPlans(userId);
+        boolean includeNullUserId = !medRecordUserIdBackfill.isFinished();
+        List<MedRecord> records = userPlans.getPlanIds().isEmpty()
+                ? Collections.emptyList()
+                : medRecordMapper.selectListAfter(userId, userPlans.getPlanIds(), includeNullUserId,
+                        id, planId, status, startDate, endDate, after.getDate(), after.getTime(), after.getId(), size + 1);
+        boolean hasMore = records.size() > size;
+        if (hasMore) {
+            records = records.subList(0, size);
+        }
+        records.forEach(userPlans::fillPlanInfo);
+
+        RecordListVO vo = new RecordListVO();
+        vo.setList(records.stream().map(this::convertToVO).collect(Collectors.toList()));
+        vo.setSize(size);
+        vo.setHasMore(hasMore);
+        if (hasMore) {
+            vo.setNextCursor(encodeCursor(records.get(records.size() - 1)));
+        }
+        if (Boolean.TRUE.equals(withTotal)) {
+            vo.setTotal(userPlans.getPlanIds().isEmpty() ? 0
+                    : medRecordMapper.countList(userId, userPlans.getPlanIds(), includeNullUserId,
+                            id, planId, status, startDate, endDate));
+        }
+
+        return vo;
+    }
+
+    /**
+     * 编码游标（date|time|id 的 Base64URL，对客户端不透明）
+     */
+    private String encodeCursor(MedRecord record) {
+        String raw = record.getDate() + "|" + record.getTime() + "|" + record.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解码游标
+     *
+     * @return 只填充了 date、time、id 的记录
+     */
+    private MedRecord decodeCursor(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\\|");
+            if (parts.length != 3) {
+                throw new IllegalArgumentException();
+            }
+            MedRecord record = new MedRecord();
+            record.setDate(LocalDate.parse(parts[0]));
+            record.setTime(LocalTime.parse(parts[1]));
+            record.setId(Long.parseLong(parts[2]));
+            return record;
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new BusinessException(ResultCode.BAD_REQUEST, "cursor参数无效");
+        }
+    }
+
     /**
      * 标记已服用/未服
      *
@@ -69,20 +189,89 @@ public class MedRecordService {
      */
     @Transactional(rollbackFor = Exception.class)
     public void markRecord(Long recordId, String status) {
-        // 验证记录是否存在且属于当前用户
-        MedRecord record = medRecordMapper.selectById(recordId);
-        if (record == null) {
-            throw new RuntimeException(ResultCode.NOT_FOUND.getMsg());
-        }
-        // 注意：这里需要验证record的plan是否属于当前用户，简化处理
-
         // 验证状态
         if (!"todo".equals(status) && !"taken".equals(status) && !"missed".equals(status)) {
             throw new RuntimeException("状态必须是todo、taken或missed");
         }
 
-        // 更新状态（根据状态决定是否设置actionAt）
-        medRecordMapper.updateStatus(recordId, status);
+        // 更新状态（根据状态决定是否设置actionAt），记录存在且属于当前用户时才会更新
+        int rows = medRecordMapper.updateStatusOwned(recordId, UserContext.getUserId(), status);
+        if (rows == 0) {
+            throw new RuntimeException(ResultCode.NOT_FOUND.getMsg());
+        }
+        medAdherenceService.refreshByRecordId(recordId);
+    }
+
+    /**
+     * 批量标记记录状态
+     * 一条语句更新全部属于当前用户的记录（在语句中校验归属），并返回每条记录的处理结果
+     *
+     * @param items 标记项（recordId + status），同一记录重复出现时以最后一项为准
+     * @return 批量标记结果
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public MarkBatchResultVO markRecords(List<MarkItem> items) {
+        if (items == null || items.isEmpty()) {
+            throw new BusinessException(ResultCode.BAD_REQUEST, "标记列表不能为空");
+        }
+        if (items.size() > MARK_BATCH_MAX_SIZE) {
+            throw new BusinessException(ResultCode.BAD_REQUEST, "单次最多标记" + MARK_BATCH_MAX_SIZE + "条记录");
+        }
+        // 结果按 recordId 汇总，没有ID的项无法对应结果，整个请求视为参数错误
+        if (items.stream().anyMatch(item -> item == null || item.getRecordId() == null)) {
+            throw new BusinessException(ResultCode.BAD_REQUEST, "记录ID不能为空");
+        }
+        Long userId = UserContext.getUserId();
+
+        // 去重（以最后一项为准）并校验状态
+        Map<Long, MarkItemResultVO> results = new LinkedHashMap<>();
+        Map<Long, String> statusById = new LinkedHashMap<>();
+        for (MarkItem item : items) {
+            MarkItemResultVO result = new MarkItemResultVO();
+            result.setRecordId(item.getRecordId());
+            result.setStatus(item.getStatus());
+            results.put(item.getRecordId(), result);
+            statusById.remove(item.getRecordId());
+            if (!"todo".equals(item.getStatus()) && !"taken".equals(item.getStatus()) && !"missed".equals(item.getStatus())) {
+                result.setCode(ResultCode.BAD_REQUEST.getCode());
+                result.setMsg("状态必须是todo、taken或missed");
+            } else {
+                statusById.put(item.getRecordId(), item.getStatus());
+            }
+        }
+
+        // 一条语句更新全部属于当前用户的记录（归属在 UPDATE 中校验）
+        List<MedRecord> updates = new ArrayList<>(statusById.size());
+        statusById.forEach((recordId, status) -> {
+            MedRecord update = new MedRecord();
+            update.setId(recordId);
+            update.setStatus(status);
+            updates.add(update);
+        });
+        int rows = updates.isEmpty() ? 0 : medRecordMapper.batchUpdateStatusOwned(updates, userId);
+
+        // 被更新的记录已由 UPDATE 加锁（计划行加共享锁），此时查询到的归属与更新时一致
+        List<MedRecord> owned = rows == 0
+                ? Collections.emptyList()
+                : medRecordMapper.selectOwnedByIds(userId, statusById.keySet());
+        for (MedRecord record : owned) {
+            statusById.remove(record.getId());
+            results.get(record.getId()).setCode(ResultCode.SUCCESS.getCode());
+            results.get(record.getId()).setMsg(ResultCode.SUCCESS.getMsg());
+        }
+        // 剩下的是不存在或不属于当前用户的记录
+        for (Long recordId : statusById.keySet()) {
+            results.get(recordId).setCode(ResultCode.NOT_FOUND.getCode());
+            results.get(recordId).setMsg(ResultCode.NOT_FOUND.getMsg());
+        }
+        if (!owned.isEmpty()) {
+            medAdherenceService.refreshPlanDates(owned);
+        }
+
+        MarkBatchResultVO vo = new MarkBatchResultVO();
+        vo.setSuccessCount(rows);
+        vo.setList(new ArrayList<>(results.values()));
+        return vo;
     }
 
     /**
@@ -93,24 +282,22 @@ public class MedRecordService {
      */
     @Transactional(rollbackFor = Exception.class)
     public void adjustRecord(Long recordId, AdjustRecordRequest request) {
-        // 验证记录是否存在且属于当前用户
-        MedRecord record = medRecordMapper.selectById(recordId);
-        if (record == null) {
-            throw new RuntimeException(ResultCode.NOT_FOUND.getMsg());
-        }
-
         // 验证状态
         if (!"taken".equals(request.getStatus()) && !"missed".equals(request.getStatus())) {
             throw new RuntimeException("状态必须是taken或missed");
         }
 
-        // 更新记录
+        // 更新记录，记录存在且属于当前用户时才会更新
         MedRecord updateRecord = new MedRecord();
         updateRecord.setId(recordId);
         updateRecord.setStatus(request.getStatus());
         updateRecord.setActionAt(request.getActionAt());
         updateRecord.setNote(request.getNote());
-        medRecordMapper.update(updateRecord);
+        int rows = medRecordMapper.updateOwned(updateRecord, UserContext.getUserId());
+        if (rows == 0) {
+            throw new RuntimeException(ResultCode.NOT_FOUND.getMsg());
+        }
+        medAdherenceService.refreshByRecordId(recordId);
     }
 
     /**
@@ -146,6 +333,52 @@ public class MedRecordService {
         public void setNote(String note) { this.note = note; }
     }
 
+    /**
+     * 批量标记项
+     */
+    public static class MarkItem {
+        @NotNull(message = "记录ID不能为空")
+        private Long recordId;
+        private String status;
+
+        public Long getRecordId() { return recordId; }
+        public void setRecordId(Long recordId) { this.recordId = recordId; }
+        public String getStatus() { return status; }
+        public void setStatus(String status) { this.status = status; }
+    }
+
+    /**
+     * 批量标记结果视图对象
+     */
+    public static class MarkBatchResultVO {
+        private Integer successCount;
+        private List<MarkItemResultVO> list;
+
+        public Integer getSuccessCount() { return successCount; }
+        public void setSuccessCount(Integer successCount) { this.successCount = successCount; }
+        public List<MarkItemResultVO> getList() { return list; }
+        public void setList(List<MarkItemResultVO> list) { this.list = list; }
+    }
+
+    /**
+     * 批量标记单项结果视图对象
+     */
+    public static class MarkItemResultVO {
+        private Long recordId;
+        private String status;
+        private Integer code;
+        private String msg;
+
+        public Long getRecordId() { return recordId; }
+        public void setRecordId(Long recordId) { this.recordId = recordId; }
+        public String getStatus() { return status; }
+        public void setStatus(String status) { this.status = status; }
+        public Integer getCode() { return code; }
+        public void setCode(Integer code) { this.code = code; }
+        public String getMsg() { return msg; }
+        public void setMsg(String msg) { this.msg = msg; }
+    }
+
     /**
      * 记录列表视图对象
      */
@@ -154,6 +387,8 @@ public class MedRecordService {
         private Integer page;
         private Integer size;
         private Integer total;
+        private String nextCursor;
+        private Boolean hasMore;
 
         public List<RecordVO> getList() { return list; }
         public void setList(List<RecordVO> list) { this.list = list; }
@@ -163,6 +398,10 @@ public class MedRecordService {
         public void setSize(Integer size) { this.size = size; }
         public Integer getTotal() { return total; }
         public void setTotal(Integer total) { this.total = total; }
+        public String getNextCursor() { return nextCursor; }
+        public void setNextCursor(String nextCursor) { this.nextCursor = nextCursor; }
+        public Boolean getHasMore() { return hasMore; }
+        public void setHasMore(Boolean hasMore) { this.hasMore = hasMore; }
     }
 
     /**
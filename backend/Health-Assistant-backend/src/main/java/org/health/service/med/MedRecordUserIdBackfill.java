@@ -0,0 +1,95 @@
+package org.health.service.med;
+
+import org.health.mapper.med.MedRecordMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * med_record.user_id 回填任务
+ * 升级前生成的记录没有 user_id（回填前按用户查询时由 plan_id 限定归属，仍然可见）。启动后按ID区间从大到小回填
+ * （最新的今日/未来点位最先回填），每次定时执行只处理一批（一条 UPDATE ... JOIN），不长时间占用调度线程；
+ * 全部回填后不再执行。回填只写 user_id 为空的行，中断后重新运行不会重复写入。
+ * 回填完成（isFinished）后，按用户查询不再包含 user_id 为空的行，idx_user_* 索引为普通 ref 查找；
+ * 完成后每 recheck-millis 复查一次（滚动升级期间旧节点可能仍在写入无 user_id 的记录），发现后重新回填。
+ * 关闭回填（enabled=false）时只做完成检查，不写入
+ */
+@Service
+public class MedRecordUserIdBackfill {
+
+    private static final Logger logger = LoggerFactory.getLogger(MedRecordUserIdBackfill.class);
+
+    @Autowired
+    private MedRecordMapper medRecordMapper;
+
+    @Value("${med.backfill.enabled:true}")
+    private boolean enabled;
+
+    @Value("${med.backfill.chunk-size:5000}")
+    private int chunkSize;
+
+    @Value("${med.backfill.recheck-millis:600000}")
+    private long recheckMillis;
+
+    private volatile boolean finished;
+
+    // 最近一次查询无 user_id 记录的时间
+    private long checkedAt;
+
+    // 下一批的结束ID（0 表示需要重新查询尚未回填的最大ID）
+    private long toId;
+
+    private long total;
+
+    /**
+     * 定时任务：回填一批尚未写入 user_id 的记录（启动1分钟后开始，每 interval-millis 一批）
+     */
+    @Scheduled(initialDelay = 60_000L, fixedDelayString = "${med.backfill.interval-millis:1000}")
+    public synchronized void backfill() {
+        // 完成后、或关闭回填时只按 recheck-millis 复查
+        if ((finished || !enabled) && System.currentTimeMillis() - checkedAt < recheckMillis) {
+            return;
+        }
+
+        try {
+            if (toId <= 0 || !enabled) {
+                // 首次执行、已扫到ID下限或完成后复查（滚动升级期间旧节点可能仍在写入无 user_id 的记录）
+                Long maxId = medRecordMapper.selectMaxIdWithoutUserId();
+                checkedAt = System.currentTimeMillis();
+                if (maxId == null) {
+                    if (!finished) {
+                        logger.info("回填med_record.user_id完成: rows={}", total);
+                    }
+                    finished = true;
+                    return;
+                }
+                if (finished) {
+                    logger.warn("发现新的无user_id记录，按用户查询重新包含user_id为空的行: maxId={}", maxId);
+                }
+                finished = false;
+                if (!enabled) {
+                    return;
+                }
+                logger.info("开始回填med_record.user_id: maxId={}", maxId);
+                toId = maxId;
+            }
+
+            long fromId = Math.max(toId - chunkSize + 1, 1);
+            total += medRecordMapper.backfillUserIdByRange(fromId, toId);
+            toId = fromId - 1;
+        } catch (Exception e) {
+            // 已回填的行不会重复处理，下次执行从同一批继续
+            logger.error("回填med_record.user_id失败: 已回填{}行, 下一批结束ID={}", total, toId, e);
+        }
+    }
+
+    /**
+     * 是否已全部回填（为 false 时按用户查询需包含 user_id 为空的行）
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+}
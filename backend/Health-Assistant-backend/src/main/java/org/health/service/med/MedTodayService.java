@@ -1,24 +1,18 @@
 package org.health.service.med;
 
 import org.health.common.UserContext;
-import org.health.entity.med.MedPlan;
 import org.health.entity.med.MedRecord;
-import org.health.entity.med.PlanRepeatDays;
-import org.health.entity.med.PlanTimes;
-import org.health.mapper.med.MedPlanMapper;
 import org.health.mapper.med.MedRecordMapper;
-import org.health.mapper.med.PlanRepeatDaysMapper;
-import org.health.mapper.med.PlanTimesMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
-import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
-import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -31,13 +25,16 @@ public class MedTodayService {
     private MedRecordMapper medRecordMapper;
 
     @Autowired
-    private MedPlanMapper medPlanMapper;
+    private MedPlanCache medPlanCache;
 
     @Autowired
-    private PlanTimesMapper planTimesMapper;
+    private MedAdherenceService medAdherenceService;
 
     @Autowired
-    private PlanRepeatDaysMapper planRepeatDaysMapper;
+    private MedRecordMaterializer medRecordMaterializer;
+
+    @Autowired
+    private MedRecordUserIdBackfill medRecordUserIdBackfill;
 
     /**
      * 获取当天点位
@@ -52,11 +49,16 @@ public class MedTodayService {
 
         Long userId = UserContext.getUserId();
 
-        // 确保点位已生成
+        // 先核对计划ID（其他节点新建、删除的计划），再确保点位已生成
+        MedPlanCache.UserPlans userPlans = medPlanCache.getCurrentUserPlans(userId);
         ensureRecords(date);
 
-        // 查询当天的记录
-        List<MedRecord> records = medRecordMapper.selectByDate(userId, date);
+        // 查询当天的记录（按user_id单表查询，计划名称、剂量由计划缓存填充）
+        List<MedRecord> records = userPlans.getPlanIds().isEmpty()
+                ? Collections.emptyList()
+                : medRecordMapper.selectByDate(userId, userPlans.getPlanIds(),
+                        !medRecordUserIdBackfill.isFinished(), date);
+        records.forEach(userPlans::fillPlanInfo);
 
         TodayRecordsVO vo = new TodayRecordsVO();
         vo.setDate(date);
@@ -79,72 +81,67 @@ public class MedTodayService {
 
     /**
      * 确保生成点位
+     * 当前缓存的计划已生成过该日期、或夜间任务已预生成且之后计划没有变动时直接返回；
+     * 否则用缓存中已编译的用户计划排期在内存中展开点位，
+     * 再用一条批量插入写入，重复点位由 uk_plan_date_time 唯一键去重
      *
      * @param date 日期
      */
     @Transactional(rollbackFor = Exception.class)
     public void ensureRecords(LocalDate date) {
         Long userId = UserContext.getUserId();
-        // 查询用户的所有有效计划
-        List<MedPlan> plans = medPlanMapper.selectByUserId(userId, null, null);
-
-        // 过滤出在指定日期有效的计划
-        List<MedPlan> validPlans = plans.stream()
-                .filter(plan -> !date.isBefore(plan.getStartDate()) && !date.isAfter(plan.getEndDate()))
-                .collect(Collectors.toList());
-
-        // 生成点位记录
-        List<MedRecord> recordsToInsert = new ArrayList<>();
-        Set<String> existingKeys = new HashSet<>();
-
-        for (MedPlan plan : validPlans) {
-            // 获取计划的时间点
-            List<PlanTimes> times = planTimesMapper.selectByPlanId(plan.getId());
-
-            // 判断该日期是否需要生成记录
-            boolean shouldGenerate = false;
-            if ("daily".equals(plan.getRepeatType())) {
-                // daily类型：每天都生成
-                shouldGenerate = true;
-            } else if ("weekly".equals(plan.getRepeatType())) {
-                // weekly类型：检查是否在重复天数中
-                List<PlanRepeatDays> repeatDays = planRepeatDaysMapper.selectByPlanId(plan.getId());
-                DayOfWeek dayOfWeek = date.getDayOfWeek();
-                int dayValue = dayOfWeek.getValue() % 7; // 转换为0-6格式（0=周日）
-                for (PlanRepeatDays repeatDay : repeatDays) {
-                    if (repeatDay.getDayOfWeek() == dayValue) {
-                        shouldGenerate = true;
-                        break;
-                    }
-                }
-            }
 
-            if (shouldGenerate) {
-                // 为每个时间点生成记录
-                for (PlanTimes planTime : times) {
-                    String key = plan.getId() + "_" + date + "_" + planTime.getTime();
-                    if (!existingKeys.contains(key)) {
-                        // 检查是否已存在记录
-                        MedRecord existing = medRecordMapper.selectByPlanDateTime(
-                                plan.getId(), date, planTime.getTime().toString());
-                        if (existing == null) {
-                            MedRecord record = new MedRecord();
-                            record.setPlanId(plan.getId());
-                            record.setDate(date);
-                            record.setTime(planTime.getTime());
-                            record.setStatus("todo");
-                            recordsToInsert.add(record);
-                            existingKeys.add(key);
-                        }
-                    }
-                }
-            }
+        // 用户计划排期（缓存未命中时一次查询加载）
+        MedPlanCache.UserPlans userPlans = medPlanCache.getUserPlans(userId);
+        if (userPlans.isEnsured(date) || medRecordMaterializer.isMaterialized(userId, date)) {
+            return;
         }
 
-        // 批量插入记录
+        // 批量插入记录（已存在的点位由唯一键跳过）
+        List<MedRecord> recordsToInsert = buildRecords(userPlans.getSchedules(), date);
         if (!recordsToInsert.isEmpty()) {
-            medRecordMapper.batchInsert(recordsToInsert);
+            medRecordMapper.batchInsertIgnore(recordsToInsert);
+            medAdherenceService.refreshUsersDate(Collections.singletonList(userId), date);
+        }
+
+        // 提交后标记，计划变动前同一日期不再重复插入
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    userPlans.markEnsured(date);
+                }
+            });
+        } else {
+            userPlans.markEnsured(date);
+        }
+    }
+
+    /**
+     * 按计划排期展开指定日期的点位记录（plan × time）
+     *
+     * @param schedules 计划排期
+     * @param date 日期
+     * @return 待插入的点位记录
+     */
+    static List<MedRecord> buildRecords(Iterable<PlanSchedule> schedules, LocalDate date) {
+        List<MedRecord> records = new ArrayList<>();
+        for (PlanSchedule schedule : schedules) {
+            if (!schedule.firesOn(date)) {
+                continue;
+            }
+            // 为每个时间点生成记录
+            for (int i = 0; i < schedule.timeCount(); i++) {
+                MedRecord record = new MedRecord();
+                record.setUserId(schedule.getUserId());
+                record.setPlanId(schedule.getPlanId());
+                record.setDate(date);
+                record.setTime(schedule.timeAt(i));
+                record.setStatus("todo");
+                records.add(record);
+            }
         }
+        return records;
     }
 
     /**
@@ -0,0 +1,168 @@
+package org.health.service.med;
+
+import org.health.entity.med.MedPlan;
+import org.health.entity.med.PlanRepeatDays;
+import org.health.entity.med.PlanTimes;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Arrays;
+
+/**
+ * 编译后的计划排期（不可变）
+ * 重复天数压缩为7位星期掩码（bit0=周日，...，bit6=周六），时间点压缩为升序去重的当日分钟数数组，
+ * 日期区间以 epochDay 保存。firesOn / slotsBetween 在遍历过程中不分配对象
+ */
+public final class PlanSchedule {
+
+    /**
+     * daily类型的星期掩码（7天全部生效）
+     */
+    private static final int ALL_DAYS_MASK = 0x7F;
+
+    private final long planId;
+    private final long userId;
+    private final long startEpochDay;
+    private final long endEpochDay;
+    private final int weekdayMask;
+    private final int[] minutes;
+
+    private PlanSchedule(long planId, long userId, long startEpochDay, long endEpochDay, int weekdayMask, int[] minutes) {
+        this.planId = planId;
+        this.userId = userId;
+        this.startEpochDay = startEpochDay;
+        this.endEpochDay = endEpochDay;
+        this.weekdayMask = weekdayMask;
+        this.minutes = minutes;
+    }
+
+    /**
+     * 由计划编译排期
+     *
+     * @param plan 计划（需已填充times、repeatDays）
+     * @return 排期
+     */
+    public static PlanSchedule compile(MedPlan plan) {
+        int mask = 0;
+        if ("daily".equals(plan.getRepeatType())) {
+            mask = ALL_DAYS_MASK;
+        } else if ("weekly".equals(plan.getRepeatType()) && plan.getRepeatDays() != null) {
+            for (PlanRepeatDays repeatDay : plan.getRepeatDays()) {
+                mask |= 1 << repeatDay.getDayOfWeek();
+            }
+        }
+
+        int[] minutes = plan.getTimes() == null ? new int[0] : plan.getTimes().stream()
+                .map(PlanTimes::getTime)
+                .mapToInt(t -> t.getHour() * 60 + t.getMinute())
+                .distinct()
+                .sorted()
+                .toArray();
+
+        return new PlanSchedule(plan.getId(), plan.getUserId(), plan.getStartDate().toEpochDay(), plan.getEndDate().toEpochDay(),
+                mask, minutes);
+    }
+
+    /**
+     * 计划在指定日期是否需要服药
+     *
+     * @param date 日期
+     * @return 是否生效
+     */
+    public boolean firesOn(LocalDate date) {
+        return firesOnEpochDay(date.toEpochDay());
+    }
+
+    /**
+     * 计划在指定日期（epochDay）是否需要服药
+     *
+     * @param epochDay 距1970-01-01的天数
+     * @return 是否生效
+     */
+    public boolean firesOnEpochDay(long epochDay) {
+        if (epochDay < startEpochDay || epochDay > endEpochDay) {
+            return false;
+        }
+        // 1970-01-01 是周四，换算为0-6格式（0=周日）
+        int dayOfWeek = (int) Math.floorMod(epochDay + 4, 7L);
+        return (weekdayMask & (1 << dayOfWeek)) != 0;
+    }
+
+    /**
+     * 遍历日期区间内（与计划区间取交集）的所有点位
+     *
+     * @param from 开始日期（包含）
+     * @param to 结束日期（包含）
+     * @param visitor 点位回调
+     * @return 点位数量
+     */
+    public int slotsBetween(LocalDate from, LocalDate to, SlotVisitor visitor) {
+        long first = Math.max(from.toEpochDay(), startEpochDay);
+        long last = Math.min(to.toEpochDay(), endEpochDay);
+        int count = 0;
+        for (long day = first; day <= last; day++) {
+            if (!firesOnEpochDay(day)) {
+                continue;
+            }
+            for (int i = 0; i < minutes.length; i++) {
+                visitor.visit(day, i);
+            }
+            count += minutes.length;
+        }
+        return count;
+    }
+
+    /**
+     * 每天的时间点数量
+     */
+    public int timeCount() {
+        return minutes.length;
+    }
+
+    /**
+     * 第i个时间点（当日分钟数）
+     */
+    public int minuteAt(int index) {
+        return minutes[index];
+    }
+
+    /**
+     * 第i个时间点
+     */
+    public LocalTime timeAt(int index) {
+        return LocalTime.of(minutes[index] / 60, minutes[index] % 60);
+    }
+
+    /**
+     * 查找时间点下标
+     *
+     * @param time 时间
+     * @return 下标，不存在时返回负数
+     */
+    public int indexOfTime(LocalTime time) {
+        if (time.getSecond() != 0 || time.getNano() != 0) {
+            return -1;
+        }
+        return Arrays.binarySearch(minutes, time.getHour() * 60 + time.getMinute());
+    }
+
+    public long getPlanId() {
+        return planId;
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    /**
+     * 点位回调
+     */
+    @FunctionalInterface
+    public interface SlotVisitor {
+        /**
+         * @param epochDay 点位日期（距1970-01-01的天数）
+         * @param timeIndex 时间点下标
+         */
+        void visit(long epochDay, int timeIndex);
+    }
+}
@@ -0,0 +1,123 @@
+package org.health;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Date;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 用药计划/记录的共享测试数据（写入 MysqlTestSupport 的数据库，每个测试 JVM 只写一次）
+ * 重度用户 HOT_USER_ID 有 5 个每日计划、两年历史（一万多条记录，可以翻到第500页），
+ * 其余 USER_COUNT - 1 个用户各有一个每日计划、一个每周计划（近4个月）和一个已删除的计划；
+ * 过去的点位为 taken（每7条有1条 missed），今天及以后为 todo，user_id 均已回填。
+ * 写入后执行 ANALYZE TABLE，查询计划按真实的索引统计选择。
+ * 修改数据的测试使用 PRIVATE_USER_ID_START 之后的用户，不影响这里的数据分布
+ */
+public final class MedTestDataset {
+
+    public static final long HOT_USER_ID = 1L;
+    public static final int USER_COUNT = 200;
+    public static final int HOT_USER_HISTORY_DAYS = 730;
+    public static final int HISTORY_DAYS = 120;
+    public static final int FUTURE_DAYS = 13;
+
+    /**
+     * 各测试自行创建数据时使用的用户ID下限
+     */
+    public static final long PRIVATE_USER_ID_START = 100_000L;
+
+    private static final LocalTime[] TIMES = {LocalTime.of(8, 0), LocalTime.of(12, 0), LocalTime.of(20, 0)};
+    private static final int INSERT_BATCH_SIZE = 5000;
+
+    private static LocalDate today;
+
+    private MedTestDataset() {
+    }
+
+    /**
+     * 写入数据（只写一次）
+     *
+     * @return 写入时的“今天”
+     */
+    public static synchronized LocalDate seed() {
+        if (today != null) {
+            return today;
+        }
+        LocalDate now = LocalDate.now();
+        JdbcTemplate jdbc = MysqlTestSupport.jdbc();
+
+        List<Object[]> users = new ArrayList<>();
+        List<Object[]> plans = new ArrayList<>();
+        List<Object[]> times = new ArrayList<>();
+        List<Object[]> repeatDays = new ArrayList<>();
+        List<Object[]> records = new ArrayList<>();
+        for (long userId = 1; userId <= USER_COUNT; userId++) {
+            users.add(new Object[]{userId, "user" + userId});
+            boolean hot = userId == HOT_USER_ID;
+            int planCount = hot ? 5 : 3;
+            LocalDate start = now.minusDays(hot ? HOT_USER_HISTORY_DAYS : HISTORY_DAYS);
+            LocalDate end = now.plusDays(FUTURE_DAYS);
+            for (int k = 0; k < planCount; k++) {
+                long planId = planId(userId, k);
+                boolean weekly = !hot && k == 1;
+                boolean deleted = !hot && k == 2;
+                plans.add(new Object[]{planId, userId, "药品" + planId, Date.valueOf(start), Date.valueOf(end),
+                        weekly ? "weekly" : "daily", deleted ? Timestamp.valueOf(now.atStartOfDay()) : null});
+                for (int i = 0; i < TIMES.length; i++) {
+                    times.add(new Object[]{planId, Time.valueOf(TIMES[i]), i});
+                }
+                if (weekly) {
+                    for (int dayOfWeek : new int[]{1, 3, 5}) {
+                        repeatDays.add(new Object[]{planId, dayOfWeek});
+                    }
+                }
+                // 已删除的计划只保留最近一周的记录
+                LocalDate from = deleted ? now.minusDays(7) : start;
+                for (LocalDate date = from; !date.isAfter(end); date = date.plusDays(1)) {
+                    // 每周计划只在周一、三、五
+                    int dayOfWeek = date.getDayOfWeek().getValue();
+                    if (weekly && dayOfWeek != 1 && dayOfWeek != 3 && dayOfWeek != 5) {
+                        continue;
+                    }
+                    for (LocalTime time : TIMES) {
+                        String status = !date.isBefore(now) ? "todo" : records.size() % 7 == 0 ? "missed" : "taken";
+                        records.add(new Object[]{userId, planId, Date.valueOf(date), Time.valueOf(time), status});
+                    }
+                }
+            }
+        }
+
+        jdbc.batchUpdate("INSERT INTO `user` (id, username, password) VALUES (?, ?, 'x')", users);
+        jdbc.batchUpdate("INSERT INTO med_plan (id, user_id, name, dosage, start_date, end_date, repeat_type, "
+                + "remind_enabled, deleted_at) VALUES (?, ?, ?, '1片', ?, ?, ?, 1, ?)", plans);
+        jdbc.batchUpdate("INSERT INTO plan_times (plan_id, `time`, sort_order) VALUES (?, ?, ?)", times);
+        jdbc.batchUpdate("INSERT INTO plan_repeat_days (plan_id, day_of_week) VALUES (?, ?)", repeatDays);
+        for (int i = 0; i < records.size(); i += INSERT_BATCH_SIZE) {
+            jdbc.batchUpdate("INSERT INTO med_record (user_id, plan_id, `date`, `time`, `status`) VALUES (?, ?, ?, ?, ?)",
+                    records.subList(i, Math.min(i + INSERT_BATCH_SIZE, records.size())));
+        }
+        jdbc.execute("ANALYZE TABLE `user`, med_plan, plan_times, plan_repeat_days, med_record");
+
+        today = now;
+        return today;
+    }
+
+    /**
+     * 用户的第 k 个计划的ID（重度用户 0-4 为每日计划；其余用户 0 每日、1 每周、2 已删除）
+     */
+    public static long planId(long userId, int k) {
+        return userId * 10 + k;
+    }
+
+    /**
+     * 每天的服药时间点
+     */
+    public static LocalTime[] times() {
+        return TIMES.clone();
+    }
+}
@@ -0,0 +1,118 @@
+package org.health;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.mybatis.spring.SqlSessionFactoryBean;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.utility.MountableFile;
+
+import javax.sql.DataSource;
+import java.nio.file.Paths;
+
+/**
+ * 需要真实 MySQL 的测试共用的数据库环境（查询计划、条件更新、租约等）
+ * 同一个测试 JVM 只启动一个 MySQL 8.0 容器，按 health.sql 建库；
+ * Mapper 与应用相同，由 mapper/**&#47;*.xml 加载，通过 SqlSessionTemplate 参与 Spring 事务。
+ * 使用本类的测试类标注 {@code @Testcontainers(disabledWithoutDocker = true)}，没有 Docker 时跳过
+ */
+public final class MysqlTestSupport {
+
+    private static MySQLContainer<?> container;
+    private static HikariDataSource dataSource;
+    private static SqlSessionTemplate sqlSessionTemplate;
+    private static DataSourceTransactionManager transactionManager;
+
+    private MysqlTestSupport() {
+    }
+
+    /**
+     * 数据源（首次调用时启动容器）
+     */
+    public static synchronized DataSource dataSource() {
+        if (dataSource == null) {
+            // root 用户：测试需要 FLUSH STATUS、ANALYZE TABLE
+            container = new MySQLContainer<>("mysql:8.0")
+                    .withDatabaseName("health_assistant")
+                    .withUsername("root")
+                    .withPassword("test")
+                    .withEnv("TZ", "Asia/Shanghai")
+                    .withUrlParam("serverTimezone", "Asia/Shanghai")
+                    .withUrlParam("rewriteBatchedStatements", "true")
+                    .withCopyFileToContainer(MountableFile.forHostPath(Paths.get("health.sql")),
+                            "/docker-entrypoint-initdb.d/health.sql");
+            container.start();
+
+            HikariConfig config = new HikariConfig();
+            config.setJdbcUrl(container.getJdbcUrl());
+            config.setUsername(container.getUsername());
+            config.setPassword(container.getPassword());
+            config.setMaximumPoolSize(16);
+            dataSource = new HikariDataSource(config);
+        }
+        return dataSource;
+    }
+
+    /**
+     * 按应用的 MyBatis 配置获取 Mapper
+     */
+    public static <T> T mapper(Class<T> type) {
+        return sqlSessionTemplate().getMapper(type);
+    }
+
+    /**
+     * 已加载全部 Mapper XML 的 SqlSessionFactory（取语句定义，例如拼出 EXPLAIN）
+     */
+    public static SqlSessionFactory sqlSessionFactory() {
+        return sqlSessionTemplate().getSqlSessionFactory();
+    }
+
+    private static synchronized SqlSessionTemplate sqlSessionTemplate() {
+        if (sqlSessionTemplate == null) {
+            try {
+                SqlSessionFactoryBean factoryBean = new SqlSessionFactoryBean();
+                factoryBean.setDataSource(dataSource());
+                factoryBean.setMapperLocations(
+                        new PathMatchingResourcePatternResolver().getResources("classpath*:mapper/**/*.xml"));
+                factoryBean.setTypeAliasesPackage("org.health.entity");
+                Configuration configuration = new Configuration();
+                configuration.setMapUnderscoreToCamelCase(true);
+                factoryBean.setConfiguration(configuration);
+                sqlSessionTemplate = new SqlSessionTemplate(factoryBean.getObject());
+            } catch (Exception e) {
+                throw new IllegalStateException("加载Mapper失败", e);
+            }
+        }
+        return sqlSessionTemplate;
+    }
+
+    /**
+     * 事务管理器（Mapper 调用在其事务内共用同一连接）
+     */
+    public static synchronized DataSourceTransactionManager transactionManager() {
+        if (transactionManager == null) {
+            transactionManager = new DataSourceTransactionManager(dataSource());
+        }
+        return transactionManager;
+    }
+
+    /**
+     * 与 @Transactional(rollbackFor = Exception.class) 等价的事务模板（测试中没有代理，由调用方包裹）
+     */
+    public static TransactionTemplate transactionTemplate() {
+        return new TransactionTemplate(transactionManager());
+    }
+
+    /**
+     * 直接执行 SQL（准备数据、校验结果）
+     */
+    public static JdbcTemplate jdbc() {
+        return new JdbcTemplate(dataSource());
+    }
+}
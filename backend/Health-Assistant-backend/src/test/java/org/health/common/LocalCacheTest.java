@@ -0,0 +1,82 @@
+package org.health.common;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * LocalCache 加载期间失效的处理（只丢弃被失效的键的加载结果）和不计数的存在检查
+ */
+class LocalCacheTest {
+
+    private final LocalCache<String, String> cache = new LocalCache<>(100, 60_000L);
+
+    @Test
+    void loadIsKeptWhenAnotherKeyIsInvalidated() {
+        cache.reload("a", k -> {
+            cache.invalidate("b");
+            return "a1";
+        });
+
+        assertThat(cache.getIfPresent("a")).isEqualTo("a1");
+    }
+
+    @Test
+    void loadIsDiscardedWhenItsKeyIsInvalidated() {
+        String loaded = cache.reload("a", k -> {
+            cache.invalidate("a");
+            return "a1";
+        });
+
+        assertThat(loaded).isEqualTo("a1");
+        assertThat(cache.getIfPresent("a")).isNull();
+        // 失效记录随加载结束清除，之后的加载正常写入
+        cache.reload("a", k -> "a2");
+        assertThat(cache.getIfPresent("a")).isEqualTo("a2");
+    }
+
+    @Test
+    void loadIsDiscardedWhenMatchedByInvalidateIf() {
+        cache.reload("user1:a", k -> {
+            cache.invalidateIf(key -> key.startsWith("user1:"));
+            return "a1";
+        });
+        cache.reload("user2:a", k -> {
+            cache.invalidateIf(key -> key.startsWith("user1:"));
+            return "b1";
+        });
+
+        assertThat(cache.getIfPresent("user1:a")).isNull();
+        assertThat(cache.getIfPresent("user2:a")).isEqualTo("b1");
+    }
+
+    @Test
+    void loadIsDiscardedAfterInvalidateAll() {
+        cache.put("b", "b0");
+        cache.get("a", k -> {
+            cache.invalidateAll();
+            return "a1";
+        });
+
+        assertThat(cache.getIfPresent("a")).isNull();
+        assertThat(cache.getIfPresent("b")).isNull();
+    }
+
+    @Test
+    void containsKeyDoesNotCountHitsOrMisses() {
+        cache.put("a", "a1");
+
+        assertThat(cache.containsKey("a")).isTrue();
+        assertThat(cache.containsKey("b")).isFalse();
+        assertThat(cache.hitCount()).isZero();
+        assertThat(cache.missCount()).isZero();
+    }
+
+    @Test
+    void loadStartedAfterInvalidationIsKept() {
+        cache.invalidate("a");
+        cache.get("a", k -> "a1");
+
+        assertThat(cache.getIfPresent("a")).isEqualTo("a1");
+    }
+}
@@ -0,0 +1,257 @@
+package org.health.controller.ai;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.health.common.ResultCode;
+import org.health.common.UserContext;
+import org.health.config.AiStreamConfig;
+import org.health.config.DifyClientConfig;
+import org.health.exception.BusinessException;
+import org.health.service.ai.AiStream;
+import org.health.service.ai.AiStreamLimiter;
+import org.health.service.ai.AiStreamRegistry;
+import org.health.service.ai.AiTranscriptService;
+import org.health.service.ai.DifyCircuitBreaker;
+import org.health.service.ai.DifyClientService;
+import org.health.service.ai.DifyReadCache;
+import org.health.service.auth.UserIdentityCache;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * 慢上游下的流式转发：请求线程立即返回 emitter，少量请求线程即可同时打开大量对话，
+ * 每个对话由虚拟线程阻塞读取上游，不占用平台线程；带 Last-Event-ID 的 POST 续传不需要请求体
+ */
+class AiChatControllerTest {
+
+    private static final int STREAMS = 2_000;
+    private static final int REQUEST_THREADS = 8;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private HttpClient httpClient;
+    private DifyClientService difyClientService;
+    private AiStreamConfig streamConfig;
+    private SimpleMeterRegistry meterRegistry;
+    private AiStreamRegistry registry;
+    private AiChatController controller;
+
+    // 上游已发出首个事件、正在挂起的对话数
+    private final CountDownLatch opened = new CountDownLatch(STREAMS);
+    // 上游收到此信号后才发送 message_end
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger finished = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), STREAMS);
+        serverExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(serverExecutor);
+        server.createContext("/v1/chat-messages", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(event("message", "\"answer\":\"你好\",").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                opened.countDown();
+                release.await(60, TimeUnit.SECONDS);
+                out.write(event("message_end", "").getBytes(StandardCharsets.UTF_8));
+                finished.incrementAndGet();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        server.start();
+
+        meterRegistry = new SimpleMeterRegistry();
+
+        DifyClientConfig clientConfig = new DifyClientConfig();
+        ReflectionTestUtils.setField(clientConfig, "connectTimeoutMs", 5_000L);
+        ReflectionTestUtils.setField(clientConfig, "http2Enabled", false);
+        httpClient = clientConfig.difyHttpClient();
+
+        DifyCircuitBreaker circuitBreaker = new DifyCircuitBreaker();
+        ReflectionTestUtils.setField(circuitBreaker, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(circuitBreaker, "failureThreshold", 5);
+        ReflectionTestUtils.setField(circuitBreaker, "openMillis", 30_000L);
+        circuitBreaker.init();
+
+        difyClientService = new DifyClientService();
+        ReflectionTestUtils.setField(difyClientService, "baseUrl", "http://127.0.0.1:" + server.getAddress().getPort());
+        ReflectionTestUtils.setField(difyClientService, "apiKey", "app-test-key");
+        ReflectionTestUtils.setField(difyClientService, "readTimeoutMs", 30_000L);
+        ReflectionTestUtils.setField(difyClientService, "streamIdleTimeoutMs", 60_000L);
+        ReflectionTestUtils.setField(difyClientService, "streamTimeoutMs", 120_000L);
+        ReflectionTestUtils.setField(difyClientService, "retryBudgetRatio", 0.2);
+        ReflectionTestUtils.setField(difyClientService, "maxConnections", STREAMS);
+        ReflectionTestUtils.setField(difyClientService, "acquireTimeoutMs", 30_000L);
+        ReflectionTestUtils.setField(difyClientService, "difyHttpClient", httpClient);
+        ReflectionTestUtils.setField(difyClientService, "circuitBreaker", circuitBreaker);
+        difyClientService.init();
+
+        AiStreamLimiter limiter = new AiStreamLimiter();
+        ReflectionTestUtils.setField(limiter, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(limiter, "maxConcurrent", STREAMS);
+        ReflectionTestUtils.setField(limiter, "maxPerUser", 2);
+        ReflectionTestUtils.setField(limiter, "maxQueue", 0);
+        ReflectionTestUtils.setField(limiter, "queueTimeoutMs", 0L);
+        limiter.init();
+
+        registry = new AiStreamRegistry();
+        ReflectionTestUtils.setField(registry, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(registry, "bufferSize", 16);
+        ReflectionTestUtils.setField(registry, "resumeSeconds", 60L);
+        ReflectionTestUtils.setField(registry, "maxAgeSeconds", 600L);
+        registry.init();
+
+        // 本地对话记录、读缓存与转发无关，关闭
+        AiTranscriptService transcriptService = new AiTranscriptService();
+        ReflectionTestUtils.setField(transcriptService, "enabled", false);
+        DifyReadCache readCache = new DifyReadCache();
+        ReflectionTestUtils.setField(readCache, "enabled", false);
+
+        streamConfig = new AiStreamConfig();
+        ReflectionTestUtils.setField(streamConfig, "shutdownTimeoutMs", 1_000L);
+
+        controller = new AiChatController();
+        ReflectionTestUtils.setField(controller, "difyClientService", difyClientService);
+        ReflectionTestUtils.setField(controller, "userIdentityCache", new UserIdentityCache());
+        ReflectionTestUtils.setField(controller, "aiStreamExecutor", streamConfig.aiStreamExecutor());
+        ReflectionTestUtils.setField(controller, "aiStreamLimiter", limiter);
+        ReflectionTestUtils.setField(controller, "aiTranscriptService", transcriptService);
+        ReflectionTestUtils.setField(controller, "difyReadCache", readCache);
+        ReflectionTestUtils.setField(controller, "aiStreamRegistry", registry);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        release.countDown();
+        streamConfig.destroy();
+        difyClientService.destroy();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+        httpClient.shutdownNow();
+    }
+
+    @Test
+    void slowUpstreamHoldsVirtualThreadsNotRequestThreads() throws Exception {
+        int platformThreadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+        // 模拟只有少量工作线程的 Tomcat：每个请求返回 emitter 后立即归还线程
+        ExecutorService requestThreads = Executors.newFixedThreadPool(REQUEST_THREADS);
+
+        long start = System.nanoTime();
+        List<Future<?>> requests = new ArrayList<>();
+        for (int i = 0; i < STREAMS; i++) {
+            long userId = i + 1;
+            requests.add(requestThreads.submit(() -> {
+                UserContext.setUserId(userId);
+                UserContext.setUsername("user" + userId);
+                try {
+                    controller.chatMessages(request(), null);
+                } finally {
+                    UserContext.clear();
+                }
+            }));
+        }
+        for (Future<?> request : requests) {
+            request.get(30, TimeUnit.SECONDS);
+        }
+        long acceptMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // 全部对话同时挂在上游：转发执行器持有 STREAMS 个进行中的对话
+        assertThat(opened.await(60, TimeUnit.SECONDS)).isTrue();
+        assertThat(meterRegistry.get("ai.stream.active").gauge().value()).isEqualTo((double) STREAMS);
+        assertThat(finished.get()).isZero();
+
+        // 请求线程仍然空闲，其他接口的请求立即得到处理
+        long probeStart = System.nanoTime();
+        assertThat(requestThreads.submit(() -> "ok").get(1, TimeUnit.SECONDS)).isEqualTo("ok");
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - probeStart)).isLessThan(1_000);
+
+        // 阻塞读取上游的是虚拟线程，平台线程数不随对话数增长
+        int platformThreadsDuring = ManagementFactory.getThreadMXBean().getThreadCount();
+        assertThat(platformThreadsDuring - platformThreadsBefore).isLessThan(STREAMS / 10);
+
+        System.out.printf("%d 个对话由 %d 个请求线程在 %d ms 内接入；挂起期间平台线程 %d -> %d%n",
+                STREAMS, REQUEST_THREADS, acceptMillis, platformThreadsBefore, platformThreadsDuring);
+
+        // 上游结束后全部对话正常完成，许可全部归还
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 60_000;
+        while (meterRegistry.get("ai.stream.active").gauge().value() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertThat(meterRegistry.get("ai.stream.active").gauge().value()).isEqualTo(0.0);
+        assertThat(finished.get()).isEqualTo(STREAMS);
+        requestThreads.shutdown();
+    }
+
+    @Test
+    void postWithLastEventIdResumesWithoutRequestBody() {
+        UserContext.setUserId(1L);
+        try {
+            AiStream stream = registry.open(1L, new SseEmitter());
+            stream.publish("{\"event\":\"message\"}");
+
+            // 续传时客户端可能不重发请求体，不应因缺少 query 返回 400
+            controller.chatMessages(null, stream.getId() + ":0");
+
+            assertThat(meterRegistry.get("ai.stream.resumed").counter().count()).isEqualTo(1.0);
+            assertThat(opened.getCount()).isEqualTo((long) STREAMS);
+        } finally {
+            UserContext.clear();
+        }
+    }
+
+    @Test
+    void newChatWithoutQueryIsRejected() {
+        UserContext.setUserId(1L);
+        try {
+            AiChatController.ChatMessageRequest blank = new AiChatController.ChatMessageRequest();
+            blank.setQuery(" ");
+            for (AiChatController.ChatMessageRequest request : new AiChatController.ChatMessageRequest[]{null, blank}) {
+                assertThatThrownBy(() -> controller.chatMessages(request, null))
+                        .isInstanceOf(BusinessException.class)
+                        .hasMessage("query 不能为空")
+                        .satisfies(e -> assertThat(((BusinessException) e).getResultCode())
+                                .isEqualTo(ResultCode.BAD_REQUEST));
+            }
+            assertThat(meterRegistry.get("ai.stream.active").gauge().value()).isEqualTo(0.0);
+        } finally {
+            UserContext.clear();
+        }
+    }
+
+    private static String event(String event, String extra) {
+        return "data: {\"event\":\"" + event + "\",\"conversation_id\":\"c1\",\"message_id\":\"m1\"," + extra
+                + "\"created_at\":0}\n\n";
+    }
+
+    private static AiChatController.ChatMessageRequest request() {
+        AiChatController.ChatMessageRequest request = new AiChatController.ChatMessageRequest();
+        request.setQuery("你好");
+        return request;
+    }
+}
@@ -0,0 +1,354 @@
+package org.health.controller.ai;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.health.MedTestDataset;
+import org.health.MysqlTestSupport;
+import org.health.common.Result;
+import org.health.common.ResultCode;
+import org.health.common.UserContext;
+import org.health.config.AiStreamConfig;
+import org.health.config.DifyClientConfig;
+import org.health.mapper.ai.AiMessageMapper;
+import org.health.mapper.ai.AiSessionMapper;
+import org.health.service.ai.AiStreamLimiter;
+import org.health.service.ai.AiStreamRegistry;
+import org.health.service.ai.AiTranscriptService;
+import org.health.service.ai.DifyCircuitBreaker;
+import org.health.service.ai.DifyClientService;
+import org.health.service.ai.DifyModels;
+import org.health.service.ai.DifyReadCache;
+import org.health.service.auth.UserIdentityCache;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 历史消息的本地读取（按 Token 中的用户ID）与回退到 DIFY（按 Token 中的用户名）返回同一个会话的同一批消息；
+ * 请求体指定了其他 DIFY 用户名的对话不保存到本地。用本地 HTTP 桩模拟 DIFY，对话记录写入真实 MySQL
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class MessageControllerTest {
+
+    private static final long USER_ID = MedTestDataset.PRIVATE_USER_ID_START + 15;
+    private static final String USERNAME = "history" + USER_ID;
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private HttpClient httpClient;
+    private DifyClientService difyClientService;
+    private AiStreamConfig streamConfig;
+    private SimpleMeterRegistry meterRegistry;
+    private AiTranscriptService transcriptService;
+    private AiChatController chatController;
+    private MessageController messageController;
+    private JdbcTemplate jdbc;
+
+    // 桩保存的会话：会话ID -> 所属 DIFY 用户、消息列表
+    private final Map<String, String> owners = new ConcurrentHashMap<>();
+    private final Map<String, ArrayNode> histories = new ConcurrentHashMap<>();
+    private final AtomicInteger chats = new AtomicInteger();
+    private final AtomicReference<String> lastConversationId = new AtomicReference<>();
+    private final AtomicInteger historyHits = new AtomicInteger();
+
+    @BeforeAll
+    static void seed() {
+        MysqlTestSupport.jdbc().update("INSERT INTO `user` (id, username, password) VALUES (?, ?, 'x')",
+                USER_ID, USERNAME);
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        jdbc = MysqlTestSupport.jdbc();
+        jdbc.update("DELETE FROM ai_session WHERE user_id = ?", USER_ID);
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.createContext("/v1/chat-messages", this::handleChat);
+        server.createContext("/v1/messages", this::handleMessages);
+        server.start();
+
+        meterRegistry = new SimpleMeterRegistry();
+
+        DifyClientConfig clientConfig = new DifyClientConfig();
+        ReflectionTestUtils.setField(clientConfig, "connectTimeoutMs", 2_000L);
+        ReflectionTestUtils.setField(clientConfig, "http2Enabled", false);
+        httpClient = clientConfig.difyHttpClient();
+
+        DifyCircuitBreaker circuitBreaker = new DifyCircuitBreaker();
+        ReflectionTestUtils.setField(circuitBreaker, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(circuitBreaker, "failureThreshold", 5);
+        ReflectionTestUtils.setField(circuitBreaker, "openMillis", 30_000L);
+        circuitBreaker.init();
+
+        difyClientService = new DifyClientService();
+        ReflectionTestUtils.setField(difyClientService, "baseUrl", "http://127.0.0.1:" + server.getAddress().getPort());
+        ReflectionTestUtils.setField(difyClientService, "apiKey", "app-test-key");
+        ReflectionTestUtils.setField(difyClientService, "readTimeoutMs", 5_000L);
+        ReflectionTestUtils.setField(difyClientService, "streamIdleTimeoutMs", 5_000L);
+        ReflectionTestUtils.setField(difyClientService, "streamTimeoutMs", 10_000L);
+        ReflectionTestUtils.setField(difyClientService, "retryBudgetRatio", 0.2);
+        ReflectionTestUtils.setField(difyClientService, "maxConnections", 16);
+        ReflectionTestUtils.setField(difyClientService, "acquireTimeoutMs", 1_000L);
+        ReflectionTestUtils.setField(difyClientService, "difyHttpClient", httpClient);
+        ReflectionTestUtils.setField(difyClientService, "circuitBreaker", circuitBreaker);
+        difyClientService.init();
+
+        AiStreamLimiter limiter = new AiStreamLimiter();
+        ReflectionTestUtils.setField(limiter, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(limiter, "maxConcurrent", 16);
+        ReflectionTestUtils.setField(limiter, "maxPerUser", 2);
+        ReflectionTestUtils.setField(limiter, "maxQueue", 0);
+        ReflectionTestUtils.setField(limiter, "queueTimeoutMs", 0L);
+        limiter.init();
+
+        AiStreamRegistry registry = new AiStreamRegistry();
+        ReflectionTestUtils.setField(registry, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(registry, "bufferSize", 16);
+        ReflectionTestUtils.setField(registry, "resumeSeconds", 60L);
+        ReflectionTestUtils.setField(registry, "maxAgeSeconds", 600L);
+        registry.init();
+
+        transcriptService = new AiTranscriptService();
+        ReflectionTestUtils.setField(transcriptService, "aiSessionMapper", MysqlTestSupport.mapper(AiSessionMapper.class));
+        ReflectionTestUtils.setField(transcriptService, "aiMessageMapper", MysqlTestSupport.mapper(AiMessageMapper.class));
+        ReflectionTestUtils.setField(transcriptService, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(transcriptService, "enabled", true);
+        ReflectionTestUtils.setField(transcriptService, "queueCapacity", 100);
+        ReflectionTestUtils.setField(transcriptService, "batchSize", 100);
+        ReflectionTestUtils.setField(transcriptService, "pendingTtlSeconds", 600L);
+        transcriptService.init();
+
+        // 读缓存关闭，每次回退都访问桩
+        DifyReadCache readCache = new DifyReadCache();
+        ReflectionTestUtils.setField(readCache, "enabled", false);
+        ReflectionTestUtils.setField(readCache, "difyClientService", difyClientService);
+
+        streamConfig = new AiStreamConfig();
+        ReflectionTestUtils.setField(streamConfig, "shutdownTimeoutMs", 1_000L);
+        UserIdentityCache identityCache = new UserIdentityCache();
+
+        chatController = new AiChatController();
+        ReflectionTestUtils.setField(chatController, "difyClientService", difyClientService);
+        ReflectionTestUtils.setField(chatController, "userIdentityCache", identityCache);
+        ReflectionTestUtils.setField(chatController, "aiStreamExecutor", streamConfig.aiStreamExecutor());
+        ReflectionTestUtils.setField(chatController, "aiStreamLimiter", limiter);
+        ReflectionTestUtils.setField(chatController, "aiTranscriptService", transcriptService);
+        ReflectionTestUtils.setField(chatController, "difyReadCache", readCache);
+        ReflectionTestUtils.setField(chatController, "aiStreamRegistry", registry);
+
+        messageController = new MessageController();
+        ReflectionTestUtils.setField(messageController, "difyReadCache", readCache);
+        ReflectionTestUtils.setField(messageController, "userIdentityCache", identityCache);
+        ReflectionTestUtils.setField(messageController, "aiTranscriptService", transcriptService);
+
+        // 与 AuthInterceptor 从 Token 解析出的身份相同
+        UserContext.setUserId(USER_ID);
+        UserContext.setUsername(USERNAME);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        UserContext.clear();
+        streamConfig.destroy();
+        difyClientService.destroy();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+        httpClient.shutdownNow();
+    }
+
+    @Test
+    void localHistoryAndDifyFallbackReturnTheSameConversation() throws Exception {
+        String conversationId = chat(null, "每天吃几次？");
+        transcriptService.flush();
+
+        // 本地读取：按 Token 中的用户ID找到会话，不访问 DIFY
+        Result<DifyModels.MessageListResponse> local = messageController.getMessages(conversationId, null, 20);
+        assertThat(local.getCode()).isEqualTo(ResultCode.SUCCESS.getCode());
+        assertThat(historyHits.get()).isZero();
+
+        // 本地记录不完整时回退到 DIFY：按 Token 中的用户名读取
+        jdbc.update("UPDATE ai_session SET full_history = 0 WHERE user_id = ?", USER_ID);
+        Result<DifyModels.MessageListResponse> fallback = messageController.getMessages(conversationId, null, 20);
+        assertThat(fallback.getCode()).isEqualTo(ResultCode.SUCCESS.getCode());
+        assertThat(historyHits.get()).isEqualTo(1);
+
+        assertThat(summary(local.getData())).hasSize(1);
+        assertThat(summary(local.getData())).isEqualTo(summary(fallback.getData()));
+    }
+
+    @Test
+    void chatUnderAnotherDifyUserIsNotRecordedLocally() throws Exception {
+        String conversationId = chat("someone-else", "每天吃几次？");
+        transcriptService.flush();
+
+        // 该会话在 DIFY 中属于 someone-else：本地没有记录，回退到 DIFY 也读不到，两条路径一致
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM ai_session WHERE user_id = ?", Integer.class, USER_ID))
+                .isZero();
+        Result<DifyModels.MessageListResponse> result = messageController.getMessages(conversationId, null, 20);
+        assertThat(result.getCode()).isNotEqualTo(ResultCode.SUCCESS.getCode());
+        assertThat(historyHits.get()).isEqualTo(1);
+    }
+
+    @Test
+    void stalePendingTurnsAreClearedAndMarkedPartial() {
+        String staleId = UUID.randomUUID().toString();
+        String freshId = UUID.randomUUID().toString();
+        jdbc.update("INSERT INTO ai_session (user_id, conversation_id, title, full_history, pending_turns, pending_since) "
+                + "VALUES (?, ?, '旧', 1, 2, DATE_SUB(NOW(), INTERVAL 700 SECOND))", USER_ID, staleId);
+        jdbc.update("INSERT INTO ai_session (user_id, conversation_id, title, full_history, pending_turns, pending_since) "
+                + "VALUES (?, ?, '新', 1, 1, NOW())", USER_ID, freshId);
+
+        transcriptService.sweepStalePending();
+
+        // 超过保留时间的登记视为对话已丢失：清零并改为从 DIFY 读取
+        Map<String, Object> stale = session(staleId);
+        assertThat(((Number) stale.get("pending_turns")).intValue()).isZero();
+        assertThat(((Number) stale.get("full_history")).intValue()).isZero();
+        assertThat(stale.get("pending_since")).isNull();
+        Map<String, Object> fresh = session(freshId);
+        assertThat(((Number) fresh.get("pending_turns")).intValue()).isEqualTo(1);
+        assertThat(((Number) fresh.get("full_history")).intValue()).isEqualTo(1);
+        assertThat(fresh.get("pending_since")).isNotNull();
+    }
+
+    @Test
+    void releasingAllPendingTurnsClearsPendingSince() throws Exception {
+        String conversationId = chat(null, "饭前还是饭后？");
+        Map<String, Object> pending = session(conversationId);
+        assertThat(((Number) pending.get("pending_turns")).intValue()).isEqualTo(1);
+        assertThat(pending.get("pending_since")).isNotNull();
+
+        transcriptService.flush();
+
+        Map<String, Object> released = session(conversationId);
+        assertThat(((Number) released.get("pending_turns")).intValue()).isZero();
+        assertThat(released.get("pending_since")).isNull();
+        assertThat(((Number) released.get("full_history")).intValue()).isEqualTo(1);
+    }
+
+    /**
+     * 发起一轮流式对话并等待转发结束（包括提交本地对话记录），返回 DIFY 会话ID
+     */
+    private String chat(String username, String query) throws InterruptedException {
+        int before = chats.get();
+        AiChatController.ChatMessageRequest request = new AiChatController.ChatMessageRequest();
+        request.setQuery(query);
+        request.setUsername(username);
+        chatController.chatMessages(request, null);
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while ((chats.get() == before || meterRegistry.get("ai.stream.active").gauge().value() > 0)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertThat(chats.get()).isEqualTo(before + 1);
+        assertThat(meterRegistry.get("ai.stream.active").gauge().value()).isEqualTo(0.0);
+        return lastConversationId.get();
+    }
+
+    private Map<String, Object> session(String conversationId) {
+        return jdbc.queryForMap("SELECT pending_turns, pending_since, full_history FROM ai_session "
+                + "WHERE user_id = ? AND conversation_id = ?", USER_ID, conversationId);
+    }
+
+    /**
+     * 两条路径都应返回的字段：消息ID、会话ID、提问、回答
+     */
+    private static List<String> summary(DifyModels.MessageListResponse response) {
+        return response.getData().stream()
+                .map(m -> m.getId() + "|" + m.getConversationId() + "|" + m.getQuery() + "|" + m.getAnswer())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 桩：新建会话，记录所属用户和这一轮的提问、回答，以流式事件返回
+     */
+    private void handleChat(HttpExchange exchange) throws IOException {
+        JsonNode body = OBJECT_MAPPER.readTree(exchange.getRequestBody());
+        String conversationId = UUID.randomUUID().toString();
+        String messageId = UUID.randomUUID().toString();
+        String answer = "建议饭后服用";
+        owners.put(conversationId, body.path("user").asText());
+        ObjectNode item = OBJECT_MAPPER.createObjectNode()
+                .put("id", messageId)
+                .put("conversation_id", conversationId)
+                .put("query", body.path("query").asText())
+                .put("answer", answer)
+                .put("created_at", System.currentTimeMillis() / 1000);
+        item.putObject("inputs");
+        item.putArray("message_files");
+        item.putArray("retriever_resources");
+        item.putNull("feedback");
+        histories.put(conversationId, OBJECT_MAPPER.createArrayNode().add(item));
+
+        String head = "\"conversation_id\":\"" + conversationId + "\",\"message_id\":\"" + messageId + "\"";
+        String events = "data: {\"event\":\"message\"," + head + ",\"answer\":\"" + answer + "\"}\n\n"
+                + "data: {\"event\":\"message_end\"," + head + ",\"metadata\":{}}\n\n";
+        lastConversationId.set(conversationId);
+        chats.incrementAndGet();
+        respond(exchange, 200, "text/event-stream", events);
+    }
+
+    /**
+     * 桩：与 DIFY 相同，只返回属于该用户的会话，其他用户返回 404
+     */
+    private void handleMessages(HttpExchange exchange) throws IOException {
+        historyHits.incrementAndGet();
+        Map<String, String> params = new HashMap<>();
+        for (String pair : exchange.getRequestURI().getRawQuery().split("&")) {
+            String[] kv = pair.split("=", 2);
+            params.put(kv[0], URLDecoder.decode(kv[1], StandardCharsets.UTF_8));
+        }
+        String conversationId = params.get("conversation_id");
+        if (!params.get("user").equals(owners.get(conversationId))) {
+            respond(exchange, 404, "application/json", "{\"code\":\"not_found\",\"message\":\"Conversation Not Exists.\"}");
+            return;
+        }
+        ObjectNode response = OBJECT_MAPPER.createObjectNode()
+                .put("limit", 20)
+                .put("has_more", false);
+        response.set("data", histories.get(conversationId));
+        respond(exchange, 200, "application/json", OBJECT_MAPPER.writeValueAsString(response));
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
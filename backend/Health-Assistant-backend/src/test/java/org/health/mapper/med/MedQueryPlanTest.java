@@ -0,0 +1,300 @@
+package org.health.mapper.med;
+
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.scripting.defaults.DefaultParameterHandler;
+import org.apache.ibatis.session.Configuration;
+import org.health.MedTestDataset;
+import org.health.MysqlTestSupport;
+import org.health.entity.med.MedRecord;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 用药计划/记录 Mapper 的查询计划回归测试
+ * 在 MedTestDataset 的数据上对 MedRecordMapper、MedPlanMapper 的每条 SELECT/UPDATE/DELETE 执行 EXPLAIN：
+ * 不能有全表扫描（type=ALL）或全索引扫描（type=index），列出的表必须走预期的索引，
+ * 按索引顺序读取的语句不能出现 Using filesort。新增语句没有用例时同样失败
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class MedQueryPlanTest {
+
+    private static final long USER_ID = MedTestDataset.HOT_USER_ID;
+
+    private static LocalDate today;
+    private static List<Long> planIds;
+    private static long recordId;
+
+    @BeforeAll
+    static void seed() {
+        today = MedTestDataset.seed();
+        planIds = IntStream.range(0, 5).mapToObj(k -> MedTestDataset.planId(USER_ID, k)).collect(Collectors.toList());
+        recordId = MysqlTestSupport.jdbc().queryForObject(
+                "SELECT MIN(id) FROM med_record WHERE user_id = ? AND `date` = ?", Long.class, USER_ID, today);
+    }
+
+    @Test
+    void recordStatementsUseIndexes() {
+        Map<String, Case> cases = new LinkedHashMap<>();
+        cases.put("selectById", new Case(params("id", recordId)).key("r", "PRIMARY"));
+        cases.put("selectByPlanDateTime", new Case(params("planId", planIds.get(0), "date", today,
+                "time", LocalTime.of(8, 0))).key("r", "uk_plan_date_time"));
+        cases.put("selectSlotKeysByPlanRange", new Case(params("planId", planIds.get(0), "startDate", today,
+                "endDate", today.plusDays(MedTestDataset.FUTURE_DAYS))).key("med_record", "uk_plan_date_time"));
+        cases.put("selectByDate", new Case(params("userId", USER_ID, "planIds", planIds, "includeNullUserId", false,
+                "date", today)).key("r", "idx_user_date_time_id").sorted());
+        cases.put("selectList", new Case(listParams(false).with("offset", 0).with("limit", 20))
+                .key("r", "idx_user_date_time_id").sorted());
+        cases.put("selectListAfter", new Case(listParams(false).with("cursorDate", today.minusDays(300))
+                .with("cursorTime", LocalTime.of(12, 0)).with("cursorId", recordId).with("limit", 21))
+                .key("r", "idx_user_date_time_id").sorted().type("range"));
+        cases.put("countList", new Case(listParams(false))
+                .key("r", "idx_user_date_time_id", "idx_user_status_date_time_id"));
+        cases.put("selectTodoAfterId", new Case(params("afterId", 0L, "maxDate", today.minusDays(1), "limit", 500))
+                .key("med_record", "idx_status").sorted());
+        cases.put("markMissedByIds", new Case(params("ids", List.of(recordId, recordId + 1)))
+                .key("med_record", "PRIMARY"));
+        cases.put("selectMaxIdWithoutUserId", new Case(params())
+                .key("med_record", "idx_user_date_time_id", "idx_user_status_date_time_id"));
+        cases.put("backfillUserIdByRange", new Case(params("fromId", 1L, "toId", 5000L))
+                .key("r", "PRIMARY").key("p", "PRIMARY"));
+        cases.put("updateStatus", new Case(params("id", recordId, "status", "taken")).key("med_record", "PRIMARY"));
+        cases.put("updateStatusOwned", new Case(params("id", recordId, "userId", USER_ID, "status", "taken"))
+                .key("r", "PRIMARY").key("p", "PRIMARY"));
+        cases.put("selectOwnedByIds", new Case(params("userId", USER_ID, "ids", List.of(recordId, recordId + 1)))
+                .key("r", "PRIMARY").key("p", "PRIMARY"));
+        cases.put("batchUpdateStatusOwned", new Case(params("userId", USER_ID,
+                "list", List.of(record(recordId, "taken"), record(recordId + 1, "missed"))))
+                .key("r", "PRIMARY").key("p", "PRIMARY"));
+        cases.put("update", new Case(params("id", recordId, "status", "taken", "note", "补记"))
+                .key("med_record", "PRIMARY"));
+        cases.put("updateOwned", new Case(params("record", record(recordId, "taken"), "userId", USER_ID))
+                .key("r", "PRIMARY").key("p", "PRIMARY"));
+        cases.put("deleteByPlanIdAndDate", new Case(params("planId", planIds.get(0), "startDate", today.plusDays(1)))
+                .key("med_record", "uk_plan_date_time"));
+        cases.put("deleteFutureTodoRecordsByPlanId", new Case(params("planId", planIds.get(0), "startDate", today))
+                .key("med_record", "uk_plan_date_time", "idx_plan_status_date"));
+
+        assertThat(violations(MedRecordMapper.class, cases)).isEmpty();
+    }
+
+    @Test
+    void planStatementsUseIndexes() {
+        long planId = planIds.get(0);
+        List<Long> userIds = LongStream.rangeClosed(1, 50).boxed().collect(Collectors.toList());
+        Map<String, Case> cases = new LinkedHashMap<>();
+        cases.put("selectById", new Case(params("id", planId)).key("med_plan", "PRIMARY"));
+        cases.put("selectIdsByUserId", new Case(params("userId", USER_ID)).key("med_plan", "idx_user_deleted_dates"));
+        cases.put("selectByUserId", new Case(params("userId", USER_ID, "status", "active"))
+                .key("med_plan", "idx_user_deleted_dates"));
+        cases.put("selectWithSchedulesById", new Case(params("id", planId))
+                .key("p", "PRIMARY").key("t", "idx_plan_id").key("d", "uk_plan_day"));
+        cases.put("selectWithSchedulesByUserId", new Case(params("userId", USER_ID))
+                .key("p", "idx_user_deleted_dates").key("t", "idx_plan_id").key("d", "uk_plan_day"));
+        cases.put("selectSchedulesByUserIds", new Case(params("userIds", userIds, "date", today))
+                .key("p", "idx_user_deleted_dates").key("t", "idx_plan_id").key("d", "uk_plan_day"));
+        cases.put("selectActiveUserIds", new Case(params("afterUserId", 0L, "date", today, "limit", 500))
+                .key("med_plan", "idx_user_deleted_dates").sorted());
+        cases.put("countChangedSince", new Case(params("userId", USER_ID, "since", LocalDateTime.now().minusDays(1)))
+                .key("med_plan", "idx_user_updated"));
+        cases.put("update", new Case(params("id", planId, "name", "药品")).key("med_plan", "PRIMARY"));
+        cases.put("deleteById", new Case(params("id", planId)).key("med_plan", "PRIMARY"));
+        cases.put("updateRemindEnabled", new Case(params("id", planId, "remindEnabled", true))
+                .key("med_plan", "PRIMARY"));
+
+        assertThat(violations(MedPlanMapper.class, cases)).isEmpty();
+    }
+
+    @Test
+    void statusFilteredListReadsInIndexOrder() {
+        Map<String, Case> cases = new LinkedHashMap<>();
+        cases.put("selectList", new Case(listParams(false).with("status", "missed").with("offset", 0).with("limit", 20))
+                .key("r", "idx_user_status_date_time_id", "idx_user_date_time_id").sorted());
+        cases.put("selectListAfter", new Case(listParams(false).with("status", "missed")
+                .with("cursorDate", today.minusDays(300)).with("cursorTime", LocalTime.of(12, 0))
+                .with("cursorId", recordId).with("limit", 21))
+                .key("r", "idx_user_status_date_time_id", "idx_user_date_time_id").sorted());
+
+        assertThat(violations(MedRecordMapper.class, cases, false)).isEmpty();
+    }
+
+    @Test
+    void nullUserIdScopeStillUsesUserIndex() {
+        // 回填完成前包含 user_id 为空的行：ref_or_null 不能按索引顺序读取（需要排序），但仍不能全表扫描
+        Map<String, Case> cases = new LinkedHashMap<>();
+        cases.put("selectByDate", new Case(params("userId", USER_ID, "planIds", planIds, "includeNullUserId", true,
+                "date", today)).key("r", "idx_user_date_time_id"));
+        cases.put("selectList", new Case(listParams(true).with("offset", 0).with("limit", 20))
+                .key("r", "idx_user_date_time_id", "idx_user_status_date_time_id"));
+        cases.put("countList", new Case(listParams(true))
+                .key("r", "idx_user_date_time_id", "idx_user_status_date_time_id"));
+
+        assertThat(violations(MedRecordMapper.class, cases, false)).isEmpty();
+    }
+
+    /**
+     * 对 Mapper 的全部 SELECT/UPDATE/DELETE 语句执行 EXPLAIN，返回不符合预期的说明
+     */
+    private static List<String> violations(Class<?> mapperType, Map<String, Case> cases) {
+        return violations(mapperType, cases, true);
+    }
+
+    private static List<String> violations(Class<?> mapperType, Map<String, Case> cases, boolean requireAll) {
+        Configuration configuration = MysqlTestSupport.sqlSessionFactory().getConfiguration();
+        String namespace = mapperType.getName() + ".";
+        List<String> violations = new ArrayList<>();
+
+        if (requireAll) {
+            Set<String> statements = new TreeSet<>();
+            for (String name : configuration.getMappedStatementNames()) {
+                if (name.startsWith(namespace)
+                        && configuration.getMappedStatement(name).getSqlCommandType() != SqlCommandType.INSERT) {
+                    statements.add(name.substring(namespace.length()));
+                }
+            }
+            statements.stream().filter(id -> !cases.containsKey(id))
+                    .forEach(id -> violations.add(id + ": 没有EXPLAIN用例"));
+        }
+
+        cases.forEach((id, c) -> {
+            MappedStatement statement = configuration.getMappedStatement(namespace + id);
+            List<Map<String, Object>> plan = explain(statement, c.params);
+            Set<String> seen = new TreeSet<>();
+            for (Map<String, Object> row : plan) {
+                String table = (String) row.get("table");
+                if (table == null) {
+                    continue;
+                }
+                seen.add(table);
+                String type = (String) row.get("type");
+                String key = (String) row.get("key");
+                String extra = row.get("Extra") != null ? (String) row.get("Extra") : "";
+                if ("ALL".equals(type) || "index".equals(type)) {
+                    violations.add(id + ": " + table + " 全扫描 type=" + type + " " + row);
+                }
+                List<String> expectedKeys = c.keys.get(table);
+                if (expectedKeys != null && !expectedKeys.contains(key)) {
+                    violations.add(id + ": " + table + " 使用索引 " + key + "，预期 " + expectedKeys + " " + row);
+                }
+                if (c.sorted && extra.contains("Using filesort")) {
+                    violations.add(id + ": " + table + " 需要filesort " + row);
+                }
+                if (c.type != null && table.equals(c.keys.keySet().iterator().next()) && !c.type.equals(type)) {
+                    violations.add(id + ": " + table + " 访问类型 " + type + "，预期 " + c.type + " " + row);
+                }
+            }
+            c.keys.keySet().stream().filter(table -> !seen.contains(table))
+                    .forEach(table -> violations.add(id + ": 查询计划中没有表 " + table + " " + plan));
+        });
+        return violations;
+    }
+
+    private static List<Map<String, Object>> explain(MappedStatement statement, Map<String, Object> params) {
+        BoundSql boundSql = statement.getBoundSql(params);
+        try (Connection connection = MysqlTestSupport.dataSource().getConnection();
+             PreparedStatement ps = connection.prepareStatement("EXPLAIN " + boundSql.getSql())) {
+            new DefaultParameterHandler(statement, params, boundSql).setParameters(ps);
+            List<Map<String, Object>> rows = new ArrayList<>();
+            try (ResultSet rs = ps.executeQuery()) {
+                ResultSetMetaData meta = rs.getMetaData();
+                while (rs.next()) {
+                    Map<String, Object> row = new LinkedHashMap<>();
+                    for (int i = 1; i <= meta.getColumnCount(); i++) {
+                        row.put(meta.getColumnLabel(i), rs.getObject(i));
+                    }
+                    rows.add(row);
+                }
+            }
+            return rows;
+        } catch (SQLException e) {
+            throw new IllegalStateException("EXPLAIN失败: " + statement.getId(), e);
+        }
+    }
+
+    /**
+     * 记录列表语句的公共参数（不带过滤条件）
+     */
+    private static Params listParams(boolean includeNullUserId) {
+        return params("userId", USER_ID, "planIds", planIds, "includeNullUserId", includeNullUserId);
+    }
+
+    private static Params params(Object... keyValues) {
+        Params params = new Params();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            params.put((String) keyValues[i], keyValues[i + 1]);
+        }
+        return params;
+    }
+
+    private static MedRecord record(long id, String status) {
+        MedRecord record = new MedRecord();
+        record.setId(id);
+        record.setStatus(status);
+        record.setNote("补记");
+        return record;
+    }
+
+    /**
+     * 语句参数（Mapper 方法的 @Param 名称 -> 值）
+     */
+    private static class Params extends HashMap<String, Object> {
+        Params with(String name, Object value) {
+            put(name, value);
+            return this;
+        }
+    }
+
+    /**
+     * 一条语句的 EXPLAIN 用例：参数、各表预期的索引、是否按索引顺序读取（不能 filesort）、
+     * 第一个列出的表的预期访问类型
+     */
+    private static class Case {
+        private final Map<String, Object> params;
+        private final Map<String, List<String>> keys = new LinkedHashMap<>();
+        private boolean sorted;
+        private String type;
+
+        Case(Map<String, Object> params) {
+            this.params = params;
+        }
+
+        Case key(String table, String... expected) {
+            keys.put(table, Arrays.asList(expected));
+            return this;
+        }
+
+        Case sorted() {
+            this.sorted = true;
+            return this;
+        }
+
+        Case type(String type) {
+            this.type = type;
+            return this;
+        }
+    }
+}
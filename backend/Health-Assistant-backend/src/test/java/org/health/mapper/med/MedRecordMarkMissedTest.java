@@ -0,0 +1,114 @@
+package org.health.mapper.med;
+
+import org.health.MedTestDataset;
+import org.health.MysqlTestSupport;
+import org.health.entity.med.MedRecord;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.Time;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 漏服扫描的条件更新：扫描读出 todo 记录之后、更新之前被用户打卡的记录不会被改成 missed
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class MedRecordMarkMissedTest {
+
+    private static final long USER_ID = MedTestDataset.PRIVATE_USER_ID_START + 12;
+    private static final long PLAN_ID = MedTestDataset.planId(USER_ID, 0);
+
+    private static LocalDate yesterday;
+
+    private MedRecordMapper mapper;
+    private JdbcTemplate jdbc;
+
+    @BeforeAll
+    static void seed() {
+        yesterday = MedTestDataset.seed().minusDays(1);
+        JdbcTemplate jdbc = MysqlTestSupport.jdbc();
+        jdbc.update("INSERT INTO `user` (id, username, password) VALUES (?, ?, 'x')", USER_ID, "sweep" + USER_ID);
+        jdbc.update("INSERT INTO med_plan (id, user_id, name, dosage, start_date, end_date, repeat_type, remind_enabled) "
+                + "VALUES (?, ?, '药品', '1片', ?, ?, 'daily', 1)", PLAN_ID, USER_ID,
+                Date.valueOf(yesterday), Date.valueOf(yesterday));
+    }
+
+    @BeforeEach
+    void setUp() {
+        mapper = MysqlTestSupport.mapper(MedRecordMapper.class);
+        jdbc = MysqlTestSupport.jdbc();
+        jdbc.update("DELETE FROM med_record WHERE plan_id = ?", PLAN_ID);
+        for (LocalTime time : MedTestDataset.times()) {
+            jdbc.update("INSERT INTO med_record (user_id, plan_id, `date`, `time`, `status`) VALUES (?, ?, ?, ?, 'todo')",
+                    USER_ID, PLAN_ID, Date.valueOf(yesterday), Time.valueOf(time));
+        }
+    }
+
+    @Test
+    void recordTakenAfterTheScanIsNotOverwritten() {
+        List<Long> ids = scanTodo();
+        assertThat(ids).hasSize(3);
+
+        // 扫描之后用户打卡了第一条
+        markTaken(ids.get(0));
+
+        assertThat(mapper.markMissedByIds(ids)).isEqualTo(2);
+        assertThat(status(ids.get(0))).isEqualTo("taken");
+        assertThat(status(ids.get(1))).isEqualTo("missed");
+        assertThat(status(ids.get(2))).isEqualTo("missed");
+    }
+
+    @Test
+    void updateWaitsForAnInFlightCheckInAndSkipsIt() throws Exception {
+        List<Long> ids = scanTodo();
+
+        // 用户的打卡事务已更新第一条但尚未提交
+        try (Connection checkIn = MysqlTestSupport.dataSource().getConnection()) {
+            checkIn.setAutoCommit(false);
+            try (PreparedStatement statement = checkIn.prepareStatement(
+                    "UPDATE med_record SET `status` = 'taken', action_at = NOW() WHERE id = ?")) {
+                statement.setLong(1, ids.get(0));
+                assertThat(statement.executeUpdate()).isEqualTo(1);
+            }
+
+            // 扫描的更新等待该行的锁
+            CompletableFuture<Integer> sweep = CompletableFuture.supplyAsync(() -> mapper.markMissedByIds(ids));
+            Thread.sleep(500);
+            assertThat(sweep.isDone()).isFalse();
+
+            checkIn.commit();
+            // 锁释放后重新读取最新版本，status 已不是 todo，跳过
+            assertThat(sweep.get(10, TimeUnit.SECONDS)).isEqualTo(2);
+        }
+        assertThat(status(ids.get(0))).isEqualTo("taken");
+        assertThat(status(ids.get(1))).isEqualTo("missed");
+    }
+
+    private List<Long> scanTodo() {
+        return mapper.selectTodoAfterId(0L, yesterday, 100_000).stream()
+                .filter(record -> record.getPlanId() == PLAN_ID)
+                .map(MedRecord::getId)
+                .collect(Collectors.toList());
+    }
+
+    private void markTaken(Long id) {
+        jdbc.update("UPDATE med_record SET `status` = 'taken', action_at = NOW() WHERE id = ?", id);
+    }
+
+    private String status(Long id) {
+        return jdbc.queryForObject("SELECT `status` FROM med_record WHERE id = ?", String.class, id);
+    }
+}
@@ -0,0 +1,79 @@
+package org.health.service;
+
+import org.health.MysqlTestSupport;
+import org.health.mapper.JobLeaseMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * job_lease 租约在两个节点之间的互斥、续期、到期接管和释放
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class JobLeaseServiceTest {
+
+    private static final String JOB_NAME = "lease-test";
+
+    private JobLeaseService nodeA;
+    private JobLeaseService nodeB;
+    private JdbcTemplate jdbc;
+
+    @BeforeEach
+    void setUp() {
+        nodeA = node();
+        nodeB = node();
+        jdbc = MysqlTestSupport.jdbc();
+        jdbc.update("DELETE FROM job_lease WHERE job_name = ?", JOB_NAME);
+    }
+
+    @Test
+    void leaseIsHandedOverOnlyAfterExpiry() {
+        assertThat(nodeA.tryAcquire(JOB_NAME, 60)).isTrue();
+        assertThat(nodeB.tryAcquire(JOB_NAME, 60)).isFalse();
+        // 持有者续期成功，租约仍属于 A
+        assertThat(nodeA.tryAcquire(JOB_NAME, 60)).isTrue();
+        assertThat(nodeB.tryAcquire(JOB_NAME, 60)).isFalse();
+        assertThat(owner()).isEqualTo(nodeA.getOwner());
+
+        // A 停顿超过租约时长
+        expire();
+
+        assertThat(nodeB.tryAcquire(JOB_NAME, 60)).isTrue();
+        assertThat(owner()).isEqualTo(nodeB.getOwner());
+        // A 恢复后续期失败，不会抢回租约
+        assertThat(nodeA.tryAcquire(JOB_NAME, 60)).isFalse();
+        assertThat(owner()).isEqualTo(nodeB.getOwner());
+    }
+
+    @Test
+    void releaseLetsTheOtherNodeAcquireImmediately() {
+        assertThat(nodeA.tryAcquire(JOB_NAME, 60)).isTrue();
+        // 非持有者的释放不生效
+        nodeB.release(JOB_NAME);
+        assertThat(nodeB.tryAcquire(JOB_NAME, 60)).isFalse();
+
+        nodeA.release(JOB_NAME);
+
+        assertThat(nodeB.tryAcquire(JOB_NAME, 60)).isTrue();
+        assertThat(nodeA.tryAcquire(JOB_NAME, 60)).isFalse();
+    }
+
+    private void expire() {
+        jdbc.update("UPDATE job_lease SET lease_until = DATE_SUB(NOW(), INTERVAL 1 SECOND) WHERE job_name = ?",
+                JOB_NAME);
+    }
+
+    private String owner() {
+        return jdbc.queryForObject("SELECT owner FROM job_lease WHERE job_name = ?", String.class, JOB_NAME);
+    }
+
+    private static JobLeaseService node() {
+        JobLeaseService service = new JobLeaseService();
+        ReflectionTestUtils.setField(service, "jobLeaseMapper", MysqlTestSupport.mapper(JobLeaseMapper.class));
+        return service;
+    }
+}
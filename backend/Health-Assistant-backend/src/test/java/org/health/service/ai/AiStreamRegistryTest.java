@@ -0,0 +1,84 @@
+package org.health.service.ai;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * AiStreamRegistry 续传与清理：无法续传时返回 false（控制器返回 410），超过最长时间的对话强制结束
+ */
+class AiStreamRegistryTest {
+
+  private AiStreamRegistry registry;
+
+  @BeforeEach
+  void setUp() {
+    registry = new AiStreamRegistry();
+    ReflectionTestUtils.setField(registry, "meterRegistry", new SimpleMeterRegistry());
+    ReflectionTestUtils.setField(registry, "bufferSize", 2);
+    ReflectionTestUtils.setField(registry, "resumeSeconds", 60L);
+    ReflectionTestUtils.setField(registry, "maxAgeSeconds", 600L);
+    registry.init();
+  }
+
+  @Test
+  void resumeWithinBuffer() {
+    AiStream stream = registry.open(1L, new SseEmitter());
+    stream.publish("e1");
+    stream.publish("e2");
+
+    assertThat(registry.resume(1L, stream.getId() + ":1", new SseEmitter())).isTrue();
+  }
+
+  @Test
+  void resumeRejectedWhenMissedEventsLeftTheBuffer() {
+    AiStream stream = registry.open(1L, new SseEmitter());
+    stream.publish("e1");
+    stream.publish("e2");
+    stream.publish("e3");
+
+    assertThat(registry.resume(1L, stream.getId() + ":0", new SseEmitter())).isFalse();
+  }
+
+  @Test
+  void resumeRejectedForOtherUserOrMalformedId() {
+    AiStream stream = registry.open(1L, new SseEmitter());
+    stream.publish("e1");
+
+    assertThat(registry.resume(2L, stream.getId() + ":1", new SseEmitter())).isFalse();
+    assertThat(registry.resume(1L, stream.getId(), new SseEmitter())).isFalse();
+    assertThat(registry.resume(1L, stream.getId() + ":x", new SseEmitter())).isFalse();
+    assertThat(registry.resume(1L, null, new SseEmitter())).isFalse();
+  }
+
+  @Test
+  void evictsFinishedStreamsAfterResumeWindow() {
+    AiStream stream = registry.open(1L, new SseEmitter());
+    stream.publish("e1");
+    stream.complete();
+
+    registry.evictExpired();
+    assertThat(registry.resume(1L, stream.getId() + ":0", new SseEmitter())).isTrue();
+
+    ReflectionTestUtils.setField(stream, "finishedAt", System.currentTimeMillis() - 61_000L);
+    registry.evictExpired();
+    assertThat(registry.resume(1L, stream.getId() + ":0", new SseEmitter())).isFalse();
+  }
+
+  @Test
+  void failsAndEvictsStreamsOlderThanMaxAge() {
+    AiStream fresh = registry.open(1L, new SseEmitter());
+    AiStream stale = registry.open(1L, new SseEmitter());
+    ReflectionTestUtils.setField(stale, "createdAt", System.currentTimeMillis() - 601_000L);
+
+    registry.evictExpired();
+
+    assertThat(stale.isFinished()).isTrue();
+    assertThat(fresh.isFinished()).isFalse();
+    assertThat(registry.resume(1L, stale.getId() + ":0", new SseEmitter())).isFalse();
+  }
+}
@@ -0,0 +1,247 @@
+package org.health.service.ai;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * AiStream 环形缓冲区补发：断线重连时按 Last-Event-ID 补发缺失事件，缺失事件超出缓冲区时拒绝续传；
+ * 发送在锁外进行：慢连接不阻塞续传接入，并发的转发与补发对每个连接保持序号连续
+ */
+class AiStreamTest {
+
+  private static final int CAPACITY = 4;
+
+  private final AiStream stream = new AiStream("s1", 1L, CAPACITY);
+
+  @Test
+  void newConnectionReceivesEventsWithSequentialIds() {
+    RecordingEmitter emitter = new RecordingEmitter();
+    assertThat(stream.attach(emitter, 0)).isTrue();
+
+    stream.publish("e1");
+    stream.publish("e2");
+
+    assertThat(emitter.ids).containsExactly("s1:1", "s1:2");
+    assertThat(emitter.data).containsExactly("e1", "e2");
+  }
+
+  @Test
+  void resumeReplaysMissedEventsThenContinues() {
+    RecordingEmitter first = new RecordingEmitter();
+    stream.attach(first, 0);
+    stream.publish("e1");
+    stream.detach(first);
+    stream.publish("e2");
+    stream.publish("e3");
+
+    RecordingEmitter second = new RecordingEmitter();
+    assertThat(stream.attach(second, 1)).isTrue();
+    stream.publish("e4");
+
+    assertThat(first.data).containsExactly("e1");
+    assertThat(second.ids).containsExactly("s1:2", "s1:3", "s1:4");
+    assertThat(second.data).containsExactly("e2", "e3", "e4");
+  }
+
+  @Test
+  void resumeReplacesPreviousConnection() {
+    RecordingEmitter first = new RecordingEmitter();
+    stream.attach(first, 0);
+    stream.publish("e1");
+
+    RecordingEmitter second = new RecordingEmitter();
+    stream.attach(second, 1);
+    stream.publish("e2");
+
+    assertThat(first.completed).isTrue();
+    assertThat(first.data).containsExactly("e1");
+    assertThat(second.data).containsExactly("e2");
+  }
+
+  @Test
+  void resumeWithinRingAfterWrapAround() {
+    for (int i = 1; i <= 6; i++) {
+      stream.publish("e" + i);
+    }
+
+    // 缓冲区保存最近4个事件（3-6），客户端收到了2，缺失的3-6都还在
+    RecordingEmitter emitter = new RecordingEmitter();
+    assertThat(stream.attach(emitter, 2)).isTrue();
+    assertThat(emitter.data).containsExactly("e3", "e4", "e5", "e6");
+  }
+
+  @Test
+  void resumeFailsWhenMissedEventsWereOverwritten() {
+    for (int i = 1; i <= 6; i++) {
+      stream.publish("e" + i);
+    }
+
+    // 客户端只收到了1，事件2已被覆盖，无法补发（控制器返回 410）
+    RecordingEmitter emitter = new RecordingEmitter();
+    assertThat(stream.attach(emitter, 1)).isFalse();
+    assertThat(emitter.data).isEmpty();
+    assertThat(emitter.completed).isFalse();
+  }
+
+  @Test
+  void resumeFailsForUnknownSequence() {
+    stream.publish("e1");
+
+    assertThat(stream.attach(new RecordingEmitter(), 5)).isFalse();
+  }
+
+  @Test
+  void resumeAfterFinishReplaysAndCompletes() {
+    stream.publish("e1");
+    stream.publish("e2");
+    stream.complete();
+    stream.publish("ignored");
+
+    RecordingEmitter emitter = new RecordingEmitter();
+    assertThat(stream.attach(emitter, 1)).isTrue();
+    assertThat(emitter.data).containsExactly("e2");
+    assertThat(emitter.completed).isTrue();
+    assertThat(stream.isFinished()).isTrue();
+  }
+
+  @Test
+  void failedSendDetachesWithoutStoppingBuffering() {
+    RecordingEmitter emitter = new RecordingEmitter();
+    stream.attach(emitter, 0);
+    emitter.broken = true;
+    stream.publish("e1");
+    emitter.broken = false;
+    stream.publish("e2");
+
+    // 发送失败后不再向该连接发送，事件仍写入缓冲区供重连补发
+    assertThat(emitter.data).isEmpty();
+    RecordingEmitter resumed = new RecordingEmitter();
+    assertThat(stream.attach(resumed, 0)).isTrue();
+    assertThat(resumed.data).containsExactly("e1", "e2");
+  }
+
+  @Test
+  void slowConnectionDoesNotBlockResume() throws Exception {
+    RecordingEmitter slow = new RecordingEmitter();
+    slow.sendGate = new CountDownLatch(1);
+    stream.attach(slow, 0);
+
+    // 转发线程阻塞在向慢连接写入 e1 上
+    Thread publisher = new Thread(() -> stream.publish("e1"));
+    publisher.start();
+    assertThat(slow.sending.await(5, TimeUnit.SECONDS)).isTrue();
+
+    // 续传接入、后续事件的转发不等待慢连接的写入
+    RecordingEmitter resumed = new RecordingEmitter();
+    long start = System.nanoTime();
+    assertThat(stream.attach(resumed, 0)).isTrue();
+    stream.publish("e2");
+    assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(1_000L);
+    assertThat(resumed.ids).containsExactly("s1:1", "s1:2");
+    assertThat(slow.completed).isTrue();
+
+    // 慢连接的写入结束后不再向它发送
+    slow.sendGate.countDown();
+    publisher.join(5_000);
+    assertThat(slow.data).containsExactly("e1");
+  }
+
+  @Test
+  void concurrentPublishAndResumeKeepEachConnectionInOrder() throws Exception {
+    int events = 5_000;
+    AiStream large = new AiStream("s2", 1L, events);
+    List<RecordingEmitter> emitters = new ArrayList<>();
+    List<Long> starts = new ArrayList<>();
+    RecordingEmitter first = new RecordingEmitter();
+    large.attach(first, 0);
+    emitters.add(first);
+    starts.add(0L);
+
+    Thread publisher = new Thread(() -> {
+      for (int i = 1; i <= events; i++) {
+        large.publish("e" + i);
+      }
+      large.complete();
+    });
+    publisher.start();
+
+    // 转发进行中反复续传：每次从上一个连接收到的最后一个事件接着补发
+    for (int i = 0; i < 20 && publisher.isAlive(); i++) {
+      Thread.sleep(1);
+      int last = emitters.size() - 1;
+      long lastSeq = starts.get(last) + emitters.get(last).ids.size();
+      RecordingEmitter next = new RecordingEmitter();
+      assertThat(large.attach(next, lastSeq)).isTrue();
+      emitters.add(next);
+      starts.add(lastSeq);
+    }
+    publisher.join(10_000);
+
+    // 每个连接收到的序号从续传点起连续递增，不乱序、不重复
+    for (int i = 0; i < emitters.size(); i++) {
+      List<String> ids = new ArrayList<>(emitters.get(i).ids);
+      for (int j = 0; j < ids.size(); j++) {
+        assertThat(ids.get(j)).isEqualTo("s2:" + (starts.get(i) + j + 1));
+      }
+    }
+    RecordingEmitter lastEmitter = emitters.get(emitters.size() - 1);
+    assertThat(starts.get(emitters.size() - 1) + lastEmitter.ids.size()).isEqualTo((long) events);
+    assertThat(lastEmitter.completed).isTrue();
+  }
+
+  /**
+   * 记录发送的事件ID和数据
+   */
+  private static class RecordingEmitter extends SseEmitter {
+    private final List<String> ids = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> data = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch sending = new CountDownLatch(1);
+    // 不为空时发送阻塞到放行，模拟写不动的慢客户端
+    private CountDownLatch sendGate;
+    private volatile boolean broken;
+    private volatile boolean completed;
+
+    @Override
+    public void send(SseEventBuilder builder) throws IOException {
+      if (broken) {
+        throw new IOException("连接已断开");
+      }
+      sending.countDown();
+      if (sendGate != null) {
+        try {
+          sendGate.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      StringBuilder text = new StringBuilder();
+      builder.build().forEach(part -> text.append(part.getData()));
+      for (String line : text.toString().split("\n")) {
+        if (line.startsWith("id:")) {
+          ids.add(line.substring(3));
+        } else if (line.startsWith("data:")) {
+          data.add(line.substring(5));
+        }
+      }
+    }
+
+    @Override
+    public synchronized void complete() {
+      completed = true;
+    }
+
+    @Override
+    public synchronized void completeWithError(Throwable ex) {
+      completed = true;
+    }
+  }
+}
@@ -0,0 +1,352 @@
+package org.health.service.ai;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.health.config.DifyClientConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * DifyClientService 故障注入测试：用本地 HTTP 桩模拟 DIFY 返回 5xx、响应头迟迟不返回、响应体中途停止发送、
+ * 返回重定向，以及并发请求超过连接数上限
+ */
+class DifyClientServiceTest {
+
+  private static final long READ_TIMEOUT_MS = 300;
+  private static final int MAX_RETRIES = 2;
+  private static final int FAILURE_THRESHOLD = 5;
+  private static final int MAX_CONNECTIONS = 4;
+
+  private HttpServer server;
+  private ExecutorService serverExecutor;
+  private HttpClient httpClient;
+  private DifyCircuitBreaker circuitBreaker;
+  private DifyClientService service;
+
+  // 桩被调用的次数
+  private final AtomicInteger hits = new AtomicInteger();
+  // 挂起中的处理器等待此信号后才结束，测试结束时释放
+  private final CountDownLatch release = new CountDownLatch(1);
+
+  @BeforeEach
+  void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    serverExecutor = Executors.newCachedThreadPool();
+    server.setExecutor(serverExecutor);
+    server.start();
+
+    // 与生产环境相同的 HttpClient 配置
+    DifyClientConfig clientConfig = new DifyClientConfig();
+    ReflectionTestUtils.setField(clientConfig, "connectTimeoutMs", 2_000L);
+    ReflectionTestUtils.setField(clientConfig, "http2Enabled", true);
+    httpClient = clientConfig.difyHttpClient();
+
+    circuitBreaker = new DifyCircuitBreaker();
+    ReflectionTestUtils.setField(circuitBreaker, "meterRegistry", new SimpleMeterRegistry());
+    ReflectionTestUtils.setField(circuitBreaker, "failureThreshold", FAILURE_THRESHOLD);
+    ReflectionTestUtils.setField(circuitBreaker, "openMillis", 60_000L);
+    circuitBreaker.init();
+
+    service = new DifyClientService();
+    ReflectionTestUtils.setField(service, "baseUrl", "http://127.0.0.1:" + server.getAddress().getPort());
+    ReflectionTestUtils.setField(service, "apiKey", "app-test-key");
+    ReflectionTestUtils.setField(service, "readTimeoutMs", READ_TIMEOUT_MS);
+    ReflectionTestUtils.setField(service, "streamIdleTimeoutMs", READ_TIMEOUT_MS);
+    ReflectionTestUtils.setField(service, "streamTimeoutMs", 5_000L);
+    ReflectionTestUtils.setField(service, "maxRetries", MAX_RETRIES);
+    ReflectionTestUtils.setField(service, "retryBaseBackoffMs", 1L);
+    ReflectionTestUtils.setField(service, "retryMaxBackoffMs", 5L);
+    ReflectionTestUtils.setField(service, "retryBudgetRatio", 0.2);
+    ReflectionTestUtils.setField(service, "maxConnections", MAX_CONNECTIONS);
+    ReflectionTestUtils.setField(service, "acquireTimeoutMs", 1_000L);
+    ReflectionTestUtils.setField(service, "difyHttpClient", httpClient);
+    ReflectionTestUtils.setField(service, "circuitBreaker", circuitBreaker);
+    service.init();
+  }
+
+  @AfterEach
+  void tearDown() {
+    release.countDown();
+    service.destroy();
+    server.stop(0);
+    serverExecutor.shutdownNow();
+    httpClient.shutdownNow();
+  }
+
+  @Test
+  void getRetriesServerErrorsThenFails() {
+    server.createContext("/v1/messages", exchange -> {
+      hits.incrementAndGet();
+      respond(exchange, 503, "busy");
+    });
+
+    assertThatThrownBy(() -> service.getMessages("c1", "u1", null, 20))
+        .isInstanceOf(RuntimeException.class)
+        .hasMessageContaining("503");
+    assertThat(hits.get()).isEqualTo(MAX_RETRIES + 1);
+    assertThat(consecutiveFailures()).isEqualTo(MAX_RETRIES + 1);
+  }
+
+  @Test
+  void getRecoversAfterServerError() {
+    server.createContext("/v1/messages", exchange -> {
+      if (hits.incrementAndGet() == 1) {
+        respond(exchange, 502, "bad gateway");
+      } else {
+        respond(exchange, 200, "{\"limit\":20,\"has_more\":false,\"data\":[]}");
+      }
+    });
+
+    DifyModels.MessageListResponse response = service.getMessages("c1", "u1", null, 20);
+
+    assertThat(response.getData()).isEmpty();
+    assertThat(hits.get()).isEqualTo(2);
+    assertThat(consecutiveFailures()).isZero();
+  }
+
+  @Test
+  void getTimesOutWhenHeadersNeverArrive() {
+    server.createContext("/v1/messages", exchange -> {
+      hits.incrementAndGet();
+      await();
+    });
+
+    long start = System.nanoTime();
+    assertThatThrownBy(() -> service.getMessages("c1", "u1", null, 20))
+        .hasCauseInstanceOf(HttpTimeoutException.class);
+    assertThat(elapsedMillis(start)).isLessThan(READ_TIMEOUT_MS * (MAX_RETRIES + 1) + 2_000);
+    assertThat(hits.get()).isEqualTo(MAX_RETRIES + 1);
+  }
+
+  @Test
+  void getTimesOutWhenBodyHangs() {
+    server.createContext("/v1/messages", exchange -> {
+      hits.incrementAndGet();
+      exchange.sendResponseHeaders(200, 0);
+      OutputStream out = exchange.getResponseBody();
+      out.write("{\"limit\":20,\"has_more\":".getBytes(StandardCharsets.UTF_8));
+      out.flush();
+      await();
+    });
+
+    long start = System.nanoTime();
+    assertThatThrownBy(() -> service.getMessages("c1", "u1", null, 20))
+        .hasCauseInstanceOf(HttpTimeoutException.class);
+    assertThat(elapsedMillis(start)).isLessThan(READ_TIMEOUT_MS * (MAX_RETRIES + 1) + 2_000);
+    assertThat(hits.get()).isEqualTo(MAX_RETRIES + 1);
+    assertThat(consecutiveFailures()).isEqualTo(MAX_RETRIES + 1);
+  }
+
+  @Test
+  void getFailsFastOnUnparseableBody() {
+    server.createContext("/v1/messages", exchange -> {
+      hits.incrementAndGet();
+      respond(exchange, 200, "<html>maintenance</html>");
+    });
+
+    assertThatThrownBy(() -> service.getMessages("c1", "u1", null, 20))
+        .hasMessageContaining("DIFY 响应解析失败");
+    assertThat(hits.get()).isEqualTo(1);
+    assertThat(consecutiveFailures()).isZero();
+    assertThat(circuitBreaker.getState()).isEqualTo(DifyCircuitBreaker.State.CLOSED);
+  }
+
+  @Test
+  void openCircuitRejectsWithoutCallingUpstream() {
+    server.createContext("/v1/messages", exchange -> {
+      hits.incrementAndGet();
+      respond(exchange, 500, "boom");
+    });
+    for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+      assertThatThrownBy(() -> service.getMessages("c1", "u1", null, 20))
+          .hasMessageContaining("500");
+    }
+    assertThat(circuitBreaker.getState()).isEqualTo(DifyCircuitBreaker.State.OPEN);
+    int before = hits.get();
+
+    assertThatThrownBy(() -> service.getMessages("c1", "u1", null, 20))
+        .isInstanceOf(DifyUnavailableException.class);
+    assertThat(hits.get()).isEqualTo(before);
+  }
+
+  @Test
+  void streamFailsWith504WhenUpstreamStopsSending() {
+    server.createContext("/v1/chat-messages", exchange -> {
+      hits.incrementAndGet();
+      exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+      exchange.sendResponseHeaders(200, 0);
+      OutputStream out = exchange.getResponseBody();
+      out.write(("data: {\"event\":\"message\",\"conversation_id\":\"c1\",\"message_id\":\"m1\","
+          + "\"answer\":\"你好\"}\n\n").getBytes(StandardCharsets.UTF_8));
+      out.flush();
+      await();
+    });
+    AiStream stream = new AiStream("s1", 1L, 16);
+
+    long start = System.nanoTime();
+    assertThatThrownBy(() -> service.streamChat("hi", null, "u1", null, null, stream))
+        .isInstanceOf(EmitterAlreadyCompletedException.class)
+        .hasMessageContaining("超时");
+    assertThat(elapsedMillis(start)).isLessThan(READ_TIMEOUT_MS + 2_000);
+    assertThat(stream.isFinished()).isTrue();
+    assertThat(consecutiveFailures()).isEqualTo(1);
+    // 超时关闭响应流后归还连接名额
+    assertThat(availablePermits()).isEqualTo(MAX_CONNECTIONS);
+  }
+
+  @Test
+  void concurrentRequestsNeverExceedMaxConnections() throws Exception {
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger maxInFlight = new AtomicInteger();
+    server.createContext("/v1/messages", exchange -> {
+      hits.incrementAndGet();
+      maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      inFlight.decrementAndGet();
+      respond(exchange, 200, "{\"limit\":20,\"has_more\":false,\"data\":[]}");
+    });
+    ReflectionTestUtils.setField(service, "acquireTimeoutMs", 10_000L);
+    ExecutorService callers = Executors.newFixedThreadPool(MAX_CONNECTIONS * 3);
+
+    List<CompletableFuture<DifyModels.MessageListResponse>> calls = new ArrayList<>();
+    for (int i = 0; i < MAX_CONNECTIONS * 3; i++) {
+      calls.add(CompletableFuture.supplyAsync(() -> service.getMessages("c1", "u1", null, 20), callers));
+    }
+    for (CompletableFuture<DifyModels.MessageListResponse> call : calls) {
+      assertThat(call.get(10, TimeUnit.SECONDS).getData()).isEmpty();
+    }
+    callers.shutdown();
+
+    assertThat(hits.get()).isEqualTo(MAX_CONNECTIONS * 3);
+    assertThat(maxInFlight.get()).isLessThanOrEqualTo(MAX_CONNECTIONS);
+    assertThat(availablePermits()).isEqualTo(MAX_CONNECTIONS);
+  }
+
+  @Test
+  void exhaustedConnectionsFailFastWithoutCallingUpstream() throws Exception {
+    CountDownLatch occupied = new CountDownLatch(MAX_CONNECTIONS);
+    server.createContext("/v1/chat-messages", exchange -> {
+      hits.incrementAndGet();
+      occupied.countDown();
+      exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+      exchange.sendResponseHeaders(200, 0);
+      await();
+    });
+    server.createContext("/v1/messages", exchange -> {
+      hits.incrementAndGet();
+      respond(exchange, 200, "{\"limit\":20,\"has_more\":false,\"data\":[]}");
+    });
+    ReflectionTestUtils.setField(service, "acquireTimeoutMs", 50L);
+    ReflectionTestUtils.setField(service, "streamIdleTimeoutMs", 10_000L);
+    ExecutorService callers = Executors.newFixedThreadPool(MAX_CONNECTIONS);
+
+    // 占满全部连接名额的流式对话
+    List<CompletableFuture<ChatTurn>> streams = new ArrayList<>();
+    for (int i = 0; i < MAX_CONNECTIONS; i++) {
+      AiStream stream = new AiStream("s" + i, 1L, 16);
+      streams.add(CompletableFuture.supplyAsync(
+          () -> service.streamChat("hi", null, "u1", null, null, stream), callers));
+    }
+    assertThat(occupied.await(5, TimeUnit.SECONDS)).isTrue();
+
+    long start = System.nanoTime();
+    assertThatThrownBy(() -> service.getMessages("c1", "u1", null, 20))
+        .isInstanceOf(DifyUnavailableException.class)
+        .hasMessageContaining("连接数已满");
+    AiStream rejected = new AiStream("rejected", 1L, 16);
+    assertThatThrownBy(() -> service.streamChat("hi", null, "u1", null, null, rejected))
+        .isInstanceOf(EmitterAlreadyCompletedException.class)
+        .hasMessageContaining("连接数已满");
+    assertThat(elapsedMillis(start)).isLessThan(1_000);
+    assertThat(rejected.isFinished()).isTrue();
+    assertThat(hits.get()).isEqualTo(MAX_CONNECTIONS);
+    // 拒绝不是上游故障，不计入熔断
+    assertThat(consecutiveFailures()).isZero();
+
+    // 上游结束响应后名额归还，请求恢复
+    release.countDown();
+    for (CompletableFuture<ChatTurn> stream : streams) {
+      stream.handle((turn, e) -> null).get(5, TimeUnit.SECONDS);
+    }
+    callers.shutdown();
+    assertThat(availablePermits()).isEqualTo(MAX_CONNECTIONS);
+    assertThat(service.getMessages("c1", "u1", null, 20).getData()).isEmpty();
+  }
+
+  @Test
+  void redirectIsNotFollowed() {
+    AtomicInteger redirected = new AtomicInteger();
+    server.createContext("/v1/messages", exchange -> {
+      hits.incrementAndGet();
+      exchange.getResponseHeaders().add("Location", "/elsewhere");
+      exchange.sendResponseHeaders(302, -1);
+      exchange.close();
+    });
+    server.createContext("/elsewhere", exchange -> {
+      redirected.incrementAndGet();
+      respond(exchange, 200, "{\"limit\":20,\"has_more\":false,\"data\":[]}");
+    });
+
+    assertThatThrownBy(() -> service.getMessages("c1", "u1", null, 20))
+        .isInstanceOf(RuntimeException.class)
+        .hasMessageContaining("302");
+    assertThat(hits.get()).isEqualTo(1);
+    assertThat(redirected.get()).isZero();
+    assertThat(availablePermits()).isEqualTo(MAX_CONNECTIONS);
+  }
+
+  private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().add("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  private void await() {
+    try {
+      release.await(30, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private int availablePermits() {
+    return ((Semaphore) ReflectionTestUtils.getField(service, "connectionPermits")).availablePermits();
+  }
+
+  private int consecutiveFailures() {
+    return (Integer) ReflectionTestUtils.getField(circuitBreaker, "consecutiveFailures");
+  }
+
+  private static long elapsedMillis(long startNanos) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+  }
+}
@@ -0,0 +1,217 @@
+package org.health.service.ai;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 流式事件解析基准：一段 500 个 message 事件的 DIFY 响应，比较每个转发事件的耗时和分配字节数
+ * <ul>
+ *   <li>readTree：逐行读成字符串后构建 JsonNode 树（改动前的方式）</li>
+ *   <li>字符串扫描：逐行读成字符串后用流式解析器扫描顶层字段（当前实现，{@link DifyClientService#scanEventHead}）</li>
+ *   <li>字节扫描：在原始字节上切行、扫描顶层字段，转发时再解码为字符串（SseEmitter 和续传缓冲区只接受字符串）</li>
+ *   <li>字节扫描（不解码）：同上但不生成字符串，只作为直接转发字节的下限参考</li>
+ * </ul>
+ */
+class DifyEventScanBenchmarkTest {
+
+  private static final int EVENTS = 500;
+  private static final int ROUNDS = 100;
+  private static final byte[] DATA_PREFIX = "data: ".getBytes(StandardCharsets.US_ASCII);
+
+  private final com.sun.management.ThreadMXBean threadBean =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  private final DifyClientService service = new DifyClientService();
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final JsonFactory jsonFactory = objectMapper.getFactory();
+
+  // 保存最后一个转发的事件，避免解码被优化掉
+  private String forwarded;
+
+  @Test
+  void stringScanBeatsTreeAndByteScanSavesLittle() throws IOException {
+    byte[] body = body();
+    assertThat(readTree(body)).isEqualTo(EVENTS + 1);
+    assertThat(scanStrings(body)).isEqualTo(EVENTS + 1);
+    assertThat(scanBytes(body, true)).isEqualTo(EVENTS + 1);
+
+    long[][] results = measure(() -> readTree(body), () -> scanStrings(body),
+        () -> scanBytes(body, true), () -> scanBytes(body, false));
+    long[] tree = results[0];
+    long[] strings = results[1];
+    long[] bytes = results[2];
+    long[] bytesOnly = results[3];
+
+    int events = EVENTS + 1;
+    System.out.printf("每个转发事件（%d 字节的响应，%d 个事件）: readTree %d ns / %d 字节；字符串扫描 %d ns / %d 字节；"
+            + "字节扫描 %d ns / %d 字节；字节扫描不解码 %d ns / %d 字节%n",
+        body.length, events, tree[0] / events, tree[1] / events, strings[0] / events, strings[1] / events,
+        bytes[0] / events, bytes[1] / events, bytesOnly[0] / events, bytesOnly[1] / events);
+
+    assertThat(strings[0]).isLessThan(tree[0]);
+    assertThat(strings[1]).isLessThan(tree[1]);
+    // 转发前仍要解码为字符串，改为按字节读取省下的分配不到字符串扫描的一半
+    assertThat(bytes[1] * 2).isGreaterThan(strings[1]);
+  }
+
+  /**
+   * 各方式在每轮中交替执行，预热后取各轮中的最好成绩：每种方式的 {耗时纳秒, 分配字节数}
+   */
+  private long[][] measure(Scan... scans) throws IOException {
+    long[][] best = new long[scans.length][];
+    for (int i = 0; i < scans.length; i++) {
+      best[i] = new long[]{Long.MAX_VALUE, Long.MAX_VALUE};
+    }
+    for (int round = 0; round < ROUNDS; round++) {
+      for (int i = 0; i < scans.length; i++) {
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        scans[i].run();
+        best[i][0] = Math.min(best[i][0], System.nanoTime() - start);
+        best[i][1] = Math.min(best[i][1], allocatedBytes() - bytes);
+      }
+    }
+    return best;
+  }
+
+  /**
+   * 改动前：每行构建 JsonNode 树读取 event、conversation_id
+   */
+  private int readTree(byte[] body) throws IOException {
+    int count = 0;
+    try (BufferedReader reader = reader(body)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith("data: ")) {
+          JsonNode node = objectMapper.readTree(line.substring(6).trim());
+          if (node.path("event").asText(null) != null && node.path("conversation_id").asText(null) != null) {
+            count++;
+          }
+        }
+      }
+    }
+    return count;
+  }
+
+  /**
+   * 当前实现：逐行读成字符串（转发用的就是这个字符串），流式扫描顶层字段
+   */
+  private int scanStrings(byte[] body) throws IOException {
+    int count = 0;
+    try (BufferedReader reader = reader(body)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith("data: ")) {
+          DifyClientService.EventHead head = service.scanEventHead(line.substring(6).trim());
+          if (head.getEvent() != null && head.getConversationId() != null) {
+            count++;
+          }
+        }
+      }
+    }
+    return count;
+  }
+
+  /**
+   * 在原始字节上切行并扫描 event、conversation_id；decode 为 true 时把 data 内容解码为转发用的字符串
+   */
+  private int scanBytes(byte[] body, boolean decode) throws IOException {
+    int count = 0;
+    int start = 0;
+    while (start < body.length) {
+      int end = start;
+      while (end < body.length && body[end] != '\n') {
+        end++;
+      }
+      if (startsWithDataPrefix(body, start, end)) {
+        int from = start + DATA_PREFIX.length;
+        String event = null;
+        String conversationId = null;
+        try (JsonParser parser = jsonFactory.createParser(body, from, end - from)) {
+          parser.nextToken();
+          while (parser.nextToken() == JsonToken.FIELD_NAME && (event == null || conversationId == null)) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if ("event".equals(field)) {
+              event = parser.getText();
+            } else if ("conversation_id".equals(field)) {
+              conversationId = parser.getText();
+            } else {
+              parser.skipChildren();
+            }
+          }
+        }
+        if (decode) {
+          forwarded = new String(body, from, end - from, StandardCharsets.UTF_8);
+        }
+        if (event != null && conversationId != null) {
+          count++;
+        }
+      }
+      start = end + 1;
+    }
+    return count;
+  }
+
+  private static boolean startsWithDataPrefix(byte[] body, int start, int end) {
+    if (end - start < DATA_PREFIX.length) {
+      return false;
+    }
+    for (int i = 0; i < DATA_PREFIX.length; i++) {
+      if (body[start + i] != DATA_PREFIX[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static BufferedReader reader(byte[] body) {
+    return new BufferedReader(new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8));
+  }
+
+  private long allocatedBytes() {
+    return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /**
+   * 与 DIFY 实际响应相同结构的事件流：每个 message 事件带一小段中文回答，最后是带引用片段的 message_end
+   */
+  private static byte[] body() {
+    String conversationId = UUID.randomUUID().toString();
+    String messageId = UUID.randomUUID().toString();
+    String taskId = UUID.randomUUID().toString();
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < EVENTS; i++) {
+      sb.append("data: {\"event\":\"message\",\"conversation_id\":\"").append(conversationId)
+          .append("\",\"message_id\":\"").append(messageId)
+          .append("\",\"created_at\":1705395332,\"task_id\":\"").append(taskId)
+          .append("\",\"id\":\"").append(messageId)
+          .append("\",\"answer\":\"建议饭后服用，每次").append(i % 3 + 1).append("片\",\"from_variable_selector\":null}\n\n");
+    }
+    sb.append("data: {\"event\":\"message_end\",\"conversation_id\":\"").append(conversationId)
+        .append("\",\"message_id\":\"").append(messageId)
+        .append("\",\"metadata\":{\"usage\":{\"prompt_tokens\":1033,\"completion_tokens\":128},"
+            + "\"retriever_resources\":[{\"position\":1,\"dataset_name\":\"用药指南\",\"score\":0.98,"
+            + "\"content\":\"阿司匹林肠溶片应在饭前服用\"}]}}\n\n");
+    return sb.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  @FunctionalInterface
+  private interface Scan {
+    void run() throws IOException;
+  }
+}
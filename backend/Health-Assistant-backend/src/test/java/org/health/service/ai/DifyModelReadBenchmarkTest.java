@@ -0,0 +1,235 @@
+package org.health.service.ai;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.health.service.ai.DifyModels.Feedback;
+import org.health.service.ai.DifyModels.MessageFile;
+import org.health.service.ai.DifyModels.MessageItem;
+import org.health.service.ai.DifyModels.MessageListResponse;
+import org.health.service.ai.DifyModels.RetrieverResource;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 历史消息反序列化基准：一页 100 条带引用片段的消息，比较整页的耗时和分配字节数
+ * <ul>
+ *   <li>String + Map：响应体读成字符串，解析为 Map 后逐字段强转复制到响应模型（改动前的方式）</li>
+ *   <li>类型化读取：用 {@link DifyClientService} 的读取器直接从响应流反序列化为响应模型（当前实现）</li>
+ * </ul>
+ */
+class DifyModelReadBenchmarkTest {
+
+  private static final int MESSAGES = 100;
+  private static final int RESOURCES = 3;
+  private static final int ROUNDS = 200;
+
+  private final com.sun.management.ThreadMXBean threadBean =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final ObjectReader messageListReader = (ObjectReader) ReflectionTestUtils.getField(
+      new DifyClientService(), "messageListReader");
+
+  // 保存最后一次的结果，避免解析被优化掉
+  private MessageListResponse result;
+
+  @Test
+  void typedReaderAllocatesFarLessThanStringAndMap() throws IOException {
+    byte[] body = body();
+    MessageListResponse viaMap = readViaMap(new ByteArrayInputStream(body));
+    MessageListResponse typed = readTyped(new ByteArrayInputStream(body));
+    assertSame(typed, viaMap);
+
+    long[][] results = measure(() -> result = readViaMap(new ByteArrayInputStream(body)),
+        () -> result = readTyped(new ByteArrayInputStream(body)));
+    long[] map = results[0];
+    long[] reader = results[1];
+
+    System.out.printf("每页 %d 条消息（%d 字节的响应）: String + Map %d µs / %d 字节；类型化读取 %d µs / %d 字节%n",
+        MESSAGES, body.length, map[0] / 1_000, map[1], reader[0] / 1_000, reader[1]);
+
+    // 耗时只快 1.1～1.4 倍，受机器负载影响较大，只输出不断言；分配字节数是确定的
+    // 不再生成整页字符串和 Map 对象图，分配不到原来的三分之一
+    assertThat(reader[1] * 3).isLessThan(map[1]);
+  }
+
+  /**
+   * 各方式在每轮中交替执行，预热后取各轮中的最好成绩：每种方式的 {耗时纳秒, 分配字节数}
+   */
+  private long[][] measure(Read... reads) throws IOException {
+    long[][] best = new long[reads.length][];
+    for (int i = 0; i < reads.length; i++) {
+      best[i] = new long[]{Long.MAX_VALUE, Long.MAX_VALUE};
+    }
+    for (int round = 0; round < ROUNDS; round++) {
+      for (int i = 0; i < reads.length; i++) {
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        reads[i].run();
+        best[i][0] = Math.min(best[i][0], System.nanoTime() - start);
+        best[i][1] = Math.min(best[i][1], allocatedBytes() - bytes);
+      }
+    }
+    return best;
+  }
+
+  /**
+   * 当前实现：响应流直接反序列化为响应模型
+   */
+  private MessageListResponse readTyped(InputStream in) throws IOException {
+    try (in) {
+      return messageListReader.readValue(in);
+    }
+  }
+
+  /**
+   * 改动前：读成字符串、解析为 Map，再逐字段强转复制到响应模型
+   */
+  @SuppressWarnings("unchecked")
+  private MessageListResponse readViaMap(InputStream in) throws IOException {
+    String json;
+    try (in) {
+      json = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+    Map<String, Object> difyResponse = objectMapper.readValue(json,
+        objectMapper.getTypeFactory().constructMapType(Map.class, String.class, Object.class));
+
+    MessageListResponse response = new MessageListResponse();
+    response.setLimit(((Number) difyResponse.get("limit")).intValue());
+    response.setHasMore((Boolean) difyResponse.get("has_more"));
+    List<MessageItem> messageItems = new ArrayList<>();
+    for (Map<String, Object> item : (List<Map<String, Object>>) difyResponse.get("data")) {
+      MessageItem messageItem = new MessageItem();
+      messageItem.setId((String) item.get("id"));
+      messageItem.setConversationId((String) item.get("conversation_id"));
+      messageItem.setInputs((Map<String, Object>) item.get("inputs"));
+      messageItem.setQuery((String) item.get("query"));
+      messageItem.setAnswer((String) item.get("answer"));
+      if (item.get("message_files") != null) {
+        List<MessageFile> messageFiles = new ArrayList<>();
+        for (Map<String, Object> fileMap : (List<Map<String, Object>>) item.get("message_files")) {
+          MessageFile messageFile = new MessageFile();
+          messageFile.setId((String) fileMap.get("id"));
+          messageFile.setType((String) fileMap.get("type"));
+          messageFile.setUrl((String) fileMap.get("url"));
+          messageFile.setBelongsTo((String) fileMap.get("belongs_to"));
+          messageFiles.add(messageFile);
+        }
+        messageItem.setMessageFiles(messageFiles);
+      }
+      if (item.get("feedback") != null) {
+        Feedback feedback = new Feedback();
+        feedback.setRating((String) ((Map<String, Object>) item.get("feedback")).get("rating"));
+        messageItem.setFeedback(feedback);
+      }
+      if (item.get("retriever_resources") != null) {
+        List<RetrieverResource> retrieverResources = new ArrayList<>();
+        for (Map<String, Object> resourceMap : (List<Map<String, Object>>) item.get("retriever_resources")) {
+          RetrieverResource resource = new RetrieverResource();
+          resource.setPosition(((Number) resourceMap.get("position")).intValue());
+          resource.setDatasetId((String) resourceMap.get("dataset_id"));
+          resource.setDatasetName((String) resourceMap.get("dataset_name"));
+          resource.setDocumentId((String) resourceMap.get("document_id"));
+          resource.setDocumentName((String) resourceMap.get("document_name"));
+          resource.setSegmentId((String) resourceMap.get("segment_id"));
+          resource.setScore(((Number) resourceMap.get("score")).doubleValue());
+          resource.setContent((String) resourceMap.get("content"));
+          retrieverResources.add(resource);
+        }
+        messageItem.setRetrieverResources(retrieverResources);
+      }
+      messageItem.setCreatedAt(((Number) item.get("created_at")).longValue());
+      messageItems.add(messageItem);
+    }
+    response.setData(messageItems);
+    return response;
+  }
+
+  /**
+   * 两种方式得到的内容一致
+   */
+  private static void assertSame(MessageListResponse actual, MessageListResponse expected) {
+    assertThat(actual.getLimit()).isEqualTo(expected.getLimit());
+    assertThat(actual.getHasMore()).isEqualTo(expected.getHasMore());
+    assertThat(actual.getData().size()).isEqualTo(MESSAGES);
+    for (int i = 0; i < MESSAGES; i++) {
+      MessageItem a = actual.getData().get(i);
+      MessageItem e = expected.getData().get(i);
+      assertThat(a.getId()).isEqualTo(e.getId());
+      assertThat(a.getConversationId()).isEqualTo(e.getConversationId());
+      assertThat(a.getAnswer()).isEqualTo(e.getAnswer());
+      assertThat(a.getCreatedAt()).isEqualTo(e.getCreatedAt());
+      assertThat(a.getFeedback().getRating()).isEqualTo(e.getFeedback().getRating());
+      assertThat(a.getMessageFiles().get(0).getBelongsTo()).isEqualTo(e.getMessageFiles().get(0).getBelongsTo());
+      assertThat(a.getRetrieverResources().size()).isEqualTo(RESOURCES);
+      for (int j = 0; j < RESOURCES; j++) {
+        RetrieverResource ar = a.getRetrieverResources().get(j);
+        RetrieverResource er = e.getRetrieverResources().get(j);
+        assertThat(ar.getPosition()).isEqualTo(er.getPosition());
+        assertThat(ar.getScore()).isEqualTo(er.getScore());
+        assertThat(ar.getSegmentId()).isEqualTo(er.getSegmentId());
+        assertThat(ar.getContent()).isEqualTo(er.getContent());
+      }
+    }
+  }
+
+  private long allocatedBytes() {
+    return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /**
+   * 与 DIFY 历史消息接口相同结构的一页响应：每条消息带文件、反馈和若干引用片段，以及本模型未使用的字段
+   */
+  private static byte[] body() {
+    String conversationId = UUID.randomUUID().toString();
+    String datasetId = UUID.randomUUID().toString();
+    String documentId = UUID.randomUUID().toString();
+    StringBuilder sb = new StringBuilder("{\"limit\":").append(MESSAGES).append(",\"has_more\":true,\"data\":[");
+    for (int i = 0; i < MESSAGES; i++) {
+      if (i > 0) {
+        sb.append(',');
+      }
+      String messageId = UUID.randomUUID().toString();
+      sb.append("{\"id\":\"").append(messageId)
+          .append("\",\"conversation_id\":\"").append(conversationId)
+          .append("\",\"parent_message_id\":null,\"inputs\":{\"name\":\"张三\"},\"query\":\"阿司匹林什么时候吃？第")
+          .append(i).append("问\",\"answer\":\"阿司匹林肠溶片建议饭前服用，每日一次，每次")
+          .append(i % 3 + 1).append("片；如出现胃部不适请咨询医生。\",\"message_files\":[{\"id\":\"")
+          .append(UUID.randomUUID()).append("\",\"type\":\"image\",\"url\":\"https://example.com/files/")
+          .append(i).append(".png\",\"belongs_to\":\"user\"}],\"feedback\":{\"rating\":\"like\"},")
+          .append("\"agent_thoughts\":[],\"status\":\"normal\",\"error\":null,\"retriever_resources\":[");
+      for (int j = 0; j < RESOURCES; j++) {
+        if (j > 0) {
+          sb.append(',');
+        }
+        sb.append("{\"position\":").append(j + 1)
+            .append(",\"dataset_id\":\"").append(datasetId)
+            .append("\",\"dataset_name\":\"用药指南\",\"document_id\":\"").append(documentId)
+            .append("\",\"document_name\":\"常用药物说明.pdf\",\"segment_id\":\"").append(UUID.randomUUID())
+            .append("\",\"score\":0.9").append(j)
+            .append(",\"content\":\"阿司匹林肠溶片应在饭前服用，以减少对胃黏膜的刺激。片段").append(j)
+            .append("\"}");
+      }
+      sb.append("],\"created_at\":").append(1705395332L + i).append('}');
+    }
+    sb.append("]}");
+    return sb.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  @FunctionalInterface
+  private interface Read {
+    void run() throws IOException;
+  }
+}
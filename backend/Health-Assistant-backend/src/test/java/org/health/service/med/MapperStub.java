@@ -0,0 +1,65 @@
+package org.health.service.med;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Mapper 接口的测试桩：按方法名返回预设结果并记录调用次数，调用未预设的方法时失败
+ *
+ * @param <T> Mapper 接口类型
+ */
+final class MapperStub<T> {
+
+    private final Map<String, Function<Object[], Object>> answers = new HashMap<>();
+    private final Map<String, Integer> calls = new HashMap<>();
+    private final T mapper;
+
+    private MapperStub(Class<T> type) {
+        this.mapper = type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class) {
+                        return method.getName().equals("equals") ? proxy == args[0]
+                                : method.getName().equals("hashCode") ? System.identityHashCode(proxy)
+                                : type.getSimpleName() + "Stub";
+                    }
+                    calls.merge(method.getName(), 1, Integer::sum);
+                    Function<Object[], Object> answer = answers.get(method.getName());
+                    if (answer == null) {
+                        throw new AssertionError("未预期的调用: " + type.getSimpleName() + "." + method.getName());
+                    }
+                    return answer.apply(args);
+                }));
+    }
+
+    static <T> MapperStub<T> of(Class<T> type) {
+        return new MapperStub<>(type);
+    }
+
+    /**
+     * 预设方法的返回值（按参数计算）
+     */
+    MapperStub<T> on(String method, Function<Object[], Object> answer) {
+        answers.put(method, answer);
+        return this;
+    }
+
+    T mapper() {
+        return mapper;
+    }
+
+    /**
+     * 指定方法的调用次数
+     */
+    int calls(String method) {
+        return calls.getOrDefault(method, 0);
+    }
+
+    /**
+     * 所有方法的调用次数
+     */
+    int totalCalls() {
+        return calls.values().stream().mapToInt(Integer::intValue).sum();
+    }
+}
@@ -0,0 +1,205 @@
+package org.health.service.med;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.health.common.UserContext;
+import org.health.entity.med.MedPlan;
+import org.health.entity.med.MedRecord;
+import org.health.entity.med.PlanTimes;
+import org.health.mapper.med.MedAdherenceDailyMapper;
+import org.health.mapper.med.MedMaterializeCheckpointMapper;
+import org.health.mapper.med.MedPlanMapper;
+import org.health.mapper.med.MedRecordMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * 依从性汇总在业务事务提交后用独立事务执行：汇总失败不会回滚删除计划、生成点位，
+ * 业务事务回滚时不执行汇总
+ */
+class MedAdherenceServiceTest {
+
+    private static final Long USER_ID = 7L;
+    private static final Long PLAN_ID = 70L;
+
+    private final RecordingTransactionManager transactionManager = new RecordingTransactionManager();
+    private final List<MedPlan> plans = new ArrayList<>();
+    private MapperStub<MedPlanMapper> planMapper;
+    private MapperStub<MedRecordMapper> recordMapper;
+    private MapperStub<MedAdherenceDailyMapper> adherenceMapper;
+    private TransactionTemplate transactionTemplate;
+    private MedPlanService planService;
+    private MedTodayService todayService;
+
+    @BeforeEach
+    void setUp() {
+        plans.add(plan());
+        planMapper = MapperStub.of(MedPlanMapper.class)
+                .on("selectById", args -> plans.get(0))
+                .on("deleteById", args -> 1)
+                .on("selectWithSchedulesByUserId", args -> new ArrayList<>(plans))
+                .on("selectIdsByUserId", args -> List.of(PLAN_ID));
+        recordMapper = MapperStub.of(MedRecordMapper.class)
+                .on("deleteFutureTodoRecordsByPlanId", args -> 3)
+                .on("batchInsertIgnore", args -> 1);
+        // 汇总语句失败（例如锁等待超时）
+        adherenceMapper = MapperStub.of(MedAdherenceDailyMapper.class)
+                .on("deleteOrphansByPlanRange", args -> {
+                    throw new IllegalStateException("Lock wait timeout exceeded");
+                })
+                .on("upsertByUsersDate", args -> {
+                    throw new IllegalStateException("Lock wait timeout exceeded");
+                });
+
+        MedPlanCache cache = new MedPlanCache();
+        ReflectionTestUtils.setField(cache, "medPlanMapper", planMapper.mapper());
+        ReflectionTestUtils.setField(cache, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(cache, "maxSize", 100);
+        ReflectionTestUtils.setField(cache, "ttlSeconds", 300L);
+        cache.init();
+
+        MedAdherenceService adherenceService = new MedAdherenceService();
+        ReflectionTestUtils.setField(adherenceService, "medAdherenceDailyMapper", adherenceMapper.mapper());
+        ReflectionTestUtils.setField(adherenceService, "medPlanCache", cache);
+        ReflectionTestUtils.setField(adherenceService, "transactionManager", transactionManager);
+        adherenceService.init();
+
+        planService = new MedPlanService();
+        ReflectionTestUtils.setField(planService, "medPlanMapper", planMapper.mapper());
+        ReflectionTestUtils.setField(planService, "medRecordMapper", recordMapper.mapper());
+        ReflectionTestUtils.setField(planService, "medPlanCache", cache);
+        ReflectionTestUtils.setField(planService, "medAdherenceService", adherenceService);
+
+        MedRecordMaterializer materializer = new MedRecordMaterializer();
+        ReflectionTestUtils.setField(materializer, "checkpointMapper", MapperStub.of(MedMaterializeCheckpointMapper.class)
+                .on("selectByDate", args -> null).mapper());
+        ReflectionTestUtils.setField(materializer, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(materializer, "pendingCheckSeconds", 60L);
+        materializer.init();
+
+        todayService = new MedTodayService();
+        ReflectionTestUtils.setField(todayService, "medRecordMapper", recordMapper.mapper());
+        ReflectionTestUtils.setField(todayService, "medPlanCache", cache);
+        ReflectionTestUtils.setField(todayService, "medAdherenceService", adherenceService);
+        ReflectionTestUtils.setField(todayService, "medRecordMaterializer", materializer);
+
+        // 与 @Transactional(rollbackFor = Exception.class) 等价
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        UserContext.setUserId(USER_ID);
+    }
+
+    @AfterEach
+    void tearDown() {
+        UserContext.clear();
+    }
+
+    @Test
+    void rollupFailureDoesNotRollBackPlanDeletion() {
+        transactionTemplate.executeWithoutResult(status -> planService.deletePlan(PLAN_ID));
+
+        assertThat(recordMapper.calls("deleteFutureTodoRecordsByPlanId")).isEqualTo(1);
+        assertThat(planMapper.calls("deleteById")).isEqualTo(1);
+        assertThat(adherenceMapper.calls("deleteOrphansByPlanRange")).isEqualTo(1);
+        // 删除计划的事务已提交，汇总的独立事务回滚
+        assertThat(transactionManager.events).containsExactly("begin", "commit", "begin", "rollback");
+    }
+
+    @Test
+    void rollupFailureDoesNotRollBackGeneratedRecords() {
+        LocalDate today = LocalDate.now();
+
+        transactionTemplate.executeWithoutResult(status -> todayService.ensureRecords(today));
+
+        assertThat(recordMapper.calls("batchInsertIgnore")).isEqualTo(1);
+        assertThat(adherenceMapper.calls("upsertByUsersDate")).isEqualTo(1);
+        assertThat(transactionManager.events).containsExactly("begin", "commit", "begin", "rollback");
+    }
+
+    @Test
+    void rolledBackWriteSkipsTheRollup() {
+        assertThatThrownBy(() -> transactionTemplate.executeWithoutResult(status -> {
+            planService.deletePlan(PLAN_ID);
+            throw new IllegalStateException("后续步骤失败");
+        })).isInstanceOf(IllegalStateException.class);
+
+        assertThat(adherenceMapper.totalCalls()).isZero();
+        assertThat(transactionManager.events).containsExactly("begin", "rollback");
+    }
+
+    private static MedPlan plan() {
+        MedPlan plan = new MedPlan();
+        plan.setId(PLAN_ID);
+        plan.setUserId(USER_ID);
+        plan.setName("药品");
+        plan.setDosage("1片");
+        plan.setStartDate(LocalDate.now().minusDays(1));
+        plan.setEndDate(LocalDate.now().plusDays(30));
+        plan.setRepeatType("daily");
+        PlanTimes time = new PlanTimes();
+        time.setPlanId(PLAN_ID);
+        time.setTime(LocalTime.of(8, 0));
+        plan.setTimes(List.of(time));
+        return plan;
+    }
+
+    /**
+     * 只记录事务边界的事务管理器（支持 REQUIRES_NEW 挂起外层事务）
+     */
+    private static class RecordingTransactionManager extends AbstractPlatformTransactionManager {
+        final List<String> events = new ArrayList<>();
+        private int depth;
+
+        @Override
+        protected Object doGetTransaction() {
+            return new Object();
+        }
+
+        @Override
+        protected boolean isExistingTransaction(Object transaction) {
+            return depth > 0;
+        }
+
+        @Override
+        protected void doBegin(Object transaction, TransactionDefinition definition) {
+            depth++;
+            events.add("begin");
+        }
+
+        @Override
+        protected Object doSuspend(Object transaction) {
+            return transaction;
+        }
+
+        @Override
+        protected void doResume(Object transaction, Object suspendedResources) {
+        }
+
+        @Override
+        protected void doCommit(DefaultTransactionStatus status) {
+            events.add("commit");
+        }
+
+        @Override
+        protected void doRollback(DefaultTransactionStatus status) {
+            events.add("rollback");
+        }
+
+        @Override
+        protected void doCleanupAfterCompletion(Object transaction) {
+            depth--;
+        }
+    }
+}
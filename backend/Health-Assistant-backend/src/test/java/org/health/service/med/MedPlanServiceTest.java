@@ -0,0 +1,225 @@
+package org.health.service.med;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.health.common.UserContext;
+import org.health.entity.med.MedPlan;
+import org.health.entity.med.MedRecord;
+import org.health.entity.med.PlanRepeatDays;
+import org.health.entity.med.PlanTimes;
+import org.health.mapper.med.MedAdherenceDailyMapper;
+import org.health.mapper.med.MedPlanMapper;
+import org.health.mapper.med.MedRecordMapper;
+import org.health.mapper.med.PlanRepeatDaysMapper;
+import org.health.mapper.med.PlanTimesMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 计划列表、详情的查询次数：不随计划数量增长（时间点、重复天数随计划一次查询带出）；
+ * 修改计划重建点位时只有一次区间查询，插入语句数随点位数按批量大小增长
+ */
+class MedPlanServiceTest {
+
+    private static final Long USER_ID = 7L;
+
+    private final List<MedPlan> plans = new ArrayList<>();
+    private final List<MedRecord> existingSlots = new ArrayList<>();
+    private final List<Integer> insertSizes = new ArrayList<>();
+    private MapperStub<MedPlanMapper> planMapper;
+    private MapperStub<PlanTimesMapper> timesMapper;
+    private MapperStub<PlanRepeatDaysMapper> repeatDaysMapper;
+    private MapperStub<MedRecordMapper> recordMapper;
+    private MedPlanService service;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        planMapper = MapperStub.of(MedPlanMapper.class)
+                .on("selectWithSchedulesByUserId", args -> new ArrayList<>(plans))
+                .on("selectById", args -> plan((Long) args[0]))
+                .on("selectWithSchedulesById", args -> plan((Long) args[0]))
+                .on("update", args -> {
+                    MedPlan updated = (MedPlan) args[0];
+                    plans.removeIf(p -> p.getId().equals(updated.getId()));
+                    plans.add(updated);
+                    return 1;
+                });
+        // 列表、详情不应再按计划逐个查询时间点和重复天数
+        timesMapper = MapperStub.of(PlanTimesMapper.class);
+        repeatDaysMapper = MapperStub.of(PlanRepeatDaysMapper.class);
+        recordMapper = MapperStub.of(MedRecordMapper.class)
+                .on("deleteByPlanIdAndDate", args -> 0)
+                .on("selectSlotKeysByPlanRange", args -> new ArrayList<>(existingSlots))
+                .on("batchInsertIgnore", args -> {
+                    insertSizes.add(((List<MedRecord>) args[0]).size());
+                    return ((List<MedRecord>) args[0]).size();
+                });
+        MapperStub<MedAdherenceDailyMapper> adherenceMapper = MapperStub.of(MedAdherenceDailyMapper.class)
+                .on("deleteOrphansByPlanRange", args -> 0)
+                .on("upsertByPlanRange", args -> 0);
+        MedAdherenceService adherenceService = new MedAdherenceService();
+        ReflectionTestUtils.setField(adherenceService, "medAdherenceDailyMapper", adherenceMapper.mapper());
+
+        MedPlanCache cache = new MedPlanCache();
+        ReflectionTestUtils.setField(cache, "medPlanMapper", planMapper.mapper());
+        ReflectionTestUtils.setField(cache, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(cache, "maxSize", 100);
+        ReflectionTestUtils.setField(cache, "ttlSeconds", 300L);
+        cache.init();
+
+        service = new MedPlanService();
+        ReflectionTestUtils.setField(service, "medPlanMapper", planMapper.mapper());
+        ReflectionTestUtils.setField(service, "planTimesMapper", timesMapper.mapper());
+        ReflectionTestUtils.setField(service, "planRepeatDaysMapper", repeatDaysMapper.mapper());
+        ReflectionTestUtils.setField(service, "medPlanCache", cache);
+        ReflectionTestUtils.setField(service, "medRecordMapper", recordMapper.mapper());
+        ReflectionTestUtils.setField(service, "medAdherenceService", adherenceService);
+        ReflectionTestUtils.setField(service, "horizonDays", 14);
+
+        UserContext.setUserId(USER_ID);
+    }
+
+    @AfterEach
+    void tearDown() {
+        UserContext.clear();
+    }
+
+    @Test
+    void planListUsesOneQueryForOnePlan() {
+        addPlans(1);
+
+        List<MedPlanService.MedPlanVO> list = service.getPlanList(null, null);
+
+        assertThat(list).hasSize(1);
+        assertThat(planMapper.totalCalls()).isEqualTo(1);
+    }
+
+    @Test
+    void planListUsesOneQueryForManyPlans() {
+        addPlans(50);
+
+        List<MedPlanService.MedPlanVO> list = service.getPlanList(null, null);
+
+        assertThat(list).hasSize(50);
+        assertThat(list.get(49).getTimes()).containsExactly("08:00", "20:00");
+        assertThat(list.get(49).getRepeatDays()).containsExactly(1, 3);
+        assertThat(planMapper.totalCalls()).isEqualTo(1);
+        assertThat(timesMapper.totalCalls()).isZero();
+        assertThat(repeatDaysMapper.totalCalls()).isZero();
+    }
+
+    @Test
+    void filtersAndDetailReuseTheLoadedPlans() {
+        addPlans(20);
+
+        assertThat(service.getPlanList("active", null)).hasSize(20);
+        assertThat(service.getPlanList(null, "药品1")).hasSize(11);
+        assertThat(service.getPlanDetail(5L).getName()).isEqualTo("药品5");
+        assertThat(planMapper.totalCalls()).isEqualTo(1);
+    }
+
+    @Test
+    void regeneratingAYearOfSlotsUsesOneRangeQueryAndBatchedInserts() {
+        addPlans(1);
+        timesMapper.on("deleteByPlanId", args -> 2).on("batchInsert", args -> 3);
+        repeatDaysMapper.on("deleteByPlanId", args -> 2);
+        ReflectionTestUtils.setField(service, "horizonDays", 365);
+
+        long start = System.nanoTime();
+        service.updatePlan(1L, dailyRequest(LocalDate.now().plusDays(400), "08:00", "12:00", "20:00"));
+        long micros = (System.nanoTime() - start) / 1000;
+
+        // 明天 ~ 今天+365，每天3个时间点
+        assertThat(recordMapper.calls("selectSlotKeysByPlanRange")).isEqualTo(1);
+        assertThat(insertSizes).containsExactly(500, 500, 95);
+        System.out.printf("重建365天×3个时间点的点位：1次区间查询、%d条批量插入，耗时%d微秒（不含数据库）%n",
+                insertSizes.size(), micros);
+    }
+
+    @Test
+    void regenerationSkipsExistingSlots() {
+        addPlans(1);
+        timesMapper.on("deleteByPlanId", args -> 2).on("batchInsert", args -> 3);
+        repeatDaysMapper.on("deleteByPlanId", args -> 2);
+        ReflectionTestUtils.setField(service, "horizonDays", 365);
+        // 前100天的点位已存在（例如删除后又被并发请求生成）
+        for (int day = 1; day <= 100; day++) {
+            for (String time : new String[]{"08:00", "12:00", "20:00"}) {
+                MedRecord record = new MedRecord();
+                record.setDate(LocalDate.now().plusDays(day));
+                record.setTime(LocalTime.parse(time));
+                existingSlots.add(record);
+            }
+        }
+
+        service.updatePlan(1L, dailyRequest(LocalDate.now().plusDays(400), "08:00", "12:00", "20:00"));
+
+        assertThat(recordMapper.calls("selectSlotKeysByPlanRange")).isEqualTo(1);
+        assertThat(insertSizes).containsExactly(500, 295);
+    }
+
+    private MedPlan plan(Long id) {
+        return plans.stream().filter(p -> p.getId().equals(id)).findFirst().orElse(null);
+    }
+
+    private MedPlanService.UpdatePlanRequest dailyRequest(LocalDate endDate, String... times) {
+        MedPlanService.UpdatePlanRequest request = new MedPlanService.UpdatePlanRequest();
+        request.setName("药品1");
+        request.setDosage("1片");
+        request.setTimes(Arrays.asList(times));
+        request.setStartDate(LocalDate.now().minusDays(1));
+        request.setEndDate(endDate);
+        request.setRepeatType("daily");
+        // 修改后的时间点（selectWithSchedulesById 返回的计划）
+        List<PlanTimes> planTimes = new ArrayList<>();
+        for (String time : times) {
+            PlanTimes planTime = new PlanTimes();
+            planTime.setPlanId(1L);
+            planTime.setTime(LocalTime.parse(time));
+            planTimes.add(planTime);
+        }
+        plan(1L).setTimes(planTimes);
+        return request;
+    }
+
+    private void addPlans(int count) {
+        for (long id = 1; id <= count; id++) {
+            MedPlan plan = new MedPlan();
+            plan.setId(id);
+            plan.setUserId(USER_ID);
+            plan.setName("药品" + id);
+            plan.setDosage("1片");
+            plan.setStartDate(LocalDate.now().minusDays(1));
+            plan.setEndDate(LocalDate.now().plusDays(30));
+            plan.setRepeatType("weekly");
+            plan.setRemindEnabled(true);
+            List<PlanTimes> times = new ArrayList<>();
+            for (String time : new String[]{"08:00", "20:00"}) {
+                PlanTimes planTime = new PlanTimes();
+                planTime.setPlanId(id);
+                planTime.setTime(LocalTime.parse(time));
+                times.add(planTime);
+            }
+            plan.setTimes(times);
+            List<PlanRepeatDays> days = new ArrayList<>();
+            for (int dayOfWeek : new int[]{1, 3}) {
+                PlanRepeatDays day = new PlanRepeatDays();
+                day.setPlanId(id);
+                day.setDayOfWeek(dayOfWeek);
+                days.add(day);
+            }
+            plan.setRepeatDays(days);
+            plans.add(plan);
+        }
+    }
+}
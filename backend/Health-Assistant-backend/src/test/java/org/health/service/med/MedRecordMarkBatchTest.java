@@ -0,0 +1,75 @@
+package org.health.service.med;
+
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validation;
+import jakarta.validation.Validator;
+import org.health.common.ResultCode;
+import org.health.common.UserContext;
+import org.health.controller.med.MedRecordController;
+import org.health.exception.BusinessException;
+import org.health.mapper.med.MedRecordMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * 批量标记的参数校验：recordId 为空的项使整个请求返回 400（请求体校验和服务层都拒绝），不执行更新
+ */
+class MedRecordMarkBatchTest {
+
+    private MapperStub<MedRecordMapper> recordMapper;
+    private MedRecordService service;
+
+    @BeforeEach
+    void setUp() {
+        // 参数错误时不应访问数据库
+        recordMapper = MapperStub.of(MedRecordMapper.class);
+        service = new MedRecordService();
+        ReflectionTestUtils.setField(service, "medRecordMapper", recordMapper.mapper());
+        UserContext.setUserId(7L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        UserContext.clear();
+    }
+
+    @Test
+    void requestBodyValidationRejectsMissingRecordId() {
+        MedRecordController.MarkBatchRequest request = new MedRecordController.MarkBatchRequest();
+        request.setItems(Arrays.asList(item(1L, "taken"), item(null, "taken")));
+
+        Validator validator = Validation.buildDefaultValidatorFactory().getValidator();
+        Set<ConstraintViolation<MedRecordController.MarkBatchRequest>> violations = validator.validate(request);
+
+        assertThat(violations.stream().map(ConstraintViolation::getMessage).collect(Collectors.toList()))
+                .containsExactly("记录ID不能为空");
+    }
+
+    @Test
+    void serviceRejectsMissingRecordIdBeforeUpdating() {
+        List<MedRecordService.MarkItem> items = Arrays.asList(item(1L, "taken"), item(null, "taken"), item(null, "missed"));
+
+        assertThatThrownBy(() -> service.markRecords(items))
+                .isInstanceOf(BusinessException.class)
+                .hasMessage("记录ID不能为空")
+                .satisfies(e -> assertThat(((BusinessException) e).getResultCode()).isEqualTo(ResultCode.BAD_REQUEST));
+        assertThat(recordMapper.totalCalls()).isZero();
+    }
+
+    private static MedRecordService.MarkItem item(Long recordId, String status) {
+        MedRecordService.MarkItem item = new MedRecordService.MarkItem();
+        item.setRecordId(recordId);
+        item.setStatus(status);
+        return item;
+    }
+}
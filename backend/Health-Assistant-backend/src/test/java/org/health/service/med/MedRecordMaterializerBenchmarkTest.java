@@ -0,0 +1,128 @@
+package org.health.service.med;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.health.MedTestDataset;
+import org.health.MysqlTestSupport;
+import org.health.mapper.JobLeaseMapper;
+import org.health.mapper.med.MedAdherenceDailyMapper;
+import org.health.mapper.med.MedMaterializeCheckpointMapper;
+import org.health.mapper.med.MedPlanMapper;
+import org.health.mapper.med.MedRecordMapper;
+import org.health.service.JobLeaseService;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.sql.Date;
+import java.sql.Time;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 点位预生成基准：USER_COUNT 个用户 × 3 个每日计划 × 3 个时间点
+ * 首次运行写入全部点位并输出速率；清除断点后重跑，已存在的点位不计入行数和速率
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class MedRecordMaterializerBenchmarkTest {
+
+    private static final long FIRST_USER_ID = 2 * MedTestDataset.PRIVATE_USER_ID_START;
+    private static final int USER_COUNT = 2000;
+    private static final int PLANS_PER_USER = 3;
+    private static final LocalTime[] TIMES = {LocalTime.of(8, 0), LocalTime.of(12, 0), LocalTime.of(20, 0)};
+
+    // 远离其他测试数据的日期，只有本类的用户在这一天有计划
+    private static LocalDate date;
+
+    @BeforeAll
+    static void seed() {
+        date = MedTestDataset.seed().plusDays(400);
+        List<Object[]> users = new ArrayList<>();
+        List<Object[]> plans = new ArrayList<>();
+        List<Object[]> times = new ArrayList<>();
+        for (long userId = FIRST_USER_ID; userId < FIRST_USER_ID + USER_COUNT; userId++) {
+            users.add(new Object[]{userId, "materialize" + userId});
+            for (int k = 0; k < PLANS_PER_USER; k++) {
+                long planId = MedTestDataset.planId(userId, k);
+                plans.add(new Object[]{planId, userId, "药品" + planId,
+                        Date.valueOf(date.minusDays(10)), Date.valueOf(date.plusDays(10))});
+                for (int i = 0; i < TIMES.length; i++) {
+                    times.add(new Object[]{planId, Time.valueOf(TIMES[i]), i});
+                }
+            }
+        }
+        JdbcTemplate jdbc = MysqlTestSupport.jdbc();
+        jdbc.batchUpdate("INSERT INTO `user` (id, username, password) VALUES (?, ?, 'x')", users);
+        jdbc.batchUpdate("INSERT INTO med_plan (id, user_id, name, dosage, start_date, end_date, repeat_type, "
+                + "remind_enabled) VALUES (?, ?, ?, '1片', ?, ?, 'daily', 1)", plans);
+        jdbc.batchUpdate("INSERT INTO plan_times (plan_id, `time`, sort_order) VALUES (?, ?, ?)", times);
+    }
+
+    @Test
+    void rerunCountsNoRowsForExistingSlots() {
+        JdbcTemplate jdbc = MysqlTestSupport.jdbc();
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        MedRecordMaterializer materializer = materializer(meterRegistry);
+        int expected = USER_COUNT * PLANS_PER_USER * TIMES.length;
+
+        assertThat(materializer.materialize(date)).isTrue();
+        double firstRate = meterRegistry.get("med.materializer.rows.per.second").gauge().value();
+        assertThat(meterRegistry.get("med.materializer.rows").counter().count()).isEqualTo(expected);
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM med_record WHERE `date` = ?", Integer.class,
+                Date.valueOf(date))).isEqualTo(expected);
+
+        // 清除断点后重跑：点位全部已存在
+        jdbc.update("DELETE FROM med_materialize_checkpoint WHERE target_date = ?", Date.valueOf(date));
+        assertThat(materializer.materialize(date)).isTrue();
+        double rerunRate = meterRegistry.get("med.materializer.rows.per.second").gauge().value();
+        assertThat(meterRegistry.get("med.materializer.rows").counter().count()).isEqualTo(expected);
+        assertThat(rerunRate).isZero();
+        assertThat(jdbc.queryForObject("SELECT rows_generated FROM med_materialize_checkpoint WHERE target_date = ?",
+                Integer.class, Date.valueOf(date))).isZero();
+
+        System.out.printf("点位预生成（%d用户×%d计划×%d时间点）: 首次 %d 行 %.0f 行/秒, 重跑 0 行%n",
+                USER_COUNT, PLANS_PER_USER, TIMES.length, expected, firstRate);
+    }
+
+    private static MedRecordMaterializer materializer(SimpleMeterRegistry meterRegistry) {
+        MedPlanCache cache = new MedPlanCache();
+        ReflectionTestUtils.setField(cache, "medPlanMapper", MysqlTestSupport.mapper(MedPlanMapper.class));
+        ReflectionTestUtils.setField(cache, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(cache, "maxSize", 100);
+        ReflectionTestUtils.setField(cache, "ttlSeconds", 300L);
+        cache.init();
+
+        MedAdherenceService adherenceService = new MedAdherenceService();
+        ReflectionTestUtils.setField(adherenceService, "medAdherenceDailyMapper",
+                MysqlTestSupport.mapper(MedAdherenceDailyMapper.class));
+        ReflectionTestUtils.setField(adherenceService, "medPlanCache", cache);
+        ReflectionTestUtils.setField(adherenceService, "transactionManager", MysqlTestSupport.transactionManager());
+        adherenceService.init();
+
+        JobLeaseService jobLeaseService = new JobLeaseService();
+        ReflectionTestUtils.setField(jobLeaseService, "jobLeaseMapper", MysqlTestSupport.mapper(JobLeaseMapper.class));
+
+        MedRecordMaterializer materializer = new MedRecordMaterializer();
+        ReflectionTestUtils.setField(materializer, "medPlanMapper", MysqlTestSupport.mapper(MedPlanMapper.class));
+        ReflectionTestUtils.setField(materializer, "medRecordMapper", MysqlTestSupport.mapper(MedRecordMapper.class));
+        ReflectionTestUtils.setField(materializer, "checkpointMapper",
+                MysqlTestSupport.mapper(MedMaterializeCheckpointMapper.class));
+        ReflectionTestUtils.setField(materializer, "medAdherenceService", adherenceService);
+        ReflectionTestUtils.setField(materializer, "medPlanCache", cache);
+        ReflectionTestUtils.setField(materializer, "jobLeaseService", jobLeaseService);
+        ReflectionTestUtils.setField(materializer, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(materializer, "chunkSize", 200);
+        ReflectionTestUtils.setField(materializer, "batchSize", 1000);
+        ReflectionTestUtils.setField(materializer, "leaseSeconds", 300);
+        ReflectionTestUtils.setField(materializer, "pendingCheckSeconds", 60L);
+        materializer.init();
+        // materialize 由持有租约的调用方执行
+        assertThat(jobLeaseService.tryAcquire("med-record-materializer", 300)).isTrue();
+        return materializer;
+    }
+}
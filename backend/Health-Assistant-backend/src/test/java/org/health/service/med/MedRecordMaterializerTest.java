@@ -0,0 +1,190 @@
+package org.health.service.med;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.health.entity.med.MedMaterializeCheckpoint;
+import org.health.entity.med.MedPlan;
+import org.health.entity.med.MedRecord;
+import org.health.entity.med.PlanTimes;
+import org.health.mapper.med.MedAdherenceDailyMapper;
+import org.health.mapper.med.MedMaterializeCheckpointMapper;
+import org.health.mapper.med.MedPlanMapper;
+import org.health.mapper.med.MedRecordMapper;
+import org.health.service.JobLeaseService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 点位预生成：租约互斥与续期、按实际插入的行数统计
+ */
+class MedRecordMaterializerTest {
+
+    private static final LocalDate TODAY = LocalDate.now();
+
+    // 每个用户一个计划、两个时间点
+    private final List<Long> userIds = new ArrayList<>();
+    private final List<String> checkpointCalls = new ArrayList<>();
+    private int existingRows;
+    private MapperStub<MedPlanMapper> planMapper;
+    private MapperStub<MedRecordMapper> recordMapper;
+    private StubLease lease;
+    private SimpleMeterRegistry meterRegistry;
+    private MedRecordMaterializer materializer;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        for (long userId = 1; userId <= 5; userId++) {
+            userIds.add(userId);
+        }
+        planMapper = MapperStub.of(MedPlanMapper.class)
+                .on("selectActiveUserIds", args -> userIds.stream()
+                        .filter(id -> id > (Long) args[0])
+                        .limit((Integer) args[2])
+                        .collect(Collectors.toList()))
+                .on("selectSchedulesByUserIds", args -> ((List<Long>) args[0]).stream()
+                        .map(MedRecordMaterializerTest::plan)
+                        .collect(Collectors.toList()));
+        // 已存在的点位不计入插入行数（INSERT IGNORE 的影响行数）
+        recordMapper = MapperStub.of(MedRecordMapper.class)
+                .on("batchInsertSkipExisting", args -> {
+                    int size = ((List<MedRecord>) args[0]).size();
+                    int skipped = Math.min(existingRows, size);
+                    existingRows -= skipped;
+                    return size - skipped;
+                });
+        MapperStub<MedMaterializeCheckpointMapper> checkpointMapper = MapperStub.of(MedMaterializeCheckpointMapper.class)
+                .on("insertIgnore", args -> 1)
+                .on("selectByDate", args -> {
+                    MedMaterializeCheckpoint checkpoint = new MedMaterializeCheckpoint();
+                    checkpoint.setTargetDate((LocalDate) args[0]);
+                    checkpoint.setLastUserId(0L);
+                    checkpoint.setStatus("running");
+                    checkpoint.setStartedAt(LocalDateTime.now());
+                    return checkpoint;
+                })
+                .on("advance", args -> {
+                    checkpointCalls.add("advance:" + args[0] + ":" + args[1] + ":" + args[2]);
+                    return 1;
+                })
+                .on("markDone", args -> {
+                    checkpointCalls.add("done:" + args[0]);
+                    return 1;
+                });
+        MapperStub<MedAdherenceDailyMapper> adherenceMapper = MapperStub.of(MedAdherenceDailyMapper.class)
+                .on("upsertByUsersDate", args -> 1);
+
+        MedAdherenceService adherenceService = new MedAdherenceService();
+        ReflectionTestUtils.setField(adherenceService, "medAdherenceDailyMapper", adherenceMapper.mapper());
+
+        lease = new StubLease();
+        meterRegistry = new SimpleMeterRegistry();
+        materializer = new MedRecordMaterializer();
+        ReflectionTestUtils.setField(materializer, "medPlanMapper", planMapper.mapper());
+        ReflectionTestUtils.setField(materializer, "medRecordMapper", recordMapper.mapper());
+        ReflectionTestUtils.setField(materializer, "checkpointMapper", checkpointMapper.mapper());
+        ReflectionTestUtils.setField(materializer, "medAdherenceService", adherenceService);
+        ReflectionTestUtils.setField(materializer, "jobLeaseService", lease);
+        ReflectionTestUtils.setField(materializer, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(materializer, "enabled", true);
+        ReflectionTestUtils.setField(materializer, "horizonDays", 2);
+        ReflectionTestUtils.setField(materializer, "chunkSize", 2);
+        ReflectionTestUtils.setField(materializer, "batchSize", 3);
+        ReflectionTestUtils.setField(materializer, "leaseSeconds", 300);
+        ReflectionTestUtils.setField(materializer, "pendingCheckSeconds", 60L);
+        materializer.init();
+    }
+
+    @Test
+    void skipsTheRunWhenAnotherNodeHoldsTheLease() {
+        lease.grants = 0;
+
+        materializer.materializeHorizon();
+
+        assertThat(planMapper.totalCalls()).isZero();
+        assertThat(recordMapper.totalCalls()).isZero();
+        assertThat(lease.released).isZero();
+    }
+
+    @Test
+    void renewsTheLeaseBeforeEachChunkAndStopsWhenItIsLost() {
+        // 获取 1 次 + 第一天的第 1、2 批续期，第 3 批续期失败
+        lease.grants = 3;
+
+        materializer.materializeHorizon();
+
+        assertThat(checkpointCalls).containsExactly(
+                "advance:" + TODAY.plusDays(1) + ":2:4",
+                "advance:" + TODAY.plusDays(1) + ":4:4");
+        assertThat(lease.released).isEqualTo(1);
+        // 第二天未开始
+        assertThat(planMapper.calls("selectActiveUserIds")).isEqualTo(2);
+    }
+
+    @Test
+    void countsOnlyInsertedRows() {
+        lease.grants = Integer.MAX_VALUE;
+        // 第一天已有 3 个点位（例如当天已打开过 /med/today）
+        existingRows = 3;
+
+        materializer.materializeHorizon();
+
+        assertThat(checkpointCalls).containsExactly(
+                "advance:" + TODAY.plusDays(1) + ":2:1",
+                "advance:" + TODAY.plusDays(1) + ":4:4",
+                "advance:" + TODAY.plusDays(1) + ":5:2",
+                "done:" + TODAY.plusDays(1),
+                "advance:" + TODAY.plusDays(2) + ":2:4",
+                "advance:" + TODAY.plusDays(2) + ":4:4",
+                "advance:" + TODAY.plusDays(2) + ":5:2",
+                "done:" + TODAY.plusDays(2));
+        assertThat(meterRegistry.get("med.materializer.rows").counter().count()).isEqualTo(2 * 10 - 3);
+        assertThat(lease.released).isEqualTo(1);
+    }
+
+    private static MedPlan plan(Long userId) {
+        MedPlan plan = new MedPlan();
+        plan.setId(userId * 10);
+        plan.setUserId(userId);
+        plan.setStartDate(TODAY);
+        plan.setEndDate(TODAY.plusDays(30));
+        plan.setRepeatType("daily");
+        plan.setRepeatDays(Collections.emptyList());
+        List<PlanTimes> times = new ArrayList<>();
+        for (LocalTime time : new LocalTime[]{LocalTime.of(8, 0), LocalTime.of(20, 0)}) {
+            PlanTimes planTime = new PlanTimes();
+            planTime.setTime(time);
+            times.add(planTime);
+        }
+        plan.setTimes(times);
+        return plan;
+    }
+
+    /**
+     * 前 grants 次获取或续期成功，之后视为已被其他节点接管
+     */
+    private static class StubLease extends JobLeaseService {
+        int grants;
+        int released;
+
+        @Override
+        public boolean tryAcquire(String jobName, int leaseSeconds) {
+            return grants-- > 0;
+        }
+
+        @Override
+        public void release(String jobName) {
+            released++;
+        }
+    }
+}
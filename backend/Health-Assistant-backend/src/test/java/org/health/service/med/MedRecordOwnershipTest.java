@@ -0,0 +1,191 @@
+package org.health.service.med;
+
+import org.health.MedTestDataset;
+import org.health.MysqlTestSupport;
+import org.health.common.ResultCode;
+import org.health.common.UserContext;
+import org.health.mapper.med.MedAdherenceDailyMapper;
+import org.health.mapper.med.MedRecordMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.sql.Date;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * 标记、补记记录的归属校验（在 UPDATE 语句中完成）：其他用户的记录、已删除计划的记录返回 NOT_FOUND 且不被修改，
+ * 本人未删除计划的记录正常更新
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class MedRecordOwnershipTest {
+
+    private static final long OWNER_ID = MedTestDataset.PRIVATE_USER_ID_START + 13;
+    private static final long OTHER_ID = MedTestDataset.PRIVATE_USER_ID_START + 14;
+    private static final long OWN_PLAN_ID = MedTestDataset.planId(OWNER_ID, 0);
+    private static final long DELETED_PLAN_ID = MedTestDataset.planId(OWNER_ID, 1);
+    private static final long OTHER_PLAN_ID = MedTestDataset.planId(OTHER_ID, 0);
+
+    private static LocalDate yesterday;
+
+    private JdbcTemplate jdbc;
+    private TransactionTemplate transactionTemplate;
+    private MedRecordService service;
+    private long ownRecordId;
+    private long deletedPlanRecordId;
+    private long otherRecordId;
+
+    @BeforeAll
+    static void seed() {
+        yesterday = MedTestDataset.seed().minusDays(1);
+        JdbcTemplate jdbc = MysqlTestSupport.jdbc();
+        for (long userId : new long[]{OWNER_ID, OTHER_ID}) {
+            jdbc.update("INSERT INTO `user` (id, username, password) VALUES (?, ?, 'x')", userId, "owner" + userId);
+        }
+        for (long planId : new long[]{OWN_PLAN_ID, DELETED_PLAN_ID, OTHER_PLAN_ID}) {
+            jdbc.update("INSERT INTO med_plan (id, user_id, name, dosage, start_date, end_date, repeat_type, "
+                            + "remind_enabled, deleted_at) VALUES (?, ?, '药品', '1片', ?, ?, 'daily', 1, ?)",
+                    planId, planId == OTHER_PLAN_ID ? OTHER_ID : OWNER_ID, Date.valueOf(yesterday),
+                    Date.valueOf(yesterday), planId == DELETED_PLAN_ID ? Timestamp.valueOf(yesterday.atStartOfDay()) : null);
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        jdbc = MysqlTestSupport.jdbc();
+        jdbc.update("DELETE FROM med_record WHERE plan_id IN (?, ?, ?)", OWN_PLAN_ID, DELETED_PLAN_ID, OTHER_PLAN_ID);
+        ownRecordId = insertTodo(OWNER_ID, OWN_PLAN_ID);
+        deletedPlanRecordId = insertTodo(OWNER_ID, DELETED_PLAN_ID);
+        otherRecordId = insertTodo(OTHER_ID, OTHER_PLAN_ID);
+
+        MedAdherenceService adherenceService = new MedAdherenceService();
+        ReflectionTestUtils.setField(adherenceService, "medAdherenceDailyMapper",
+                MysqlTestSupport.mapper(MedAdherenceDailyMapper.class));
+        ReflectionTestUtils.setField(adherenceService, "transactionManager", MysqlTestSupport.transactionManager());
+        adherenceService.init();
+
+        service = new MedRecordService();
+        ReflectionTestUtils.setField(service, "medRecordMapper", MysqlTestSupport.mapper(MedRecordMapper.class));
+        ReflectionTestUtils.setField(service, "medAdherenceService", adherenceService);
+        transactionTemplate = MysqlTestSupport.transactionTemplate();
+
+        UserContext.setUserId(OWNER_ID);
+    }
+
+    @AfterEach
+    void tearDown() {
+        UserContext.clear();
+    }
+
+    @Test
+    void batchMarkOnlyUpdatesOwnRecordsOfLivePlans() {
+        List<MedRecordService.MarkItem> items = Arrays.asList(
+                item(ownRecordId), item(otherRecordId), item(deletedPlanRecordId));
+
+        MedRecordService.MarkBatchResultVO result = transactionTemplate.execute(status -> service.markRecords(items));
+
+        assertThat(result.getSuccessCount()).isEqualTo(1);
+        Map<Long, Integer> codes = result.getList().stream().collect(Collectors.toMap(
+                MedRecordService.MarkItemResultVO::getRecordId, MedRecordService.MarkItemResultVO::getCode));
+        assertThat(codes.get(ownRecordId)).isEqualTo(ResultCode.SUCCESS.getCode());
+        assertThat(codes.get(otherRecordId)).isEqualTo(ResultCode.NOT_FOUND.getCode());
+        assertThat(codes.get(deletedPlanRecordId)).isEqualTo(ResultCode.NOT_FOUND.getCode());
+
+        assertThat(status(ownRecordId)).isEqualTo("taken");
+        assertUnchanged(otherRecordId);
+        assertUnchanged(deletedPlanRecordId);
+    }
+
+    @Test
+    void markRecordUpdatesOwnRecord() {
+        transactionTemplate.executeWithoutResult(status -> service.markRecord(ownRecordId, "taken"));
+
+        assertThat(status(ownRecordId)).isEqualTo("taken");
+        assertThat(jdbc.queryForObject("SELECT action_at FROM med_record WHERE id = ?", Timestamp.class, ownRecordId))
+                .isNotNull();
+    }
+
+    @Test
+    void markRecordRejectsForeignAndDeletedPlanRecords() {
+        for (long recordId : new long[]{otherRecordId, deletedPlanRecordId}) {
+            assertThatThrownBy(() -> transactionTemplate.executeWithoutResult(
+                    status -> service.markRecord(recordId, "taken")))
+                    .isInstanceOf(RuntimeException.class)
+                    .hasMessage(ResultCode.NOT_FOUND.getMsg());
+            assertUnchanged(recordId);
+        }
+    }
+
+    @Test
+    void adjustRecordUpdatesOwnRecord() {
+        LocalDateTime actionAt = yesterday.atTime(8, 10);
+
+        transactionTemplate.executeWithoutResult(status -> service.adjustRecord(ownRecordId, adjust(actionAt)));
+
+        assertThat(status(ownRecordId)).isEqualTo("taken");
+        assertThat(jdbc.queryForObject("SELECT action_at FROM med_record WHERE id = ?", Timestamp.class, ownRecordId)
+                .toLocalDateTime()).isEqualTo(actionAt);
+        assertThat(jdbc.queryForObject("SELECT note FROM med_record WHERE id = ?", String.class, ownRecordId))
+                .isEqualTo("补记");
+    }
+
+    @Test
+    void adjustRecordRejectsForeignAndDeletedPlanRecords() {
+        for (long recordId : new long[]{otherRecordId, deletedPlanRecordId}) {
+            assertThatThrownBy(() -> transactionTemplate.executeWithoutResult(
+                    status -> service.adjustRecord(recordId, adjust(yesterday.atTime(8, 10)))))
+                    .isInstanceOf(RuntimeException.class)
+                    .hasMessage(ResultCode.NOT_FOUND.getMsg());
+            assertUnchanged(recordId);
+        }
+    }
+
+    private long insertTodo(long userId, long planId) {
+        jdbc.update("INSERT INTO med_record (user_id, plan_id, `date`, `time`, `status`) VALUES (?, ?, ?, ?, 'todo')",
+                userId, planId, Date.valueOf(yesterday), Time.valueOf(LocalTime.of(8, 0)));
+        return jdbc.queryForObject("SELECT id FROM med_record WHERE plan_id = ?", Long.class, planId);
+    }
+
+    private String status(long recordId) {
+        return jdbc.queryForObject("SELECT `status` FROM med_record WHERE id = ?", String.class, recordId);
+    }
+
+    private void assertUnchanged(long recordId) {
+        Map<String, Object> row = jdbc.queryForMap(
+                "SELECT `status`, action_at, note FROM med_record WHERE id = ?", recordId);
+        assertThat(row.get("status")).isEqualTo("todo");
+        assertThat(row.get("action_at")).isNull();
+        assertThat(row.get("note")).isNull();
+    }
+
+    private static MedRecordService.AdjustRecordRequest adjust(LocalDateTime actionAt) {
+        MedRecordService.AdjustRecordRequest request = new MedRecordService.AdjustRecordRequest();
+        request.setStatus("taken");
+        request.setActionAt(actionAt);
+        request.setNote("补记");
+        return request;
+    }
+
+    private static MedRecordService.MarkItem item(long recordId) {
+        MedRecordService.MarkItem item = new MedRecordService.MarkItem();
+        item.setRecordId(recordId);
+        item.setStatus("taken");
+        return item;
+    }
+}
@@ -0,0 +1,145 @@
+package org.health.service.med;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.health.MedTestDataset;
+import org.health.MysqlTestSupport;
+import org.health.common.UserContext;
+import org.health.mapper.med.MedPlanMapper;
+import org.health.mapper.med.MedRecordMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * /med/records 深翻页基准：页码分页与游标分页的第1页、第500页（每页20条）
+ * 代价用会话的 Handler_read_* 计数（存储引擎读取的行数，与机器快慢无关）断言，
+ * 同时输出各自的耗时中位数。重度用户有一万多条记录（MedTestDataset）
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class MedRecordPagingBenchmarkTest {
+
+    private static final int SIZE = 20;
+    private static final int DEEP_PAGE = 500;
+    private static final int RUNS = 15;
+
+    private MedRecordService service;
+    private JdbcTemplate jdbc;
+
+    @BeforeAll
+    static void seed() {
+        MedTestDataset.seed();
+    }
+
+    @BeforeEach
+    void setUp() {
+        MedPlanCache cache = new MedPlanCache();
+        ReflectionTestUtils.setField(cache, "medPlanMapper", MysqlTestSupport.mapper(MedPlanMapper.class));
+        ReflectionTestUtils.setField(cache, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(cache, "maxSize", 100);
+        ReflectionTestUtils.setField(cache, "ttlSeconds", 300L);
+        cache.init();
+        MedRecordUserIdBackfill backfill = new MedRecordUserIdBackfill();
+        ReflectionTestUtils.setField(backfill, "finished", true);
+
+        service = new MedRecordService();
+        ReflectionTestUtils.setField(service, "medRecordMapper", MysqlTestSupport.mapper(MedRecordMapper.class));
+        ReflectionTestUtils.setField(service, "medPlanCache", cache);
+        ReflectionTestUtils.setField(service, "medRecordUserIdBackfill", backfill);
+        jdbc = MysqlTestSupport.jdbc();
+
+        UserContext.setUserId(MedTestDataset.HOT_USER_ID);
+    }
+
+    @AfterEach
+    void tearDown() {
+        UserContext.clear();
+    }
+
+    @Test
+    void cursorDeepPageCostsAboutTheSameAsTheFirstPage() {
+        String deepCursor = cursorBefore(DEEP_PAGE);
+        // 两种模式返回同一页
+        assertThat(ids(service.getRecordListByCursor(null, null, null, null, null, deepCursor, SIZE, false)))
+                .isEqualTo(ids(service.getRecordList(null, null, null, null, null, DEEP_PAGE, SIZE)));
+
+        long offsetFirst = rowsRead(() -> service.getRecordList(null, null, null, null, null, 1, SIZE));
+        long offsetDeep = rowsRead(() -> service.getRecordList(null, null, null, null, null, DEEP_PAGE, SIZE));
+        long cursorFirst = rowsRead(() -> service.getRecordListByCursor(null, null, null, null, null, null, SIZE, false));
+        long cursorDeep = rowsRead(() -> service.getRecordListByCursor(null, null, null, null, null, deepCursor, SIZE, false));
+
+        System.out.printf("/med/records 读取行数（每页%d条）: 页码第1页=%d, 页码第%d页=%d, 游标第1页=%d, 游标第%d页=%d%n",
+                SIZE, offsetFirst, DEEP_PAGE, offsetDeep, cursorFirst, DEEP_PAGE, cursorDeep);
+        System.out.printf("/med/records 耗时中位数（微秒）: 页码第1页=%d, 页码第%d页=%d, 游标第1页=%d, 游标第%d页=%d%n",
+                medianMicros(() -> service.getRecordList(null, null, null, null, null, 1, SIZE)),
+                DEEP_PAGE, medianMicros(() -> service.getRecordList(null, null, null, null, null, DEEP_PAGE, SIZE)),
+                medianMicros(() -> service.getRecordListByCursor(null, null, null, null, null, null, SIZE, false)),
+                DEEP_PAGE, medianMicros(() -> service.getRecordListByCursor(null, null, null, null, null, deepCursor,
+                        SIZE, false)));
+
+        // 页码分页要跳过前 499 页；游标分页从游标日期定位，只多读游标当天之前的点位（重度用户每天15条）
+        assertThat(offsetDeep - offsetFirst).isGreaterThanOrEqualTo((long) (DEEP_PAGE - 1) * SIZE);
+        assertThat(cursorDeep).isLessThanOrEqualTo(cursorFirst + 2 * 15);
+    }
+
+    /**
+     * 第 page 页的游标（第 page - 1 页最后一条记录的 date|time|id）
+     */
+    private String cursorBefore(int page) {
+        Map<String, Object> last = jdbc.queryForMap(
+                "SELECT `date`, `time`, id FROM med_record WHERE user_id = ? "
+                        + "ORDER BY `date` DESC, `time` ASC, id ASC LIMIT ?, 1",
+                MedTestDataset.HOT_USER_ID, (page - 1) * SIZE - 1);
+        String raw = last.get("date") + "|" + last.get("time").toString().substring(0, 5) + "|" + last.get("id");
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 在同一连接上执行并返回存储引擎读取的行数（扣除 SHOW STATUS 自身的读取）
+     */
+    private long rowsRead(Runnable query) {
+        query.run();
+        Long rows = MysqlTestSupport.transactionTemplate().execute(status -> {
+            jdbc.execute("FLUSH STATUS");
+            long before = handlerReads();
+            long baseline = handlerReads();
+            query.run();
+            long after = handlerReads();
+            return (after - baseline) - (baseline - before);
+        });
+        return rows;
+    }
+
+    private long handlerReads() {
+        return jdbc.queryForList("SHOW SESSION STATUS LIKE 'Handler_read%'").stream()
+                .mapToLong(row -> Long.parseLong(row.get("Value").toString()))
+                .sum();
+    }
+
+    private static long medianMicros(Runnable query) {
+        query.run();
+        long[] micros = new long[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            query.run();
+            micros[i] = (System.nanoTime() - start) / 1000;
+        }
+        Arrays.sort(micros);
+        return micros[RUNS / 2];
+    }
+
+    private static Object ids(MedRecordService.RecordListVO page) {
+        return page.getList().stream().map(MedRecordService.RecordVO::getId).collect(Collectors.toList());
+    }
+}
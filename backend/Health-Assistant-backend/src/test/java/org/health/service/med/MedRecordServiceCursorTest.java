@@ -0,0 +1,225 @@
+package org.health.service.med;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.health.common.UserContext;
+import org.health.entity.med.MedPlan;
+import org.health.entity.med.MedRecord;
+import org.health.exception.BusinessException;
+import org.health.mapper.med.MedPlanMapper;
+import org.health.mapper.med.MedRecordMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * 用药记录游标分页：游标编码/解码往返、翻页边界（同日同时刻的记录按ID续读，整页结束时没有空页），
+ * 以及查询范围（其他节点新建的计划立即可见，回填完成后不再包含 user_id 为空的行）
+ * 记录桩按 selectListAfter 的 SQL 条件和排序（date DESC, time ASC, id ASC）在内存中过滤
+ */
+class MedRecordServiceCursorTest {
+
+    private static final Long USER_ID = 7L;
+    private static final LocalDate DAY = LocalDate.of(2025, 3, 10);
+
+    private static final Comparator<MedRecord> LIST_ORDER = Comparator.comparing(MedRecord::getDate).reversed()
+            .thenComparing(MedRecord::getTime)
+            .thenComparing(MedRecord::getId);
+
+    private final List<MedRecord> records = new ArrayList<>();
+    private final List<Object[]> seeks = new ArrayList<>();
+    private final List<MedPlan> plans = new ArrayList<>();
+    private final List<Object[]> scopes = new ArrayList<>();
+    private MedRecordUserIdBackfill backfill;
+    private MedRecordService service;
+
+    @BeforeEach
+    void setUp() {
+        MedPlan plan = new MedPlan();
+        plan.setId(1L);
+        plan.setUserId(USER_ID);
+        plan.setName("阿司匹林");
+        plan.setDosage("1片");
+        plan.setStartDate(DAY.minusDays(30));
+        plan.setEndDate(DAY.plusDays(30));
+        plan.setRepeatType("daily");
+        plans.add(plan);
+        MapperStub<MedPlanMapper> planMapper = MapperStub.of(MedPlanMapper.class)
+                .on("selectWithSchedulesByUserId", args -> new ArrayList<>(plans))
+                .on("selectIdsByUserId", args -> plans.stream().map(MedPlan::getId).collect(Collectors.toList()));
+        MedPlanCache cache = new MedPlanCache();
+        ReflectionTestUtils.setField(cache, "medPlanMapper", planMapper.mapper());
+        ReflectionTestUtils.setField(cache, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(cache, "maxSize", 100);
+        ReflectionTestUtils.setField(cache, "ttlSeconds", 300L);
+        cache.init();
+
+        MapperStub<MedRecordMapper> recordMapper = MapperStub.of(MedRecordMapper.class)
+                .on("selectListAfter", args -> {
+                    scopes.add(new Object[]{args[1], args[2]});
+                    seeks.add(new Object[]{args[8], args[9], args[10]});
+                    return selectAfter((LocalDate) args[8], (LocalTime) args[9], (Long) args[10], (Integer) args[11]);
+                })
+                .on("countList", args -> records.size());
+
+        service = new MedRecordService();
+        ReflectionTestUtils.setField(service, "medRecordMapper", recordMapper.mapper());
+        ReflectionTestUtils.setField(service, "medPlanCache", cache);
+        backfill = new MedRecordUserIdBackfill();
+        ReflectionTestUtils.setField(service, "medRecordUserIdBackfill", backfill);
+
+        UserContext.setUserId(USER_ID);
+    }
+
+    @AfterEach
+    void tearDown() {
+        UserContext.clear();
+    }
+
+    @Test
+    void pagesCoverAllRecordsOnceInListOrder() {
+        // 同一天同一时刻有多条记录，翻页边界落在这些记录中间
+        long id = 100;
+        for (int day = 0; day < 3; day++) {
+            for (String time : new String[]{"08:00", "08:00", "08:00", "12:00", "20:00"}) {
+                addRecord(id--, DAY.minusDays(day), time);
+            }
+        }
+        List<Long> expected = records.stream().sorted(LIST_ORDER).map(MedRecord::getId).collect(Collectors.toList());
+
+        List<Long> seen = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            MedRecordService.RecordListVO page = service.getRecordListByCursor(null, null, null, null, null, cursor, 4, false);
+            page.getList().forEach(r -> seen.add(r.getId()));
+            cursor = page.getNextCursor();
+            assertThat(page.getHasMore()).isEqualTo(cursor != null);
+            pages++;
+        } while (cursor != null);
+
+        assertThat(seen).isEqualTo(expected);
+        assertThat(pages).isEqualTo(4);
+    }
+
+    @Test
+    void lastFullPageHasNoNextCursor() {
+        for (long id = 1; id <= 6; id++) {
+            addRecord(id, DAY, "08:00");
+        }
+
+        MedRecordService.RecordListVO first = service.getRecordListByCursor(null, null, null, null, null, null, 3, false);
+        MedRecordService.RecordListVO second = service.getRecordListByCursor(null, null, null, null, null,
+                first.getNextCursor(), 3, false);
+
+        assertThat(first.getHasMore()).isTrue();
+        assertThat(second.getList()).hasSize(3);
+        assertThat(second.getHasMore()).isFalse();
+        assertThat(second.getNextCursor()).isNull();
+    }
+
+    @Test
+    void cursorRoundTripsTheLastRecordOfThePage() {
+        addRecord(1L, DAY, "08:00");
+        addRecord(2L, DAY, "08:30");
+        addRecord(3L, DAY.minusDays(1), "08:00");
+
+        MedRecordService.RecordListVO first = service.getRecordListByCursor(null, null, null, null, null, null, 2, false);
+        service.getRecordListByCursor(null, null, null, null, null, first.getNextCursor(), 2, false);
+
+        // 第一页不带游标，第二页的游标解码为第一页最后一条的 (date, time, id)
+        assertThat(seeks.get(0)).containsExactly(null, null, null);
+        assertThat(seeks.get(1)).containsExactly(DAY, LocalTime.of(8, 30), 2L);
+    }
+
+    @Test
+    void totalOnlyWhenRequested() {
+        addRecord(1L, DAY, "08:00");
+        addRecord(2L, DAY, "09:00");
+
+        assertThat(service.getRecordListByCursor(null, null, null, null, null, null, 1, false).getTotal()).isNull();
+        assertThat(service.getRecordListByCursor(null, null, null, null, null, null, 1, true).getTotal()).isEqualTo(2);
+    }
+
+    @Test
+    void invalidCursorIsRejected() {
+        String[] cursors = {
+                "not base64!",
+                encode("2025-03-10|08:00"),
+                encode("2025-13-40|08:00|1"),
+                encode("2025-03-10|8am|1"),
+                encode("2025-03-10|08:00|abc")
+        };
+        for (String cursor : cursors) {
+            assertThatThrownBy(() -> service.getRecordListByCursor(null, null, null, null, null, cursor, 20, false))
+                    .isInstanceOf(BusinessException.class)
+                    .hasMessageContaining("cursor参数无效");
+        }
+    }
+
+    @Test
+    void planCreatedOnAnotherNodeIsInScopeBeforeCacheExpires() {
+        service.getRecordListByCursor(null, null, null, null, null, null, 20, false);
+
+        // 其他节点新建计划：本节点缓存未失效，数据库中已有新计划ID
+        MedPlan other = new MedPlan();
+        other.setId(2L);
+        other.setUserId(USER_ID);
+        other.setStartDate(DAY);
+        other.setEndDate(DAY);
+        other.setRepeatType("daily");
+        plans.add(other);
+        service.getRecordListByCursor(null, null, null, null, null, null, 20, false);
+
+        assertThat((Iterable<?>) scopes.get(0)[0]).containsExactly(1L);
+        assertThat((Iterable<?>) scopes.get(1)[0]).containsExactlyInAnyOrder(1L, 2L);
+    }
+
+    @Test
+    void nullUserIdRowsOnlyInScopeUntilBackfillFinishes() {
+        service.getRecordListByCursor(null, null, null, null, null, null, 20, false);
+        ReflectionTestUtils.setField(backfill, "finished", true);
+        service.getRecordListByCursor(null, null, null, null, null, null, 20, false);
+
+        assertThat(scopes.get(0)[1]).isEqualTo(true);
+        assertThat(scopes.get(1)[1]).isEqualTo(false);
+    }
+
+    private List<MedRecord> selectAfter(LocalDate cursorDate, LocalTime cursorTime, Long cursorId, int limit) {
+        return records.stream()
+                .filter(r -> cursorDate == null
+                        || r.getDate().isBefore(cursorDate)
+                        || (r.getDate().equals(cursorDate) && (r.getTime().isAfter(cursorTime)
+                            || (r.getTime().equals(cursorTime) && r.getId() > cursorId))))
+                .sorted(LIST_ORDER)
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    private void addRecord(long id, LocalDate date, String time) {
+        MedRecord record = new MedRecord();
+        record.setId(id);
+        record.setUserId(USER_ID);
+        record.setPlanId(1L);
+        record.setDate(date);
+        record.setTime(LocalTime.parse(time));
+        record.setStatus("pending");
+        records.add(record);
+    }
+
+    private static String encode(String raw) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+}
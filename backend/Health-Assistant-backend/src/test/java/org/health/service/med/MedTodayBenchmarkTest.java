@@ -0,0 +1,180 @@
+package org.health.service.med;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.health.MedTestDataset;
+import org.health.MysqlTestSupport;
+import org.health.common.UserContext;
+import org.health.entity.med.MedPlan;
+import org.health.entity.med.MedRecord;
+import org.health.entity.med.PlanRepeatDays;
+import org.health.entity.med.PlanTimes;
+import org.health.mapper.med.MedAdherenceDailyMapper;
+import org.health.mapper.med.MedMaterializeCheckpointMapper;
+import org.health.mapper.med.MedPlanMapper;
+import org.health.mapper.med.MedRecordMapper;
+import org.health.mapper.med.PlanRepeatDaysMapper;
+import org.health.mapper.med.PlanTimesMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.sql.Date;
+import java.sql.Time;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * /med/today 首次打开某天（需要生成点位）的耗时基准：10 个计划 × 4 个时间点
+ * 旧实现逐计划查询时间点、重复天数，再逐点位查询、插入（约 1 + 2×10 + 2×40 次往返）；
+ * 现实现为计划ID核对、排期加载、断点查询、一条批量插入、一条汇总、一次当天查询。
+ * 每次使用未生成过的日期，输出两者的 p50/p99
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class MedTodayBenchmarkTest {
+
+    private static final long USER_ID = MedTestDataset.PRIVATE_USER_ID_START + 1;
+    private static final int PLAN_COUNT = 10;
+    private static final LocalTime[] TIMES = {
+            LocalTime.of(7, 0), LocalTime.of(12, 0), LocalTime.of(18, 0), LocalTime.of(21, 30)};
+    private static final int RUNS = 100;
+
+    private static LocalDate today;
+
+    private MedTodayService service;
+    private JdbcTemplate jdbc;
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeAll
+    static void seed() {
+        today = MedTestDataset.seed();
+        JdbcTemplate jdbc = MysqlTestSupport.jdbc();
+        jdbc.update("INSERT INTO `user` (id, username, password) VALUES (?, ?, 'x')", USER_ID, "bench" + USER_ID);
+        for (int k = 0; k < PLAN_COUNT; k++) {
+            long planId = MedTestDataset.planId(USER_ID, k);
+            jdbc.update("INSERT INTO med_plan (id, user_id, name, dosage, start_date, end_date, repeat_type, "
+                            + "remind_enabled) VALUES (?, ?, ?, '1片', ?, ?, 'daily', 1)",
+                    planId, USER_ID, "药品" + planId, Date.valueOf(today), Date.valueOf(today.plusDays(3 * RUNS)));
+            for (int i = 0; i < TIMES.length; i++) {
+                jdbc.update("INSERT INTO plan_times (plan_id, `time`, sort_order) VALUES (?, ?, ?)",
+                        planId, Time.valueOf(TIMES[i]), i);
+            }
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        MedPlanCache cache = new MedPlanCache();
+        ReflectionTestUtils.setField(cache, "medPlanMapper", MysqlTestSupport.mapper(MedPlanMapper.class));
+        ReflectionTestUtils.setField(cache, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(cache, "maxSize", 100);
+        ReflectionTestUtils.setField(cache, "ttlSeconds", 300L);
+        cache.init();
+
+        MedRecordMaterializer materializer = new MedRecordMaterializer();
+        ReflectionTestUtils.setField(materializer, "medPlanMapper", MysqlTestSupport.mapper(MedPlanMapper.class));
+        ReflectionTestUtils.setField(materializer, "checkpointMapper",
+                MysqlTestSupport.mapper(MedMaterializeCheckpointMapper.class));
+        ReflectionTestUtils.setField(materializer, "medPlanCache", cache);
+        ReflectionTestUtils.setField(materializer, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(materializer, "pendingCheckSeconds", 60L);
+        materializer.init();
+
+        MedAdherenceService adherenceService = new MedAdherenceService();
+        ReflectionTestUtils.setField(adherenceService, "medAdherenceDailyMapper",
+                MysqlTestSupport.mapper(MedAdherenceDailyMapper.class));
+        ReflectionTestUtils.setField(adherenceService, "medPlanCache", cache);
+        ReflectionTestUtils.setField(adherenceService, "transactionManager", MysqlTestSupport.transactionManager());
+        adherenceService.init();
+
+        MedRecordUserIdBackfill backfill = new MedRecordUserIdBackfill();
+        ReflectionTestUtils.setField(backfill, "finished", true);
+
+        service = new MedTodayService();
+        ReflectionTestUtils.setField(service, "medRecordMapper", MysqlTestSupport.mapper(MedRecordMapper.class));
+        ReflectionTestUtils.setField(service, "medPlanCache", cache);
+        ReflectionTestUtils.setField(service, "medAdherenceService", adherenceService);
+        ReflectionTestUtils.setField(service, "medRecordMaterializer", materializer);
+        ReflectionTestUtils.setField(service, "medRecordUserIdBackfill", backfill);
+
+        jdbc = MysqlTestSupport.jdbc();
+        transactionTemplate = MysqlTestSupport.transactionTemplate();
+        UserContext.setUserId(USER_ID);
+    }
+
+    @AfterEach
+    void tearDown() {
+        UserContext.clear();
+    }
+
+    @Test
+    void firstOpenOfADayIsFasterThanPerSlotQueries() {
+        long[] legacy = new long[RUNS];
+        long[] batched = new long[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            LocalDate legacyDate = today.plusDays(1 + 2L * i);
+            LocalDate batchedDate = legacyDate.plusDays(1);
+
+            long start = System.nanoTime();
+            transactionTemplate.executeWithoutResult(status -> legacyEnsureRecords(legacyDate));
+            legacy[i] = (System.nanoTime() - start) / 1000;
+
+            start = System.nanoTime();
+            assertThat(transactionTemplate.execute(status -> service.getTodayRecords(batchedDate)).getList())
+                    .hasSize(PLAN_COUNT * TIMES.length);
+            batched[i] = (System.nanoTime() - start) / 1000;
+        }
+        // 两种方式生成的点位相同
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM med_record WHERE user_id = ?", Integer.class, USER_ID))
+                .isEqualTo(2 * RUNS * PLAN_COUNT * TIMES.length);
+
+        Arrays.sort(legacy);
+        Arrays.sort(batched);
+        System.out.printf("/med/today 首次打开（%d计划×%d时间点，微秒）: 逐点位 p50=%d p99=%d, 批量 p50=%d p99=%d%n",
+                PLAN_COUNT, TIMES.length, legacy[RUNS / 2], legacy[RUNS * 99 / 100],
+                batched[RUNS / 2], batched[RUNS * 99 / 100]);
+        assertThat(batched[RUNS / 2]).isLessThan(legacy[RUNS / 2]);
+    }
+
+    /**
+     * 旧实现：逐计划查询时间点、重复天数，逐点位查询是否存在再插入，最后读取当天记录
+     */
+    private void legacyEnsureRecords(LocalDate date) {
+        MedPlanMapper planMapper = MysqlTestSupport.mapper(MedPlanMapper.class);
+        PlanTimesMapper timesMapper = MysqlTestSupport.mapper(PlanTimesMapper.class);
+        PlanRepeatDaysMapper repeatDaysMapper = MysqlTestSupport.mapper(PlanRepeatDaysMapper.class);
+        MedRecordMapper recordMapper = MysqlTestSupport.mapper(MedRecordMapper.class);
+
+        List<Long> planIds = new ArrayList<>();
+        for (MedPlan plan : planMapper.selectByUserId(USER_ID, null, null)) {
+            planIds.add(plan.getId());
+            List<PlanTimes> times = timesMapper.selectByPlanId(plan.getId());
+            List<PlanRepeatDays> repeatDays = repeatDaysMapper.selectByPlanId(plan.getId());
+            if (!"daily".equals(plan.getRepeatType()) && repeatDays.isEmpty()) {
+                continue;
+            }
+            for (PlanTimes time : times) {
+                String hhmm = time.getTime().toString();
+                if (recordMapper.selectByPlanDateTime(plan.getId(), date, hhmm) == null) {
+                    MedRecord record = new MedRecord();
+                    record.setUserId(USER_ID);
+                    record.setPlanId(plan.getId());
+                    record.setDate(date);
+                    record.setTime(time.getTime());
+                    record.setStatus("todo");
+                    recordMapper.insert(record);
+                }
+            }
+        }
+        assertThat(recordMapper.selectByDate(USER_ID, planIds, false, date)).hasSize(PLAN_COUNT * TIMES.length);
+    }
+}
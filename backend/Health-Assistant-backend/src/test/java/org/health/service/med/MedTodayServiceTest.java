@@ -0,0 +1,157 @@
+package org.health.service.med;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.health.common.UserContext;
+import org.health.entity.med.MedPlan;
+import org.health.entity.med.MedRecord;
+import org.health.entity.med.PlanTimes;
+import org.health.mapper.med.MedAdherenceDailyMapper;
+import org.health.mapper.med.MedMaterializeCheckpointMapper;
+import org.health.mapper.med.MedPlanMapper;
+import org.health.mapper.med.MedRecordMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 今日点位生成的数据库往返次数：不随计划数量、时间点数量增长
+ * 一次计划ID核对、一次排期加载、一次预生成断点查询、一条批量插入、一条汇总、一次当天记录查询；
+ * 同一份计划再次打开当天时只有计划ID核对和当天记录查询
+ */
+class MedTodayServiceTest {
+
+    private static final Long USER_ID = 7L;
+    private static final LocalDate DAY = LocalDate.of(2025, 3, 10);
+
+    private final List<MedPlan> plans = new ArrayList<>();
+    private final List<List<MedRecord>> inserts = new ArrayList<>();
+    private MapperStub<MedPlanMapper> planMapper;
+    private MapperStub<MedRecordMapper> recordMapper;
+    private MapperStub<MedAdherenceDailyMapper> adherenceMapper;
+    private MapperStub<MedMaterializeCheckpointMapper> checkpointMapper;
+    private MedTodayService service;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        planMapper = MapperStub.of(MedPlanMapper.class)
+                .on("selectWithSchedulesByUserId", args -> new ArrayList<>(plans))
+                .on("selectIdsByUserId", args -> plans.stream().map(MedPlan::getId).collect(Collectors.toList()));
+        recordMapper = MapperStub.of(MedRecordMapper.class)
+                .on("batchInsertIgnore", args -> {
+                    inserts.add(new ArrayList<>((List<MedRecord>) args[0]));
+                    return ((List<MedRecord>) args[0]).size();
+                })
+                .on("selectByDate", args -> inserts.stream().flatMap(List::stream).collect(Collectors.toList()));
+        adherenceMapper = MapperStub.of(MedAdherenceDailyMapper.class)
+                .on("upsertByUsersDate", args -> 1);
+        // 夜间任务尚未预生成
+        checkpointMapper = MapperStub.of(MedMaterializeCheckpointMapper.class)
+                .on("selectByDate", args -> null);
+
+        MedPlanCache cache = new MedPlanCache();
+        ReflectionTestUtils.setField(cache, "medPlanMapper", planMapper.mapper());
+        ReflectionTestUtils.setField(cache, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(cache, "maxSize", 100);
+        ReflectionTestUtils.setField(cache, "ttlSeconds", 300L);
+        cache.init();
+
+        MedRecordMaterializer materializer = new MedRecordMaterializer();
+        ReflectionTestUtils.setField(materializer, "medPlanMapper", planMapper.mapper());
+        ReflectionTestUtils.setField(materializer, "checkpointMapper", checkpointMapper.mapper());
+        ReflectionTestUtils.setField(materializer, "medPlanCache", cache);
+        ReflectionTestUtils.setField(materializer, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(materializer, "pendingCheckSeconds", 60L);
+        materializer.init();
+
+        MedAdherenceService adherenceService = new MedAdherenceService();
+        ReflectionTestUtils.setField(adherenceService, "medAdherenceDailyMapper", adherenceMapper.mapper());
+        ReflectionTestUtils.setField(adherenceService, "medPlanCache", cache);
+
+        MedRecordUserIdBackfill backfill = new MedRecordUserIdBackfill();
+        ReflectionTestUtils.setField(backfill, "finished", true);
+
+        service = new MedTodayService();
+        ReflectionTestUtils.setField(service, "medRecordMapper", recordMapper.mapper());
+        ReflectionTestUtils.setField(service, "medPlanCache", cache);
+        ReflectionTestUtils.setField(service, "medAdherenceService", adherenceService);
+        ReflectionTestUtils.setField(service, "medRecordMaterializer", materializer);
+        ReflectionTestUtils.setField(service, "medRecordUserIdBackfill", backfill);
+
+        UserContext.setUserId(USER_ID);
+    }
+
+    @AfterEach
+    void tearDown() {
+        UserContext.clear();
+    }
+
+    @Test
+    void onePlanWithOneTime() {
+        addPlans(1, "08:00");
+
+        assertThat(service.getTodayRecords(DAY).getList()).hasSize(1);
+        assertThat(totalCalls()).isEqualTo(6);
+        assertThat(recordMapper.calls("batchInsertIgnore")).isEqualTo(1);
+    }
+
+    @Test
+    void tenPlansWithFourTimesUseTheSameRoundTrips() {
+        addPlans(10, "07:00", "12:00", "18:00", "21:30");
+
+        assertThat(service.getTodayRecords(DAY).getList()).hasSize(40);
+        assertThat(totalCalls()).isEqualTo(6);
+        assertThat(inserts).hasSize(1);
+        assertThat(inserts.get(0)).hasSize(40);
+    }
+
+    @Test
+    void reopeningTheSameDayOnlyReadsRecords() {
+        addPlans(10, "07:00", "12:00", "18:00", "21:30");
+        service.getTodayRecords(DAY);
+        int first = totalCalls();
+
+        service.getTodayRecords(DAY);
+
+        assertThat(totalCalls() - first).isEqualTo(2);
+        assertThat(planMapper.calls("selectIdsByUserId")).isEqualTo(2);
+        assertThat(recordMapper.calls("selectByDate")).isEqualTo(2);
+        assertThat(recordMapper.calls("batchInsertIgnore")).isEqualTo(1);
+    }
+
+    private int totalCalls() {
+        return planMapper.totalCalls() + recordMapper.totalCalls() + adherenceMapper.totalCalls()
+                + checkpointMapper.totalCalls();
+    }
+
+    private void addPlans(int count, String... times) {
+        for (long id = 1; id <= count; id++) {
+            MedPlan plan = new MedPlan();
+            plan.setId(id);
+            plan.setUserId(USER_ID);
+            plan.setName("药品" + id);
+            plan.setDosage("1片");
+            plan.setStartDate(DAY.minusDays(1));
+            plan.setEndDate(DAY.plusDays(30));
+            plan.setRepeatType("daily");
+            List<PlanTimes> planTimes = new ArrayList<>();
+            for (String time : times) {
+                PlanTimes planTime = new PlanTimes();
+                planTime.setPlanId(id);
+                planTime.setTime(LocalTime.parse(time));
+                planTimes.add(planTime);
+            }
+            plan.setTimes(planTimes);
+            plans.add(plan);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package org.health.service.med;
+
+import org.health.entity.med.MedPlan;
+import org.health.entity.med.PlanRepeatDays;
+import org.health.entity.med.PlanTimes;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * PlanSchedule 判定基准：10000 个计划（一半每日、一半每周一三五）× 30 天
+ * 与编译前的判定方式（比较 repeatType 字符串、逐个扫描 List&lt;PlanRepeatDays&gt;）比较结果、吞吐和分配字节数；
+ * 编译后的判定与点位遍历在预热后不分配对象
+ */
+class PlanScheduleBenchmarkTest {
+
+    private static final int PLAN_COUNT = 10_000;
+    private static final int DAYS = 30;
+    private static final int ROUNDS = 20;
+    private static final LocalDate FROM = LocalDate.of(2025, 3, 1);
+
+    private final com.sun.management.ThreadMXBean threadBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    @Test
+    void compiledScheduleMatchesAndDoesNotAllocate() {
+        List<MedPlan> plans = new ArrayList<>(PLAN_COUNT);
+        List<PlanSchedule> schedules = new ArrayList<>(PLAN_COUNT);
+        for (int i = 0; i < PLAN_COUNT; i++) {
+            MedPlan plan = plan(i);
+            plans.add(plan);
+            schedules.add(PlanSchedule.compile(plan));
+        }
+        assertThat(compiledCount(schedules)).isEqualTo(legacyCount(plans));
+
+        // 预热后取各轮中的最好成绩
+        long legacyNanos = Long.MAX_VALUE;
+        long compiledNanos = Long.MAX_VALUE;
+        long legacyBytes = 0;
+        long compiledBytes = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            legacyCount(plans);
+            legacyNanos = Math.min(legacyNanos, System.nanoTime() - start);
+            legacyBytes = allocatedBytes() - bytes;
+
+            bytes = allocatedBytes();
+            start = System.nanoTime();
+            compiledCount(schedules);
+            compiledNanos = Math.min(compiledNanos, System.nanoTime() - start);
+            compiledBytes = Math.min(compiledBytes, allocatedBytes() - bytes);
+        }
+
+        SlotCounter counter = new SlotCounter();
+        LocalDate to = FROM.plusDays(DAYS - 1);
+        long bytes = allocatedBytes();
+        for (int round = 0; round < ROUNDS; round++) {
+            counter.slots = 0;
+            for (PlanSchedule schedule : schedules) {
+                schedule.slotsBetween(FROM, to, counter);
+            }
+        }
+        long slotBytes = (allocatedBytes() - bytes) / ROUNDS;
+
+        long checks = (long) PLAN_COUNT * DAYS;
+        System.out.printf("计划判定（%d计划×%d天）: 编译前 %.1f 次/微秒、每轮分配 %d 字节；编译后 %.1f 次/微秒、每轮分配 %d 字节；"
+                        + "点位遍历每轮分配 %d 字节（%d 个点位）%n",
+                PLAN_COUNT, DAYS, checks * 1000.0 / legacyNanos, legacyBytes,
+                checks * 1000.0 / compiledNanos, compiledBytes, slotBytes, counter.slots);
+        // 只允许计时、统计本身的少量分配
+        assertThat(compiledBytes).isLessThan(1024);
+        assertThat(slotBytes).isLessThan(1024);
+        assertThat(compiledNanos).isLessThan(legacyNanos);
+    }
+
+    private static int compiledCount(List<PlanSchedule> schedules) {
+        long first = FROM.toEpochDay();
+        int count = 0;
+        for (PlanSchedule schedule : schedules) {
+            for (long day = first; day < first + DAYS; day++) {
+                if (schedule.firesOnEpochDay(day)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 编译前的判定方式
+     */
+    private static int legacyCount(List<MedPlan> plans) {
+        int count = 0;
+        for (MedPlan plan : plans) {
+            for (int d = 0; d < DAYS; d++) {
+                LocalDate date = FROM.plusDays(d);
+                if (date.isBefore(plan.getStartDate()) || date.isAfter(plan.getEndDate())) {
+                    continue;
+                }
+                if ("daily".equals(plan.getRepeatType())) {
+                    count++;
+                } else if ("weekly".equals(plan.getRepeatType()) && plan.getRepeatDays() != null) {
+                    int dayOfWeek = date.getDayOfWeek().getValue() % 7;
+                    if (plan.getRepeatDays().stream().anyMatch(day -> day.getDayOfWeek() == dayOfWeek)) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    private long allocatedBytes() {
+        return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static MedPlan plan(int i) {
+        MedPlan plan = new MedPlan();
+        plan.setId((long) i);
+        plan.setUserId((long) i);
+        // 部分计划在区间中途开始或结束
+        plan.setStartDate(FROM.minusDays(10).plusDays(i % 20));
+        plan.setEndDate(FROM.plusDays(20 + i % 20));
+        boolean weekly = i % 2 == 1;
+        plan.setRepeatType(weekly ? "weekly" : "daily");
+        List<PlanRepeatDays> repeatDays = new ArrayList<>();
+        if (weekly) {
+            for (int dayOfWeek : new int[]{1, 3, 5}) {
+                PlanRepeatDays repeatDay = new PlanRepeatDays();
+                repeatDay.setDayOfWeek(dayOfWeek);
+                repeatDays.add(repeatDay);
+            }
+        }
+        plan.setRepeatDays(repeatDays);
+        List<PlanTimes> times = new ArrayList<>();
+        for (LocalTime time : new LocalTime[]{LocalTime.of(8, 0), LocalTime.of(20, 0)}) {
+            PlanTimes planTime = new PlanTimes();
+            planTime.setTime(time);
+            times.add(planTime);
+        }
+        plan.setTimes(times);
+        return plan;
+    }
+
+    private static class SlotCounter implements PlanSchedule.SlotVisitor {
+        long slots;
+
+        @Override
+        public void visit(long epochDay, int timeIndex) {
+            slots++;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package org.health.service.med;
+
+import org.health.entity.med.MedPlan;
+import org.health.entity.med.PlanRepeatDays;
+import org.health.entity.med.PlanTimes;
+import org.junit.jupiter.api.Test;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * PlanSchedule 星期掩码和点位遍历
+ */
+class PlanScheduleTest {
+
+    // 2025-01-05 是周日
+    private static final LocalDate SUNDAY = LocalDate.of(2025, 1, 5);
+
+    @Test
+    void dailyFiresEveryDayWithinRange() {
+        PlanSchedule schedule = PlanSchedule.compile(plan("daily", SUNDAY, SUNDAY.plusDays(6), List.of(), "08:00"));
+
+        for (int i = 0; i < 7; i++) {
+            assertThat(schedule.firesOn(SUNDAY.plusDays(i))).isTrue();
+        }
+        assertThat(schedule.firesOn(SUNDAY.minusDays(1))).isFalse();
+        assertThat(schedule.firesOn(SUNDAY.plusDays(7))).isFalse();
+    }
+
+    @Test
+    void weeklyMaskMatchesRepeatDays() {
+        // 0=周日，1=周一，6=周六
+        PlanSchedule schedule = PlanSchedule.compile(
+                plan("weekly", SUNDAY.minusYears(1), SUNDAY.plusYears(1), List.of(0, 1, 6), "08:00"));
+
+        for (int i = 0; i < 14; i++) {
+            LocalDate date = SUNDAY.plusDays(i);
+            DayOfWeek dayOfWeek = date.getDayOfWeek();
+            boolean expected = dayOfWeek == DayOfWeek.SUNDAY || dayOfWeek == DayOfWeek.MONDAY
+                    || dayOfWeek == DayOfWeek.SATURDAY;
+            assertThat(schedule.firesOn(date)).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    void weekdayMaskHandlesDatesBeforeEpoch() {
+        // 1969-12-28 是周日（epochDay 为负数）
+        LocalDate sunday = LocalDate.of(1969, 12, 28);
+        PlanSchedule schedule = PlanSchedule.compile(plan("weekly", sunday, sunday.plusDays(13), List.of(0), "08:00"));
+
+        assertThat(schedule.firesOn(sunday)).isTrue();
+        assertThat(schedule.firesOn(sunday.plusDays(1))).isFalse();
+        assertThat(schedule.firesOn(sunday.plusDays(7))).isTrue();
+    }
+
+    @Test
+    void weeklyWithoutRepeatDaysNeverFires() {
+        PlanSchedule schedule = PlanSchedule.compile(plan("weekly", SUNDAY, SUNDAY.plusDays(6), null, "08:00"));
+
+        assertThat(schedule.slotsBetween(SUNDAY, SUNDAY.plusDays(6), (day, index) -> { })).isZero();
+    }
+
+    @Test
+    void timesAreSortedAndDeduplicated() {
+        PlanSchedule schedule = PlanSchedule.compile(
+                plan("daily", SUNDAY, SUNDAY, List.of(), "20:30", "08:00", "12:15", "08:00"));
+
+        assertThat(schedule.timeCount()).isEqualTo(3);
+        assertThat(schedule.timeAt(0)).isEqualTo(LocalTime.of(8, 0));
+        assertThat(schedule.minuteAt(1)).isEqualTo(12 * 60 + 15);
+        assertThat(schedule.timeAt(2)).isEqualTo(LocalTime.of(20, 30));
+        assertThat(schedule.indexOfTime(LocalTime.of(12, 15))).isEqualTo(1);
+        assertThat(schedule.indexOfTime(LocalTime.of(12, 16))).isLessThan(0);
+        assertThat(schedule.indexOfTime(LocalTime.of(12, 15, 30))).isLessThan(0);
+    }
+
+    @Test
+    void slotsBetweenVisitsEachFiringDayAndTimeInOrder() {
+        // 周一、周三，区间内共两周
+        PlanSchedule schedule = PlanSchedule.compile(
+                plan("weekly", SUNDAY, SUNDAY.plusDays(13), List.of(1, 3), "08:00", "20:00"));
+        List<String> visited = new ArrayList<>();
+
+        int count = schedule.slotsBetween(SUNDAY, SUNDAY.plusDays(13),
+                (day, index) -> visited.add(LocalDate.ofEpochDay(day) + " " + schedule.timeAt(index)));
+
+        assertThat(count).isEqualTo(8);
+        assertThat(visited).containsExactly(
+                "2025-01-06 08:00", "2025-01-06 20:00",
+                "2025-01-08 08:00", "2025-01-08 20:00",
+                "2025-01-13 08:00", "2025-01-13 20:00",
+                "2025-01-15 08:00", "2025-01-15 20:00");
+    }
+
+    @Test
+    void slotsBetweenClipsToPlanRange() {
+        PlanSchedule schedule = PlanSchedule.compile(
+                plan("daily", SUNDAY.plusDays(2), SUNDAY.plusDays(3), List.of(), "09:00"));
+        List<Long> days = new ArrayList<>();
+
+        int count = schedule.slotsBetween(SUNDAY, SUNDAY.plusDays(6), (day, index) -> days.add(day));
+
+        assertThat(count).isEqualTo(2);
+        assertThat(days).containsExactly(SUNDAY.plusDays(2).toEpochDay(), SUNDAY.plusDays(3).toEpochDay());
+        assertThat(schedule.slotsBetween(SUNDAY.plusDays(4), SUNDAY.plusDays(6), (day, index) -> { })).isZero();
+    }
+
+    @Test
+    void slotsBetweenWithSingleDayRange() {
+        PlanSchedule schedule = PlanSchedule.compile(plan("daily", SUNDAY, SUNDAY.plusDays(6), List.of(), "07:00", "19:00"));
+
+        assertThat(schedule.slotsBetween(SUNDAY.plusDays(6), SUNDAY.plusDays(6), (day, index) -> { })).isEqualTo(2);
+        assertThat(schedule.slotsBetween(SUNDAY.plusDays(7), SUNDAY.plusDays(7), (day, index) -> { })).isZero();
+    }
+
+    private static MedPlan plan(String repeatType, LocalDate start, LocalDate end, List<Integer> repeatDays,
+                                String... times) {
+        MedPlan plan = new MedPlan();
+        plan.setId(1L);
+        plan.setUserId(2L);
+        plan.setRepeatType(repeatType);
+        plan.setStartDate(start);
+        plan.setEndDate(end);
+        List<PlanTimes> planTimes = new ArrayList<>();
+        for (String time : times) {
+            PlanTimes planTime = new PlanTimes();
+            planTime.setTime(LocalTime.parse(time));
+            planTimes.add(planTime);
+        }
+        plan.setTimes(planTimes);
+        if (repeatDays != null) {
+            List<PlanRepeatDays> days = new ArrayList<>();
+            for (Integer dayOfWeek : repeatDays) {
+                PlanRepeatDays day = new PlanRepeatDays();
+                day.setDayOfWeek(dayOfWeek);
+                days.add(day);
+            }
+            plan.setRepeatDays(days);
+        }
+        return plan;
+    }
+}
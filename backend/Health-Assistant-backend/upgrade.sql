@@ -0,0 +1,131 @@
+-- ============================================
+-- 健康助手数据库升级脚本
+-- 用于已按旧版 health.sql 建库的环境，新建库直接执行 health.sql 即可
+-- 各段按顺序执行一次
+-- ============================================
+
+USE `health_assistant`;
+
+-- ============================================
+-- 1. 用药计划/记录复合索引
+-- ============================================
+
+-- med_plan：按用户查未删除计划、夜间任务按用户分批扫描（覆盖索引），判断计划变动
+-- 先建新索引再删旧索引，保证外键 fk_med_plan_user 始终有可用索引
+ALTER TABLE `med_plan`
+    ADD KEY `idx_user_deleted_dates` (`user_id`, `deleted_at`, `start_date`, `end_date`),
+    ADD KEY `idx_user_updated` (`user_id`, `updated_at`);
+ALTER TABLE `med_plan`
+    DROP KEY `idx_user_id`;
+
+-- med_record：按计划+状态过滤/统计；idx_plan_id 是 uk_plan_date_time 的前缀，移除
+ALTER TABLE `med_record`
+    ADD KEY `idx_plan_status_date` (`plan_id`, `status`, `date`);
+ALTER TABLE `med_record`
+    DROP KEY `idx_plan_id`;
+
+-- ============================================
+-- 2. med_record 冗余 user_id
+-- ============================================
+
+-- 新版本写入点位时直接带上 user_id；存量记录由应用内的回填任务（med.backfill.*）按ID区间每次回填一批，
+-- 回填完成前按用户查询时 user_id 为空的记录由 plan_id 限定归属，不会从今日点位/记录列表中消失；
+-- 数据量较小时也可以直接执行下方注释掉的 UPDATE 一次性回填
+ALTER TABLE `med_record`
+    ADD COLUMN `user_id` BIGINT UNSIGNED DEFAULT NULL COMMENT '用户ID（冗余自med_plan，按用户查询无需关联计划表）' AFTER `id`,
+    ADD KEY `idx_user_date_time` (`user_id`, `date`, `time`),
+    ADD KEY `idx_user_status_date` (`user_id`, `status`, `date`);
+
+-- UPDATE `med_record` r JOIN `med_plan` p ON r.plan_id = p.id SET r.user_id = p.user_id WHERE r.user_id IS NULL;
+
+-- ============================================
+-- 3. 服药依从性日汇总表
+-- ============================================
+
+CREATE TABLE IF NOT EXISTS `med_adherence_daily` (
+    `user_id` BIGINT UNSIGNED NOT NULL COMMENT '用户ID',
+    `plan_id` BIGINT UNSIGNED NOT NULL COMMENT '计划ID',
+    `date` DATE NOT NULL COMMENT '日期',
+    `taken_count` INT UNSIGNED NOT NULL DEFAULT 0 COMMENT '已服用点位数',
+    `missed_count` INT UNSIGNED NOT NULL DEFAULT 0 COMMENT '未服点位数',
+    `todo_count` INT UNSIGNED NOT NULL DEFAULT 0 COMMENT '待打卡点位数',
+    `updated_at` DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+    PRIMARY KEY (`plan_id`, `date`),
+    KEY `idx_user_date` (`user_id`, `date`),
+    CONSTRAINT `fk_med_adherence_plan` FOREIGN KEY (`plan_id`) REFERENCES `med_plan` (`id`) ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='服药依从性日汇总表';
+
+-- 由存量点位记录初始化汇总（之后由应用增量维护）
+INSERT INTO `med_adherence_daily` (user_id, plan_id, `date`, taken_count, missed_count, todo_count, updated_at)
+SELECT p.user_id, r.plan_id, r.`date`,
+       SUM(r.`status` = 'taken'), SUM(r.`status` = 'missed'), SUM(r.`status` = 'todo'), NOW()
+FROM `med_record` r
+JOIN `med_plan` p ON r.plan_id = p.id
+GROUP BY r.plan_id, r.`date`
+ON DUPLICATE KEY UPDATE
+    taken_count = VALUES(taken_count),
+    missed_count = VALUES(missed_count),
+    todo_count = VALUES(todo_count),
+    updated_at = NOW();
+
+-- ============================================
+-- 4. 任务租约表
+-- ============================================
+
+CREATE TABLE IF NOT EXISTS `job_lease` (
+    `job_name` VARCHAR(100) NOT NULL COMMENT '任务名称',
+    `owner` VARCHAR(150) NOT NULL COMMENT '当前持有者（节点标识）',
+    `lease_until` DATETIME NOT NULL COMMENT '租约到期时间',
+    `updated_at` DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+    PRIMARY KEY (`job_name`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='任务租约表';
+
+-- ============================================
+-- 5. AI对话记录本地保存
+-- ============================================
+
+-- ai_session：关联DIFY会话，补齐实体类已使用的标题、软删除字段
+ALTER TABLE `ai_session`
+    ADD COLUMN `conversation_id` VARCHAR(64) DEFAULT NULL COMMENT 'DIFY会话ID' AFTER `user_id`,
+    ADD COLUMN `title` VARCHAR(100) DEFAULT NULL COMMENT '会话标题' AFTER `conversation_id`,
+    ADD COLUMN `full_history` TINYINT(1) NOT NULL DEFAULT 0 COMMENT '本地是否保存了完整对话记录：1-是（可直接从本地读取历史），0-否（需从DIFY读取）' AFTER `title`,
+    ADD COLUMN `pending_turns` INT NOT NULL DEFAULT 0 COMMENT '已提交但尚未写入本地的对话轮数（大于0时历史消息从DIFY读取）' AFTER `full_history`,
+    ADD COLUMN `deleted_at` DATETIME DEFAULT NULL COMMENT '软删除时间' AFTER `updated_at`,
+    ADD UNIQUE KEY `uk_user_conversation` (`user_id`, `conversation_id`);
+ALTER TABLE `ai_session` DROP INDEX `idx_user_id`;
+
+-- ai_message：关联DIFY消息，补齐实体类已使用的安全提示字段；先建新索引再删旧索引
+ALTER TABLE `ai_message`
+    ADD COLUMN `dify_message_id` VARCHAR(64) DEFAULT NULL COMMENT 'DIFY消息ID（同一轮的提问和回答相同）' AFTER `session_id`,
+    ADD COLUMN `safety_hint` VARCHAR(500) DEFAULT NULL COMMENT '安全提示（AI回复时可能包含）' AFTER `input_type`,
+    ADD COLUMN `inputs` JSON DEFAULT NULL COMMENT '提问时传入的变量（JSON对象，仅user消息）' AFTER `safety_hint`,
+    ADD COLUMN `message_files` JSON DEFAULT NULL COMMENT '回答关联的文件（JSON数组，仅assistant消息）' AFTER `inputs`,
+    ADD COLUMN `retriever_resources` JSON DEFAULT NULL COMMENT '回答引用的知识库片段（JSON数组，仅assistant消息）' AFTER `message_files`,
+    MODIFY COLUMN `content` MEDIUMTEXT NOT NULL COMMENT '消息内容',
+    ADD UNIQUE KEY `uk_session_message_role` (`session_id`, `dify_message_id`, `role`),
+    ADD KEY `idx_session_role_id` (`session_id`, `role`, `id`);
+ALTER TABLE `ai_message` DROP INDEX `idx_session_id`;
+
+-- ============================================
+-- 6. 记录列表排序索引（需要MySQL 8.0，5.7会忽略DESC）
+-- ============================================
+
+-- 记录列表按 date DESC, time ASC, id ASC 排序，索引列方向与排序一致时分页不需要filesort；
+-- 先建新索引再删旧索引，旧索引是新索引的前缀
+ALTER TABLE `med_record`
+    ADD KEY `idx_user_date_time_id` (`user_id`, `date` DESC, `time`, `id`),
+    ADD KEY `idx_user_status_date_time_id` (`user_id`, `status`, `date` DESC, `time`, `id`);
+ALTER TABLE `med_record`
+    DROP INDEX `idx_user_date_time`,
+    DROP INDEX `idx_user_status_date`;
+
+-- ============================================
+-- 7. AI会话未落库登记的过期清理
+-- ============================================
+
+-- 节点在登记未落库对话后、写入前宕机时 pending_turns 不会再被扣减，
+-- 应用按 pending_since 找出长时间未变化的登记，标记为不完整并清零
+ALTER TABLE `ai_session`
+    ADD COLUMN `pending_since` DATETIME DEFAULT NULL COMMENT '未落库轮数最后一次登记或扣减的时间（归零时为空，长时间未变化视为已丢失）' AFTER `pending_turns`,
+    ADD KEY `idx_pending_since` (`pending_since`);
+UPDATE `ai_session` SET `pending_since` = NOW() WHERE `pending_turns` > 0;